@@ -2,6 +2,9 @@ plugins {
     alias(libs.plugins.android.application)
 }
 
+// 需要 Robolectric 的测试类，不在默认的单元测试任务里跑
+val robolectricTests = "**/HistoryDatabaseLatencyTest*"
+
 android {
     namespace = "com.example.browser"
     compileSdk {
@@ -31,6 +34,29 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        unitTests.all {
+            // 固定堆上限，RecordFileTest 在此限制下加载 20 万条记录
+            it.maxHeapSize = "64m"
+            // Robolectric 要加载整个 Android 框架，64m 放不下，由下面的 historyDatabaseTest 单独跑
+            it.exclude(robolectricTests)
+        }
+    }
+}
+
+// 跑在 JVM 上的 SQLite 测试（Robolectric）：10 万条历史记录下的查询计划和耗时
+// 运行：./gradlew :app:historyDatabaseTest
+val historyDatabaseTest = tasks.register<Test>("historyDatabaseTest") {
+    description = "Runs the Robolectric HistoryDatabase tests with a larger heap."
+    group = "verification"
+    val unitTest = tasks.named<Test>("testDebugUnitTest").get()
+    testClassesDirs = unitTest.testClassesDirs
+    classpath = unitTest.classpath
+    include(robolectricTests)
+    maxHeapSize = "1g"
+}
+tasks.named("check") {
+    dependsOn(historyDatabaseTest)
 }
 
 dependencies {
@@ -38,7 +64,12 @@ dependencies {
     implementation(libs.material)
     implementation(libs.activity)
     implementation(libs.constraintlayout)
+    implementation(libs.recyclerview)
     testImplementation(libs.junit)
+    // 本地单元测试里 android.jar 的 org.json 只是桩实现
+    testImplementation(libs.json)
+    // HistoryDatabase 的 JVM 测试用 Robolectric 提供 SQLite
+    testImplementation(libs.robolectric)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
     implementation(libs.okhttp)
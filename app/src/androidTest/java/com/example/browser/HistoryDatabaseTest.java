@@ -0,0 +1,175 @@
+package com.example.browser;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 10 万条历史记录下的查询延迟，需要在设备或模拟器上运行
+ * 构建时跑的是 app/src/test 里的 HistoryDatabaseLatencyTest，这里是真机上的补充
+ */
+@RunWith(AndroidJUnit4.class)
+public class HistoryDatabaseTest {
+
+    private static final String DB_NAME = "history_test.db";
+    private static final int ROWS = 100_000;
+    private static final long BASE_TIME = 1_700_000_000_000L;
+
+    private Context context;
+    private HistoryDatabase db;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        db = new HistoryDatabase(context, DB_NAME);
+
+        List<HistoryItem> batch = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            batch.add(new HistoryItem("https://site" + (i % 500) + ".example.com/page/" + i,
+                    "Article " + i + " 新闻", BASE_TIME + i * 1000L));
+            if (batch.size() == 5000) {
+                db.recordVisits(batch);
+                batch.clear();
+            }
+        }
+        db.recordVisits(batch);
+        assertEquals(ROWS, db.count());
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void searchUsesFullTextIndex() {
+        db.search("warmup", 1);
+
+        long start = System.nanoTime();
+        List<HistoryItem> results = db.search("site42 page", 50);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(50, results.size());
+        for (HistoryItem item : results) {
+            assertTrue(item.url.contains("site42"));
+        }
+        for (int i = 1; i < results.size(); i++) {
+            assertTrue(results.get(i - 1).timestamp >= results.get(i).timestamp);
+        }
+        assertTrue("search took " + elapsedMs + "ms", elapsedMs < 100);
+    }
+
+    @Test
+    public void searchMatchesChineseInsideTitles() {
+        db.recordVisit("https://weather.example.com/beijing", "北京天气预报", BASE_TIME + ROWS * 1000L);
+
+        // unicode61 把整句中文当成一个词，FTS 前缀匹配找不到词中间的部分
+        List<HistoryItem> results = db.search("天气", 10);
+        assertEquals(1, results.size());
+        assertEquals("北京天气预报", results.get(0).title);
+        assertEquals(1, db.search("天气 beijing", 10).size());
+        assertEquals(0, db.search("天气 上海", 10).size());
+        assertEquals(10, db.search("新闻", 10).size());
+    }
+
+    @Test
+    public void pagesByTimeWithoutScanning() {
+        db.queryBefore(Long.MAX_VALUE, Long.MAX_VALUE, 1);
+
+        long beforeTimestamp = Long.MAX_VALUE;
+        long beforeId = Long.MAX_VALUE;
+        long expected = BASE_TIME + (ROWS - 1) * 1000L;
+        for (int page = 0; page < 20; page++) {
+            long start = System.nanoTime();
+            List<HistoryItem> items = db.queryBefore(beforeTimestamp, beforeId, 100);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            assertTrue("page took " + elapsedMs + "ms", elapsedMs < 20);
+
+            assertEquals(100, items.size());
+            for (HistoryItem item : items) {
+                assertEquals(expected, item.timestamp);
+                expected -= 1000L;
+            }
+            HistoryItem last = items.get(items.size() - 1);
+            beforeTimestamp = last.timestamp;
+            beforeId = last.id;
+        }
+
+        List<HistoryItem> range = db.queryRange(BASE_TIME, BASE_TIME + 10_000L, 100);
+        assertEquals(10, range.size());
+    }
+
+    @Test
+    public void deletesByRangeAndUrl() {
+        long start = System.nanoTime();
+        int deleted = db.deleteRange(BASE_TIME, BASE_TIME + 1000 * 1000L);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(1000, deleted);
+        assertTrue("delete took " + elapsedMs + "ms", elapsedMs < 500);
+
+        assertEquals(1, db.deleteUrl("HTTPS://SITE7.example.com/page/5007/"));
+        assertEquals(ROWS - 1001, db.count());
+        for (HistoryItem item : db.search("Article 5007", 50)) {
+            assertFalse(item.url.endsWith("/page/5007"));
+        }
+    }
+
+    @Test
+    public void compactionMergesVisitsAndAppliesCaps() {
+        // 同一URL再访问两次，规范化后相同
+        db.recordVisit("https://site1.example.com/page/99501/", "Article 99501", BASE_TIME + ROWS * 1000L);
+        db.recordVisit("HTTPS://site1.example.com/page/99501#top", "Article 99501", BASE_TIME + ROWS * 1000L + 1);
+
+        long now = BASE_TIME + ROWS * 1000L + 2;
+        HistoryRetention policy = new HistoryRetention(50_000, 90_000 * 1000L, 150);
+        HistoryDatabase.CompactionStats stats = db.compact(policy, now);
+
+        assertEquals(ROWS + 2, stats.entriesBefore);
+        assertEquals(2, stats.merged);
+        assertTrue(stats.expired > 0);
+        assertTrue(stats.overDomainCap > 0);
+        assertEquals(stats.entriesBefore - stats.entriesAfter, stats.entriesReclaimed());
+        assertTrue(stats.bytesReclaimed() > 0);
+        assertTrue(db.count() <= 50_000);
+
+        List<HistoryItem> newest = db.queryBefore(Long.MAX_VALUE, Long.MAX_VALUE, 1);
+        assertEquals(3, newest.get(0).visitCount);
+        assertEquals(1, db.search("99501", 10).size());
+    }
+
+    @Test
+    public void migratesLegacyJsonOnce() throws Exception {
+        File snapshot = new File(context.getCacheDir(), "legacy_history.json");
+        File journal = new File(context.getCacheDir(), "legacy_history.journal");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(snapshot), StandardCharsets.UTF_8)) {
+            out.write("[{\"url\":\"https://old.example.com\",\"title\":\"旧记录\",\"timestamp\":1}]");
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(journal), StandardCharsets.UTF_8)) {
+            out.write("{\"url\":\"https://new.example.com\",\"title\":\"日志\",\"timestamp\":2}\n");
+        }
+
+        assertEquals(2, db.migrateFromJson(snapshot, journal));
+        assertFalse(snapshot.exists());
+        assertFalse(journal.exists());
+        assertEquals(0, db.migrateFromJson(snapshot, journal));
+        assertEquals(1, db.search("旧记录", 10).size());
+    }
+}
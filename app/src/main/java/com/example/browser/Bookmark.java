@@ -0,0 +1,54 @@
+package com.example.browser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 书签（收藏夹和云书签共用）
+ */
+class Bookmark {
+    String id;
+    String title;
+    String url;
+    long timestamp;
+
+    Bookmark(String id, String title, String url, long timestamp) {
+        this.id = id;
+        this.title = title;
+        this.url = url;
+        this.timestamp = timestamp;
+    }
+
+    Bookmark(String title, String url) {
+        this(null, title, url, System.currentTimeMillis());
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        if (id != null) json.put("id", id);
+        json.put("title", title);
+        json.put("url", url);
+        json.put("timestamp", timestamp);
+        return json;
+    }
+
+    /**
+     * 新建按URL索引的书签列表
+     */
+    static UrlIndexedList<Bookmark> newIndexedList() {
+        return new UrlIndexedList<>(bookmark -> bookmark.url);
+    }
+
+    static Bookmark fromJson(JSONObject json) throws JSONException {
+        String id = json.has("id") ? json.getString("id") : null;
+        String title = json.getString("title");
+        String url = json.getString("url");
+        long timestamp = json.getLong("timestamp");
+        return new Bookmark(id, title, url, timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return title;
+    }
+}
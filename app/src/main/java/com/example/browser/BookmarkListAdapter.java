@@ -0,0 +1,97 @@
+package com.example.browser;
+
+import android.graphics.Bitmap;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
+import android.widget.TextView;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 收藏夹和云书签对话框的列表：标题前是网站图标，后面是网页缩略图
+ * 图在后台读取，行视图被 ListView 复用时取消上一行还没读完的图
+ */
+class BookmarkListAdapter extends BaseAdapter {
+
+    private final List<String> titles;
+    private final List<String> urls;
+    private final IconCache<Bitmap> icons;
+    // 建过的行，对话框关闭时一起取消
+    private final List<ViewHolder> holders = new ArrayList<>();
+
+    BookmarkListAdapter(List<String> titles, List<String> urls, IconCache<Bitmap> icons) {
+        this.titles = titles;
+        this.urls = urls;
+        this.icons = icons;
+    }
+
+    @Override
+    public int getCount() {
+        return titles.size();
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return urls.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        ViewHolder holder;
+        if (convertView == null) {
+            convertView = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_bookmark, parent, false);
+            holder = new ViewHolder(convertView);
+            convertView.setTag(holder);
+            holders.add(holder);
+        } else {
+            holder = (ViewHolder) convertView.getTag();
+            holder.cancel();
+        }
+        String url = urls.get(position);
+        holder.tvTitle.setText(titles.get(position));
+        holder.ivIcon.setImageBitmap(null);
+        holder.ivThumbnail.setVisibility(View.GONE);
+        holder.iconRequest = icons.load(IconCache.ICON, url, holder.ivIcon::setImageBitmap);
+        holder.thumbnailRequest = icons.load(IconCache.THUMBNAIL, url, bitmap -> {
+            holder.ivThumbnail.setImageBitmap(bitmap);
+            holder.ivThumbnail.setVisibility(bitmap != null ? View.VISIBLE : View.GONE);
+        });
+        return convertView;
+    }
+
+    /**
+     * 取消所有还没读完的图，对话框关闭时调用
+     */
+    void cancelAll() {
+        for (ViewHolder holder : holders) {
+            holder.cancel();
+        }
+    }
+
+    private static class ViewHolder {
+        final ImageView ivIcon;
+        final TextView tvTitle;
+        final ImageView ivThumbnail;
+        IconCache.Request iconRequest;
+        IconCache.Request thumbnailRequest;
+
+        ViewHolder(View itemView) {
+            ivIcon = itemView.findViewById(R.id.ivIcon);
+            tvTitle = itemView.findViewById(R.id.tvTitle);
+            ivThumbnail = itemView.findViewById(R.id.ivThumbnail);
+        }
+
+        void cancel() {
+            if (iconRequest != null) iconRequest.cancel();
+            if (thumbnailRequest != null) thumbnailRequest.cancel();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.browser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 书签列表的差异合并，不依赖 Android
+ * apply 把本地列表更新成服务器快照：按 id（没有 id 时按网址）建哈希表匹配两边的条目，
+ * 没变的条目保留原对象，插入、修改、删除的位置按 RecyclerView ListUpdateCallback 的约定逐个报告；
+ * 匹配和生成操作是线性的，只有顺序变了的条目要多做一次最长递增子序列（n log n）来决定谁算移动
+ * resolveConflicts 处理收藏夹和云书签里网址相同、标题不同的条目，时间戳新的一方为准
+ */
+class BookmarkMerge {
+
+    /**
+     * 和 RecyclerView 的 ListUpdateCallback 一样：位置是前面的操作都应用之后的位置
+     */
+    interface UpdateCallback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    static final class Diff {
+        int inserted;
+        int updated;
+        int removed;
+        int unchanged;
+
+        boolean isEmpty() {
+            return inserted == 0 && updated == 0 && removed == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "+%d ~%d -%d =%d", inserted, updated, removed, unchanged);
+        }
+    }
+
+    /**
+     * 收藏夹和云书签的冲突：loser 要改成 winner 的标题和时间戳
+     */
+    static final class Conflict {
+        final Bookmark winner;
+        final Bookmark loser;
+        // 赢的是收藏夹时要把修改推送到云端
+        final boolean favoriteWins;
+
+        Conflict(Bookmark winner, Bookmark loser, boolean favoriteWins) {
+            this.winner = winner;
+            this.loser = loser;
+            this.favoriteWins = favoriteWins;
+        }
+    }
+
+    private static final int NONE = 0;
+    private static final int INSERT = 1;
+    private static final int REMOVE = 2;
+    private static final int CHANGE = 3;
+
+    /**
+     * 匹配用的键：云书签按 id，没有 id 的（收藏夹）按规范化的网址
+     */
+    static String keyOf(Bookmark bookmark) {
+        return bookmark.id != null ? "#" + bookmark.id : UrlIndexedList.canonicalize(bookmark.url);
+    }
+
+    /**
+     * 把 target 更新成和 snapshot 一样的内容和顺序，callback 可以为 null
+     * 没变的条目保留 target 里原来的对象，变了的换成 snapshot 里的
+     */
+    static Diff apply(List<Bookmark> target, List<Bookmark> snapshot, UpdateCallback callback) {
+        int oldSize = target.size();
+        int newSize = snapshot.size();
+        Map<String, Integer> newIndex = new HashMap<>(newSize * 4 / 3 + 1);
+        for (int j = 0; j < newSize; j++) {
+            newIndex.putIfAbsent(keyOf(snapshot.get(j)), j);
+        }
+        // 每个旧条目对应的新位置，没有对应的为 -1；同一个键只匹配一次
+        int[] match = new int[oldSize];
+        boolean[] claimed = new boolean[newSize];
+        for (int i = 0; i < oldSize; i++) {
+            Integer j = newIndex.get(keyOf(target.get(i)));
+            if (j != null && !claimed[j]) {
+                claimed[j] = true;
+                match[i] = j;
+            } else {
+                match[i] = -1;
+            }
+        }
+        boolean[] kept = keepInOrder(match);
+        boolean[] matchedNew = new boolean[newSize];
+        for (int i = 0; i < oldSize; i++) {
+            if (kept[i]) matchedNew[match[i]] = true;
+        }
+
+        Diff diff = new Diff();
+        Dispatcher dispatcher = new Dispatcher(callback);
+        List<Bookmark> result = new ArrayList<>(newSize);
+        int i = 0;
+        int j = 0;
+        while (i < oldSize || j < newSize) {
+            if (i < oldSize && !kept[i]) {
+                dispatcher.add(REMOVE, result.size());
+                diff.removed++;
+                i++;
+            } else if (j < newSize && !matchedNew[j]) {
+                dispatcher.add(INSERT, result.size());
+                result.add(snapshot.get(j));
+                diff.inserted++;
+                j++;
+            } else {
+                // 两边都停在保留的条目上，按保留条目的相对顺序一定是同一个
+                Bookmark old = target.get(i);
+                Bookmark current = snapshot.get(j);
+                if (sameContent(old, current)) {
+                    result.add(old);
+                    diff.unchanged++;
+                } else {
+                    dispatcher.add(CHANGE, result.size());
+                    result.add(current);
+                    diff.updated++;
+                }
+                i++;
+                j++;
+            }
+        }
+        dispatcher.flush();
+        target.clear();
+        target.addAll(result);
+        return diff;
+    }
+
+    /**
+     * 收藏夹和云书签里网址相同、标题不同的条目，时间戳新的为准，相同时收藏夹为准
+     * 只返回冲突，由调用方改写输的一方
+     */
+    static List<Conflict> resolveConflicts(List<Bookmark> favorites, List<Bookmark> cloud) {
+        Map<String, Bookmark> byUrl = new HashMap<>(favorites.size() * 4 / 3 + 1);
+        for (Bookmark favorite : favorites) {
+            byUrl.putIfAbsent(UrlIndexedList.canonicalize(favorite.url), favorite);
+        }
+        List<Conflict> conflicts = new ArrayList<>();
+        for (Bookmark remote : cloud) {
+            Bookmark favorite = byUrl.get(UrlIndexedList.canonicalize(remote.url));
+            if (favorite == null || Objects.equals(favorite.title, remote.title)) continue;
+            if (remote.timestamp > favorite.timestamp) {
+                conflicts.add(new Conflict(remote, favorite, false));
+            } else {
+                conflicts.add(new Conflict(favorite, remote, true));
+            }
+        }
+        return conflicts;
+    }
+
+    private static boolean sameContent(Bookmark a, Bookmark b) {
+        return a.timestamp == b.timestamp && Objects.equals(a.title, b.title)
+                && Objects.equals(a.url, b.url) && Objects.equals(a.id, b.id);
+    }
+
+    /**
+     * 在 match 里挑出新位置递增的最长一组旧条目，它们原地保留，其余的算删除后重新插入
+     * 顺序没变时（最常见）一次遍历就结束
+     */
+    private static boolean[] keepInOrder(int[] match) {
+        boolean[] kept = new boolean[match.length];
+        int last = -1;
+        boolean ordered = true;
+        for (int value : match) {
+            if (value < 0) continue;
+            if (value < last) {
+                ordered = false;
+                break;
+            }
+            last = value;
+        }
+        if (ordered) {
+            for (int i = 0; i < match.length; i++) kept[i] = match[i] >= 0;
+            return kept;
+        }
+        // 耐心排序求最长递增子序列：tails[k] 是长度 k+1 的子序列里结尾最小的那个旧位置
+        int[] tails = new int[match.length];
+        int[] previous = new int[match.length];
+        int length = 0;
+        for (int i = 0; i < match.length; i++) {
+            if (match[i] < 0) continue;
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (match[tails[mid]] < match[i]) lo = mid + 1;
+                else hi = mid;
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) length++;
+        }
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            kept[i] = true;
+        }
+        return kept;
+    }
+
+    /**
+     * 把相邻的同类操作合成一次回调
+     */
+    private static final class Dispatcher {
+        private final UpdateCallback callback;
+        private int type = NONE;
+        private int position;
+        private int count;
+
+        Dispatcher(UpdateCallback callback) {
+            this.callback = callback;
+        }
+
+        void add(int type, int at) {
+            if (callback == null) return;
+            boolean contiguous = this.type == type
+                    && (type == REMOVE ? at == position : at == position + count);
+            if (contiguous) {
+                count++;
+                return;
+            }
+            flush();
+            this.type = type;
+            position = at;
+            count = 1;
+        }
+
+        void flush() {
+            if (callback == null || type == NONE) return;
+            if (type == INSERT) callback.onInserted(position, count);
+            else if (type == REMOVE) callback.onRemoved(position, count);
+            else callback.onChanged(position, count);
+            type = NONE;
+        }
+    }
+}
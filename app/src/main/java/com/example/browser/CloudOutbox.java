@@ -0,0 +1,484 @@
+package com.example.browser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+import okhttp3.Request;
+
+/**
+ * 云书签写操作的发件箱
+ * 新增、修改、删除先写入本地文件并立即反映到界面，联网后再分批提交：
+ * <pre>
+ * POST /bookmarks/batch
+ * {"ops":[{"opId","op":"add","title","url"},{"opId","op":"update","id","title","url"},{"opId","op":"delete","id"}]}
+ * {"code":200,"data":{"results":[{"opId","id"}...]}}
+ * </pre>
+ * 每个操作带客户端生成的 opId，服务器按 opId 去重，连接中断后重发不会重复执行；
+ * 服务器没有 batch 接口时，新增操作退回到逐条 POST /bookmarks；旧接口不能修改和删除，
+ * 这期间排队的修改和删除被撤销（由调用方提示用户），新的修改和删除直接拒绝，过一段时间再试 batch
+ * 写文件不占用对象锁：锁内只复制一份队列，主线程上的 overlay() 不会等磁盘同步
+ */
+class CloudOutbox {
+
+    static final String ADD = "add";
+    static final String UPDATE = "update";
+    static final String DELETE = "delete";
+
+    // 还没提交成功的新增书签使用的临时id前缀
+    static final String LOCAL_ID_PREFIX = "local-";
+
+    private static final int LOAD_BATCH_SIZE = 256;
+    // batch 接口返回 404 后，这段时间内按旧接口处理，过后再试一次（服务器可能已经升级）
+    static final long BATCH_RECHECK_MS = 60 * 60 * 1000L;
+
+    /**
+     * 服务器不支持修改和删除时拒绝新的修改和删除
+     */
+    static class EditsUnsupportedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        EditsUnsupportedException() {
+            super("服务器不支持修改和删除云书签");
+        }
+    }
+
+    /**
+     * 一个待提交的操作
+     */
+    static class Op {
+        final String opId;
+        final String type;
+        String id;
+        String title;
+        String url;
+        final long timestamp;
+
+        Op(String opId, String type, String id, String title, String url, long timestamp) {
+            this.opId = opId;
+            this.type = type;
+            this.id = id;
+            this.title = title;
+            this.url = url;
+            this.timestamp = timestamp;
+        }
+
+        Op copy() {
+            return new Op(opId, type, id, title, url, timestamp);
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("opId", opId);
+            json.put("op", type);
+            if (id != null) json.put("id", id);
+            if (title != null) json.put("title", title);
+            if (url != null) json.put("url", url);
+            json.put("timestamp", timestamp);
+            return json;
+        }
+
+        static Op fromJson(JSONObject json) throws JSONException {
+            return new Op(json.getString("opId"), json.getString("op"),
+                    json.optString("id", null), json.optString("title", null),
+                    json.optString("url", null), json.getLong("timestamp"));
+        }
+    }
+
+    private final SyncApiClient api;
+    private final File file;
+    private final int maxBatchSize;
+    private final LongSupplier clock;
+
+    // 按入队顺序排列，首次使用时从文件加载
+    private List<Op> queue;
+    // 正在提交的操作，不能再被合并或抵消
+    private final Set<String> inFlight = new HashSet<>();
+    // 同一时间只有一个 flush 在提交
+    private final Object flushLock = new Object();
+    // 同一时间只有一个线程在写文件；先拿这个锁再拿对象锁，反过来不行
+    private final Object writeLock = new Object();
+    // 队列每变一次加一，writtenVersion 是已经写进文件的版本（由 writeLock 保护）
+    private long version;
+    private long writtenVersion;
+    // 加载发件箱文件失败时的异常，交给调用方记录
+    private Exception loadError;
+    // 在这之前认为服务器没有 batch 接口
+    private long batchUnsupportedUntil;
+    // 因为服务器不支持而撤销的修改和删除，还没告诉用户的条数
+    private int rejected;
+
+    CloudOutbox(SyncApiClient api, File file, int maxBatchSize) {
+        this(api, file, maxBatchSize, System::currentTimeMillis);
+    }
+
+    CloudOutbox(SyncApiClient api, File file, int maxBatchSize, LongSupplier clock) {
+        this.api = api;
+        this.file = file;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.clock = clock;
+    }
+
+    /**
+     * 新增书签，返回带临时id的书签供界面立即显示
+     */
+    Bookmark enqueueAdd(String title, String url) throws IOException, JSONException {
+        Bookmark bookmark;
+        synchronized (this) {
+            ensureLoaded();
+            String opId = UUID.randomUUID().toString();
+            Op op = new Op(opId, ADD, LOCAL_ID_PREFIX + opId, title, url, System.currentTimeMillis());
+            queue.add(op);
+            version++;
+            bookmark = new Bookmark(op.id, title, url, op.timestamp);
+        }
+        persist();
+        return bookmark;
+    }
+
+    void enqueueUpdate(String id, String title, String url) throws IOException, JSONException {
+        synchronized (this) {
+            ensureLoaded();
+            // 还没提交的新增或修改直接改写，不另排一个操作
+            boolean merged = false;
+            for (Op op : queue) {
+                if (id.equals(op.id) && !DELETE.equals(op.type) && !inFlight.contains(op.opId)) {
+                    op.title = title;
+                    op.url = url;
+                    merged = true;
+                    break;
+                }
+            }
+            if (!merged) {
+                if (!supportsEdits()) {
+                    throw new EditsUnsupportedException();
+                }
+                queue.add(new Op(UUID.randomUUID().toString(), UPDATE, id, title, url, System.currentTimeMillis()));
+            }
+            version++;
+        }
+        persist();
+    }
+
+    void enqueueDelete(String id) throws IOException, JSONException {
+        synchronized (this) {
+            ensureLoaded();
+            if (!supportsEdits() && !hasPendingAdd(id)) {
+                throw new EditsUnsupportedException();
+            }
+            boolean pendingAdd = false;
+            Iterator<Op> it = queue.iterator();
+            while (it.hasNext()) {
+                Op op = it.next();
+                if (id.equals(op.id) && !inFlight.contains(op.opId)) {
+                    pendingAdd |= ADD.equals(op.type);
+                    it.remove();
+                }
+            }
+            // 新增还没提交就被删除，两个操作一起抵消
+            if (!pendingAdd) {
+                queue.add(new Op(UUID.randomUUID().toString(), DELETE, id, null, null, System.currentTimeMillis()));
+            }
+            version++;
+        }
+        persist();
+    }
+
+    synchronized int pendingCount() {
+        ensureLoaded();
+        return queue.size();
+    }
+
+    /**
+     * 服务器能否接收修改和删除；还没发现不支持时认为支持
+     */
+    synchronized boolean supportsEdits() {
+        return clock.getAsLong() >= batchUnsupportedUntil;
+    }
+
+    /**
+     * 取出上次取出之后被撤销的修改和删除条数
+     */
+    synchronized int takeRejected() {
+        int n = rejected;
+        rejected = 0;
+        return n;
+    }
+
+    /**
+     * 取出加载发件箱文件时的异常；加载失败时队列从空开始
+     */
+    synchronized Exception takeLoadError() {
+        Exception e = loadError;
+        loadError = null;
+        return e;
+    }
+
+    private boolean hasPendingAdd(String id) {
+        for (Op op : queue) {
+            if (id.equals(op.id) && ADD.equals(op.type) && !inFlight.contains(op.opId)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 把待提交的操作叠加到服务器副本上，得到界面应显示的列表
+     */
+    synchronized List<Bookmark> overlay(List<Bookmark> serverBookmarks) {
+        ensureLoaded();
+        if (queue.isEmpty()) {
+            return new ArrayList<>(serverBookmarks);
+        }
+        Map<String, Bookmark> merged = new LinkedHashMap<>();
+        for (Bookmark bookmark : serverBookmarks) {
+            merged.put(bookmark.id, bookmark);
+        }
+        for (Op op : queue) {
+            if (ADD.equals(op.type)) {
+                merged.put(op.id, new Bookmark(op.id, op.title, op.url, op.timestamp));
+            } else if (UPDATE.equals(op.type)) {
+                Bookmark old = merged.get(op.id);
+                if (old != null) {
+                    // 本地修改比服务器上的版本新，按修改时间显示，和收藏夹比较时才不会被旧标题覆盖
+                    merged.put(op.id, new Bookmark(op.id, op.title, op.url, Math.max(old.timestamp, op.timestamp)));
+                }
+            } else {
+                merged.remove(op.id);
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * 按 maxBatchSize 分批提交全部待提交操作，返回成功提交的条数
+     * 网络错误时抛出异常，未确认的操作留在队列里等下次重试
+     */
+    int flush() throws IOException, JSONException {
+        synchronized (flushLock) {
+            int acked = 0;
+            while (true) {
+                List<Op> batch;
+                boolean batched;
+                synchronized (this) {
+                    batched = supportsEdits();
+                    batch = nextBatch(batched);
+                }
+                if (batch.isEmpty()) {
+                    return acked;
+                }
+
+                if (batched) {
+                    Map<String, String> results;
+                    try {
+                        results = postBatch(batch);
+                    } finally {
+                        synchronized (this) {
+                            inFlight.clear();
+                        }
+                    }
+                    if (results != null) {
+                        int n;
+                        synchronized (this) {
+                            n = acknowledge(results);
+                        }
+                        persist();
+                        if (n == 0) {
+                            // 服务器一条都没确认，避免反复提交同一批
+                            return acked;
+                        }
+                        acked += n;
+                        continue;
+                    }
+                    synchronized (this) {
+                        rejectEdits();
+                        batch = nextBatch(false);
+                    }
+                    persist();
+                    if (batch.isEmpty()) {
+                        return acked;
+                    }
+                }
+                try {
+                    acked += postEach(batch);
+                } finally {
+                    synchronized (this) {
+                        inFlight.clear();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 取出队首的一批操作并标记为提交中；服务器不支持 batch 时只取新增操作
+     * 引用临时id的修改或删除要等对应的新增确认、换成服务器id之后才能提交
+     */
+    private List<Op> nextBatch(boolean batched) {
+        ensureLoaded();
+        List<Op> batch = new ArrayList<>();
+        for (Op op : queue) {
+            if (batch.size() >= maxBatchSize) break;
+            if (!ADD.equals(op.type) && op.id.startsWith(LOCAL_ID_PREFIX)) break;
+            if (batched || ADD.equals(op.type)) {
+                batch.add(op.copy());
+                inFlight.add(op.opId);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * batch 接口不存在：记下重试时间，撤销排队的修改和删除，旧接口提交不了它们
+     */
+    private void rejectEdits() {
+        batchUnsupportedUntil = clock.getAsLong() + BATCH_RECHECK_MS;
+        int before = queue.size();
+        queue.removeIf(op -> !ADD.equals(op.type));
+        int removed = before - queue.size();
+        if (removed > 0) {
+            rejected += removed;
+            version++;
+        }
+    }
+
+    /**
+     * 提交一批操作，返回 opId -> 服务器书签id；服务器不支持 batch 时返回 null
+     */
+    private Map<String, String> postBatch(List<Op> batch) throws IOException, JSONException {
+        JSONArray ops = new JSONArray();
+        for (Op op : batch) {
+            JSONObject json = op.toJson();
+            json.remove("timestamp");
+            // 临时id服务器不认识，新增操作不需要带id
+            if (ADD.equals(op.type)) json.remove("id");
+            ops.put(json);
+        }
+        JSONObject body = new JSONObject();
+        body.put("ops", ops);
+
+        Request request = new Request.Builder()
+                .url(api.url("/bookmarks/batch").build())
+                .post(SyncApiClient.jsonBody(body))
+                .build();
+
+        return api.execute(request, response -> {
+            if (response.code() == 404) {
+                return null;
+            }
+            JSONArray array = SyncApiClient.readData(response).getJSONArray("results");
+            Map<String, String> results = new HashMap<>();
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject result = array.getJSONObject(i);
+                results.put(result.getString("opId"), result.optString("id", null));
+            }
+            return results;
+        });
+    }
+
+    /**
+     * 旧接口只能逐条新增
+     */
+    private int postEach(List<Op> adds) throws IOException, JSONException {
+        int acked = 0;
+        for (Op op : adds) {
+            JSONObject body = new JSONObject();
+            body.put("title", op.title);
+            body.put("url", op.url);
+            Request request = new Request.Builder()
+                    .url(api.url("/bookmarks").build())
+                    .post(SyncApiClient.jsonBody(body))
+                    .build();
+            String serverId = api.execute(request, response -> {
+                JSONObject data = SyncApiClient.readData(response);
+                return data != null ? data.optString("id", null) : null;
+            });
+            // 每条成功后立即确认，后面失败时不会重复提交已成功的
+            synchronized (this) {
+                acked += acknowledge(Collections.singletonMap(op.opId, serverId));
+            }
+            persist();
+        }
+        return acked;
+    }
+
+    /**
+     * 移出已确认的操作，并把后续操作里的临时id换成服务器分配的id
+     */
+    private int acknowledge(Map<String, String> results) {
+        int acked = 0;
+        Map<String, String> idMapping = new HashMap<>();
+        Iterator<Op> it = queue.iterator();
+        while (it.hasNext()) {
+            Op op = it.next();
+            if (!results.containsKey(op.opId)) continue;
+            String serverId = results.get(op.opId);
+            if (ADD.equals(op.type) && serverId != null) {
+                idMapping.put(op.id, serverId);
+            }
+            it.remove();
+            acked++;
+        }
+        for (Op op : queue) {
+            String serverId = idMapping.get(op.id);
+            if (serverId != null) op.id = serverId;
+        }
+        if (acked > 0) {
+            version++;
+        }
+        return acked;
+    }
+
+    private void ensureLoaded() {
+        if (queue != null) return;
+        queue = new ArrayList<>();
+        if (!file.exists() || file.length() == 0) return;
+        try {
+            RecordFile.load(file, 0, LOAD_BATCH_SIZE, Op::fromJson, new RecordFile.Listener<Op>() {
+                @Override
+                public void onNewest(List<Op> items) {
+                    queue.addAll(items);
+                }
+
+                @Override
+                public void onOlder(List<Op> batch) {
+                    queue.addAll(batch);
+                }
+            });
+        } catch (Exception e) {
+            loadError = e;
+        }
+    }
+
+    /**
+     * 把最新的队列写进文件，调用时不能持有对象锁
+     * 锁内只复制队列；几个线程同时改动时由最后拿到 writeLock 的一次写出最新版本，其余的直接返回
+     */
+    private void persist() throws IOException, JSONException {
+        synchronized (writeLock) {
+            long snapshotVersion;
+            List<Op> snapshot;
+            synchronized (this) {
+                if (version == writtenVersion) return;
+                snapshotVersion = version;
+                snapshot = new ArrayList<>(queue.size());
+                for (Op op : queue) {
+                    snapshot.add(op.copy());
+                }
+            }
+            RecordFile.write(file, snapshot, Op::toJson);
+            writtenVersion = snapshotVersion;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.example.browser;
+
+import org.json.JSONException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 云书签增量同步
+ * 客户端保存服务器返回的游标，之后只请求游标之后的变更：
+ * <pre>
+ * GET /bookmarks/changes?since=游标
+ * {"code":200,"data":{"cursor":"...","reset":false,
+ *   "upserts":[{"id","title","url","createdAt","updatedAt"}...],"deleted":["id"...]}}
+ * </pre>
+ * 书签的时间戳取 updatedAt（没有时取 createdAt），和收藏夹冲突时按它决定谁为准
+ * reset 为 true 时 upserts 是完整列表（首次同步或游标已失效）；
+ * 服务器没有 changes 接口时退回到下载完整的 /bookmarks，之后几个小时内不再请求 changes
+ * 网络层配置了磁盘缓存时，响应带 ETag 的请求会自动加上 If-None-Match，
+ * 服务器回 304 说明没有变化，直接沿用本地副本，不再解析缓存里的响应体
+ * 本地副本按 id 保存在记录文件里，游标由调用方在文件写完之后再保存
+ * 不依赖 Android，可以在普通 JVM 上测试和跑基准
+ */
+class CloudSync {
+
+    /**
+     * 一次同步的结果
+     */
+    static class Result {
+        final String cursor;
+        final boolean reset;
+        final List<Bookmark> upserts;
+        final List<String> deleted;
+        // 响应体字节数
+        final long bytes;
+        // 服务器回了 304，本地副本就是最新的
+        boolean notModified;
+        // 同步后的完整列表
+        List<Bookmark> bookmarks;
+        // 本地副本读取失败时的异常；副本已丢弃，这次是全量同步
+        Exception localCopyError;
+
+        Result(String cursor, boolean reset, List<Bookmark> upserts, List<String> deleted, long bytes) {
+            this.cursor = cursor;
+            this.reset = reset;
+            this.upserts = upserts;
+            this.deleted = deleted;
+            this.bytes = bytes;
+        }
+
+        static Result unchanged(String cursor) {
+            Result result = new Result(cursor, false, new ArrayList<>(), new ArrayList<>(), 0);
+            result.notModified = true;
+            return result;
+        }
+
+        int changes() {
+            return upserts.size() + deleted.size();
+        }
+    }
+
+    private static final int LOAD_BATCH_SIZE = 2000;
+    // 服务器没有 changes 接口时，这段时间内直接下载完整列表，过后再试一次（服务器可能已经升级）
+    static final long CHANGES_RECHECK_MS = 6 * 60 * 60 * 1000L;
+
+    private final SyncApiClient api;
+    private final File file;
+    private final LongSupplier clock;
+    private long changesUnsupportedUntil;
+
+    // 按 id 保存的本地副本，首次同步时从文件加载
+    private Map<String, Bookmark> bookmarks;
+    private String cursor;
+    private Exception localCopyError;
+
+    CloudSync(SyncApiClient api, File file, String cursor) {
+        this(api, file, cursor, System::currentTimeMillis);
+    }
+
+    CloudSync(SyncApiClient api, File file, String cursor, LongSupplier clock) {
+        this.api = api;
+        this.file = file;
+        this.cursor = cursor;
+        this.clock = clock;
+    }
+
+    /**
+     * 拉取游标之后的变更并应用到本地副本，有变更时写回文件
+     */
+    synchronized Result sync() throws IOException, JSONException {
+        ensureLoaded();
+
+        Result result = fetchChanges(cursor);
+        if (result.reset) {
+            bookmarks.clear();
+        }
+        for (Bookmark bookmark : result.upserts) {
+            bookmarks.put(bookmark.id, bookmark);
+        }
+        for (String id : result.deleted) {
+            bookmarks.remove(id);
+        }
+        if (result.reset || result.changes() > 0) {
+            RecordFile.write(file, new ArrayList<>(bookmarks.values()), Bookmark::toJson);
+        }
+        cursor = result.cursor;
+        result.bookmarks = new ArrayList<>(bookmarks.values());
+        result.localCopyError = localCopyError;
+        localCopyError = null;
+        return result;
+    }
+
+    synchronized String cursor() {
+        return cursor;
+    }
+
+    /**
+     * 请求 since 之后的变更，since 为 null 时请求完整列表
+     */
+    Result fetchChanges(String since) throws IOException {
+        if (clock.getAsLong() < changesUnsupportedUntil) {
+            return fetchAll();
+        }
+        HttpUrl.Builder url = api.url("/bookmarks/changes");
+        if (since != null) {
+            url.addQueryParameter("since", since);
+        }
+        Request request = new Request.Builder().url(url.build()).build();
+
+        try (Response response = api.newCall(request).execute()) {
+            if (response.code() == 404) {
+                changesUnsupportedUntil = clock.getAsLong() + CHANGES_RECHECK_MS;
+                return fetchAll();
+            }
+            SyncApiClient.checkStatus(response);
+            if (since != null && isNotModified(response)) {
+                return Result.unchanged(since);
+            }
+            return readChanges(response.body().source().inputStream(), since == null);
+        }
+    }
+
+    /**
+     * 旧接口：下载完整列表，不返回游标，下次仍然全量同步
+     */
+    private Result fetchAll() throws IOException {
+        Request request = new Request.Builder().url(api.url("/bookmarks").build()).build();
+
+        try (Response response = api.newCall(request).execute()) {
+            SyncApiClient.checkStatus(response);
+            // 本地副本丢了的话，即使没变化也要从缓存里重新解析
+            if (!this.bookmarks.isEmpty() && isNotModified(response)) {
+                return Result.unchanged(null);
+            }
+            List<Bookmark> bookmarks = new ArrayList<>();
+            long bytes = readBookmarkList(response.body().source().inputStream(), bookmarks::add);
+            return new Result(null, true, bookmarks, new ArrayList<>(), bytes);
+        }
+    }
+
+    /**
+     * 边读边解析 changes 响应，不在内存里保留整个响应体或JSON树
+     */
+    static Result readChanges(InputStream in, boolean requestedFull) throws IOException {
+        CountingInputStream counting = new CountingInputStream(in);
+        JsonStreamReader reader = new JsonStreamReader(new InputStreamReader(counting, StandardCharsets.UTF_8));
+        int code = -1;
+        String message = null;
+        String cursor = null;
+        boolean reset = requestedFull;
+        List<Bookmark> upserts = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("code".equals(name)) {
+                code = reader.nextInt();
+            } else if ("message".equals(name)) {
+                message = reader.nextStringOrNull();
+            } else if ("data".equals(name) && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "cursor":
+                            cursor = reader.nextStringOrNull();
+                            break;
+                        case "reset":
+                            reset |= reader.nextBoolean();
+                            break;
+                        case "upserts":
+                            readBookmarks(reader, upserts::add);
+                            break;
+                        case "deleted":
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                deleted.add(reader.nextString());
+                            }
+                            reader.endArray();
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        checkCode(code, message);
+        if (cursor == null) {
+            throw new IOException("响应缺少 cursor");
+        }
+        return new Result(cursor, reset, upserts, deleted, counting.count);
+    }
+
+    /**
+     * 边读边解析 /bookmarks 的完整列表，每解码出一条书签就交给 sink，返回读取的字节数
+     */
+    static long readBookmarkList(InputStream in, Consumer<Bookmark> sink) throws IOException {
+        CountingInputStream counting = new CountingInputStream(in);
+        JsonStreamReader reader = new JsonStreamReader(new InputStreamReader(counting, StandardCharsets.UTF_8));
+        int code = -1;
+        String message = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("code".equals(name)) {
+                code = reader.nextInt();
+            } else if ("message".equals(name)) {
+                message = reader.nextStringOrNull();
+            } else if ("data".equals(name) && reader.peek() == JsonStreamReader.Token.BEGIN_ARRAY) {
+                readBookmarks(reader, sink);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        checkCode(code, message);
+        return counting.count;
+    }
+
+    private static void readBookmarks(JsonStreamReader reader, Consumer<Bookmark> sink) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            sink.accept(readBookmark(reader));
+        }
+        reader.endArray();
+    }
+
+    private static Bookmark readBookmark(JsonStreamReader reader) throws IOException {
+        String id = null;
+        String title = null;
+        String url = null;
+        long createdAt = 0;
+        long updatedAt = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    id = reader.nextStringOrNull();
+                    break;
+                case "title":
+                    title = reader.nextStringOrNull();
+                    break;
+                case "url":
+                    url = reader.nextStringOrNull();
+                    break;
+                case "createdAt":
+                    createdAt = reader.nextLong();
+                    break;
+                case "updatedAt":
+                    updatedAt = reader.nextLong();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (id == null || url == null) {
+            throw new IOException("书签缺少 id 或 url");
+        }
+        return new Bookmark(id, title != null ? title : "", url, Math.max(createdAt, updatedAt));
+    }
+
+    private void ensureLoaded() {
+        if (bookmarks != null) return;
+        bookmarks = new LinkedHashMap<>();
+        if (!file.exists() || file.length() == 0) {
+            // 本地副本丢了，游标也就没有意义了
+            cursor = null;
+            return;
+        }
+        try {
+            RecordFile.load(file, 0, LOAD_BATCH_SIZE, Bookmark::fromJson,
+                    new RecordFile.Listener<Bookmark>() {
+                        @Override
+                        public void onNewest(List<Bookmark> items) {
+                            putAll(items);
+                        }
+
+                        @Override
+                        public void onOlder(List<Bookmark> batch) {
+                            putAll(batch);
+                        }
+                    });
+        } catch (Exception e) {
+            // 交给调用方记录，丢弃副本后全量同步
+            localCopyError = e;
+            bookmarks.clear();
+            cursor = null;
+        }
+    }
+
+    private void putAll(List<Bookmark> items) {
+        for (Bookmark bookmark : items) {
+            bookmarks.put(bookmark.id, bookmark);
+        }
+    }
+
+    /**
+     * 响应来自缓存：服务器回了 304，或者缓存还新鲜根本没有发请求
+     */
+    private static boolean isNotModified(Response response) {
+        Response network = response.networkResponse();
+        return response.cacheResponse() != null
+                && (network == null || network.code() == HttpURLConnection.HTTP_NOT_MODIFIED);
+    }
+
+    private static void checkCode(int code, String message) throws IOException {
+        if (code != 200) {
+            throw new IOException("API错误: " + message);
+        }
+    }
+
+    /**
+     * 统计读过的字节数
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.browser;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * 历史记录列表适配器
+ * 按时间倒序从数据源分页加载，滚动接近末尾时在后台取下一页，行视图由 RecyclerView 复用
+ * 网站图标在后台读取，行被复用时取消上一行还没读完的图
+ */
+class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHolder> {
+
+    /**
+     * 分页数据源：返回排在 after 之后的最多 limit 条，after 为 null 表示第一页
+     * 在后台线程调用
+     */
+    interface PageSource {
+        List<HistoryItem> load(HistoryItem after, int limit);
+    }
+
+    interface OnItemClickListener {
+        void onItemClick(HistoryItem item);
+    }
+
+    private static final int PAGE_SIZE = 100;
+    // 距离末尾还剩多少行时开始预取下一页
+    private static final int PREFETCH_DISTANCE = 30;
+
+    private final Executor executor;
+    private final Handler mainHandler;
+    private final OnItemClickListener listener;
+    private final IconCache<Bitmap> icons;
+    private final List<HistoryItem> items = new ArrayList<>();
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault());
+
+    private PageSource source;
+    private int generation = 0;
+    private boolean loading = false;
+    private boolean reachedEnd = false;
+
+    HistoryAdapter(Executor executor, Handler mainHandler, IconCache<Bitmap> icons, OnItemClickListener listener) {
+        this.executor = executor;
+        this.mainHandler = mainHandler;
+        this.icons = icons;
+        this.listener = listener;
+    }
+
+    /**
+     * 切换数据源（浏览全部或搜索结果），丢弃旧数据和还没返回的页
+     */
+    void setSource(PageSource source) {
+        this.source = source;
+        generation++;
+        loading = false;
+        reachedEnd = false;
+        int removed = items.size();
+        items.clear();
+        notifyItemRangeRemoved(0, removed);
+        loadNextPage();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_history, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        HistoryItem item = items.get(position);
+        holder.tvTitle.setText(item.title);
+        holder.tvUrl.setText(item.url);
+        String time = dateFormat.format(new Date(item.timestamp));
+        holder.tvTime.setText(item.visitCount > 1 ? time + " · " + item.visitCount + "次" : time);
+        holder.itemView.setOnClickListener(v -> listener.onItemClick(item));
+        holder.cancelIcon();
+        holder.ivIcon.setImageBitmap(null);
+        holder.iconRequest = icons.load(IconCache.ICON, item.url, holder.ivIcon::setImageBitmap);
+
+        if (position >= items.size() - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        holder.cancelIcon();
+    }
+
+    @Override
+    public int getItemCount() {
+        return items.size();
+    }
+
+    private void loadNextPage() {
+        if (loading || reachedEnd || source == null) {
+            return;
+        }
+        loading = true;
+        final int requestGeneration = generation;
+        final PageSource pageSource = source;
+        final HistoryItem after = items.isEmpty() ? null : items.get(items.size() - 1);
+        executor.execute(() -> {
+            List<HistoryItem> page;
+            try {
+                page = pageSource.load(after, PAGE_SIZE);
+            } catch (Exception e) {
+                Log.e("Browser", "Failed to load history page", e);
+                page = new ArrayList<>();
+            }
+            final List<HistoryItem> result = page;
+            mainHandler.post(() -> {
+                if (requestGeneration != generation) return;
+                loading = false;
+                if (result.size() < PAGE_SIZE) {
+                    reachedEnd = true;
+                }
+                int start = items.size();
+                items.addAll(result);
+                notifyItemRangeInserted(start, result.size());
+            });
+        });
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final ImageView ivIcon;
+        final TextView tvTitle;
+        final TextView tvUrl;
+        final TextView tvTime;
+        IconCache.Request iconRequest;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            ivIcon = itemView.findViewById(R.id.ivIcon);
+            tvTitle = itemView.findViewById(R.id.tvTitle);
+            tvUrl = itemView.findViewById(R.id.tvUrl);
+            tvTime = itemView.findViewById(R.id.tvTime);
+        }
+
+        void cancelIcon() {
+            if (iconRequest != null) {
+                iconRequest.cancel();
+                iconRequest = null;
+            }
+        }
+    }
+}
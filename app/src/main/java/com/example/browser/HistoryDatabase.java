@@ -0,0 +1,492 @@
+package com.example.browser;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 历史记录数据库（WAL 模式）
+ * 每次访问插入一行，按URL和时间建索引，另有 FTS 表支持按标题和网址搜索（中日韩文字按子串匹配）；
+ * 后台合并时按保留策略清理过期记录，并把同一URL的多次访问合并成一行
+ */
+class HistoryDatabase extends SQLiteOpenHelper {
+
+    static final String DATABASE_NAME = "browser_history.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String COLUMNS = "_id, url, title, timestamp, visit_count";
+
+    private SQLiteStatement insertStatement;
+
+    HistoryDatabase(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    HistoryDatabase(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE history ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "url TEXT NOT NULL, "
+                + "url_key TEXT NOT NULL, "
+                + "title TEXT NOT NULL, "
+                + "timestamp INTEGER NOT NULL, "
+                + "visit_count INTEGER NOT NULL DEFAULT 1, "
+                + "host TEXT NOT NULL DEFAULT '')");
+        db.execSQL("CREATE INDEX idx_history_url ON history(url_key, timestamp)");
+        db.execSQL("CREATE INDEX idx_history_timestamp ON history(timestamp)");
+        db.execSQL("CREATE INDEX idx_history_host ON history(host, timestamp)");
+
+        // 外部内容 FTS 表，由触发器和 history 表保持同步
+        db.execSQL("CREATE VIRTUAL TABLE history_fts USING fts4(content=\"history\", title, url, tokenize=unicode61)");
+        db.execSQL("CREATE TRIGGER history_ai AFTER INSERT ON history BEGIN "
+                + "INSERT INTO history_fts(docid, title, url) VALUES (new._id, new.title, new.url); END");
+        db.execSQL("CREATE TRIGGER history_bd BEFORE DELETE ON history BEGIN "
+                + "DELETE FROM history_fts WHERE docid = old._id; END");
+        db.execSQL("CREATE TRIGGER history_bu BEFORE UPDATE ON history BEGIN "
+                + "DELETE FROM history_fts WHERE docid = old._id; END");
+        db.execSQL("CREATE TRIGGER history_au AFTER UPDATE ON history BEGIN "
+                + "INSERT INTO history_fts(docid, title, url) VALUES (new._id, new.title, new.url); END");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE history ADD COLUMN visit_count INTEGER NOT NULL DEFAULT 1");
+            db.execSQL("ALTER TABLE history ADD COLUMN host TEXT NOT NULL DEFAULT ''");
+            try (Cursor cursor = db.rawQuery("SELECT _id, url FROM history", null);
+                 SQLiteStatement update = db.compileStatement("UPDATE history SET host = ? WHERE _id = ?")) {
+                while (cursor.moveToNext()) {
+                    update.bindString(1, UrlIndexedList.hostOf(cursor.getString(1)));
+                    update.bindLong(2, cursor.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            }
+            db.execSQL("CREATE INDEX idx_history_host ON history(host, timestamp)");
+        }
+    }
+
+    /**
+     * 记录一次访问（预编译的插入语句）
+     */
+    synchronized long recordVisit(String url, String title, long timestamp) {
+        SQLiteStatement statement = insertStatement();
+        statement.bindString(1, url);
+        statement.bindString(2, UrlIndexedList.canonicalize(url));
+        statement.bindString(3, title);
+        statement.bindLong(4, timestamp);
+        statement.bindString(5, UrlIndexedList.hostOf(url));
+        long id = statement.executeInsert();
+        statement.clearBindings();
+        return id;
+    }
+
+    /**
+     * 在一个事务里批量插入
+     */
+    synchronized void recordVisits(List<HistoryItem> items) {
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement statement = insertStatement();
+        db.beginTransaction();
+        try {
+            for (HistoryItem item : items) {
+                statement.bindString(1, item.url);
+                statement.bindString(2, UrlIndexedList.canonicalize(item.url));
+                statement.bindString(3, item.title);
+                statement.bindLong(4, item.timestamp);
+                statement.bindString(5, UrlIndexedList.hostOf(item.url));
+                item.id = statement.executeInsert();
+            }
+            statement.clearBindings();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 按时间倒序分页：返回早于 (beforeTimestamp, beforeId) 的 limit 条
+     * 第一页传 Long.MAX_VALUE
+     */
+    List<HistoryItem> queryBefore(long beforeTimestamp, long beforeId, int limit) {
+        return query("SELECT " + COLUMNS + " FROM history"
+                        + " WHERE timestamp <= ? AND (timestamp < ? OR _id < ?)"
+                        + " ORDER BY timestamp DESC, _id DESC LIMIT ?",
+                String.valueOf(beforeTimestamp), String.valueOf(beforeTimestamp),
+                String.valueOf(beforeId), String.valueOf(limit));
+    }
+
+    /**
+     * [from, to) 时间段内的记录，按时间倒序
+     */
+    List<HistoryItem> queryRange(long from, long to, int limit) {
+        return query("SELECT " + COLUMNS + " FROM history"
+                        + " WHERE timestamp >= ? AND timestamp < ?"
+                        + " ORDER BY timestamp DESC LIMIT ?",
+                String.valueOf(from), String.valueOf(to), String.valueOf(limit));
+    }
+
+    /**
+     * 每个网址一条汇总：最近一次访问的记录，visit_count 为总访问次数，按最近访问倒序
+     */
+    List<HistoryItem> queryUrlSummaries(int limit) {
+        // 只有一个 MAX 聚合时，SQLite 的裸列取自取得最大值的那一行
+        return query("SELECT _id, url, title, MAX(timestamp), SUM(visit_count) FROM history"
+                        + " GROUP BY url_key ORDER BY 4 DESC LIMIT ?",
+                String.valueOf(limit));
+    }
+
+    /**
+     * 按标题和网址全文搜索（每个词都做前缀匹配），按时间倒序
+     */
+    List<HistoryItem> search(String text, int limit) {
+        return search(text, Long.MAX_VALUE, Long.MAX_VALUE, limit);
+    }
+
+    /**
+     * 搜索结果分页，游标含义同 queryBefore
+     */
+    List<HistoryItem> search(String text, long beforeTimestamp, long beforeId, int limit) {
+        // unicode61 不给中日韩文字分词，整句标题是一个词，只能按子串匹配
+        if (containsCjk(text)) {
+            return searchSubstring(text, beforeTimestamp, beforeId, limit);
+        }
+        String match = toMatchQuery(text);
+        if (match.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return query("SELECT h._id, h.url, h.title, h.timestamp, h.visit_count FROM history h"
+                        + " JOIN history_fts ON h._id = history_fts.docid"
+                        + " WHERE history_fts MATCH ?"
+                        + " AND h.timestamp <= ? AND (h.timestamp < ? OR h._id < ?)"
+                        + " ORDER BY h.timestamp DESC, h._id DESC LIMIT ?",
+                match, String.valueOf(beforeTimestamp), String.valueOf(beforeTimestamp),
+                String.valueOf(beforeId), String.valueOf(limit));
+    }
+
+    /**
+     * 每个词都要出现在标题或网址里（LIKE 子串匹配，要扫描全表）
+     */
+    private List<HistoryItem> searchSubstring(String text, long beforeTimestamp, long beforeId, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT " + COLUMNS + " FROM history"
+                + " WHERE timestamp <= ? AND (timestamp < ? OR _id < ?)");
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(beforeTimestamp));
+        args.add(String.valueOf(beforeTimestamp));
+        args.add(String.valueOf(beforeId));
+        for (String token : text.trim().split("\\s+")) {
+            if (token.isEmpty()) continue;
+            String pattern = "%" + token.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+            sql.append(" AND (title LIKE ? ESCAPE '\\' OR url LIKE ? ESCAPE '\\')");
+            args.add(pattern);
+            args.add(pattern);
+        }
+        sql.append(" ORDER BY timestamp DESC, _id DESC LIMIT ?");
+        args.add(String.valueOf(limit));
+        return query(sql.toString(), args.toArray(new String[0]));
+    }
+
+    /**
+     * 含有汉字、假名或谚文时 FTS 搜不到词中间的部分
+     */
+    static boolean containsCjk(String text) {
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+            if (script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                    || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL) {
+                return true;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return false;
+    }
+
+    long count() {
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT COUNT(*) FROM history", null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    int deleteVisit(long id) {
+        return getWritableDatabase().delete("history", "_id = ?", new String[]{String.valueOf(id)});
+    }
+
+    int deleteUrl(String url) {
+        return getWritableDatabase().delete("history", "url_key = ?",
+                new String[]{UrlIndexedList.canonicalize(url)});
+    }
+
+    int deleteRange(long from, long to) {
+        return getWritableDatabase().delete("history", "timestamp >= ? AND timestamp < ?",
+                new String[]{String.valueOf(from), String.valueOf(to)});
+    }
+
+    void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete("history", null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 按保留策略合并历史记录：删除过期记录，合并同一URL的重复访问，
+     * 再按单域名上限和总条数上限删除最旧的记录
+     */
+    CompactionStats compact(HistoryRetention policy, long now) {
+        CompactionStats stats = new CompactionStats();
+        long start = System.currentTimeMillis();
+        SQLiteDatabase db = getWritableDatabase();
+        stats.entriesBefore = count();
+        stats.bytesBefore = usedBytes(db);
+
+        db.beginTransaction();
+        try {
+            if (policy.maxAgeMillis > 0) {
+                stats.expired = db.delete("history", "timestamp < ?",
+                        new String[]{String.valueOf(now - policy.maxAgeMillis)});
+            }
+
+            // 每个URL保留最近一次访问的那一行，访问次数累加到这一行上
+            db.execSQL("CREATE TEMP TABLE history_keep AS SELECT _id, url_key, total FROM"
+                    + " (SELECT _id, url_key, MAX(timestamp), SUM(visit_count) AS total, COUNT(*) AS n"
+                    + " FROM history GROUP BY url_key) WHERE n > 1");
+            db.execSQL("UPDATE history SET visit_count ="
+                    + " (SELECT total FROM history_keep WHERE history_keep._id = history._id)"
+                    + " WHERE _id IN (SELECT _id FROM history_keep)");
+            try (SQLiteStatement merge = db.compileStatement("DELETE FROM history"
+                    + " WHERE url_key IN (SELECT url_key FROM history_keep) AND _id NOT IN (SELECT _id FROM history_keep)")) {
+                stats.merged = merge.executeUpdateDelete();
+            }
+            db.execSQL("DROP TABLE history_keep");
+
+            if (policy.maxPerDomain > 0) {
+                List<String> hosts = new ArrayList<>();
+                try (Cursor cursor = db.rawQuery("SELECT host FROM history GROUP BY host HAVING COUNT(*) > ?",
+                        new String[]{String.valueOf(policy.maxPerDomain)})) {
+                    while (cursor.moveToNext()) {
+                        hosts.add(cursor.getString(0));
+                    }
+                }
+                for (String host : hosts) {
+                    stats.overDomainCap += deleteBeyond(db, "host = ?", host, policy.maxPerDomain);
+                }
+            }
+
+            if (policy.maxEntries > 0) {
+                stats.overMaxEntries = deleteBeyond(db, null, null, policy.maxEntries);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        stats.entriesAfter = count();
+        stats.bytesAfter = usedBytes(db);
+
+        // 空闲页超过一半时整理文件，把空间还给系统
+        if (freePages(db) * 2 > pageCount(db)) {
+            db.execSQL("VACUUM");
+        }
+        stats.durationMs = System.currentTimeMillis() - start;
+        return stats;
+    }
+
+    /**
+     * 按时间倒序保留前 keep 条，删除其余的；where 为空时作用于全表
+     */
+    private static int deleteBeyond(SQLiteDatabase db, String where, String arg, int keep) {
+        String filter = where != null ? " WHERE " + where : "";
+        String[] args = arg != null ? new String[]{arg, String.valueOf(keep)} : new String[]{String.valueOf(keep)};
+        long cutoffTime;
+        long cutoffId;
+        try (Cursor cursor = db.rawQuery("SELECT timestamp, _id FROM history" + filter
+                + " ORDER BY timestamp DESC, _id DESC LIMIT 1 OFFSET ?", args)) {
+            if (!cursor.moveToFirst()) {
+                return 0;
+            }
+            cutoffTime = cursor.getLong(0);
+            cutoffId = cursor.getLong(1);
+        }
+        String older = "(timestamp < ? OR (timestamp = ? AND _id <= ?))";
+        String t = String.valueOf(cutoffTime);
+        String id = String.valueOf(cutoffId);
+        return arg != null
+                ? db.delete("history", where + " AND " + older, new String[]{arg, t, t, id})
+                : db.delete("history", older, new String[]{t, t, id});
+    }
+
+    private static long usedBytes(SQLiteDatabase db) {
+        return (pageCount(db) - freePages(db)) * db.getPageSize();
+    }
+
+    private static long pageCount(SQLiteDatabase db) {
+        return pragma(db, "page_count");
+    }
+
+    private static long freePages(SQLiteDatabase db) {
+        return pragma(db, "freelist_count");
+    }
+
+    private static long pragma(SQLiteDatabase db, String name) {
+        try (Cursor cursor = db.rawQuery("PRAGMA " + name, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * 一次合并的统计：各规则删除的条数，以及前后的记录数和占用字节数
+     */
+    static class CompactionStats {
+        int expired;
+        int merged;
+        int overDomainCap;
+        int overMaxEntries;
+        long entriesBefore;
+        long entriesAfter;
+        long bytesBefore;
+        long bytesAfter;
+        long durationMs;
+
+        long entriesReclaimed() {
+            return entriesBefore - entriesAfter;
+        }
+
+        long bytesReclaimed() {
+            return bytesBefore - bytesAfter;
+        }
+
+        @Override
+        public String toString() {
+            return "reclaimed " + entriesReclaimed() + " entries / " + bytesReclaimed() + " bytes"
+                    + " (expired=" + expired + ", merged=" + merged
+                    + ", domainCap=" + overDomainCap + ", maxEntries=" + overMaxEntries + ")"
+                    + ", " + entriesBefore + " -> " + entriesAfter + " entries"
+                    + " in " + durationMs + "ms";
+        }
+    }
+
+    /**
+     * 一次性迁移旧版的 JSON 快照和追加日志，成功后删除旧文件
+     * 返回迁移的记录数
+     */
+    int migrateFromJson(File snapshotFile, File journalFile) throws IOException, JSONException {
+        if (!snapshotFile.exists() && !journalFile.exists()) {
+            return 0;
+        }
+
+        int migrated = 0;
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            if (snapshotFile.exists()) {
+                migrated += RecordFile.load(snapshotFile, 0, 2000, HistoryItem::fromJson,
+                        new RecordFile.Listener<HistoryItem>() {
+                            @Override
+                            public void onNewest(List<HistoryItem> newest) {
+                                recordVisits(newest);
+                            }
+
+                            @Override
+                            public void onOlder(List<HistoryItem> batch) {
+                                recordVisits(batch);
+                            }
+                        });
+            }
+            if (journalFile.exists()) {
+                List<HistoryItem> journal = new ArrayList<>();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty()) continue;
+                        try {
+                            journal.add(HistoryItem.fromJson(new JSONObject(line)));
+                        } catch (JSONException e) {
+                            // 进程被杀时最后一行可能只写了一半
+                            Log.w("Browser", "Skipped broken history journal line");
+                        }
+                    }
+                }
+                recordVisits(journal);
+                migrated += journal.size();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (snapshotFile.exists() && !snapshotFile.delete()) {
+            Log.w("Browser", "Failed to delete " + snapshotFile);
+        }
+        if (journalFile.exists() && !journalFile.delete()) {
+            Log.w("Browser", "Failed to delete " + journalFile);
+        }
+        return migrated;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (insertStatement != null) {
+            insertStatement.close();
+            insertStatement = null;
+        }
+        super.close();
+    }
+
+    private SQLiteStatement insertStatement() {
+        if (insertStatement == null) {
+            insertStatement = getWritableDatabase().compileStatement(
+                    "INSERT INTO history (url, url_key, title, timestamp, host) VALUES (?, ?, ?, ?, ?)");
+        }
+        return insertStatement;
+    }
+
+    private List<HistoryItem> query(String sql, String... args) {
+        List<HistoryItem> items = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                HistoryItem item = new HistoryItem(cursor.getString(1), cursor.getString(2), cursor.getLong(3));
+                item.id = cursor.getLong(0);
+                item.visitCount = cursor.getInt(4);
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 把用户输入转成 FTS 查询：去掉语法字符，每个词做前缀匹配
+     */
+    static String toMatchQuery(String text) {
+        StringBuilder match = new StringBuilder();
+        for (String token : text.trim().split("\\s+")) {
+            String clean = token.replaceAll("[\"*^():]", "");
+            if (clean.isEmpty()) continue;
+            if (match.length() > 0) match.append(' ');
+            match.append('"').append(clean).append("*\"");
+        }
+        return match.toString();
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.browser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 历史记录项
+ */
+class HistoryItem {
+    // 数据库行号，未入库时为 0
+    long id;
+    String url;
+    String title;
+    long timestamp;
+    // 合并重复访问后的访问次数
+    int visitCount = 1;
+
+    HistoryItem(String url, String title, long timestamp) {
+        this.url = url;
+        this.title = title;
+        this.timestamp = timestamp;
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("url", url);
+        json.put("title", title);
+        json.put("timestamp", timestamp);
+        return json;
+    }
+
+    /**
+     * 新建按URL索引的历史记录列表
+     */
+    static UrlIndexedList<HistoryItem> newIndexedList() {
+        return new UrlIndexedList<>(item -> item.url);
+    }
+
+    static HistoryItem fromJson(JSONObject json) throws JSONException {
+        String url = json.getString("url");
+        String title = json.getString("title");
+        long timestamp = json.getLong("timestamp");
+        return new HistoryItem(url, title, timestamp);
+    }
+}
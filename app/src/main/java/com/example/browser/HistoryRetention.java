@@ -0,0 +1,36 @@
+package com.example.browser;
+
+import android.content.SharedPreferences;
+
+/**
+ * 历史记录保留策略：最多条数、最长保留时间、单个域名最多条数
+ * 取值保存在 SharedPreferences 中，未设置时使用默认值；0 表示不限制
+ */
+class HistoryRetention {
+
+    static final String KEY_MAX_ENTRIES = "history_max_entries";
+    static final String KEY_MAX_AGE_DAYS = "history_max_age_days";
+    static final String KEY_MAX_PER_DOMAIN = "history_max_per_domain";
+
+    private static final int DEFAULT_MAX_ENTRIES = 50000;
+    private static final int DEFAULT_MAX_AGE_DAYS = 90;
+    private static final int DEFAULT_MAX_PER_DOMAIN = 5000;
+
+    final int maxEntries;
+    final long maxAgeMillis;
+    final int maxPerDomain;
+
+    HistoryRetention(int maxEntries, long maxAgeMillis, int maxPerDomain) {
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxPerDomain = maxPerDomain;
+    }
+
+    static HistoryRetention fromPreferences(SharedPreferences prefs) {
+        int maxAgeDays = prefs.getInt(KEY_MAX_AGE_DAYS, DEFAULT_MAX_AGE_DAYS);
+        return new HistoryRetention(
+                prefs.getInt(KEY_MAX_ENTRIES, DEFAULT_MAX_ENTRIES),
+                maxAgeDays * 24L * 60 * 60 * 1000,
+                prefs.getInt(KEY_MAX_PER_DOMAIN, DEFAULT_MAX_PER_DOMAIN));
+    }
+}
@@ -0,0 +1,351 @@
+package com.example.browser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按主机名拦截广告和跟踪请求的规则表
+ * 规则按域名倒序存成一棵后缀树（com → example → ads），命中某条规则的主机及其所有子域名都被拦截
+ * 查询从主机名末尾逐段比较，不分配对象，耗时只和主机名的段数有关
+ * 查询可以在任意线程上并发进行；修改串行执行，每个节点的子节点数组整体替换，查询不会读到一半的修改
+ */
+class HostBlocklist {
+
+    /**
+     * 一次规则更新的结果
+     */
+    static class Update {
+        final int added;
+        final int removed;
+        final int rules;
+        // 文件没有变化，什么都没做
+        final boolean unchanged;
+
+        Update(int added, int removed, int rules, boolean unchanged) {
+            this.added = added;
+            this.removed = removed;
+            this.rules = rules;
+            this.unchanged = unchanged;
+        }
+
+        @Override
+        public String toString() {
+            return unchanged ? "unchanged, " + rules + " rules"
+                    : "+" + added + " -" + removed + ", " + rules + " rules";
+        }
+    }
+
+    /**
+     * 子节点按标签排好序，和节点数组一起替换
+     */
+    private static final class Children {
+        static final Children EMPTY = new Children(new String[0], new Node[0]);
+
+        final String[] labels;
+        final Node[] nodes;
+
+        Children(String[] labels, Node[] nodes) {
+            this.labels = labels;
+            this.nodes = nodes;
+        }
+    }
+
+    private static final class Node {
+        volatile Children children = Children.EMPTY;
+        // 到这个节点为止的域名是一条规则
+        volatile boolean blocked;
+    }
+
+    private final Node root = new Node();
+    // 同一个标签（com、www、cdn 等）只保存一份
+    private final Map<String, String> labelPool = new HashMap<>();
+    private int rules;
+    private int nodes = 1;
+    // 上次读取的文件的修改时间和长度，没变时跳过
+    private long fileModified = -1;
+    private long fileLength = -1;
+
+    /**
+     * host 本身或它的某个上级域名在规则里；host 应是小写的
+     */
+    boolean isBlocked(String host) {
+        if (host == null || host.isEmpty()) return false;
+        Node node = root;
+        int end = host.length();
+        if (host.charAt(end - 1) == '.') end--;
+        while (end > 0) {
+            int start = host.lastIndexOf('.', end - 1) + 1;
+            Children children = node.children;
+            int index = search(children.labels, host, start, end);
+            if (index < 0) return false;
+            node = children.nodes[index];
+            if (node.blocked) return true;
+            end = start - 1;
+        }
+        return false;
+    }
+
+    /**
+     * 按URL的主机判断，解析不出主机时不拦截
+     */
+    boolean isBlockedUrl(String url) {
+        String host = UrlIndexedList.hostOf(url);
+        return host != null && isBlocked(host);
+    }
+
+    synchronized boolean add(String domain) {
+        String[] labels = labels(domain);
+        if (labels.length == 0) return false;
+        Node node = root;
+        for (int i = labels.length - 1; i >= 0; i--) {
+            Children children = node.children;
+            int index = Arrays.binarySearch(children.labels, labels[i]);
+            if (index < 0) {
+                node = insert(node, -index - 1, pooled(labels[i]));
+            } else {
+                node = children.nodes[index];
+            }
+        }
+        if (node.blocked) return false;
+        node.blocked = true;
+        rules++;
+        return true;
+    }
+
+    synchronized boolean remove(String domain) {
+        String[] labels = labels(domain);
+        if (labels.length == 0) return false;
+        Node[] path = new Node[labels.length + 1];
+        path[0] = root;
+        for (int i = labels.length - 1, depth = 1; i >= 0; i--, depth++) {
+            Children children = path[depth - 1].children;
+            int index = Arrays.binarySearch(children.labels, labels[i]);
+            if (index < 0) return false;
+            path[depth] = children.nodes[index];
+        }
+        Node node = path[labels.length];
+        if (!node.blocked) return false;
+        node.blocked = false;
+        rules--;
+        // 去掉不再通向任何规则的节点
+        for (int depth = labels.length; depth > 0; depth--) {
+            Node child = path[depth];
+            if (child.blocked || child.children.labels.length > 0) break;
+            detach(path[depth - 1], labels[labels.length - depth]);
+        }
+        return true;
+    }
+
+    synchronized int size() {
+        return rules;
+    }
+
+    synchronized int nodeCount() {
+        return nodes;
+    }
+
+    /**
+     * 文件的修改时间或长度变了才重新读，只增删有变化的规则；文件不存在时清空
+     */
+    Update updateFrom(File file) throws IOException {
+        long modified = file.exists() ? file.lastModified() : 0;
+        long length = file.exists() ? file.length() : 0;
+        synchronized (this) {
+            if (modified == fileModified && length == fileLength) {
+                return new Update(0, 0, rules, true);
+            }
+        }
+        Set<String> wanted = new HashSet<>();
+        if (file.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                parse(reader, wanted);
+            }
+        }
+        synchronized (this) {
+            Update update = apply(wanted);
+            fileModified = modified;
+            fileLength = length;
+            return update;
+        }
+    }
+
+    /**
+     * 让规则表和 wanted 一致，返回增删的条数
+     */
+    synchronized Update apply(Set<String> wanted) {
+        List<String> current = new ArrayList<>(rules);
+        collect(root, "", current);
+        int removed = 0;
+        for (String domain : current) {
+            if (!wanted.contains(domain) && remove(domain)) removed++;
+        }
+        int added = 0;
+        for (String domain : wanted) {
+            if (add(domain)) added++;
+        }
+        return new Update(added, removed, rules, false);
+    }
+
+    /**
+     * 逐行解析规则，支持三种写法：hosts 文件（0.0.0.0 ads.example.com）、
+     * 一行一个域名、Adblock 的 ||ads.example.com^；# 和 ! 开头的是注释，其他 Adblock 规则跳过
+     */
+    static void parse(Reader reader, Set<String> out) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            String domain = parseLine(line);
+            if (domain != null) out.add(domain);
+        }
+    }
+
+    static String parseLine(String line) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#") || line.startsWith("!")) return null;
+        // 行尾注释前要有空白，example.com##.ad 这样的元素隐藏规则不能当成 example.com
+        for (int i = 1; i < line.length(); i++) {
+            if (line.charAt(i) == '#' && Character.isWhitespace(line.charAt(i - 1))) {
+                line = line.substring(0, i).trim();
+                break;
+            }
+        }
+
+        String domain;
+        if (line.startsWith("||")) {
+            int end = line.indexOf('^');
+            // 带路径、通配符或选项的规则不是纯主机规则
+            if (end < 0 || end != line.length() - 1) return null;
+            domain = line.substring(2, end);
+        } else {
+            String[] parts = line.split("\\s+");
+            if (parts.length == 1) {
+                domain = parts[0];
+            } else if (parts.length == 2 && isAddress(parts[0])) {
+                domain = parts[1];
+            } else {
+                return null;
+            }
+        }
+        domain = domain.toLowerCase(Locale.ROOT);
+        if (domain.endsWith(".")) domain = domain.substring(0, domain.length() - 1);
+        if (domain.equals("localhost") || domain.indexOf('.') < 0 || isAddress(domain)) return null;
+        for (int i = 0; i < domain.length(); i++) {
+            char c = domain.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '.' || c == '_')) return null;
+        }
+        if (domain.startsWith(".") || domain.contains("..")) return null;
+        return domain;
+    }
+
+    private static boolean isAddress(String s) {
+        if (s.indexOf(':') >= 0) return true;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) return false;
+        }
+        return true;
+    }
+
+    private static String[] labels(String domain) {
+        String normalized = parseLine(domain);
+        return normalized != null ? normalized.split("\\.") : new String[0];
+    }
+
+    private String pooled(String label) {
+        String existing = labelPool.putIfAbsent(label, label);
+        return existing != null ? existing : label;
+    }
+
+    private Node insert(Node parent, int index, String label) {
+        Children old = parent.children;
+        int n = old.labels.length;
+        String[] labels = new String[n + 1];
+        Node[] children = new Node[n + 1];
+        System.arraycopy(old.labels, 0, labels, 0, index);
+        System.arraycopy(old.nodes, 0, children, 0, index);
+        System.arraycopy(old.labels, index, labels, index + 1, n - index);
+        System.arraycopy(old.nodes, index, children, index + 1, n - index);
+        Node node = new Node();
+        labels[index] = label;
+        children[index] = node;
+        parent.children = new Children(labels, children);
+        nodes++;
+        return node;
+    }
+
+    private void detach(Node parent, String label) {
+        Children old = parent.children;
+        int index = Arrays.binarySearch(old.labels, label);
+        if (index < 0) return;
+        int n = old.labels.length;
+        if (n == 1) {
+            parent.children = Children.EMPTY;
+        } else {
+            String[] labels = new String[n - 1];
+            Node[] children = new Node[n - 1];
+            System.arraycopy(old.labels, 0, labels, 0, index);
+            System.arraycopy(old.nodes, 0, children, 0, index);
+            System.arraycopy(old.labels, index + 1, labels, index, n - index - 1);
+            System.arraycopy(old.nodes, index + 1, children, index, n - index - 1);
+            parent.children = new Children(labels, children);
+        }
+        nodes--;
+    }
+
+    private static void collect(Node node, String suffix, List<String> out) {
+        if (node.blocked) out.add(suffix);
+        Children children = node.children;
+        for (int i = 0; i < children.labels.length; i++) {
+            String label = children.labels[i];
+            collect(children.nodes[i], suffix.isEmpty() ? label : label + "." + suffix, out);
+        }
+    }
+
+    /**
+     * 在排好序的标签里二分查找 host[start, end)，不截取子串
+     */
+    private static int search(String[] labels, String host, int start, int end) {
+        int low = 0;
+        int high = labels.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(labels[mid], host, start, end);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(String label, String host, int start, int end) {
+        int length = end - start;
+        int n = Math.min(label.length(), length);
+        for (int i = 0; i < n; i++) {
+            int diff = label.charAt(i) - host.charAt(start + i);
+            if (diff != 0) return diff;
+        }
+        return label.length() - length;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return rules + " rules, " + nodes + " nodes, " + labelPool.size() + " distinct labels";
+    }
+}
@@ -0,0 +1,391 @@
+package com.example.browser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * 网站图标和网页缩略图的两级缓存：内存里按字节数限制的 LRU，磁盘上按主机名存一份
+ * 存入时先缩小到列表里显示的尺寸再编码写盘；读取时内存命中直接返回，
+ * 否则在 io 线程上读盘解码，结果在 main 上回调；同一个图同时只解码一次，行被复用时可以取消
+ * B 是图片类型，应用里是 Bitmap，测试里用普通对象
+ */
+class IconCache<B> {
+
+    /** 网站图标 */
+    static final String ICON = "icon";
+    /** 网页缩略图 */
+    static final String THUMBNAIL = "thumb";
+
+    /**
+     * 图片的缩放和编解码，在 io 线程上调用
+     */
+    interface Codec<B> {
+        /** 解码时就缩小到不超过 maxPx，数据坏了返回 null */
+        B decode(byte[] data, int maxPx);
+
+        /** 长边缩小到不超过 maxPx，不需要缩小时返回原图 */
+        B scale(B image, int maxPx);
+
+        byte[] encode(B image);
+
+        int byteCount(B image);
+    }
+
+    interface Callback<B> {
+        /** 没有这个图时 image 为 null */
+        void onLoaded(B image);
+    }
+
+    /**
+     * 一次读取；行被复用或列表关闭时取消，还没开始解码的不再解码，已经解码的不再回调
+     */
+    static final class Request {
+        private volatile boolean cancelled;
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static final class Pending<B> {
+        final Request request;
+        final Callback<B> callback;
+
+        Pending(Request request, Callback<B> callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+    }
+
+    private final Codec<B> codec;
+    private final File dir;
+    private final int iconPx;
+    private final int thumbnailPx;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final Executor io;
+    private final Executor main;
+
+    // 按最近使用排列，最久没用的在前面
+    private final LinkedHashMap<String, B> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+    // 磁盘上也没有的，存入新图之前不再读盘
+    private final Set<String> missing = new HashSet<>();
+    private final Map<String, List<Pending<B>>> inFlight = new HashMap<>();
+    // 磁盘上的文件名 -> 大小，按最近使用排列；第一次读写时从目录建立
+    // 只在 io 线程上读写，用单独的锁，不让主线程等磁盘
+    private final Object diskLock = new Object();
+    private LinkedHashMap<String, Long> disk;
+    private long diskBytes;
+
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+    private long decodes;
+    private long cancelled;
+    private long stored;
+
+    IconCache(Codec<B> codec, File dir, int iconPx, int thumbnailPx, long maxMemoryBytes, long maxDiskBytes,
+              Executor io, Executor main) {
+        this.codec = codec;
+        this.dir = dir;
+        this.iconPx = iconPx;
+        this.thumbnailPx = thumbnailPx;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.io = io;
+        this.main = main;
+    }
+
+    /**
+     * 存入 url 所在主机的图标或缩略图，替换旧的；缩小、编码和写盘都在 io 线程上
+     */
+    void put(String kind, String url, B image) {
+        String key = keyOf(kind, url);
+        if (key == null || image == null) return;
+        int maxPx = maxPxOf(kind);
+        io.execute(() -> {
+            B scaled = codec.scale(image, maxPx);
+            synchronized (this) {
+                missing.remove(key);
+                putMemory(key, scaled);
+                stored++;
+            }
+            byte[] data = codec.encode(scaled);
+            if (data == null) return;
+            writeDisk(key, data);
+            synchronized (this) {
+                // 写盘前正好有一次读盘没找到
+                missing.remove(key);
+            }
+        });
+    }
+
+    /**
+     * 读 url 所在主机的图标或缩略图；内存命中时直接在调用线程上回调
+     */
+    Request load(String kind, String url, Callback<B> callback) {
+        Request request = new Request();
+        String key = keyOf(kind, url);
+        if (key == null) {
+            callback.onLoaded(null);
+            return request;
+        }
+        B image;
+        synchronized (this) {
+            image = memory.get(key);
+            if (image != null) {
+                memoryHits++;
+            } else if (missing.contains(key)) {
+                misses++;
+            } else {
+                List<Pending<B>> waiting = inFlight.get(key);
+                boolean start = waiting == null;
+                if (start) {
+                    waiting = new ArrayList<>(2);
+                    inFlight.put(key, waiting);
+                }
+                waiting.add(new Pending<>(request, callback));
+                if (start) {
+                    io.execute(() -> decode(kind, key));
+                }
+                return request;
+            }
+        }
+        callback.onLoaded(image);
+        return request;
+    }
+
+    private void decode(String kind, String key) {
+        B image = null;
+        boolean wanted;
+        synchronized (this) {
+            wanted = hasLiveRequest(key);
+            // 排队时已经被别的线程存入
+            image = memory.get(key);
+        }
+        if (wanted && image == null) {
+            byte[] data = readDisk(key);
+            if (data != null) {
+                image = codec.decode(data, maxPxOf(kind));
+                synchronized (this) {
+                    decodes++;
+                    if (image != null) {
+                        diskHits++;
+                        putMemory(key, image);
+                    }
+                }
+            }
+            if (image == null) {
+                synchronized (this) {
+                    misses++;
+                    missing.add(key);
+                }
+            }
+        }
+        B result = image;
+        main.execute(() -> deliver(key, result));
+    }
+
+    private void deliver(String key, B image) {
+        List<Pending<B>> waiting;
+        synchronized (this) {
+            waiting = inFlight.remove(key);
+        }
+        if (waiting == null) return;
+        for (Pending<B> pending : waiting) {
+            if (pending.request.isCancelled()) {
+                synchronized (this) {
+                    cancelled++;
+                }
+            } else {
+                pending.callback.onLoaded(image);
+            }
+        }
+    }
+
+    private synchronized boolean hasLiveRequest(String key) {
+        List<Pending<B>> waiting = inFlight.get(key);
+        if (waiting == null) return false;
+        for (Pending<B> pending : waiting) {
+            if (!pending.request.isCancelled()) return true;
+        }
+        return false;
+    }
+
+    private void putMemory(String key, B image) {
+        B old = memory.put(key, image);
+        if (old != null) memoryBytes -= codec.byteCount(old);
+        memoryBytes += codec.byteCount(image);
+        Iterator<Map.Entry<String, B>> it = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+            Map.Entry<String, B> eldest = it.next();
+            memoryBytes -= codec.byteCount(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * 系统内存紧张时清空内存里的图，磁盘上的还在
+     */
+    synchronized void trimMemory() {
+        memory.clear();
+        memoryBytes = 0;
+    }
+
+    private byte[] readDisk(String key) {
+        File file = new File(dir, key);
+        synchronized (diskLock) {
+            loadDiskIndex();
+            if (disk.get(key) == null) return null;
+        }
+        byte[] data = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) throw new IOException("Truncated " + file);
+                read += n;
+            }
+        } catch (IOException e) {
+            synchronized (diskLock) {
+                Long size = disk.remove(key);
+                if (size != null) diskBytes -= size;
+            }
+            file.delete();
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return data;
+    }
+
+    private void writeDisk(String key, byte[] data) {
+        File file = new File(dir, key);
+        File tmp = new File(dir, key + ".tmp");
+        List<String> evicted = new ArrayList<>();
+        synchronized (diskLock) {
+            loadDiskIndex();
+            dir.mkdirs();
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                out.write(data);
+            } catch (IOException e) {
+                tmp.delete();
+                return;
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+            Long old = disk.remove(key);
+            if (old != null) diskBytes -= old;
+            disk.put(key, (long) data.length);
+            diskBytes += data.length;
+            Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+            while (diskBytes > maxDiskBytes && it.hasNext()) {
+                Map.Entry<String, Long> eldest = it.next();
+                if (eldest.getKey().equals(key)) continue;
+                diskBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                it.remove();
+            }
+        }
+        for (String name : evicted) {
+            new File(dir, name).delete();
+        }
+    }
+
+    /**
+     * 按修改时间从旧到新建立磁盘索引，读过的文件会更新修改时间，所以这也是最近使用的顺序
+     */
+    private void loadDiskIndex() {
+        if (disk != null) return;
+        disk = new LinkedHashMap<>(64, 0.75f, true);
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            disk.put(file.getName(), file.length());
+            diskBytes += file.length();
+        }
+    }
+
+    private int maxPxOf(String kind) {
+        return THUMBNAIL.equals(kind) ? thumbnailPx : iconPx;
+    }
+
+    /**
+     * 同一主机的网页共用一个图，也用作磁盘上的文件名；没有主机时返回 null
+     */
+    static String keyOf(String kind, String url) {
+        String host = url != null ? UrlIndexedList.hostOf(url) : "";
+        if (host.isEmpty()) return null;
+        StringBuilder key = new StringBuilder(kind.length() + host.length() + 1).append(kind).append('-');
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            key.append((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '-' ? c : '_');
+        }
+        return key.toString();
+    }
+
+    synchronized long memoryBytes() {
+        return memoryBytes;
+    }
+
+    long diskBytes() {
+        synchronized (diskLock) {
+            return diskBytes;
+        }
+    }
+
+    synchronized long memoryHits() {
+        return memoryHits;
+    }
+
+    synchronized long diskHits() {
+        return diskHits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized long decodes() {
+        return decodes;
+    }
+
+    synchronized long cancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "memory %d images %dKB / %dKB, disk %dKB / %dKB; %d memory hits, %d disk hits, %d misses, "
+                        + "%d decodes, %d cancelled, %d stored",
+                memory.size(), memoryBytes / 1024, maxMemoryBytes / 1024, diskBytes() / 1024, maxDiskBytes / 1024,
+                memoryHits, diskHits, misses, decodes, cancelled, stored);
+    }
+}
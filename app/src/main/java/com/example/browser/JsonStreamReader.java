@@ -0,0 +1,425 @@
+package com.example.browser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 逐个token读取JSON的流式解析器
+ * 只保留当前token所需的缓冲，不会把整个文档读进内存
+ */
+class JsonStreamReader implements Closeable {
+
+    enum Token {
+        BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    // 当前所在的嵌套层级状态
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    private long consumed;
+
+    private int[] stack = new int[32];
+    private int stackSize = 1;
+
+    private Token peeked;
+    private final StringBuilder scratch = new StringBuilder();
+
+    JsonStreamReader(Reader in) {
+        this.in = in;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    Token peek() throws IOException {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+        return peeked;
+    }
+
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            peeked = null;
+            return readString();
+        }
+        if (token == Token.NUMBER) {
+            peeked = null;
+            return readLiteral();
+        }
+        throw syntaxError("Expected string but was " + token);
+    }
+
+    long nextLong() throws IOException {
+        String literal = nextString();
+        try {
+            return Long.parseLong(literal);
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(literal);
+            } catch (NumberFormatException e2) {
+                throw syntaxError("Expected long but was " + literal);
+            }
+        }
+    }
+
+    int nextInt() throws IOException {
+        return (int) nextLong();
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        String literal = readLiteral();
+        if ("true".equals(literal)) return true;
+        if ("false".equals(literal)) return false;
+        throw syntaxError("Expected boolean but was " + literal);
+    }
+
+    void nextNull() throws IOException {
+        expect(Token.NULL);
+        String literal = readLiteral();
+        if (!"null".equals(literal)) {
+            throw syntaxError("Expected null but was " + literal);
+        }
+    }
+
+    /**
+     * 字符串或 null 都可以接受，null 返回 null
+     */
+    String nextStringOrNull() throws IOException {
+        if (peek() == Token.NULL) {
+            nextNull();
+            return null;
+        }
+        return nextString();
+    }
+
+    /**
+     * 跳过当前值（包括整个嵌套的对象或数组）
+     */
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case NAME:
+                    nextName();
+                    break;
+                case STRING:
+                    nextString();
+                    break;
+                case NUMBER:
+                case BOOLEAN:
+                case NULL:
+                    peeked = null;
+                    readLiteral();
+                    break;
+                default:
+                    throw syntaxError("Unexpected " + token);
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * 把当前对象读成 JSONObject，便于复用各类的 fromJson
+     */
+    JSONObject nextJsonObject() throws IOException {
+        beginObject();
+        JSONObject json = new JSONObject();
+        try {
+            while (hasNext()) {
+                String name = nextName();
+                json.put(name, nextJsonValue());
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        endObject();
+        return json;
+    }
+
+    /**
+     * 已经从输入中消费的字符数
+     */
+    long charsConsumed() {
+        return consumed - (limit - pos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private Object nextJsonValue() throws IOException {
+        Token token = peek();
+        switch (token) {
+            case BEGIN_OBJECT:
+                return nextJsonObject();
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                beginArray();
+                while (hasNext()) {
+                    array.put(nextJsonValue());
+                }
+                endArray();
+                return array;
+            case STRING:
+                return nextString();
+            case NUMBER:
+                String literal = nextString();
+                try {
+                    return Long.parseLong(literal);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(literal);
+                }
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return JSONObject.NULL;
+            default:
+                throw syntaxError("Expected value but was " + token);
+        }
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private Token doPeek() throws IOException {
+        int scope = stack[stackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') return Token.END_ARRAY;
+                if (c == -1) throw syntaxError("Unterminated array");
+                pos--;
+                return peekValue();
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') return Token.END_ARRAY;
+                if (c != ',') throw syntaxError("Unterminated array");
+                return peekValue();
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') return Token.END_OBJECT;
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') throw syntaxError("Unterminated object");
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') throw syntaxError("Expected name");
+                stack[stackSize - 1] = DANGLING_NAME;
+                return Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') throw syntaxError("Expected ':'");
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                return peekValue();
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                return peekValue();
+            default:
+                if (nextNonWhitespace() == -1) return Token.END_DOCUMENT;
+                throw syntaxError("Multiple top-level values");
+        }
+    }
+
+    private Token peekValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case -1:
+                throw syntaxError("Unexpected end of input");
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                pos--;
+                return Token.BOOLEAN;
+            case 'n':
+                pos--;
+                return Token.NULL;
+            default:
+                pos--;
+                return Token.NUMBER;
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (pos < limit || fill()) {
+            char c = buffer[pos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        consumed += n;
+        return true;
+    }
+
+    // 开头的引号已被 peek 消费
+    private String readString() throws IOException {
+        scratch.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') {
+                    scratch.append(buffer, start, pos - 1 - start);
+                    return scratch.toString();
+                }
+                if (c == '\\') {
+                    scratch.append(buffer, start, pos - 1 - start);
+                    scratch.append(readEscape());
+                    start = pos;
+                }
+            }
+            scratch.append(buffer, start, pos - start);
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = nextChar();
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(nextChar(), 16);
+                    if (digit < 0) throw syntaxError("Malformed \\u escape");
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case -1:
+                throw syntaxError("Unterminated escape");
+            default:
+                return (char) c;
+        }
+    }
+
+    private int nextChar() throws IOException {
+        if (pos < limit || fill()) {
+            return buffer[pos++];
+        }
+        return -1;
+    }
+
+    private String readLiteral() throws IOException {
+        scratch.setLength(0);
+        while (pos < limit || fill()) {
+            char c = buffer[pos];
+            if (c == ',' || c == ']' || c == '}' || c == ':'
+                    || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            scratch.append(c);
+            pos++;
+        }
+        if (scratch.length() == 0) {
+            throw syntaxError("Expected literal");
+        }
+        return scratch.toString();
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at char " + charsConsumed());
+    }
+}
@@ -1,61 +1,100 @@
 package com.example.browser;
 
 import android.annotation.SuppressLint;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Parcel;
+import android.os.SystemClock;
 import android.util.Log;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
+import android.webkit.CookieManager;
 import android.webkit.WebChromeClient;
+import android.webkit.WebResourceError;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.FrameLayout;
 import android.widget.ImageButton;
+import android.widget.ListPopupWindow;
 import android.widget.ProgressBar;
+import android.widget.TextView;
 import android.widget.Toast;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
-import org.json.JSONArray;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import org.json.JSONException;
 import org.json.JSONObject;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import okhttp3.MediaType;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
 
 public class MainActivity extends AppCompatActivity {
 
+    // 当前标签的 WebView，切换标签时替换
     private WebView webView;
+    private FrameLayout webViewContainer;
+    private TabManager<WebView> tabManager;
     private EditText etUrl;
     private ImageButton btnBack, btnForward, btnRefresh, btnMenu;
     private Button btnGo;
     private ProgressBar progressBar;
+    private TextView tvBlocked;
     private View statusBarBackground;
     private View toolbar;
 
-    private List<HistoryItem> historyList;
     private List<Bookmark> cloudBookmarks;
-    private List<Bookmark> favoritesList;
+    private UrlIndexedList<Bookmark> favoritesList;
     private static final String DEFAULT_URL = "https://cn.bing.com";
     private boolean isFullscreen = false;
 
@@ -66,109 +105,421 @@ public class MainActivity extends AppCompatActivity {
     private static final String FIXED_USERNAME = "testuser";
     private static final String FIXED_PASSWORD = "testpass123";
 
-    // 线程池和网络客户端
-    private final ExecutorService executorService = Executors.newFixedThreadPool(3);
-    private final OkHttpClient httpClient = new OkHttpClient();
+    // 后台任务按界面读取、写文件、网络分道执行，同一个文件的写操作串行
+    // 整个进程共用一个：旋转屏幕后旧界面还没写完的文件和新界面的读写排在同一个 key 上，不会同时进行
+    private static final TaskScheduler scheduler =
+            new TaskScheduler(e -> Log.e("Browser", "Background task failed", e));
+    private SyncApiClient syncApi;
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
-    // 文件存储路径
+    // 历史记录数据库
+    private HistoryDatabase historyDb;
+
+    // 云书签增量同步，持有本地副本和游标
+    private CloudSync cloudSync;
+    // 云书签写操作的发件箱；界面显示的是服务器副本叠加上待提交的操作
+    private CloudOutbox cloudOutbox;
+    // 合并并发的登录和同步：同时触发的同步只跑一次，令牌过期只重新登录一次
+    private SyncCoordinator<CloudSync.Result> syncCoordinator;
+    private List<Bookmark> cloudServerBookmarks = new ArrayList<>();
+    private long cloudFlushDelayMs;
+    private long cloudRetryDelayMs = CLOUD_RETRY_MIN_MS;
+    private final Runnable cloudFlushRunnable = () -> syncCloudBookmarks(true);
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    // 收藏夹分批加载状态：更早的记录插入到 insertPos 处
+    private int favoritesInsertPos = 0;
+    // 收藏夹的延迟合并写入
+    private final WriteBehind<List<Bookmark>> favoritesWriter = newFavoritesWriter();
+    private static final long FAVORITES_SAVE_DEBOUNCE_MS = 2000;
+
+    // 文件存储路径（历史记录的两个文件只用于一次性迁移到数据库）
     private static final String HISTORY_FILE = "browser_history.json";
+    private static final String HISTORY_JOURNAL_FILE = "browser_history.journal";
     private static final String FAVORITES_FILE = "browser_favorites.json";
+    private static final String CLOUD_BOOKMARKS_FILE = "cloud_bookmarks.json";
+    private static final String CLOUD_OUTBOX_FILE = "cloud_outbox.json";
+    // 历史数据库的写操作（记录访问、迁移、合并、清空）共用的串行 key
+    private static final String HISTORY_DB_KEY = "history.db";
+
+    // 同步接口的HTTP磁盘缓存，超出上限时按最近最少使用淘汰
+    // 整个进程共用一个，同一目录不能同时打开两个缓存
+    private static final String HTTP_CACHE_DIR = "http";
+    private static final long HTTP_CACHE_SIZE = 10L * 1024 * 1024;
+    private static Cache httpCache;
+
+    // 网页静态子资源的磁盘缓存，和同步接口分开存放、分开计算容量
+    private static final String SUBRESOURCE_CACHE_DIR = "subresources";
+    private static final long SUBRESOURCE_CACHE_SIZE = 50L * 1024 * 1024;
+    private static SubresourceCache subresourceCache;
+    // 广告和跟踪请求的拦截规则，进程内共用；文件放在外部文件目录，改动后回到前台时增量更新
+    private static final HostBlocklist blocklist = new HostBlocklist();
+    private static final String BLOCKLIST_FILE = "blocklist.txt";
+    // 还没有子资源大小的数据时，按这个大小估算拦截省下的流量
+    private static final long BLOCKED_BYTES_FALLBACK = 16 * 1024;
+    // 当前页面拦截的请求数和估算省下的字节，在 WebView 的网络线程上累加
+    private final AtomicInteger pageBlocked = new AtomicInteger();
+    private final AtomicLong pageBlockedBytes = new AtomicLong();
+    // 已经投递了一次工具栏计数的刷新，还没执行
+    private final AtomicBoolean blockedBadgePending = new AtomicBoolean();
+    // 不带同步令牌的客户端，同步接口和子资源缓存在它上面各自加缓存，共用连接池
+    private static OkHttpClient baseClient;
+    // 空闲连接保留的数量和时长：同步请求稀疏但成批出现，子资源一个页面会用到好几个主机
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    // 预连接：启动时预热首页，输入网址时预热最可能打开的几个源
+    // WebView 有自己的连接池，用不上 OkHttp 建好的连接，只能共享系统的 DNS 缓存，所以只解析域名
+    private static final int PRECONNECT_BUDGET = 3;
+    private static final long PRECONNECT_WINDOW_MS = 60_000;
+    private static final long PRECONNECT_DEBOUNCE_MS = 300;
+    private static final int PRECONNECT_SUGGESTIONS = 2;
+    private static Preconnector preconnector;
+    private final Runnable preconnectRunnable = this::preconnectTyped;
+    // 最近一次显示的联想结果，只在主线程上访问
+    private List<OmniboxIndex.Suggestion> latestSuggestions = new ArrayList<>();
+
+    // 加载时先发布最新的条数，其余按批次补齐
+    private static final int LOAD_NEWEST_COUNT = 200;
+    private static final int LOAD_BATCH_SIZE = 2000;
+
+    // 历史搜索框输入停顿多久后再查询
+    private static final long HISTORY_SEARCH_DEBOUNCE_MS = 300;
 
     // SharedPreferences 键名
     private static final String PREFS_NAME = "browser_prefs";
     private static final String KEY_SYNC_TOKEN = "sync_token";
     private static final String KEY_USER_ID = "user_id";
+    private static final String KEY_HISTORY_COMPACTED_AT = "history_compacted_at";
+    private static final String KEY_CLOUD_CURSOR = "cloud_sync_cursor";
+    private static final String KEY_CLOUD_BATCH_SIZE = "cloud_batch_size";
+    private static final String KEY_CLOUD_FLUSH_DELAY_MS = "cloud_flush_delay_ms";
+
+    // 云书签写操作：攒够一段时间再批量提交，批次越大请求越少，延迟越高
+    private static final int DEFAULT_CLOUD_BATCH_SIZE = 50;
+    private static final long DEFAULT_CLOUD_FLUSH_DELAY_MS = 3000;
+    // 提交失败后按指数退避重试
+    private static final long CLOUD_RETRY_MIN_MS = 10_000;
+    private static final long CLOUD_RETRY_MAX_MS = 5 * 60_000;
+
+    // 历史记录合并：距上次超过一天，或者新增访问达到一定数量时在后台执行
+    private static final long HISTORY_COMPACT_INTERVAL = 24L * 60 * 60 * 1000;
+    private static final int HISTORY_COMPACT_EVERY_VISITS = 1000;
+    private int visitsSinceCompaction = 0;
+
+    // 地址栏联想：索引只在 omniboxExecutor 上读写，每次按键让之前的查询作废
+    private static final int OMNIBOX_SUGGESTION_COUNT = 8;
+    private static final int OMNIBOX_HISTORY_LIMIT = 100000;
+    private final ExecutorService omniboxExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicInteger omniboxQuerySeq = new AtomicInteger();
+    private OmniboxIndex omniboxIndex = new OmniboxIndex();
+    private ListPopupWindow suggestionPopup;
+    private ArrayAdapter<OmniboxIndex.Suggestion> suggestionAdapter;
+
+    // 启动各阶段的计时，日志里和菜单的“启动耗时”都能看到
+    // 进程里第一次创建界面算冷启动，从进程启动开始计时
+    private static boolean coldStartTraced = false;
+    private StartupTrace startupTrace;
+    // 启动时的依赖还没准备好时，用到它们的操作先排队
+    // 历史记录迁移完成前的访问记录、收藏夹加载完成前的保存
+    private final ReadyGate historyReady = new ReadyGate();
+    private final ReadyGate favoritesReady = new ReadyGate();
+    // 登录、同步和网络监听等首屏绘制完、主线程空闲后再开始，不和首页加载抢网络和主线程
+    private final ReadyGate deferredStartup = new ReadyGate();
+    private final Runnable deferredStartupRunnable = this::openDeferredStartup;
+    // 首页一直没有绘制（离线、加载失败）时最多等这么久
+    private static final long STARTUP_DEFER_MAX_MS = 5000;
+
+    // 离线网页存放的目录（在文件目录下，不会被系统当缓存清掉）和配额
+    private static final String OFFLINE_DIR = "offline";
+    private static final long OFFLINE_QUOTA = 100L * 1024 * 1024;
+    // 在后台线程上加载完之前为 null
+    private static volatile OfflineArchive offlineArchive;
+
+    // 网站图标和缩略图：磁盘缓存目录和大小，内存里占可用堆的 1/16
+    private static final String ICON_CACHE_DIR = "icons";
+    private static final long ICON_DISK_CACHE_SIZE = 20L * 1024 * 1024;
+    // 列表里图标和缩略图的尺寸（dp），存入时缩小到这个尺寸
+    private static final int ICON_SIZE_DP = 24;
+    private static final int THUMBNAIL_SIZE_DP = 64;
+    // 加载完成后等页面画出来再截缩略图
+    private static final long THUMBNAIL_DELAY_MS = 500;
+    // 还没执行的截图，新的页面加载完或界面销毁时取消
+    private Runnable pendingThumbnail;
+    private IconCache<Bitmap> iconCache;
+
+    // 标签休眠时 WebView 状态存放的目录（在缓存目录下）
+    private static final String TAB_STATE_DIR = "tabs";
+    // 标签数变化后等页面加载一会儿再采样进程内存
+    private static final long TAB_MEMORY_SAMPLE_DELAY_MS = 3000;
+    private final Runnable tabMemorySampleRunnable = this::takeTabMemorySample;
+
+    // 最近的页面加载记录，整个进程共用，界面重建后保留
+    private static final int PAGE_LOAD_CAPACITY = 200;
+    private static final PageLoadTimeline pageLoads = new PageLoadTimeline(PAGE_LOAD_CAPACITY);
+    private static final String PAGE_LOADS_EXPORT_FILE = "page_loads.json";
+    // 当前的主框架导航，只在主线程上访问；加载完成或被新导航打断后提交到 pageLoads
+    private PageLoadTimeline.PageLoad currentLoad;
+    // 加载完成后用 JS 读 Navigation Timing，补上 DNS、连接、首字节等网络阶段
+    private static final boolean COLLECT_NAVIGATION_TIMING = true;
+    private static final String NAVIGATION_TIMING_JS = "(function(){"
+            + "var e=performance.getEntriesByType&&performance.getEntriesByType('navigation')[0];"
+            + "if(!e)return null;"
+            + "return {type:e.type,dns:e.domainLookupEnd-e.domainLookupStart,"
+            + "connect:e.connectEnd-e.connectStart,"
+            + "tls:e.secureConnectionStart>0?e.connectEnd-e.secureConnectionStart:0,"
+            + "ttfb:e.responseStart-e.requestStart,response:e.responseEnd-e.responseStart,"
+            + "domInteractive:e.domInteractive,domContentLoaded:e.domContentLoadedEventEnd,"
+            + "load:e.loadEventEnd,transferSize:e.transferSize,protocol:e.nextHopProtocol};"
+            + "})()";
 
-    // 历史记录项类
-    private static class HistoryItem {
-        String url;
-        String title;
-        long timestamp;
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        startupTrace = newStartupTrace();
+        startupTrace.begin("onCreate");
+        // 首页的域名解析和 WebView 初始化同时进行
+        preconnector().preconnect(DEFAULT_URL);
 
-        HistoryItem(String url, String title, long timestamp) {
-            this.url = url;
-            this.title = title;
-            this.timestamp = timestamp;
-        }
+        // 设置沉浸式状态栏
+        setupImmersiveStatusBar();
 
-        JSONObject toJson() throws JSONException {
-            JSONObject json = new JSONObject();
-            json.put("url", url);
-            json.put("title", title);
-            json.put("timestamp", timestamp);
-            return json;
-        }
+        startupTrace.begin("views");
+        setContentView(R.layout.activity_main);
+        initViews();
+        setupStatusBar();
+        startupTrace.end("views");
+
+        startupTrace.begin("webView");
+        initTabs();
+        startupTrace.end("webView");
+        setupClickListeners();
+        setupOmnibox();
+
+        // 首页最先开始加载，文件和数据库在后台读，网络请求排到首屏之后
+        startupTrace.begin("loadUrl");
+        openTab(DEFAULT_URL);
+        startupTrace.end("loadUrl");
+
+        startupTrace.begin("initData");
+        initData();
+        startupTrace.end("initData");
+
+        // 自动登录并同步云书签
+        deferredStartup.run(this::registerNetworkCallback);
+        deferredStartup.run(this::autoLoginAndSync);
+        mainHandler.postDelayed(deferredStartupRunnable, STARTUP_DEFER_MAX_MS);
+        startupTrace.end("onCreate");
+    }
 
-        static HistoryItem fromJson(JSONObject json) throws JSONException {
-            String url = json.getString("url");
-            String title = json.getString("title");
-            long timestamp = json.getLong("timestamp");
-            return new HistoryItem(url, title, timestamp);
+    private static StartupTrace newStartupTrace() {
+        if (!coldStartTraced) {
+            coldStartTraced = true;
+            return new StartupTrace("Cold start (since process start)", SystemClock::elapsedRealtimeNanos,
+                    android.os.Process.getStartElapsedRealtime() * 1_000_000);
         }
+        return new StartupTrace("Warm start (since onCreate)", SystemClock::elapsedRealtimeNanos,
+                SystemClock.elapsedRealtimeNanos());
     }
 
-    // 书签类
-    private static class Bookmark {
-        String id;
-        String title;
-        String url;
-        long timestamp;
+    /**
+     * 首页第一次绘制后，等主线程空闲再开始延后的启动任务
+     */
+    private void onFirstPaint() {
+        startupTrace.mark("firstPaint");
+        Looper.myQueue().addIdleHandler(() -> {
+            openDeferredStartup();
+            return false;
+        });
+    }
 
-        Bookmark(String id, String title, String url, long timestamp) {
-            this.id = id;
-            this.title = title;
-            this.url = url;
-            this.timestamp = timestamp;
-        }
+    private void openDeferredStartup() {
+        if (deferredStartup.isOpen() || isDestroyed()) return;
+        mainHandler.removeCallbacks(deferredStartupRunnable);
+        startupTrace.mark("deferredStart");
+        deferredStartup.open();
+        Log.d("Browser", startupTrace.toString());
+    }
 
-        Bookmark(String title, String url) {
-            this(null, title, url, System.currentTimeMillis());
-        }
+    // ========================= 标签页 =========================
 
-        JSONObject toJson() throws JSONException {
-            JSONObject json = new JSONObject();
-            if (id != null) json.put("id", id);
-            json.put("title", title);
-            json.put("url", url);
-            json.put("timestamp", timestamp);
-            return json;
-        }
+    private void initTabs() {
+        ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+        int liveLimit = TabManager.liveLimitForMemoryClass(activityManager.getMemoryClass(),
+                activityManager.isLowRamDevice());
+        tabManager = new TabManager<>(new TabManager.Engine<WebView>() {
+            @Override
+            public WebView create() {
+                WebView view = new WebView(MainActivity.this);
+                setupWebView(view);
+                return view;
+            }
 
-        static Bookmark fromJson(JSONObject json) throws JSONException {
-            String id = json.has("id") ? json.getString("id") : null;
-            String title = json.getString("title");
-            String url = json.getString("url");
-            long timestamp = json.getLong("timestamp");
-            return new Bookmark(id, title, url, timestamp);
-        }
+            @Override
+            public void destroy(WebView view) {
+                if (view == webView) {
+                    webViewContainer.removeView(view);
+                    webView = null;
+                }
+                view.stopLoading();
+                view.destroy();
+            }
 
-        @Override
-        public String toString() {
-            return title;
-        }
+            @Override
+            public byte[] saveState(WebView view) {
+                Bundle bundle = new Bundle();
+                if (view.saveState(bundle) == null) return null;
+                Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.writeBundle(bundle);
+                    return parcel.marshall();
+                } finally {
+                    parcel.recycle();
+                }
+            }
+
+            @Override
+            public boolean restoreState(WebView view, byte[] state) {
+                Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.unmarshall(state, 0, state.length);
+                    parcel.setDataPosition(0);
+                    Bundle bundle = parcel.readBundle(getClassLoader());
+                    return bundle != null && view.restoreState(bundle) != null;
+                } catch (RuntimeException e) {
+                    Log.w("Browser", "Failed to restore tab state", e);
+                    return false;
+                } finally {
+                    parcel.recycle();
+                }
+            }
+
+            @Override
+            public void load(WebView view, String url) {
+                view.loadUrl(url);
+            }
+        }, new File(getCacheDir(), TAB_STATE_DIR), liveLimit, SystemClock::elapsedRealtimeNanos);
+        Log.d("Browser", "Tabs: memory class " + activityManager.getMemoryClass() + "MB, live limit " + liveLimit);
     }
 
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
+    /**
+     * 在新标签里打开 url 并切换过去
+     */
+    private void openTab(String url) {
+        beginPageLoad(url);
+        TabManager.Tab<WebView> tab = tabManager.open(url, true);
+        showTabView(tab.view);
+        etUrl.setText(url);
+        hideSuggestions();
+        sampleTabMemory();
+    }
 
-        // 设置沉浸式状态栏
-        setupImmersiveStatusBar();
+    private void switchTab(int id) {
+        if (tabManager.current() != null && tabManager.current().id == id) return;
+        beginPageLoad(null);
+        long start = SystemClock.elapsedRealtimeNanos();
+        WebView view = tabManager.switchTo(id);
+        if (view == null) return;
+        showTabView(view);
+        Log.d("Browser", "Switched to tab " + id + " in "
+                + (SystemClock.elapsedRealtimeNanos() - start) / 1000 + "us, " + tabManager);
+        sampleTabMemory();
+    }
 
-        setContentView(R.layout.activity_main);
+    private void closeCurrentTab() {
+        TabManager.Tab<WebView> tab = tabManager.current();
+        if (tab == null) return;
+        beginPageLoad(null);
+        TabManager.Tab<WebView> next = tabManager.close(tab.id);
+        if (next == null) {
+            openTab(DEFAULT_URL);
+            return;
+        }
+        showTabView(next.view);
+        sampleTabMemory();
+    }
 
-        initViews();
-        setupStatusBar();
-        initWebView();
-        setupClickListeners();
-        initData();
+    /**
+     * 把当前标签的 WebView 放进界面，换下来的暂停（还活着，只是不可见）
+     */
+    private void showTabView(WebView view) {
+        if (view == webView) return;
+        // 换下来的标签不再截图
+        mainHandler.removeCallbacks(pendingThumbnail);
+        pendingThumbnail = null;
+        if (webView != null) {
+            webView.onPause();
+            webViewContainer.removeView(webView);
+        }
+        webView = view;
+        webViewContainer.addView(view, new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
+        view.onResume();
+        String url = view.getUrl();
+        if (url != null) {
+            etUrl.setText(url);
+        }
+        progressBar.setVisibility(View.GONE);
+        resetBlockedCounts();
+        updateNavigationButtons();
+    }
 
-        // 自动登录并同步云书签
-        autoLoginAndSync();
+    /**
+     * 标签数变化后过一会儿在后台以低优先级采样进程内存，估算每个活着的标签占多少
+     * 只包含本进程，WebView 的渲染进程不在里面；连续切换标签只采样最后一次
+     */
+    private void sampleTabMemory() {
+        mainHandler.removeCallbacks(tabMemorySampleRunnable);
+        mainHandler.postDelayed(tabMemorySampleRunnable, TAB_MEMORY_SAMPLE_DELAY_MS);
+    }
 
-        // 加载默认网页
-        loadUrl(DEFAULT_URL);
+    private void takeTabMemorySample() {
+        if (tabManager == null || isDestroyed()) return;
+        int live = tabManager.liveCount();
+        // 本地的 CPU 采样，不和同步抢网络道的线程和队列
+        scheduler.execute(TaskScheduler.Lane.INTERACTIVE, TaskScheduler.PRIORITY_LOW,
+                () -> tabManager.onMemorySample(live, Debug.getPss()));
+    }
+
+    private void showTabsDialog() {
+        List<TabManager.Tab<WebView>> tabs = tabManager.tabs();
+        String[] items = new String[tabs.size()];
+        for (int i = 0; i < tabs.size(); i++) {
+            TabManager.Tab<WebView> tab = tabs.get(i);
+            items[i] = (tab == tabManager.current() ? "● " : "") + tab;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("标签页（" + tabs.size() + "）")
+                .setItems(items, (dialog, which) -> switchTab(tabs.get(which).id))
+                .setPositiveButton("新建标签页", (dialog, which) -> openTab(DEFAULT_URL))
+                .setNeutralButton("关闭当前", (dialog, which) -> closeCurrentTab())
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    /**
+     * 系统内存紧张时临时减少活着的标签，多出来的后台标签立即休眠
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (iconCache != null && level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            // 内存里的图随时可以从磁盘重新解码
+            iconCache.trimMemory();
+        }
+        if (tabManager == null) return;
+        int limit = tabManager.liveLimit();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            limit = 1;
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            limit = Math.max(1, limit / 2);
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            limit = Math.max(1, limit - 1);
+        } else {
+            return;
+        }
+        tabManager.applyMemoryPressure(limit);
+        Log.d("Browser", "onTrimMemory " + level + ": " + tabManager);
     }
 
     @Override
@@ -177,6 +528,7 @@ public class MainActivity extends AppCompatActivity {
         if (webView != null) {
             webView.onResume();
         }
+        updateBlocklist();
     }
 
     @Override
@@ -185,9 +537,10 @@ public class MainActivity extends AppCompatActivity {
         if (webView != null) {
             webView.onPause();
         }
-        // 暂停时保存数据
-        saveHistoryToFile();
-        saveFavoritesToFile();
+        // 暂停时把还没写的收藏夹交给写线程，不在主线程上等待（历史记录每次访问已写入数据库）
+        long start = System.nanoTime();
+        favoritesWriter.flush();
+        Log.d("Browser", "onPause flush took " + (System.nanoTime() - start) / 1000 + "us, favorites " + favoritesWriter);
     }
 
     // ========================= 用户认证和令牌管理 =========================
@@ -196,79 +549,48 @@ public class MainActivity extends AppCompatActivity {
      * 自动登录并同步云书签
      */
     private void autoLoginAndSync() {
-        executorService.execute(() -> {
+        startupTrace.begin("cloudSync");
+        scheduler.execute(TaskScheduler.Lane.NETWORK, () -> {
             try {
                 String savedToken = getSyncToken();
 
-                if (savedToken == null || savedToken.isEmpty()) {
-                    // 没有保存的token，进行登录
-                    boolean loginSuccess = loginToServer();
-                    if (loginSuccess) {
-                        // 登录成功后同步云书签
-                        syncCloudBookmarks();
-                    }
-                } else {
-                    // 有保存的token，直接同步云书签
-                    syncCloudBookmarks();
-                }
+                // 没有保存的token先登录，有的话直接同步云书签
+                CompletableFuture<Boolean> login = savedToken == null || savedToken.isEmpty()
+                        ? loginToServer()
+                        : CompletableFuture.completedFuture(true);
+                login.thenCompose(loginSuccess -> loginSuccess
+                                ? syncCloudBookmarks(false)
+                                : CompletableFuture.completedFuture(null))
+                        .whenComplete((result, error) -> {
+                            startupTrace.end("cloudSync");
+                            Log.d("Browser", startupTrace.toString());
+                        });
             } catch (Exception e) {
                 Log.e("Browser", "自动登录失败", e);
+                startupTrace.end("cloudSync");
             }
         });
     }
 
     /**
-     * 登录到服务器
+     * 登录到服务器，结果在网络线程上回调
      */
-    private boolean loginToServer() {
-        try {
-            JSONObject requestBody = new JSONObject();
-            requestBody.put("username", FIXED_USERNAME);
-            requestBody.put("password", FIXED_PASSWORD);
-
-            Request request = new Request.Builder()
-                    .url(SERVER_BASE_URL + "/auth/login")
-                    .post(RequestBody.create(
-                            MediaType.parse("application/json"),
-                            requestBody.toString()
-                    ))
-                    .build();
-
-            try (Response response = httpClient.newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    Log.e("Browser", "登录失败，HTTP状态码: " + response.code());
-                    return false;
-                }
-
-                String responseBody = response.body().string();
-                JSONObject jsonResponse = new JSONObject(responseBody);
-
-                if (jsonResponse.getInt("code") != 200) {
-                    Log.e("Browser", "登录API错误: " + jsonResponse.getString("message"));
-                    return false;
-                }
-
-                JSONObject data = jsonResponse.getJSONObject("data");
-                String syncToken = data.getString("syncToken");
-                String userId = data.getString("userId");
-
-                // 保存token和用户ID
-                saveSyncToken(syncToken);
-                saveUserId(userId);
-
+    private CompletableFuture<Boolean> loginToServer() {
+        // 正在登录时加入那一次；token和用户ID由 syncCoordinator 保存
+        return syncCoordinator.login().handle((login, error) -> {
+            if (error != null) {
+                Log.e("Browser", "登录异常", error);
                 mainHandler.post(() -> {
-                    Toast.makeText(MainActivity.this, "云书签登录成功", Toast.LENGTH_SHORT).show();
+                    Toast.makeText(MainActivity.this, "云书签登录失败", Toast.LENGTH_SHORT).show();
                 });
-
-                return true;
+                return false;
             }
-        } catch (Exception e) {
-            Log.e("Browser", "登录异常", e);
+
             mainHandler.post(() -> {
-                Toast.makeText(MainActivity.this, "云书签登录失败", Toast.LENGTH_SHORT).show();
+                Toast.makeText(MainActivity.this, "云书签登录成功", Toast.LENGTH_SHORT).show();
             });
-            return false;
-        }
+            return true;
+        });
     }
 
     /**
@@ -287,6 +609,14 @@ public class MainActivity extends AppCompatActivity {
         return prefs.getString(KEY_SYNC_TOKEN, "");
     }
 
+    /**
+     * 保存增量同步游标（云书签文件写完之后再保存，崩溃时最多重复应用一次变更）
+     */
+    private void saveCloudCursor(String cursor) {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putString(KEY_CLOUD_CURSOR, cursor).apply();
+    }
+
     /**
      * 保存用户ID
      */
@@ -309,140 +639,168 @@ public class MainActivity extends AppCompatActivity {
      * 同步云书签
      */
     public void syncCloudBookmarks() {
-        executorService.execute(() -> {
-            try {
-                String token = getSyncToken();
-                if (token.isEmpty()) {
-                    Log.e("Browser", "同步失败：没有有效的token");
-                    return;
-                }
-
-                // 从服务器获取书签
-                List<Bookmark> serverBookmarks = fetchBookmarksFromServer(token);
-
-                mainHandler.post(() -> {
-                    cloudBookmarks.clear();
-                    cloudBookmarks.addAll(serverBookmarks);
-                    Toast.makeText(MainActivity.this,
-                            "已同步 " + cloudBookmarks.size() + " 个云书签",
-                            Toast.LENGTH_SHORT).show();
-                    Log.d("Browser", "Synced " + cloudBookmarks.size() + " cloud bookmarks");
-                });
+        syncCloudBookmarks(false);
+    }
 
-            } catch (Exception e) {
-                Log.e("Browser", "同步失败", e);
-                mainHandler.post(() -> {
-                    Toast.makeText(MainActivity.this,
-                            "同步失败: " + e.getMessage(),
-                            Toast.LENGTH_SHORT).show();
-                });
-            }
+    /**
+     * 正在同步时加入那一次；quiet 为 true 时是本地有了新的写操作，排在正在进行的同步之后再跑一次，失败不提示（后台重试）
+     */
+    private CompletableFuture<CloudSync.Result> syncCloudBookmarks(boolean quiet) {
+        CompletableFuture<CloudSync.Result> sync = quiet ? syncCoordinator.syncAgain() : syncCoordinator.sync();
+        return sync.whenComplete((result, error) -> {
+            if (error == null) return;
+            Log.e("Browser", "同步失败", error);
+            if (quiet) return;
+            mainHandler.post(() -> {
+                Toast.makeText(MainActivity.this,
+                        "同步失败: " + error.getMessage(),
+                        Toast.LENGTH_SHORT).show();
+            });
         });
     }
 
     /**
-     * 从服务器获取书签
+     * 先提交发件箱里的操作，再拉取增量变更，由 syncCoordinator 在线程池上执行
+     * 令牌过期时抛出 UnauthorizedException，由 syncCoordinator 重新登录后再跑一次
      */
-    private List<Bookmark> fetchBookmarksFromServer(String token) throws Exception {
-        String url = SERVER_BASE_URL + "/bookmarks?token=" + token;
-
-        Request request = new Request.Builder()
-                .url(url)
-                .build();
-
-        try (Response response = httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new Exception("服务器错误: " + response.code());
+    private CloudSync.Result runCloudSync() throws IOException, JSONException {
+        int pending = cloudOutbox.pendingCount();
+        Exception outboxError = cloudOutbox.takeLoadError();
+        if (outboxError != null) {
+            Log.e("Browser", "Failed to load cloud outbox", outboxError);
+        }
+        if (pending > 0) {
+            try {
+                int sent = cloudOutbox.flush();
+                Log.d("Browser", "Flushed " + sent + " cloud bookmark ops");
+                mainHandler.post(() -> cloudRetryDelayMs = CLOUD_RETRY_MIN_MS);
+                // 服务器没有 batch 接口，排队的修改和删除提交不了，已经撤销
+                int rejected = cloudOutbox.takeRejected();
+                if (rejected > 0) {
+                    Log.w("Browser", "Server has no batch endpoint, dropped " + rejected + " cloud bookmark edits");
+                    mainHandler.post(() -> Toast.makeText(MainActivity.this,
+                            "服务器不支持修改云书签，" + rejected + " 个修改未能同步", Toast.LENGTH_LONG).show());
+                }
+            } catch (SyncApiClient.UnauthorizedException e) {
+                throw e;
+            } catch (IOException e) {
+                Log.w("Browser", "Cloud outbox flush failed, will retry", e);
+                mainHandler.post(this::scheduleCloudRetry);
             }
+        }
 
-            String responseBody = response.body().string();
-            JSONObject jsonResponse = new JSONObject(responseBody);
-
-            if (jsonResponse.getInt("code") != 200) {
-                throw new Exception("API错误: " + jsonResponse.getString("message"));
+        // 只拉取上次同步之后的变更
+        CloudSync.Result result = cloudSync.sync();
+        saveCloudCursor(result.cursor);
+        if (result.localCopyError != null) {
+            Log.e("Browser", "Failed to load cloud bookmarks", result.localCopyError);
+        }
+        Log.d("Browser", "Cloud sync: " + (result.reset ? "full " : "delta ")
+                + result.upserts.size() + " upserts, " + result.deleted.size()
+                + " deletes, " + result.bytes + " bytes"
+                + (result.notModified ? " (not modified)" : ""));
+        Log.d("Browser", "HTTP cache: " + httpCache.hitCount() + " hits, "
+                + httpCache.networkCount() + " network, " + httpCache.requestCount() + " requests");
+
+        if (!result.reset && !result.upserts.isEmpty()) {
+            omniboxExecutor.execute(() -> {
+                for (Bookmark bookmark : result.upserts) {
+                    omniboxIndex.addBookmark(bookmark.url, bookmark.title, bookmark.timestamp);
+                }
+            });
+        }
+        // 每次同步只更新一次界面，不管有多少个请求在等它
+        mainHandler.post(() -> {
+            cloudServerBookmarks = result.bookmarks;
+            // 只改动变了的条目，没变的保留原对象
+            long start = System.nanoTime();
+            BookmarkMerge.Diff diff = BookmarkMerge.apply(cloudBookmarks, cloudOutbox.overlay(cloudServerBookmarks), null);
+            Log.d("Browser", "Cloud bookmarks merged " + diff + " in " + (System.nanoTime() - start) / 1000 + "us");
+            // 收藏夹加载完之后再比较
+            favoritesReady.run(this::resolveBookmarkConflicts);
+            if (result.reset) {
+                rebuildOmniboxIndex();
             }
-
-            JSONArray bookmarksArray = jsonResponse.getJSONArray("data");
-            List<Bookmark> bookmarks = new ArrayList<>();
-
-            for (int i = 0; i < bookmarksArray.length(); i++) {
-                JSONObject bookmarkJson = bookmarksArray.getJSONObject(i);
-                Bookmark bookmark = new Bookmark(
-                        bookmarkJson.getString("id"),
-                        bookmarkJson.getString("title"),
-                        bookmarkJson.getString("url"),
-                        bookmarkJson.getLong("createdAt")
-                );
-                bookmarks.add(bookmark);
+            if (result.reset || result.changes() > 0) {
+                Toast.makeText(MainActivity.this,
+                        "已同步 " + cloudBookmarks.size() + " 个云书签",
+                        Toast.LENGTH_SHORT).show();
             }
-
-            return bookmarks;
-        }
+            Log.d("Browser", "Synced " + cloudBookmarks.size() + " cloud bookmarks");
+        });
+        return result;
     }
 
     /**
-     * 添加当前网页到云书签
+     * 收藏夹和云书签里同一网址的标题不一致时，时间戳新的一方为准
+     * 收藏夹为准时把标题作为修改提交到云端；云书签对象和同步的服务器副本共用，不在原地修改，
+     * 修改排进发件箱后由 overlay 显示新标题
      */
+    private void resolveBookmarkConflicts() {
+        List<BookmarkMerge.Conflict> conflicts = BookmarkMerge.resolveConflicts(favoritesList, cloudBookmarks);
+        if (conflicts.isEmpty()) return;
+        boolean favoritesChanged = false;
+        boolean canPush = cloudOutbox.supportsEdits();
+        List<Bookmark> pushed = new ArrayList<>();
+        for (BookmarkMerge.Conflict conflict : conflicts) {
+            if (conflict.favoriteWins) {
+                // 服务器不接收修改时先不提交，等重新确认支持后再比较
+                if (canPush) {
+                    pushed.add(new Bookmark(conflict.loser.id, conflict.winner.title, conflict.loser.url,
+                            conflict.winner.timestamp));
+                }
+            } else {
+                conflict.loser.title = conflict.winner.title;
+                conflict.loser.timestamp = conflict.winner.timestamp;
+                favoritesChanged = true;
+            }
+        }
+        if (favoritesChanged) {
+            markFavoritesDirty();
+        }
+        if (!pushed.isEmpty()) {
+            scheduler.executeSerial(CLOUD_OUTBOX_FILE, () -> {
+                try {
+                    for (Bookmark bookmark : pushed) {
+                        cloudOutbox.enqueueUpdate(bookmark.id, bookmark.title, bookmark.url);
+                    }
+                    mainHandler.post(() -> {
+                        BookmarkMerge.apply(cloudBookmarks, cloudOutbox.overlay(cloudServerBookmarks), null);
+                        scheduleCloudFlush();
+                    });
+                } catch (Exception e) {
+                    Log.e("Browser", "Failed to queue bookmark updates", e);
+                }
+            });
+        }
+        Log.d("Browser", "Resolved " + conflicts.size() + " bookmark conflicts, " + pushed.size() + " pushed to cloud");
+    }
+
     /**
      * 添加当前网页到云书签
+     * 先写入发件箱并立即显示在列表里，离线时也能添加，联网后分批提交
      */
     private void addCurrentToCloudBookmarks() {
-        // 在主线程中获取WebView数据
         String currentUrl = webView.getUrl();
         String currentTitle = webView.getTitle();
-        String token = getSyncToken();
 
         if (currentUrl == null || currentUrl.isEmpty()) {
             Toast.makeText(MainActivity.this, "当前没有加载网页", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        if (token.isEmpty()) {
-            Toast.makeText(MainActivity.this, "请先登录云书签", Toast.LENGTH_SHORT).show();
-            return;
-        }
-
         String title = currentTitle != null ? currentTitle : "未命名网页";
 
-        // 现在在后台线程中执行网络请求
-        executorService.execute(() -> {
+        scheduler.executeSerial(CLOUD_OUTBOX_FILE, () -> {
             try {
-                // 修复：移除JSON body中的token字段
-                JSONObject requestBody = new JSONObject();
-                requestBody.put("title", title);
-                requestBody.put("url", currentUrl);
-
-                Request request = new Request.Builder()
-                        .url(SERVER_BASE_URL + "/bookmarks?token=" + token)
-                        .post(RequestBody.create(
-                                MediaType.parse("application/json"),
-                                requestBody.toString()
-                        ))
-                        .build();
-
-                try (Response response = httpClient.newCall(request).execute()) {
-                    String responseBody = response.body().string();
-                    Log.d("Browser", "添加云书签响应: " + responseBody);
-
-                    if (response.isSuccessful()) {
-                        JSONObject jsonResponse = new JSONObject(responseBody);
-                        if (jsonResponse.getInt("code") == 200) {
-                            mainHandler.post(() -> {
-                                Toast.makeText(MainActivity.this, "已添加到云书签", Toast.LENGTH_SHORT).show();
-                                // 添加成功后同步一次，更新本地列表
-                                syncCloudBookmarks();
-                            });
-                        } else {
-                            String errorMsg = jsonResponse.getString("message");
-                            mainHandler.post(() ->
-                                    Toast.makeText(MainActivity.this, "添加到云书签失败: " + errorMsg, Toast.LENGTH_SHORT).show());
-                        }
-                    } else {
-                        mainHandler.post(() ->
-                                Toast.makeText(MainActivity.this, "网络请求失败: " + response.code(), Toast.LENGTH_SHORT).show());
-                    }
-                }
-
+                Bookmark bookmark = cloudOutbox.enqueueAdd(title, currentUrl);
+                omniboxExecutor.execute(() ->
+                        omniboxIndex.addBookmark(bookmark.url, bookmark.title, bookmark.timestamp));
+                mainHandler.post(() -> {
+                    cloudBookmarks.add(bookmark);
+                    Toast.makeText(MainActivity.this, "已添加到云书签", Toast.LENGTH_SHORT).show();
+                    scheduleCloudFlush();
+                });
             } catch (Exception e) {
                 Log.e("Browser", "添加到云书签失败", e);
                 mainHandler.post(() ->
@@ -451,114 +809,240 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * 延迟一段时间再提交，期间的其它操作会合并到同一批
+     */
+    private void scheduleCloudFlush() {
+        mainHandler.removeCallbacks(cloudFlushRunnable);
+        mainHandler.postDelayed(cloudFlushRunnable, cloudFlushDelayMs);
+    }
+
+    private void scheduleCloudRetry() {
+        mainHandler.removeCallbacks(cloudFlushRunnable);
+        mainHandler.postDelayed(cloudFlushRunnable, cloudRetryDelayMs);
+        cloudRetryDelayMs = Math.min(cloudRetryDelayMs * 2, CLOUD_RETRY_MAX_MS);
+    }
+
+    /**
+     * 网络恢复时提交离线期间积累的操作
+     */
+    private void registerNetworkCallback() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) return;
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                scheduler.execute(TaskScheduler.Lane.NETWORK, TaskScheduler.PRIORITY_LOW, () -> {
+                    if (cloudOutbox.pendingCount() > 0) {
+                        mainHandler.post(() -> {
+                            cloudRetryDelayMs = CLOUD_RETRY_MIN_MS;
+                            scheduleCloudFlush();
+                        });
+                    }
+                });
+            }
+        };
+        connectivityManager.registerDefaultNetworkCallback(networkCallback);
+    }
+
     // ========================= 文件存储操作 =========================
 
+    private static synchronized OkHttpClient baseHttpClient() {
+        if (baseClient == null) {
+            baseClient = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                    .build();
+        }
+        return baseClient;
+    }
+
     private void initData() {
-        // 从文件加载历史记录和收藏夹
-        loadHistoryFromFile();
+        if (httpCache == null) {
+            httpCache = new Cache(new File(getCacheDir(), HTTP_CACHE_DIR), HTTP_CACHE_SIZE);
+            subresourceCache = new SubresourceCache(baseHttpClient(),
+                    new File(getCacheDir(), SUBRESOURCE_CACHE_DIR), SUBRESOURCE_CACHE_SIZE,
+                    CookieManager.getInstance()::getCookie);
+        }
+        syncApi = new SyncApiClient(baseHttpClient().newBuilder().cache(httpCache).build(),
+                SERVER_BASE_URL, this::getSyncToken);
+        historyDb = new HistoryDatabase(this);
+
+        // 列表先建好，加载出的记录陆续插入到前面
+        favoritesList = Bookmark.newIndexedList();
+
+        float density = getResources().getDisplayMetrics().density;
+        iconCache = new IconCache<>(newBitmapCodec(), new File(getCacheDir(), ICON_CACHE_DIR),
+                Math.round(ICON_SIZE_DP * density), Math.round(THUMBNAIL_SIZE_DP * density),
+                Runtime.getRuntime().maxMemory() / 16, ICON_DISK_CACHE_SIZE,
+                scheduler.executor(TaskScheduler.Lane.INTERACTIVE, TaskScheduler.PRIORITY_NORMAL), mainHandler::post);
+
+        if (offlineArchive == null) {
+            scheduler.executeSerial(OFFLINE_DIR, () -> {
+                if (offlineArchive != null) return;
+                long start = System.nanoTime();
+                offlineArchive = new OfflineArchive(new File(getFilesDir(), OFFLINE_DIR), OFFLINE_QUOTA,
+                        System::currentTimeMillis);
+                Log.d("Browser", "Offline archive loaded in " + (System.nanoTime() - start) / 1000 + "us: "
+                        + offlineArchive);
+            });
+        }
+
+        // 旧版历史文件迁移到数据库，从文件加载收藏夹
+        migrateHistoryFiles();
         loadFavoritesFromFile();
 
         cloudBookmarks = new ArrayList<>();
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        cloudSync = new CloudSync(syncApi, getFileStreamPath(CLOUD_BOOKMARKS_FILE),
+                prefs.getString(KEY_CLOUD_CURSOR, null));
+        cloudOutbox = new CloudOutbox(syncApi, getFileStreamPath(CLOUD_OUTBOX_FILE),
+                prefs.getInt(KEY_CLOUD_BATCH_SIZE, DEFAULT_CLOUD_BATCH_SIZE));
+        syncCoordinator = new SyncCoordinator<>(
+                scheduler.executor(TaskScheduler.Lane.NETWORK, TaskScheduler.PRIORITY_LOW), this::runCloudSync,
+                () -> syncApi.login(FIXED_USERNAME, FIXED_PASSWORD),
+                new SyncCoordinator.TokenStore() {
+                    @Override
+                    public String get() {
+                        return getSyncToken();
+                    }
+
+                    @Override
+                    public void save(SyncApiClient.Login login) {
+                        saveSyncToken(login.syncToken);
+                        saveUserId(login.userId);
+                    }
+                });
+        cloudFlushDelayMs = prefs.getLong(KEY_CLOUD_FLUSH_DELAY_MS, DEFAULT_CLOUD_FLUSH_DELAY_MS);
     }
 
-    private void loadHistoryFromFile() {
-        executorService.execute(() -> {
+    private void migrateHistoryFiles() {
+        scheduler.executeSerial(HISTORY_DB_KEY, () -> {
+            startupTrace.begin("historyMigrate");
             try {
-                FileInputStream fis = openFileInput(HISTORY_FILE);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(fis));
-                StringBuilder content = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    content.append(line);
+                int migrated = historyDb.migrateFromJson(
+                        getFileStreamPath(HISTORY_FILE), getFileStreamPath(HISTORY_JOURNAL_FILE));
+                if (migrated > 0) {
+                    Log.d("Browser", "Migrated " + migrated + " history items to database");
+                    mainHandler.post(this::rebuildOmniboxIndex);
                 }
-                reader.close();
+            } catch (Exception e) {
+                Log.e("Browser", "Failed to migrate history", e);
+            }
 
-                JSONArray jsonArray = new JSONArray(content.toString());
-                List<HistoryItem> loadedHistory = new ArrayList<>();
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    loadedHistory.add(HistoryItem.fromJson(jsonArray.getJSONObject(i)));
-                }
+            startupTrace.end("historyMigrate");
+            // 迁移完成后放行排队的访问记录
+            mainHandler.post(historyReady::open);
 
-                mainHandler.post(() -> {
-                    historyList = loadedHistory;
-                    Log.d("Browser", "Loaded " + historyList.size() + " history items");
-                });
-            } catch (Exception e) {
-                mainHandler.post(() -> {
-                    historyList = new ArrayList<>();
-                    Log.d("Browser", "Created new history list");
-                });
+            SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            long lastRun = prefs.getLong(KEY_HISTORY_COMPACTED_AT, 0);
+            if (System.currentTimeMillis() - lastRun > HISTORY_COMPACT_INTERVAL) {
+                mainHandler.post(() -> deferredStartup.run(this::compactHistory));
             }
         });
     }
 
-    private void saveHistoryToFile() {
-        try {
-            JSONArray jsonArray = new JSONArray();
-            for (HistoryItem item : historyList) {
-                jsonArray.put(item.toJson());
+    /**
+     * 在后台按保留策略合并历史记录，并记录回收的条数和字节数
+     */
+    private void compactHistory() {
+        visitsSinceCompaction = 0;
+        scheduler.executeSerial(HISTORY_DB_KEY, () -> {
+            try {
+                SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+                long now = System.currentTimeMillis();
+                HistoryDatabase.CompactionStats stats =
+                        historyDb.compact(HistoryRetention.fromPreferences(prefs), now);
+                prefs.edit().putLong(KEY_HISTORY_COMPACTED_AT, now).apply();
+                Log.i("Browser", "History compaction " + stats);
+            } catch (Exception e) {
+                Log.e("Browser", "Failed to compact history", e);
             }
-
-            FileOutputStream fos = openFileOutput(HISTORY_FILE, Context.MODE_PRIVATE);
-            OutputStreamWriter writer = new OutputStreamWriter(fos);
-            writer.write(jsonArray.toString());
-            writer.close();
-
-            Log.d("Browser", "Saved " + historyList.size() + " history items");
-        } catch (Exception e) {
-            Log.e("Browser", "Failed to save history", e);
-        }
+        });
     }
 
     private void loadFavoritesFromFile() {
-        executorService.execute(() -> {
-            try {
-                FileInputStream fis = openFileInput(FAVORITES_FILE);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(fis));
-                StringBuilder content = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    content.append(line);
-                }
-                reader.close();
+        scheduler.execute(TaskScheduler.Lane.INTERACTIVE, TaskScheduler.PRIORITY_HIGH, () -> {
+            startupTrace.begin("favoritesLoad");
+            File file = getFileStreamPath(FAVORITES_FILE);
+            if (!file.exists()) {
+                mainHandler.post(() -> {
+                    favoritesList.add(0, new Bookmark("必应", "https://cn.bing.com"));
+                    favoritesList.add(1, new Bookmark("百度", "https://www.baidu.com"));
+                    onFavoritesLoaded();
+                    Log.d("Browser", "Created new favorites list with examples");
+                });
+                return;
+            }
 
-                JSONArray jsonArray = new JSONArray(content.toString());
-                List<Bookmark> loadedFavorites = new ArrayList<>();
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    loadedFavorites.add(Bookmark.fromJson(jsonArray.getJSONObject(i)));
-                }
+            try {
+                int total = RecordFile.load(file, LOAD_NEWEST_COUNT, LOAD_BATCH_SIZE, Bookmark::fromJson,
+                        new RecordFile.Listener<Bookmark>() {
+                            @Override
+                            public void onNewest(List<Bookmark> items) {
+                                startupTrace.mark("favoritesNewest");
+                                mainHandler.post(() -> favoritesList.insertMissing(favoritesInsertPos, items));
+                            }
+
+                            @Override
+                            public void onOlder(List<Bookmark> batch) {
+                                mainHandler.post(() ->
+                                        favoritesInsertPos += favoritesList.insertMissing(favoritesInsertPos, batch));
+                            }
+                        });
 
                 mainHandler.post(() -> {
-                    favoritesList = loadedFavorites;
-                    Log.d("Browser", "Loaded " + favoritesList.size() + " favorites");
+                    onFavoritesLoaded();
+                    Log.d("Browser", "Loaded " + total + " favorites");
                 });
             } catch (Exception e) {
-                mainHandler.post(() -> {
-                    favoritesList = new ArrayList<>();
-                    favoritesList.add(new Bookmark("必应", "https://cn.bing.com"));
-                    favoritesList.add(new Bookmark("百度", "https://www.baidu.com"));
-                    Log.d("Browser", "Created new favorites list with examples");
-                });
+                Log.e("Browser", "Failed to load favorites", e);
+                mainHandler.post(this::onFavoritesLoaded);
             }
         });
     }
 
-    private void saveFavoritesToFile() {
-        try {
-            JSONArray jsonArray = new JSONArray();
-            for (Bookmark bookmark : favoritesList) {
-                jsonArray.put(bookmark.toJson());
-            }
+    private void onFavoritesLoaded() {
+        startupTrace.end("favoritesLoad");
+        rebuildOmniboxIndex();
+        favoritesReady.open();
+    }
 
-            FileOutputStream fos = openFileOutput(FAVORITES_FILE, Context.MODE_PRIVATE);
-            OutputStreamWriter writer = new OutputStreamWriter(fos);
-            writer.write(jsonArray.toString());
-            writer.close();
+    /**
+     * 收藏夹有变化，防抖窗口结束后在后台写入
+     */
+    private void markFavoritesDirty() {
+        // 还没加载完时写文件会丢掉未加载的部分，等加载完成后再保存
+        favoritesReady.run(favoritesWriter::markDirty);
+    }
 
-            Log.d("Browser", "Saved " + favoritesList.size() + " favorites");
-        } catch (Exception e) {
-            Log.e("Browser", "Failed to save favorites", e);
-        }
+    /**
+     * 快照在主线程上取（只复制引用），序列化和写文件在写线程上执行
+     */
+    private WriteBehind<List<Bookmark>> newFavoritesWriter() {
+        WriteBehind.Timer timer = new WriteBehind.Timer() {
+            @Override
+            public void schedule(Runnable task, long delayMs) {
+                mainHandler.postDelayed(task, delayMs);
+            }
+
+            @Override
+            public void cancel(Runnable task) {
+                mainHandler.removeCallbacks(task);
+            }
+        };
+        return new WriteBehind<>(timer, FAVORITES_SAVE_DEBOUNCE_MS,
+                () -> new ArrayList<>(favoritesList),
+                snapshot -> {
+                    try {
+                        RecordFile.write(getFileStreamPath(FAVORITES_FILE), snapshot, Bookmark::toJson);
+                        Log.d("Browser", "Saved " + snapshot.size() + " favorites");
+                    } catch (Exception e) {
+                        Log.e("Browser", "Failed to save favorites", e);
+                        throw e;
+                    }
+                },
+                task -> scheduler.executeSerial(FAVORITES_FILE, task));
     }
 
     // ========================= UI 相关代码 =========================
@@ -578,7 +1062,7 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void initViews() {
-        webView = findViewById(R.id.webView);
+        webViewContainer = findViewById(R.id.webViewContainer);
         etUrl = findViewById(R.id.etUrl);
         btnBack = findViewById(R.id.btnBack);
         btnForward = findViewById(R.id.btnForward);
@@ -586,6 +1070,7 @@ public class MainActivity extends AppCompatActivity {
         btnMenu = findViewById(R.id.btnMenu);
         btnGo = findViewById(R.id.btnGo);
         progressBar = findViewById(R.id.progressBar);
+        tvBlocked = findViewById(R.id.tvBlocked);
         statusBarBackground = findViewById(R.id.statusBarBackground);
         toolbar = findViewById(R.id.toolbar);
     }
@@ -604,14 +1089,20 @@ public class MainActivity extends AppCompatActivity {
         return result;
     }
 
+    /**
+     * 每个标签新建 WebView 时调用；回调里只有当前标签才更新地址栏、进度条和加载记录
+     */
     @SuppressLint("SetJavaScriptEnabled")
-    private void initWebView() {
+    private void setupWebView(WebView webView) {
         // 启用JavaScript
         webView.getSettings().setJavaScriptEnabled(true);
 
         // 启用DOM存储
         webView.getSettings().setDomStorageEnabled(true);
 
+        // Android 11 以前默认允许读本地文件，只在打开离线副本时临时打开
+        webView.getSettings().setAllowFileAccess(false);
+
         // 设置缓存策略
         webView.getSettings().setCacheMode(android.webkit.WebSettings.LOAD_DEFAULT);
 
@@ -620,41 +1111,142 @@ public class MainActivity extends AppCompatActivity {
         webView.getSettings().setBuiltInZoomControls(true);
         webView.getSettings().setDisplayZoomControls(false);
 
-        // 设置WebViewClient，使网页在WebView中打开而不是默认浏览器
-        webView.setWebViewClient(new WebViewClient() {
+        // 设置WebViewClient，使网页在WebView中打开而不是默认浏览器
+        webView.setWebViewClient(new WebViewClient() {
+            @Override
+            public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
+                String url = request.getUrl().toString();
+                if (request.isForMainFrame()) {
+                    // 从离线副本点出去的链接不再允许读本地文件
+                    view.getSettings().setAllowFileAccess(false);
+                }
+                if (view != MainActivity.this.webView) {
+                    view.loadUrl(url);
+                    return true;
+                }
+                if (request.isRedirect()) {
+                    // 服务器重定向算在同一次导航里
+                    if (currentLoad != null) currentLoad.onRedirect();
+                } else if (request.isForMainFrame()) {
+                    beginPageLoad(url);
+                }
+                view.loadUrl(url);
+                return true;
+            }
+
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+                // 在 WebView 的网络线程上调用；主框架文档不拦截也不缓存，交给 WebView 自己加载
+                if (!request.isForMainFrame() && isBlocked(request)) {
+                    onRequestBlocked();
+                    return new WebResourceResponse("text/plain", "UTF-8", new ByteArrayInputStream(new byte[0]));
+                }
+                if (request.isForMainFrame()
+                        || !SubresourceCache.isCacheable(request.getMethod(), request.getUrl().toString(),
+                                request.getRequestHeaders())) {
+                    return null;
+                }
+                SubresourceCache.Result result = subresourceCache.fetch(request.getUrl().toString(),
+                        request.getRequestHeaders());
+                if (result == null) {
+                    return null;
+                }
+                return new WebResourceResponse(result.mimeType, result.encoding, result.status,
+                        result.reason, result.headers, result.body);
+            }
+
+            @Override
+            public void onPageStarted(WebView view, String url, Bitmap favicon) {
+                super.onPageStarted(view, url, favicon);
+                if (url != null && !url.startsWith("file:")) {
+                    // 前进后退离开离线副本时也关掉
+                    view.getSettings().setAllowFileAccess(false);
+                }
+                if (view != MainActivity.this.webView) return;
+                // 前进后退、网页里的脚本跳转不经过上面的入口，在这里开始记录
+                if (currentLoad == null) {
+                    currentLoad = newPageLoad(url);
+                }
+                currentLoad.onPageStarted(SystemClock.elapsedRealtimeNanos());
+            }
+
+            @Override
+            public void onPageCommitVisible(WebView view, String url) {
+                super.onPageCommitVisible(view, url);
+                if (view != MainActivity.this.webView) return;
+                if (currentLoad != null) currentLoad.onFirstPaint(SystemClock.elapsedRealtimeNanos());
+                if (!startupTrace.has("firstPaint")) {
+                    onFirstPaint();
+                }
+            }
+
             @Override
-            public boolean shouldOverrideUrlLoading(WebView view, String url) {
-                view.loadUrl(url);
-                return true;
+            public void onReceivedError(WebView view, WebResourceRequest request, WebResourceError error) {
+                super.onReceivedError(view, request, error);
+                if (view != MainActivity.this.webView || currentLoad == null) return;
+                if (request.isForMainFrame()) {
+                    currentLoad.onError(error.getErrorCode(), String.valueOf(error.getDescription()));
+                } else {
+                    currentLoad.onSubresourceError();
+                }
+            }
+
+            @Override
+            public void onReceivedHttpError(WebView view, WebResourceRequest request, WebResourceResponse response) {
+                super.onReceivedHttpError(view, request, response);
+                if (view != MainActivity.this.webView || currentLoad == null) return;
+                if (request.isForMainFrame()) {
+                    currentLoad.onHttpError(response.getStatusCode());
+                } else {
+                    currentLoad.onSubresourceError();
+                }
             }
 
             @Override
             public void onPageFinished(WebView view, String url) {
                 super.onPageFinished(view, url);
-                etUrl.setText(url);
-
                 String title = view.getTitle();
+                TabManager.Tab<WebView> tab = tabManager.findByView(view);
+                if (tab != null) {
+                    tab.url = url;
+                    tab.title = title;
+                }
                 if (title == null || title.isEmpty()) {
                     title = "未命名网页";
                 }
-
-                // 添加到历史记录（去重）
-                boolean exists = false;
-                for (HistoryItem item : historyList) {
-                    if (item.url.equals(url)) {
-                        exists = true;
-                        break;
-                    }
+                boolean foreground = view == MainActivity.this.webView;
+                if (foreground) {
+                    startupTrace.mark("firstPageFinished");
+                    finishPageLoad(view);
+                    etUrl.setText(url);
+                    hideSuggestions();
+                    mainHandler.removeCallbacks(pendingThumbnail);
+                    pendingThumbnail = () -> captureThumbnail(view, url);
+                    mainHandler.postDelayed(pendingThumbnail, THUMBNAIL_DELAY_MS);
                 }
 
-                if (!exists) {
-                    historyList.add(new HistoryItem(url, title, System.currentTimeMillis()));
-                    // 异步保存历史记录
-                    executorService.execute(() -> saveHistoryToFile());
-                }
+                // 记录一次访问（数据库按URL和时间索引，插入耗时与历史总量无关）
+                final String visitTitle = title;
+                final long now = System.currentTimeMillis();
+                // 旧的历史文件迁移完之前先排队
+                historyReady.run(() -> {
+                    scheduler.executeSerial(HISTORY_DB_KEY, () -> {
+                        try {
+                            historyDb.recordVisit(url, visitTitle, now);
+                        } catch (Exception e) {
+                            Log.e("Browser", "Failed to save history", e);
+                        }
+                    });
+                    omniboxExecutor.execute(() -> omniboxIndex.recordVisit(url, visitTitle, now));
+                    if (++visitsSinceCompaction >= HISTORY_COMPACT_EVERY_VISITS) {
+                        compactHistory();
+                    }
+                });
 
                 // 更新前进后退按钮状态
-                updateNavigationButtons();
+                if (foreground) {
+                    updateNavigationButtons();
+                }
             }
         });
 
@@ -662,6 +1254,10 @@ public class MainActivity extends AppCompatActivity {
         webView.setWebChromeClient(new WebChromeClient() {
             @Override
             public void onProgressChanged(WebView view, int newProgress) {
+                if (view != MainActivity.this.webView) return;
+                if (currentLoad != null && newProgress > 0) {
+                    currentLoad.onProgress(SystemClock.elapsedRealtimeNanos());
+                }
                 if (newProgress < 100) {
                     progressBar.setVisibility(View.VISIBLE);
                     progressBar.setProgress(newProgress);
@@ -674,12 +1270,18 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onReceivedTitle(WebView view, String title) {
                 super.onReceivedTitle(view, title);
-                if (title != null && !title.isEmpty()) {
+                if (view == MainActivity.this.webView && title != null && !title.isEmpty()) {
                     // 设置Activity标题
                     setTitle("浏览器 - " + title);
                 }
             }
 
+            @Override
+            public void onReceivedIcon(WebView view, Bitmap icon) {
+                super.onReceivedIcon(view, icon);
+                iconCache.put(IconCache.ICON, view.getUrl(), icon);
+            }
+
             @Override
             public void onShowCustomView(View view, CustomViewCallback callback) {
                 // 进入全屏模式（如播放视频）
@@ -723,6 +1325,7 @@ public class MainActivity extends AppCompatActivity {
 
     private void setupClickListeners() {
         btnGo.setOnClickListener(v -> {
+            hideSuggestions();
             String url = etUrl.getText().toString().trim();
             if (!url.isEmpty()) {
                 if (!url.startsWith("http://") && !url.startsWith("https://")) {
@@ -736,6 +1339,7 @@ public class MainActivity extends AppCompatActivity {
 
         btnBack.setOnClickListener(v -> {
             if (webView.canGoBack()) {
+                beginPageLoad(null);
                 webView.goBack();
             } else {
                 Toast.makeText(MainActivity.this, "没有上一页", Toast.LENGTH_SHORT).show();
@@ -744,13 +1348,17 @@ public class MainActivity extends AppCompatActivity {
 
         btnForward.setOnClickListener(v -> {
             if (webView.canGoForward()) {
+                beginPageLoad(null);
                 webView.goForward();
             } else {
                 Toast.makeText(MainActivity.this, "没有下一页", Toast.LENGTH_SHORT).show();
             }
         });
 
-        btnRefresh.setOnClickListener(v -> webView.reload());
+        btnRefresh.setOnClickListener(v -> {
+            beginPageLoad(null);
+            webView.reload();
+        });
 
         // 菜单按钮点击事件
         btnMenu.setOnClickListener(v -> showMenu());
@@ -762,13 +1370,121 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    private void setupOmnibox() {
+        suggestionAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, new ArrayList<>());
+        suggestionPopup = new ListPopupWindow(this);
+        suggestionPopup.setAnchorView(etUrl);
+        suggestionPopup.setAdapter(suggestionAdapter);
+        // 弹出联想列表时键盘保持可用
+        suggestionPopup.setInputMethodMode(ListPopupWindow.INPUT_METHOD_NEEDED);
+        suggestionPopup.setOnItemClickListener((parent, view, position, id) -> {
+            OmniboxIndex.Suggestion suggestion = suggestionAdapter.getItem(position);
+            hideSuggestions();
+            if (suggestion != null) {
+                loadUrl(suggestion.url);
+            }
+        });
+
+        etUrl.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // 只响应用户输入，网页加载时回写地址栏不联想
+                if (etUrl.hasFocus()) {
+                    querySuggestions(s.toString());
+                    mainHandler.removeCallbacks(preconnectRunnable);
+                    mainHandler.postDelayed(preconnectRunnable, PRECONNECT_DEBOUNCE_MS);
+                }
+            }
+        });
+        etUrl.setOnFocusChangeListener((v, hasFocus) -> {
+            if (!hasFocus) {
+                hideSuggestions();
+            }
+        });
+    }
+
+    private void querySuggestions(String text) {
+        final int seq = omniboxQuerySeq.incrementAndGet();
+        if (text.trim().isEmpty()) {
+            suggestionPopup.dismiss();
+            return;
+        }
+        omniboxExecutor.execute(() -> {
+            if (seq != omniboxQuerySeq.get()) return;
+            List<OmniboxIndex.Suggestion> suggestions = omniboxIndex.query(
+                    text, OMNIBOX_SUGGESTION_COUNT, () -> seq != omniboxQuerySeq.get());
+            if (suggestions == null) return;
+            mainHandler.post(() -> {
+                if (seq != omniboxQuerySeq.get()) return;
+                latestSuggestions = suggestions;
+                if (suggestions.isEmpty()) {
+                    suggestionPopup.dismiss();
+                    return;
+                }
+                suggestionAdapter.clear();
+                suggestionAdapter.addAll(suggestions);
+                if (!suggestionPopup.isShowing()) {
+                    suggestionPopup.show();
+                }
+            });
+        });
+    }
+
+    /**
+     * 关闭联想列表，并让还没返回的查询作废
+     */
+    private void hideSuggestions() {
+        omniboxQuerySeq.incrementAndGet();
+        mainHandler.removeCallbacks(preconnectRunnable);
+        latestSuggestions = new ArrayList<>();
+        if (suggestionPopup != null && suggestionPopup.isShowing()) {
+            suggestionPopup.dismiss();
+        }
+    }
+
+    /**
+     * 用数据库里的历史汇总和收藏、云书签重建联想索引
+     */
+    private void rebuildOmniboxIndex() {
+        final List<Bookmark> bookmarks = new ArrayList<>(favoritesList);
+        bookmarks.addAll(cloudBookmarks);
+        omniboxExecutor.execute(() -> {
+            long start = System.currentTimeMillis();
+            OmniboxIndex index = new OmniboxIndex();
+            try {
+                for (HistoryItem item : historyDb.queryUrlSummaries(OMNIBOX_HISTORY_LIMIT)) {
+                    index.add(item.url, item.title, item.timestamp, item.visitCount, false);
+                }
+            } catch (Exception e) {
+                Log.e("Browser", "Failed to read history for omnibox", e);
+            }
+            for (Bookmark bookmark : bookmarks) {
+                index.addBookmark(bookmark.url, bookmark.title, bookmark.timestamp);
+            }
+            omniboxIndex = index;
+            Log.d("Browser", "Omnibox index built: " + index.size() + " urls in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        });
+    }
+
     private void showMenu() {
         android.widget.PopupMenu popupMenu = new android.widget.PopupMenu(this, btnMenu);
         popupMenu.getMenuInflater().inflate(R.menu.browser_menu, popupMenu.getMenu());
 
         popupMenu.setOnMenuItemClickListener(item -> {
             int id = item.getItemId();
-            if (id == R.id.menu_history) {
+            if (id == R.id.menu_tabs) {
+                showTabsDialog();
+                return true;
+            } else if (id == R.id.menu_history) {
                 showHistoryDialog();
                 return true;
             } else if (id == R.id.menu_cloud_bookmarks) {
@@ -777,6 +1493,9 @@ public class MainActivity extends AppCompatActivity {
             } else if (id == R.id.menu_favorites) {
                 showFavoritesDialog();
                 return true;
+            } else if (id == R.id.menu_save_offline) {
+                saveCurrentPageOffline();
+                return true;
             } else if (id == R.id.menu_add_favorite) {
                 addCurrentToFavorites();
                 return true;
@@ -789,6 +1508,12 @@ public class MainActivity extends AppCompatActivity {
             } else if (id == R.id.menu_relogin) {
                 reLoginToServer();
                 return true;
+            } else if (id == R.id.menu_startup_trace) {
+                showStartupTraceDialog();
+                return true;
+            } else if (id == R.id.menu_page_loads) {
+                showPageLoadsDialog();
+                return true;
             }
             return false;
         });
@@ -800,8 +1525,7 @@ public class MainActivity extends AppCompatActivity {
      * 重新登录到服务器
      */
     private void reLoginToServer() {
-        executorService.execute(() -> {
-            boolean success = loginToServer();
+        loginToServer().thenAccept(success -> {
             if (success) {
                 mainHandler.post(() -> {
                     Toast.makeText(MainActivity.this, "重新登录成功", Toast.LENGTH_SHORT).show();
@@ -812,37 +1536,504 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
-    private void showHistoryDialog() {
-        if (historyList.isEmpty()) {
-            Toast.makeText(this, "历史记录为空", Toast.LENGTH_SHORT).show();
+    /**
+     * 显示启动各阶段的耗时和后台任务的排队情况
+     */
+    private void showStartupTraceDialog() {
+        new AlertDialog.Builder(this)
+                .setTitle("启动耗时")
+                .setMessage(startupTrace + "\n\n" + scheduler)
+                .setPositiveButton("确定", null)
+                .show();
+    }
+
+    // ========================= 图标和缩略图 =========================
+
+    private IconCache.Codec<Bitmap> newBitmapCodec() {
+        return new IconCache.Codec<Bitmap>() {
+            @Override
+            public Bitmap decode(byte[] data, int maxPx) {
+                // 先只读尺寸，按 2 的幂缩小着解码，不在内存里放原图
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+                int sampleSize = 1;
+                while (Math.max(options.outWidth, options.outHeight) / (sampleSize * 2) >= maxPx) {
+                    sampleSize *= 2;
+                }
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = sampleSize;
+                Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                return bitmap != null ? scale(bitmap, maxPx) : null;
+            }
+
+            @Override
+            public Bitmap scale(Bitmap image, int maxPx) {
+                int longSide = Math.max(image.getWidth(), image.getHeight());
+                if (longSide <= maxPx) return image;
+                float ratio = (float) maxPx / longSide;
+                return Bitmap.createScaledBitmap(image, Math.max(1, Math.round(image.getWidth() * ratio)),
+                        Math.max(1, Math.round(image.getHeight() * ratio)), true);
+            }
+
+            @Override
+            public byte[] encode(Bitmap image) {
+                // 图标有透明部分用 PNG，缩略图用 JPEG
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                boolean ok = image.hasAlpha()
+                        ? image.compress(Bitmap.CompressFormat.PNG, 100, out)
+                        : image.compress(Bitmap.CompressFormat.JPEG, 80, out);
+                return ok ? out.toByteArray() : null;
+            }
+
+            @Override
+            public int byteCount(Bitmap image) {
+                return image.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * 把当前标签可见部分按比例画到一张小图上作为缩略图；页面已经换了或者标签切走了就不截
+     */
+    private void captureThumbnail(WebView view, String url) {
+        pendingThumbnail = null;
+        if (isDestroyed() || view != webView || !url.equals(view.getUrl()) || view.getWidth() == 0
+                || !(url.startsWith("http://") || url.startsWith("https://"))) {
             return;
         }
+        int width = Math.round(THUMBNAIL_SIZE_DP * getResources().getDisplayMetrics().density);
+        int height = width * 3 / 4;
+        float scale = (float) width / view.getWidth();
+        Bitmap thumbnail = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(thumbnail);
+        canvas.scale(scale, scale);
+        canvas.translate(0, -view.getScrollY());
+        view.draw(canvas);
+        iconCache.put(IconCache.THUMBNAIL, url, thumbnail);
+    }
 
-        // 这里使用你之前实现的历史记录对话框
-        // 为了简洁，这里使用简单的AlertDialog
-        List<String> reversedHistory = new ArrayList<>();
-        for (HistoryItem item : historyList) {
-            reversedHistory.add(0, item.title + "\n" + item.url);
+    // ========================= 离线网页 =========================
+
+    /**
+     * 把当前网页连同子资源存成归档，再拆开存进离线存储；没收藏过的同时加到收藏夹
+     */
+    private void saveCurrentPageOffline() {
+        String url = webView.getUrl();
+        String title = webView.getTitle();
+        OfflineArchive archive = offlineArchive;
+        if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            Toast.makeText(this, "当前网页不能离线保存", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (archive == null) {
+            Toast.makeText(this, "离线存储还在加载，请稍后再试", Toast.LENGTH_SHORT).show();
+            return;
         }
+        File capture = new File(getCacheDir(), "capture-" + System.nanoTime() + ".mht");
+        long start = SystemClock.elapsedRealtimeNanos();
+        webView.saveWebArchive(capture.getPath(), false, path -> {
+            if (path == null) {
+                Toast.makeText(this, "保存失败", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            scheduler.executeSerial(OFFLINE_DIR, () -> {
+                try {
+                    OfflineArchive.SaveResult result = archive.save(url, title, capture);
+                    Log.d("Browser", "Saved offline " + url + " in " + (SystemClock.elapsedRealtimeNanos() - start) / 1000
+                            + "us: " + result.page.parts.size() + " parts, " + result.newObjects + " new ("
+                            + result.newBytes / 1024 + "KB), " + result.evicted + " evicted; " + archive);
+                    mainHandler.post(() -> {
+                        if (!favoritesList.containsUrl(url)) {
+                            Bookmark bookmark = new Bookmark(title != null ? title : "未命名网页", url);
+                            favoritesList.add(bookmark);
+                            omniboxExecutor.execute(() -> omniboxIndex.addBookmark(bookmark.url, bookmark.title, bookmark.timestamp));
+                            markFavoritesDirty();
+                        }
+                        Toast.makeText(this, "已离线保存，新增 " + result.newBytes / 1024 + "KB", Toast.LENGTH_SHORT).show();
+                    });
+                } catch (IOException e) {
+                    Log.e("Browser", "Failed to save offline page", e);
+                    mainHandler.post(() -> Toast.makeText(this, "保存失败", Toast.LENGTH_SHORT).show());
+                } finally {
+                    capture.delete();
+                }
+            });
+        });
+    }
+
+    /**
+     * 在后台拼出归档文件后在当前标签打开，不走网络
+     */
+    private void openOffline(String url) {
+        OfflineArchive archive = offlineArchive;
+        if (archive == null) return;
+        scheduler.executeSerial(OFFLINE_DIR, () -> {
+            File file;
+            try {
+                file = archive.open(url);
+            } catch (IOException e) {
+                Log.e("Browser", "Failed to open offline page", e);
+                file = null;
+            }
+            File opened = file;
+            mainHandler.post(() -> {
+                if (opened == null) {
+                    Toast.makeText(this, "离线副本已失效，在线打开", Toast.LENGTH_SHORT).show();
+                    loadUrl(url);
+                    return;
+                }
+                // 归档只能从本地文件打开，只在这一次导航允许读本地文件
+                loadUrl(Uri.fromFile(opened).toString(), true);
+            });
+        });
+    }
 
-        final String[] historyArray = reversedHistory.toArray(new String[0]);
+    private void showOfflinePagesDialog() {
+        OfflineArchive archive = offlineArchive;
+        if (archive == null) return;
+        scheduler.executeSerial(OFFLINE_DIR, () -> {
+            List<OfflineArchive.Page> pages = archive.pages();
+            String stats = "占用 " + archive.storedBytes() / 1024 + "KB，去重前 " + archive.logicalBytes() / 1024
+                    + "KB（" + String.format(Locale.US, "%.2f", archive.dedupRatio()) + "x）";
+            mainHandler.post(() -> {
+                if (pages.isEmpty()) {
+                    Toast.makeText(this, "没有离线保存的网页", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                String[] titles = new String[pages.size()];
+                for (int i = 0; i < pages.size(); i++) {
+                    titles[i] = pages.get(i).toString();
+                }
+                new AlertDialog.Builder(this)
+                        .setTitle("离线网页 (" + pages.size() + "个) " + stats)
+                        .setItems(titles, (dialog, which) -> openOffline(pages.get(which).url))
+                        .setNeutralButton("删除全部", (dialog, which) -> scheduler.executeSerial(OFFLINE_DIR, () -> {
+                            for (OfflineArchive.Page page : pages) archive.remove(page.url);
+                        }))
+                        .setNegativeButton("取消", null)
+                        .show();
+            });
+        });
+    }
 
-        AlertDialog.Builder builder = new AlertDialog.Builder(this);
-        builder.setTitle("浏览历史 (" + historyList.size() + "条)");
+    // ========================= 页面加载时间线 =========================
 
-        builder.setItems(historyArray, (dialog, which) -> {
-            String selectedUrl = historyList.get(historyList.size() - 1 - which).url;
-            loadUrl(selectedUrl);
+    /**
+     * 开始记录一次主框架导航，url 为 null 时等 onPageStarted 再建；上一次还没加载完就记为被打断
+     */
+    private void beginPageLoad(String url) {
+        if (currentLoad != null) {
+            currentLoad.abandon(SystemClock.elapsedRealtimeNanos());
+            takeBlockedCounts(currentLoad);
+            commitPageLoad(currentLoad);
+        }
+        currentLoad = url != null ? newPageLoad(url) : null;
+    }
+
+    private PageLoadTimeline.PageLoad newPageLoad(String url) {
+        resetBlockedCounts();
+        PageLoadTimeline.PageLoad load = new PageLoadTimeline.PageLoad(url, System.currentTimeMillis(),
+                SystemClock.elapsedRealtimeNanos(), networkType());
+        load.preconnect = preconnector().onNavigation(url);
+        return load;
+    }
+
+    /**
+     * 加载完成后先读 Navigation Timing 再提交；加载失败的页面不读
+     */
+    private void finishPageLoad(WebView view) {
+        PageLoadTimeline.PageLoad load = currentLoad;
+        if (load == null) return;
+        currentLoad = null;
+        load.onFinished(SystemClock.elapsedRealtimeNanos());
+        takeBlockedCounts(load);
+        if (!COLLECT_NAVIGATION_TIMING || load.failed()) {
+            commitPageLoad(load);
+            return;
+        }
+        view.evaluateJavascript(NAVIGATION_TIMING_JS, value -> {
+            if (value != null && value.startsWith("{")) {
+                try {
+                    load.navigationTiming = new JSONObject(value);
+                } catch (JSONException e) {
+                    Log.w("Browser", "Bad navigation timing: " + value, e);
+                }
+            }
+            commitPageLoad(load);
         });
+    }
+
+    private void commitPageLoad(PageLoadTimeline.PageLoad load) {
+        pageLoads.add(load);
+        Log.d("Browser", "Page load " + load);
+    }
+
+    // ========================= 预连接 =========================
+
+    private static synchronized Preconnector preconnector() {
+        if (preconnector == null) {
+            preconnector = new Preconnector(InetAddress::getAllByName, Executors.newFixedThreadPool(PRECONNECT_BUDGET),
+                    PRECONNECT_BUDGET, PRECONNECT_WINDOW_MS * 1_000_000, SystemClock::elapsedRealtimeNanos);
+        }
+        return preconnector;
+    }
+
+    /**
+     * 输入停顿后预热：像网址的输入本身，加上排在最前面的几条联想
+     */
+    private void preconnectTyped() {
+        String text = etUrl.getText().toString().trim();
+        if (text.contains(".") && !text.contains(" ")) {
+            preconnector().preconnect(text.startsWith("http://") || text.startsWith("https://") ? text : "https://" + text);
+        }
+        for (int i = 0; i < Math.min(PRECONNECT_SUGGESTIONS, latestSuggestions.size()); i++) {
+            preconnector().preconnect(latestSuggestions.get(i).url);
+        }
+    }
+
+    // ========================= 广告拦截 =========================
+
+    private static boolean isBlocked(WebResourceRequest request) {
+        String host = request.getUrl().getHost();
+        return host != null && blocklist.isBlocked(host.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 在网络线程上计数，工具栏的数字合并成一次刷新
+     */
+    private void onRequestBlocked() {
+        pageBlocked.incrementAndGet();
+        pageBlockedBytes.addAndGet(subresourceCache.averageBytes(BLOCKED_BYTES_FALLBACK));
+        if (blockedBadgePending.compareAndSet(false, true)) {
+            mainHandler.post(() -> {
+                blockedBadgePending.set(false);
+                updateBlockedBadge();
+            });
+        }
+    }
+
+    private void resetBlockedCounts() {
+        pageBlocked.set(0);
+        pageBlockedBytes.set(0);
+        updateBlockedBadge();
+    }
+
+    private void takeBlockedCounts(PageLoadTimeline.PageLoad load) {
+        load.blockedRequests = pageBlocked.get();
+        load.blockedBytes = pageBlockedBytes.get();
+    }
+
+    private void updateBlockedBadge() {
+        int blocked = pageBlocked.get();
+        if (blocked == 0) {
+            tvBlocked.setVisibility(View.GONE);
+            return;
+        }
+        tvBlocked.setText("拦截 " + blocked + " · 约 " + pageBlockedBytes.get() / 1024 + "KB");
+        tvBlocked.setVisibility(View.VISIBLE);
+    }
 
-        builder.setPositiveButton("清空历史", (dialog, which) -> {
-            historyList.clear();
-            saveHistoryToFile();
-            Toast.makeText(MainActivity.this, "历史记录已清空", Toast.LENGTH_SHORT).show();
+    /**
+     * 第一次使用时把默认规则复制出来，之后规则文件有变化才增删改动的部分
+     */
+    private void updateBlocklist() {
+        scheduler.executeSerial(BLOCKLIST_FILE, () -> {
+            File dir = getExternalFilesDir(null);
+            File file = new File(dir != null ? dir : getFilesDir(), BLOCKLIST_FILE);
+            try {
+                if (!file.exists()) {
+                    copyDefaultBlocklist(file);
+                }
+                long start = System.nanoTime();
+                HostBlocklist.Update update = blocklist.updateFrom(file);
+                if (!update.unchanged) {
+                    Log.d("Browser", "Blocklist " + update + " in " + (System.nanoTime() - start) / 1000
+                            + "us, " + blocklist);
+                }
+            } catch (IOException e) {
+                Log.e("Browser", "Failed to load blocklist", e);
+            }
         });
+    }
 
-        builder.setNegativeButton("取消", null);
-        builder.show();
+    private void copyDefaultBlocklist(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (InputStream in = getResources().openRawResource(R.raw.blocklist);
+             OutputStream out = new FileOutputStream(tmp)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to create " + file);
+        }
+    }
+
+    /**
+     * 当前默认网络的类型，按主机之外再按网络分组统计
+     */
+    private String networkType() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) return "unknown";
+        NetworkCapabilities caps = connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork());
+        if (caps == null) return "offline";
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) return "wifi";
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) return "cellular";
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) return "ethernet";
+        return "other";
+    }
+
+    /**
+     * 按网络和主机显示加载耗时的 p50/p95，可以导出全部记录
+     */
+    private void showPageLoadsDialog() {
+        StringBuilder message = new StringBuilder();
+        message.append("最近 ").append(pageLoads.loads().size()).append(" 次加载\n\n按网络\n");
+        for (Map.Entry<String, PageLoadTimeline.Stats> entry : pageLoads.statsByNetwork().entrySet()) {
+            message.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        message.append("\n按主机\n");
+        int shown = 0;
+        for (Map.Entry<String, PageLoadTimeline.Stats> entry : pageLoads.statsByHost().entrySet()) {
+            if (shown++ == 20) break;
+            message.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        message.append("\n子资源缓存\n").append(subresourceCache).append('\n');
+        message.append("\n广告拦截\n").append(blocklist).append('\n');
+        message.append("\n按预连接\n");
+        for (Map.Entry<String, PageLoadTimeline.Stats> entry : pageLoads.statsBy(load -> load.preconnect).entrySet()) {
+            message.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        message.append(preconnector()).append('\n');
+        message.append("\n标签页\n").append(tabManager).append('\n');
+        message.append("\n离线网页\n").append(offlineArchive).append('\n');
+        message.append("\n图标和缩略图\n").append(iconCache).append('\n');
+        new AlertDialog.Builder(this)
+                .setTitle("页面加载耗时")
+                .setMessage(message)
+                .setPositiveButton("导出JSON", (dialog, which) -> exportPageLoads())
+                .setNegativeButton("关闭", null)
+                .show();
+    }
+
+    /**
+     * 写到应用的外部文件目录（adb 可以直接拉取），再交给系统分享
+     */
+    private void exportPageLoads() {
+        scheduler.executeSerial(PAGE_LOADS_EXPORT_FILE, () -> {
+            try {
+                String json = pageLoads.toJson().toString(2);
+                File dir = getExternalFilesDir(null);
+                File file = new File(dir != null ? dir : getFilesDir(), PAGE_LOADS_EXPORT_FILE);
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                    writer.write(json);
+                }
+                mainHandler.post(() -> {
+                    Toast.makeText(MainActivity.this, "已导出到 " + file.getPath(), Toast.LENGTH_SHORT).show();
+                    Intent share = new Intent(Intent.ACTION_SEND)
+                            .setType("application/json")
+                            .putExtra(Intent.EXTRA_TEXT, json);
+                    startActivity(Intent.createChooser(share, "导出页面加载记录"));
+                });
+            } catch (Exception e) {
+                Log.e("Browser", "Failed to export page loads", e);
+                mainHandler.post(() ->
+                        Toast.makeText(MainActivity.this, "导出失败: " + e.getMessage(), Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+
+    private void showHistoryDialog() {
+        View view = LayoutInflater.from(this).inflate(R.layout.dialog_history, null);
+        TextView tvHistoryCount = view.findViewById(R.id.tvHistoryCount);
+        EditText etSearch = view.findViewById(R.id.etSearch);
+        RecyclerView recyclerHistory = view.findViewById(R.id.recyclerHistory);
+
+        AlertDialog dialog = new AlertDialog.Builder(this).setView(view).create();
+
+        // 按页从数据库加载，打开对话框只取第一页
+        HistoryAdapter adapter = new HistoryAdapter(
+                scheduler.executor(TaskScheduler.Lane.INTERACTIVE, TaskScheduler.PRIORITY_HIGH), mainHandler, iconCache, item -> {
+            dialog.dismiss();
+            loadUrl(item.url);
+        });
+        recyclerHistory.setLayoutManager(new LinearLayoutManager(this));
+        recyclerHistory.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        recyclerHistory.setAdapter(adapter);
+        adapter.setSource(this::loadHistoryPage);
+
+        // 搜索框输入停顿后再查询
+        final Runnable[] pendingSearch = new Runnable[1];
+        etSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (pendingSearch[0] != null) {
+                    mainHandler.removeCallbacks(pendingSearch[0]);
+                }
+                String text = s.toString().trim();
+                pendingSearch[0] = () -> adapter.setSource(text.isEmpty()
+                        ? MainActivity.this::loadHistoryPage
+                        : (after, limit) -> after == null
+                                ? historyDb.search(text, limit)
+                                : historyDb.search(text, after.timestamp, after.id, limit));
+                mainHandler.postDelayed(pendingSearch[0], HISTORY_SEARCH_DEBOUNCE_MS);
+            }
+        });
+
+        view.findViewById(R.id.btnClearHistory).setOnClickListener(v -> {
+            scheduler.executeSerial(HISTORY_DB_KEY, () -> {
+                try {
+                    historyDb.clear();
+                } catch (Exception e) {
+                    Log.e("Browser", "Failed to clear history", e);
+                    mainHandler.post(() ->
+                            Toast.makeText(MainActivity.this, "清空历史记录失败", Toast.LENGTH_SHORT).show());
+                    return;
+                }
+                mainHandler.post(() -> {
+                    tvHistoryCount.setText("0条记录");
+                    adapter.setSource(this::loadHistoryPage);
+                    rebuildOmniboxIndex();
+                    Toast.makeText(MainActivity.this, "历史记录已清空", Toast.LENGTH_SHORT).show();
+                });
+            });
+        });
+        view.findViewById(R.id.btnClose).setOnClickListener(v -> dialog.dismiss());
+
+        dialog.setOnDismissListener(d -> {
+            if (pendingSearch[0] != null) {
+                mainHandler.removeCallbacks(pendingSearch[0]);
+            }
+        });
+
+        scheduler.execute(TaskScheduler.Lane.INTERACTIVE, () -> {
+            long total = historyDb.count();
+            mainHandler.post(() -> tvHistoryCount.setText(total + "条记录"));
+        });
+
+        dialog.show();
+    }
+
+    /**
+     * 历史记录按时间倒序的一页，after 为上一页最后一条
+     */
+    private List<HistoryItem> loadHistoryPage(HistoryItem after, int limit) {
+        return after == null
+                ? historyDb.queryBefore(Long.MAX_VALUE, Long.MAX_VALUE, limit)
+                : historyDb.queryBefore(after.timestamp, after.id, limit);
     }
 
     private void showCloudBookmarksDialog() {
@@ -851,15 +2042,19 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        final String[] bookmarkTitles = new String[cloudBookmarks.size()];
+        final List<String> bookmarkTitles = new ArrayList<>(cloudBookmarks.size());
+        final List<String> bookmarkUrls = new ArrayList<>(cloudBookmarks.size());
         for (int i = 0; i < cloudBookmarks.size(); i++) {
-            bookmarkTitles[i] = cloudBookmarks.get(i).title;
+            bookmarkTitles.add(cloudBookmarks.get(i).title);
+            bookmarkUrls.add(cloudBookmarks.get(i).url);
         }
+        BookmarkListAdapter adapter = new BookmarkListAdapter(bookmarkTitles, bookmarkUrls, iconCache);
 
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("云书签 (" + cloudBookmarks.size() + "个)");
+        builder.setOnDismissListener(d -> adapter.cancelAll());
 
-        builder.setItems(bookmarkTitles, (dialog, which) -> {
+        builder.setAdapter(adapter, (dialog, which) -> {
             String selectedUrl = cloudBookmarks.get(which).url;
             loadUrl(selectedUrl);
         });
@@ -878,23 +2073,39 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        final String[] favoriteTitles = new String[favoritesList.size()];
+        OfflineArchive archive = offlineArchive;
+        final List<String> favoriteTitles = new ArrayList<>(favoritesList.size());
+        final List<String> favoriteUrls = new ArrayList<>(favoritesList.size());
         for (int i = 0; i < favoritesList.size(); i++) {
-            favoriteTitles[i] = favoritesList.get(i).title;
+            Bookmark bookmark = favoritesList.get(i);
+            boolean offline = archive != null && archive.contains(bookmark.url);
+            favoriteTitles.add(offline ? bookmark.title + "（离线）" : bookmark.title);
+            favoriteUrls.add(bookmark.url);
         }
+        BookmarkListAdapter adapter = new BookmarkListAdapter(favoriteTitles, favoriteUrls, iconCache);
 
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("收藏夹 (" + favoritesList.size() + "个)");
+        builder.setOnDismissListener(d -> adapter.cancelAll());
 
-        builder.setItems(favoriteTitles, (dialog, which) -> {
+        builder.setAdapter(adapter, (dialog, which) -> {
             String selectedUrl = favoritesList.get(which).url;
-            loadUrl(selectedUrl);
+            // 有离线副本又没有网络时直接打开离线副本
+            if (archive != null && archive.contains(selectedUrl) && "offline".equals(networkType())) {
+                openOffline(selectedUrl);
+            } else {
+                loadUrl(selectedUrl);
+            }
         });
 
         builder.setPositiveButton("管理收藏", (dialog, which) -> {
             showManageFavoritesDialog();
         });
 
+        builder.setNeutralButton("离线网页", (dialog, which) -> {
+            showOfflinePagesDialog();
+        });
+
         builder.setNegativeButton("取消", null);
         builder.show();
     }
@@ -909,17 +2120,17 @@ public class MainActivity extends AppCompatActivity {
         }
 
         // 检查是否已经收藏
-        for (Bookmark bookmark : favoritesList) {
-            if (bookmark.url.equals(currentUrl)) {
-                Toast.makeText(this, "该网页已在收藏夹中", Toast.LENGTH_SHORT).show();
-                return;
-            }
+        if (favoritesList.containsUrl(currentUrl)) {
+            Toast.makeText(this, "该网页已在收藏夹中", Toast.LENGTH_SHORT).show();
+            return;
         }
 
         // 添加到收藏夹
         String title = currentTitle != null ? currentTitle : "未命名网页";
-        favoritesList.add(new Bookmark(title, currentUrl));
-        saveFavoritesToFile();
+        Bookmark bookmark = new Bookmark(title, currentUrl);
+        favoritesList.add(bookmark);
+        omniboxExecutor.execute(() -> omniboxIndex.addBookmark(bookmark.url, bookmark.title, bookmark.timestamp));
+        markFavoritesDirty();
         Toast.makeText(this, "已添加到收藏夹", Toast.LENGTH_SHORT).show();
     }
 
@@ -956,8 +2167,18 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void loadUrl(String url) {
+        loadUrl(url, false);
+    }
+
+    /**
+     * @param fileAccess 是否允许这个标签读本地文件，只有打开离线副本时为 true
+     */
+    private void loadUrl(String url, boolean fileAccess) {
+        beginPageLoad(url);
+        webView.getSettings().setAllowFileAccess(fileAccess);
         webView.loadUrl(url);
         etUrl.setText(url);
+        hideSuggestions();
 
         // 隐藏软键盘
         hideKeyboard();
@@ -996,6 +2217,7 @@ public class MainActivity extends AppCompatActivity {
             exitFullscreen();
             isFullscreen = false;
         } else if (webView.canGoBack()) {
+            beginPageLoad(null);
             webView.goBack();
         } else {
             // 显示确认退出对话框
@@ -1012,10 +2234,32 @@ public class MainActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         // 关闭线程池
-        executorService.shutdown();
-        if (webView != null) {
-            webView.stopLoading();
-            webView.destroy();
+        mainHandler.removeCallbacks(cloudFlushRunnable);
+        mainHandler.removeCallbacks(deferredStartupRunnable);
+        mainHandler.removeCallbacks(tabMemorySampleRunnable);
+        mainHandler.removeCallbacks(pendingThumbnail);
+        if (networkCallback != null) {
+            ConnectivityManager connectivityManager =
+                    (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+        }
+        // 最后一次写收藏夹，失败也不再重试，免得旧快照覆盖新界面写入的收藏夹
+        favoritesWriter.close();
+        // 排在历史记录的写操作之后再关闭数据库
+        if (historyDb != null) {
+            scheduler.executeSerial(HISTORY_DB_KEY, () -> {
+                try {
+                    historyDb.close();
+                } catch (Exception e) {
+                    Log.e("Browser", "Failed to close history database", e);
+                }
+            });
+        }
+        // 调度器是进程共用的，不关闭，新界面的任务排在这些写操作后面
+        Log.d("Browser", "Scheduler stats\n" + scheduler);
+        omniboxExecutor.shutdownNow();
+        if (tabManager != null) {
+            tabManager.destroyAll();
         }
     }
 }
\ No newline at end of file
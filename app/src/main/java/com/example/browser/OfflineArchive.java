@@ -0,0 +1,554 @@
+package com.example.browser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 离线网页：把 WebView 保存的网页归档（MHTML）拆成各个部分，按内容的 SHA-256 存一份
+ * 多个网页共用的样式、脚本、图片只存一次；每个网页只记一份清单（各部分的头和内容的哈希）
+ * 总大小超出配额时删除最久没打开过的网页，没有网页再引用的内容随之删除
+ * 方法都是同步的，有磁盘读写，不要在主线程上调用
+ */
+class OfflineArchive {
+
+    static final class Page {
+        final String url;
+        final String title;
+        final long savedAt;
+        long lastAccess;
+        // 归档的开头（整体的头）、分隔符和结尾，原样保存
+        final String preamble;
+        final String boundary;
+        final String epilogue;
+        final List<Part> parts;
+
+        Page(String url, String title, long savedAt, long lastAccess,
+             String preamble, String boundary, String epilogue, List<Part> parts) {
+            this.url = url;
+            this.title = title;
+            this.savedAt = savedAt;
+            this.lastAccess = lastAccess;
+            this.preamble = preamble;
+            this.boundary = boundary;
+            this.epilogue = epilogue;
+            this.parts = parts;
+        }
+
+        /** 各部分内容的总大小，也就是不去重时要占的空间 */
+        long bytes() {
+            long bytes = 0;
+            for (Part part : parts) bytes += part.size;
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return title != null && !title.isEmpty() ? title : url;
+        }
+    }
+
+    static final class Part {
+        // 这一部分的头，包括结尾的空行
+        final String headers;
+        final String hash;
+        final long size;
+
+        Part(String headers, String hash, long size) {
+            this.headers = headers;
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+
+    static final class SaveResult {
+        final Page page;
+        // 这次新写入的内容，其余的已经存过
+        int newObjects;
+        long newBytes;
+        int evicted;
+
+        SaveResult(Page page) {
+            this.page = page;
+        }
+    }
+
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";\\r\\n]+)\"?", Pattern.CASE_INSENSITIVE);
+    // 头和分隔符按字节原样保存
+    private static final Charset RAW = StandardCharsets.ISO_8859_1;
+
+    private final File objectsDir;
+    private final File pagesDir;
+    private final File openDir;
+    private final long maxBytes;
+    private final LongSupplier clock;
+
+    private final Map<String, Page> pages = new HashMap<>();
+    // 内容哈希 -> 被引用的次数、大小
+    private final Map<String, Integer> refs = new HashMap<>();
+    private final Map<String, Long> objectSizes = new HashMap<>();
+    private long storedBytes;
+    private long logicalBytes;
+    private long evictions;
+
+    /**
+     * 读入已保存的清单，清掉上次没写完的临时文件和没有网页引用的内容
+     */
+    OfflineArchive(File dir, long maxBytes, LongSupplier clock) {
+        this.objectsDir = new File(dir, "objects");
+        this.pagesDir = new File(dir, "pages");
+        this.openDir = new File(dir, "open");
+        this.maxBytes = maxBytes;
+        this.clock = clock;
+        objectsDir.mkdirs();
+        pagesDir.mkdirs();
+        openDir.mkdirs();
+        deleteChildren(openDir);
+        load();
+    }
+
+    private void load() {
+        File[] manifests = pagesDir.listFiles();
+        if (manifests != null) {
+            for (File file : manifests) {
+                Page page = null;
+                if (file.getName().endsWith(".json")) {
+                    try {
+                        page = fromJson(new JSONObject(new String(readFully(file), StandardCharsets.UTF_8)));
+                    } catch (IOException | JSONException e) {
+                        page = null;
+                    }
+                }
+                if (page == null || !objectsExist(page)) {
+                    file.delete();
+                    continue;
+                }
+                addPage(page);
+            }
+        }
+        File[] shards = objectsDir.listFiles();
+        if (shards == null) return;
+        for (File shard : shards) {
+            if (shard.isFile()) {
+                // 没写完的临时文件
+                shard.delete();
+                continue;
+            }
+            File[] objects = shard.listFiles();
+            if (objects == null) continue;
+            for (File object : objects) {
+                if (!refs.containsKey(object.getName())) object.delete();
+            }
+        }
+    }
+
+    /**
+     * 保存网页归档 mhtml，同一网址已经保存过时替换旧的
+     * 保存后超出配额的话删除最久没打开过的其他网页；这个网页本身就超出配额时不保存
+     */
+    synchronized SaveResult save(String url, String title, File mhtml) throws IOException {
+        Page page;
+        List<String> written = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(mhtml))) {
+            page = parse(url, title, in, written);
+        } catch (IOException e) {
+            // 新写入的内容还没有被引用
+            for (String hash : written) {
+                if (!refs.containsKey(hash)) objectFile(hash).delete();
+            }
+            throw e;
+        }
+        SaveResult result = new SaveResult(page);
+        for (String hash : written) {
+            result.newObjects++;
+            result.newBytes += objectFile(hash).length();
+        }
+
+        if (distinctBytes(page) > maxBytes) {
+            // 删掉其他网页也放不下，新写入的内容还没有被引用
+            for (String hash : written) objectFile(hash).delete();
+            throw new IOException("Page is larger than the offline quota: " + page.bytes() + " bytes");
+        }
+        Page old = pages.get(url);
+        addPage(page);
+        if (old != null) releasePage(old);
+        writeManifest(page);
+        new File(openDir, keyOf(url) + ".mht").delete();
+
+        while (storedBytes > maxBytes) {
+            Page oldest = null;
+            for (Page candidate : pages.values()) {
+                if (candidate != page && (oldest == null || candidate.lastAccess < oldest.lastAccess)) {
+                    oldest = candidate;
+                }
+            }
+            if (oldest == null) break;
+            remove(oldest.url);
+            result.evicted++;
+            evictions++;
+        }
+        return result;
+    }
+
+    /**
+     * 把保存的网页重新拼成归档文件，可以直接在 WebView 里打开；没有保存过或内容丢失时返回 null
+     * 同时记为最近打开过
+     */
+    synchronized File open(String url) throws IOException {
+        Page page = pages.get(url);
+        if (page == null) return null;
+        File file = new File(openDir, keyOf(url) + ".mht");
+        if (!file.exists()) {
+            if (!objectsExist(page)) {
+                remove(url);
+                return null;
+            }
+            File tmp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+                writeArchive(page, out);
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Failed to rename " + tmp);
+            }
+        }
+        page.lastAccess = clock.getAsLong();
+        writeManifest(page);
+        return file;
+    }
+
+    synchronized boolean remove(String url) {
+        Page page = pages.get(url);
+        if (page == null) return false;
+        releasePage(page);
+        new File(pagesDir, keyOf(url) + ".json").delete();
+        new File(openDir, keyOf(url) + ".mht").delete();
+        return true;
+    }
+
+    synchronized boolean contains(String url) {
+        return url != null && pages.containsKey(url);
+    }
+
+    /**
+     * 按最近打开的时间排列
+     */
+    synchronized List<Page> pages() {
+        List<Page> list = new ArrayList<>(pages.values());
+        list.sort((a, b) -> Long.compare(b.lastAccess, a.lastAccess));
+        return list;
+    }
+
+    /** 实际占用的空间（去重后的内容） */
+    synchronized long storedBytes() {
+        return storedBytes;
+    }
+
+    /** 不去重时要占的空间 */
+    synchronized long logicalBytes() {
+        return logicalBytes;
+    }
+
+    synchronized double dedupRatio() {
+        return storedBytes > 0 ? (double) logicalBytes / storedBytes : 1.0;
+    }
+
+    synchronized int objectCount() {
+        return objectSizes.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d pages, %d objects, stored %dKB / %dKB, logical %dKB, dedup %.2fx, %d evicted",
+                pages.size(), objectSizes.size(), storedBytes / 1024, maxBytes / 1024, logicalBytes / 1024,
+                dedupRatio(), evictions);
+    }
+
+    private void addPage(Page page) {
+        pages.put(page.url, page);
+        for (Part part : page.parts) {
+            Integer count = refs.get(part.hash);
+            refs.put(part.hash, count == null ? 1 : count + 1);
+            if (count == null) {
+                objectSizes.put(part.hash, part.size);
+                storedBytes += part.size;
+            }
+            logicalBytes += part.size;
+        }
+    }
+
+    private void releasePage(Page page) {
+        if (pages.get(page.url) == page) pages.remove(page.url);
+        for (Part part : page.parts) {
+            int count = refs.get(part.hash) - 1;
+            if (count == 0) {
+                refs.remove(part.hash);
+                storedBytes -= objectSizes.remove(part.hash);
+                objectFile(part.hash).delete();
+            } else {
+                refs.put(part.hash, count);
+            }
+            logicalBytes -= part.size;
+        }
+    }
+
+    private static long distinctBytes(Page page) {
+        Map<String, Long> sizes = new HashMap<>();
+        for (Part part : page.parts) sizes.put(part.hash, part.size);
+        long bytes = 0;
+        for (long size : sizes.values()) bytes += size;
+        return bytes;
+    }
+
+    private boolean objectsExist(Page page) {
+        for (Part part : page.parts) {
+            if (objectFile(part.hash).length() != part.size) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 逐行读归档：找到整体头里的分隔符后，每一部分的头原样记下，内容边算哈希边写到临时文件
+     */
+    private Page parse(String url, String title, InputStream in, List<String> written) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        StringBuilder preamble = new StringBuilder();
+        String boundary = null;
+        while (true) {
+            if (!readLine(in, line)) throw new IOException("No parts in archive");
+            if (boundary != null && isDelimiter(line, boundary, false)) break;
+            preamble.append(new String(line.toByteArray(), RAW));
+            if (boundary == null) {
+                Matcher matcher = BOUNDARY.matcher(preamble);
+                if (matcher.find()) boundary = matcher.group(1);
+            }
+        }
+
+        List<Part> parts = new ArrayList<>();
+        boolean last = false;
+        while (!last) {
+            StringBuilder headers = new StringBuilder();
+            do {
+                if (!readLine(in, line)) throw new IOException("Truncated part headers");
+                headers.append(new String(line.toByteArray(), RAW));
+            } while (!isBlank(line));
+
+            MessageDigest digest = sha256();
+            File tmp = new File(objectsDir, "part-" + System.nanoTime() + ".tmp");
+            long size = 0;
+            try {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+                    byte[] pendingEol = null;
+                    while (true) {
+                        if (!readLine(in, line)) throw new IOException("Truncated part body");
+                        if (isDelimiter(line, boundary, false)) break;
+                        if (isDelimiter(line, boundary, true)) {
+                            last = true;
+                            break;
+                        }
+                        // 分隔符前的换行属于分隔符，不算在内容里
+                        if (pendingEol != null) {
+                            out.write(pendingEol);
+                            digest.update(pendingEol);
+                            size += pendingEol.length;
+                        }
+                        byte[] bytes = line.toByteArray();
+                        int eol = eolLength(bytes);
+                        out.write(bytes, 0, bytes.length - eol);
+                        digest.update(bytes, 0, bytes.length - eol);
+                        size += bytes.length - eol;
+                        pendingEol = eol > 0 ? Arrays.copyOfRange(bytes, bytes.length - eol, bytes.length) : null;
+                    }
+                }
+                String hash = hex(digest.digest());
+                File object = objectFile(hash);
+                if (object.exists()) {
+                    tmp.delete();
+                } else {
+                    object.getParentFile().mkdirs();
+                    if (!tmp.renameTo(object)) throw new IOException("Failed to rename " + tmp);
+                    written.add(hash);
+                }
+                parts.add(new Part(headers.toString(), hash, size));
+            } finally {
+                tmp.delete();
+            }
+        }
+        // 结束分隔符所在行剩下的换行和之后的内容
+        ByteArrayOutputStream rest = new ByteArrayOutputStream();
+        byte[] closing = line.toByteArray();
+        int eol = eolLength(closing);
+        rest.write(closing, closing.length - eol, eol);
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) rest.write(buffer, 0, n);
+
+        long now = clock.getAsLong();
+        return new Page(url, title, now, now, preamble.toString(), boundary, new String(rest.toByteArray(), RAW), parts);
+    }
+
+    private void writeArchive(Page page, OutputStream out) throws IOException {
+        out.write(page.preamble.getBytes(RAW));
+        byte[] delimiter = ("--" + page.boundary).getBytes(RAW);
+        byte[] buffer = new byte[8192];
+        for (int i = 0; i < page.parts.size(); i++) {
+            Part part = page.parts.get(i);
+            if (i > 0) {
+                out.write('\r');
+                out.write('\n');
+            }
+            out.write(delimiter);
+            out.write('\r');
+            out.write('\n');
+            out.write(part.headers.getBytes(RAW));
+            try (InputStream in = new FileInputStream(objectFile(part.hash))) {
+                int n;
+                while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+            }
+        }
+        out.write('\r');
+        out.write('\n');
+        out.write(delimiter);
+        out.write('-');
+        out.write('-');
+        out.write(page.epilogue.getBytes(RAW));
+    }
+
+    private void writeManifest(Page page) throws IOException {
+        File file = new File(pagesDir, keyOf(page.url) + ".json");
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(toJson(page).toString().getBytes(StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to rename " + tmp);
+        }
+    }
+
+    private static JSONObject toJson(Page page) throws JSONException {
+        JSONArray parts = new JSONArray();
+        for (Part part : page.parts) {
+            parts.put(new JSONObject().put("headers", part.headers).put("hash", part.hash).put("size", part.size));
+        }
+        return new JSONObject()
+                .put("url", page.url)
+                .put("title", page.title != null ? page.title : "")
+                .put("savedAt", page.savedAt)
+                .put("lastAccess", page.lastAccess)
+                .put("preamble", page.preamble)
+                .put("boundary", page.boundary)
+                .put("epilogue", page.epilogue)
+                .put("parts", parts);
+    }
+
+    private static Page fromJson(JSONObject json) throws JSONException {
+        JSONArray array = json.getJSONArray("parts");
+        List<Part> parts = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject part = array.getJSONObject(i);
+            parts.add(new Part(part.getString("headers"), part.getString("hash"), part.getLong("size")));
+        }
+        return new Page(json.getString("url"), json.getString("title"), json.getLong("savedAt"),
+                json.getLong("lastAccess"), json.getString("preamble"), json.getString("boundary"),
+                json.getString("epilogue"), parts);
+    }
+
+    private File objectFile(String hash) {
+        return new File(new File(objectsDir, hash.substring(0, 2)), hash);
+    }
+
+    static String keyOf(String url) {
+        return hex(sha256().digest(url.getBytes(StandardCharsets.UTF_8))).substring(0, 32);
+    }
+
+    /**
+     * 读一行（包括结尾的换行）到 line，已经读完时返回 false
+     */
+    private static boolean readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+        line.reset();
+        int b;
+        while ((b = in.read()) >= 0) {
+            line.write(b);
+            if (b == '\n') return true;
+        }
+        return line.size() > 0;
+    }
+
+    private static boolean isDelimiter(ByteArrayOutputStream line, String boundary, boolean closing) {
+        String text = new String(line.toByteArray(), RAW).trim();
+        return text.equals("--" + boundary + (closing ? "--" : ""));
+    }
+
+    private static boolean isBlank(ByteArrayOutputStream line) {
+        return line.size() <= 2 && new String(line.toByteArray(), RAW).trim().isEmpty();
+    }
+
+    private static int eolLength(byte[] line) {
+        int n = line.length;
+        if (n > 0 && line[n - 1] == '\n') {
+            return n > 1 && line[n - 2] == '\r' ? 2 : 1;
+        }
+        return 0;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) throw new IOException("Truncated " + file);
+                read += n;
+            }
+        }
+        return bytes;
+    }
+
+    private static void deleteChildren(File dir) {
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        for (File child : children) child.delete();
+    }
+}
@@ -0,0 +1,492 @@
+package com.example.browser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 地址栏联想索引
+ * 把网址、主机名和标题里的词按字典序排成 token 数组，每个 token 对应一段倒排表，
+ * 前缀查询只需二分定位再顺序扫描；排序用 frecency（访问次数 × 随时间指数衰减）
+ * 非线程安全，所有调用应放在同一个线程上
+ */
+class OmniboxIndex {
+
+    static class Suggestion {
+        final String url;
+        final String title;
+
+        Suggestion(String url, String title) {
+            this.url = url;
+            this.title = title;
+        }
+
+        @Override
+        public String toString() {
+            return title.isEmpty() ? url : title + "\n" + url;
+        }
+    }
+
+    // 访问权重每7天减半
+    private static final double HALF_LIFE_MILLIS = 7d * 24 * 60 * 60 * 1000;
+    private static final double DECAY_PER_MILLI = Math.log(2) / HALF_LIFE_MILLIS;
+    // 收藏或云书签相当于额外的访问次数
+    private static final int BOOKMARK_VISITS = 5;
+    // 新增的 token 至少攒到这么多才并入有序数组
+    private static final int MIN_PENDING_MERGE = 1024;
+    // 扫描多少条记录检查一次是否已取消
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+    // 前缀命中的倒排记录超过这么多时，改为按 rank 从高到低逐条检查
+    private static final int RANK_SCAN_MIN_POSTINGS = 4096;
+    // 排名变化的条目超过这么多时重新排序
+    private static final int MAX_DIRTY = 1024;
+
+    private static class Entry {
+        final String url;
+        // 去掉协议和 www. 的小写网址，同时也是索引里的 token
+        final String key;
+        String title = "";
+        long lastVisit;
+        int visits;
+        boolean bookmarked;
+        double rank;
+
+        Entry(String url, String key) {
+            this.url = url;
+            this.key = key;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Integer> byUrl = new HashMap<>();
+
+    // 已合并部分：去重排序后的 token，postings[postingStart[i], postingStart[i+1]) 是第 i 个 token 的条目
+    private String[] tokens = new String[0];
+    private int[] postingStart = {0};
+    private int[] postings = new int[0];
+
+    // 还没并入有序数组的 (token, 条目) 对
+    private final List<String> pendingTokens = new ArrayList<>();
+    private int[] pendingIds = new int[64];
+
+    // 按 rank 降序排列的条目，排序之后 rank 变过的记在 dirty 里单独检查
+    private int[] byRank = new int[0];
+    private boolean[] dirty = new boolean[64];
+    private int[] dirtyIds = new int[MAX_DIRTY];
+    private int dirtyCount = 0;
+
+    // 查询去重用的标记，避免每次查询都分配集合
+    private int[] seen = new int[0];
+    private int queryStamp = 0;
+
+    int size() {
+        return entries.size();
+    }
+
+    void recordVisit(String url, String title, long timestamp) {
+        add(url, title, timestamp, 1, false);
+    }
+
+    void addBookmark(String url, String title, long timestamp) {
+        add(url, title, timestamp, 0, true);
+    }
+
+    /**
+     * 按规范化URL合并：访问次数累加，时间取最近，标题取最新的非空值
+     */
+    void add(String url, String title, long timestamp, int visits, boolean bookmarked) {
+        String canonical = UrlIndexedList.canonicalize(url);
+        if (canonical.isEmpty()) return;
+
+        Integer id = byUrl.get(canonical);
+        boolean isNew = id == null;
+        Entry entry;
+        if (isNew) {
+            id = entries.size();
+            entry = new Entry(url, stripUrl(canonical.toLowerCase(Locale.ROOT)));
+            entries.add(entry);
+            byUrl.put(canonical, id);
+        } else {
+            entry = entries.get(id);
+        }
+
+        boolean titleChanged = title != null && !title.isEmpty() && !title.equals(entry.title);
+        if (titleChanged) {
+            entry.title = title;
+        }
+        entry.visits += visits;
+        entry.lastVisit = Math.max(entry.lastVisit, timestamp);
+        entry.bookmarked |= bookmarked;
+        entry.rank = rankOf(entry);
+        markDirty(id);
+
+        // 标题变了只补充新词，旧词留在索引里，多出的只是少量误命中，合并时也不清理
+        Set<String> words = new HashSet<>();
+        if (isNew) {
+            addUrlTokens(entry.key, words);
+        }
+        if (isNew || titleChanged) {
+            addWords(entry.title, words);
+        }
+        for (String word : words) {
+            addPending(word, id);
+        }
+        if (pendingTokens.size() >= Math.max(MIN_PENDING_MERGE, postings.length / 8)) {
+            mergePending();
+        }
+    }
+
+    /**
+     * 返回 frecency 最高的 limit 条；多个词时每个词都要命中
+     * cancelled 返回 true 时中途放弃并返回 null
+     */
+    List<Suggestion> query(String text, int limit, BooleanSupplier cancelled) {
+        String[] terms = queryTerms(text);
+        if (terms.length == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // 用最长的词扫描倒排表（命中最少），其余的词逐条过滤
+        int primary = 0;
+        for (int i = 1; i < terms.length; i++) {
+            if (terms[i].length() > terms[primary].length()) primary = i;
+        }
+        String prefix = terms[primary];
+        if (cancelled.getAsBoolean()) {
+            return null;
+        }
+
+        if (seen.length < entries.size()) {
+            seen = Arrays.copyOf(seen, Math.max(entries.size(), seen.length * 2));
+        }
+        int stamp = ++queryStamp;
+        int[] top = new int[limit];
+        int count = 0;
+        int scanned = 0;
+
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + Character.MAX_VALUE);
+        int matched = postingStart[to] - postingStart[from];
+        boolean done = false;
+
+        // 短前缀命中的条目很多，按 rank 从高到低检查通常很快就能凑满；
+        // 检查的条数超过倒排记录数仍没凑满时，再退回到扫描倒排表
+        if (matched > RANK_SCAN_MIN_POSTINGS) {
+            if (dirtyCount >= MAX_DIRTY) {
+                sortByRank();
+            }
+            for (int i = 0; i < dirtyCount; i++) {
+                if (matchesPrefix(entries.get(dirtyIds[i]), prefix)) {
+                    count = consider(dirtyIds[i], stamp, terms, primary, top, count);
+                }
+            }
+            int i = 0;
+            for (; i < byRank.length && i < matched; i++) {
+                if (++scanned % CANCEL_CHECK_INTERVAL == 0 && cancelled.getAsBoolean()) {
+                    return null;
+                }
+                int id = byRank[i];
+                if (dirty[id]) continue;
+                Entry entry = entries.get(id);
+                if (count == limit && entry.rank <= entries.get(top[limit - 1]).rank) {
+                    break;
+                }
+                if (matchesPrefix(entry, prefix)) {
+                    count = consider(id, stamp, terms, primary, top, count);
+                }
+            }
+            done = i == byRank.length || i < matched;
+        }
+
+        if (!done) {
+            for (int t = from; t < to; t++) {
+                for (int p = postingStart[t]; p < postingStart[t + 1]; p++) {
+                    if (++scanned % CANCEL_CHECK_INTERVAL == 0 && cancelled.getAsBoolean()) {
+                        return null;
+                    }
+                    count = consider(postings[p], stamp, terms, primary, top, count);
+                }
+            }
+            for (int i = 0; i < pendingTokens.size(); i++) {
+                if (pendingTokens.get(i).startsWith(prefix)) {
+                    count = consider(pendingIds[i], stamp, terms, primary, top, count);
+                }
+            }
+        }
+
+        List<Suggestion> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Entry entry = entries.get(top[i]);
+            result.add(new Suggestion(entry.url, entry.title));
+        }
+        return result;
+    }
+
+    /**
+     * 候选条目插入按 rank 降序的 top 数组，返回新的条数
+     */
+    private int consider(int id, int stamp, String[] terms, int primary, int[] top, int count) {
+        if (seen[id] == stamp) return count;
+        seen[id] = stamp;
+
+        Entry entry = entries.get(id);
+        if (count == top.length && entry.rank <= entries.get(top[count - 1]).rank) {
+            return count;
+        }
+        for (int i = 0; i < terms.length; i++) {
+            if (i != primary && !containsIgnoreCase(entry.url, terms[i]) && !containsIgnoreCase(entry.title, terms[i])) {
+                return count;
+            }
+        }
+
+        int pos = Math.min(count, top.length - 1);
+        while (pos > 0 && entries.get(top[pos - 1]).rank < entry.rank) {
+            top[pos] = top[pos - 1];
+            pos--;
+        }
+        top[pos] = id;
+        return Math.min(count + 1, top.length);
+    }
+
+    /**
+     * frecency 取对数后，各条目共同的"当前时间"项可以约掉，
+     * 所以 rank 只依赖条目自身，不随时间推移重新计算也能保持正确的先后顺序
+     */
+    private static double rankOf(Entry entry) {
+        int weight = entry.visits + (entry.bookmarked ? BOOKMARK_VISITS : 0);
+        return Math.log(Math.max(weight, 1)) + entry.lastVisit * DECAY_PER_MILLI;
+    }
+
+    /**
+     * 与索引里的 token 规则一致：网址、主机名后缀或标题中某个词以 prefix 开头
+     * 用于按 rank 扫描时直接检查条目，不经过倒排表
+     */
+    private static boolean matchesPrefix(Entry entry, String prefix) {
+        String key = entry.key;
+        if (key.startsWith(prefix)) return true;
+        int hostEnd = hostEnd(key);
+        int lastDot = key.lastIndexOf('.', hostEnd - 1);
+        for (int dot = key.indexOf('.'); dot >= 0 && dot < lastDot; dot = key.indexOf('.', dot + 1)) {
+            if (dot + 1 + prefix.length() <= hostEnd && key.startsWith(prefix, dot + 1)) return true;
+        }
+        String title = entry.title;
+        for (int i = 0; i < title.length(); i++) {
+            if (Character.isLetterOrDigit(title.charAt(i))
+                    && (i == 0 || !Character.isLetterOrDigit(title.charAt(i - 1)))
+                    && title.regionMatches(true, i, prefix, 0, prefix.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void markDirty(int id) {
+        if (dirty.length <= id) {
+            dirty = Arrays.copyOf(dirty, Math.max(id + 1, dirty.length * 2));
+        }
+        if (dirty[id]) return;
+        dirty[id] = true;
+        if (dirtyCount == dirtyIds.length) {
+            dirtyIds = Arrays.copyOf(dirtyIds, dirtyIds.length * 2);
+        }
+        dirtyIds[dirtyCount++] = id;
+    }
+
+    /**
+     * rank 不随时间变化，没变过的条目在原来的顺序里仍然有序：只给变过的排序，再归并进去
+     * 全程用 int 数组，不为每个条目装箱
+     */
+    private void sortByRank() {
+        int[] changed = Arrays.copyOf(dirtyIds, dirtyCount);
+        sortIds(changed, new int[changed.length], 0, changed.length);
+        int[] merged = new int[entries.size()];
+        int n = 0;
+        int c = 0;
+        for (int id : byRank) {
+            if (dirty[id]) continue;
+            while (c < changed.length && rankedBefore(changed[c], id)) {
+                merged[n++] = changed[c++];
+            }
+            merged[n++] = id;
+        }
+        while (c < changed.length) {
+            merged[n++] = changed[c++];
+        }
+        byRank = merged;
+        for (int i = 0; i < dirtyCount; i++) {
+            dirty[dirtyIds[i]] = false;
+        }
+        dirtyCount = 0;
+    }
+
+    /**
+     * 按 rank 降序归并排序 ids[from, to)
+     */
+    private void sortIds(int[] ids, int[] tmp, int from, int to) {
+        if (to - from < 2) return;
+        int mid = (from + to) >>> 1;
+        sortIds(ids, tmp, from, mid);
+        sortIds(ids, tmp, mid, to);
+        System.arraycopy(ids, from, tmp, from, to - from);
+        for (int i = from, a = from, b = mid; i < to; i++) {
+            ids[i] = b == to || (a < mid && !rankedBefore(tmp[b], tmp[a])) ? tmp[a++] : tmp[b++];
+        }
+    }
+
+    /**
+     * rank 高的在前，相同时先加入的在前
+     */
+    private boolean rankedBefore(int a, int b) {
+        double rankA = entries.get(a).rank;
+        double rankB = entries.get(b).rank;
+        return rankA > rankB || (rankA == rankB && a < b);
+    }
+
+    private void addPending(String token, int id) {
+        if (pendingTokens.size() == pendingIds.length) {
+            pendingIds = Arrays.copyOf(pendingIds, pendingIds.length * 2);
+        }
+        pendingIds[pendingTokens.size()] = id;
+        pendingTokens.add(token);
+    }
+
+    /**
+     * 把新增的 token 按字典序并入有序数组
+     */
+    private void mergePending() {
+        // 按 token 稳定排序下标，同一个 token 的 id 保持加入的顺序，不为每个 token 建列表
+        int pending = pendingTokens.size();
+        Integer[] order = new Integer[pending];
+        for (int k = 0; k < pending; k++) {
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> pendingTokens.get(a).compareTo(pendingTokens.get(b)));
+        int distinct = 0;
+        for (int k = 0; k < pending; k++) {
+            if (k == 0 || !pendingTokens.get(order[k]).equals(pendingTokens.get(order[k - 1]))) distinct++;
+        }
+
+        String[] mergedTokens = new String[tokens.length + distinct];
+        int[] mergedStart = new int[mergedTokens.length + 1];
+        int[] mergedPostings = new int[postings.length + pending];
+        int i = 0;
+        int k = 0;
+        int t = 0;
+        int p = 0;
+        while (i < tokens.length || k < pending) {
+            String added = k < pending ? pendingTokens.get(order[k]) : null;
+            int cmp = i == tokens.length ? 1 : added == null ? -1 : tokens[i].compareTo(added);
+            mergedStart[t] = p;
+            if (cmp <= 0) {
+                mergedTokens[t] = tokens[i];
+                int len = postingStart[i + 1] - postingStart[i];
+                System.arraycopy(postings, postingStart[i], mergedPostings, p, len);
+                p += len;
+                i++;
+            } else {
+                mergedTokens[t] = added;
+            }
+            if (cmp >= 0) {
+                while (k < pending && pendingTokens.get(order[k]).equals(added)) {
+                    mergedPostings[p++] = pendingIds[order[k++]];
+                }
+            }
+            t++;
+        }
+        mergedStart[t] = p;
+
+        tokens = t == mergedTokens.length ? mergedTokens : Arrays.copyOf(mergedTokens, t);
+        postingStart = t + 1 == mergedStart.length ? mergedStart : Arrays.copyOf(mergedStart, t + 1);
+        postings = mergedPostings;
+        pendingTokens.clear();
+    }
+
+    private int lowerBound(String prefix) {
+        int lo = 0;
+        int hi = tokens.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tokens[mid].compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 网址本身以及主机名的各级后缀（不含顶级域），
+     * 这样输入 "google" 也能命中 mail.google.com
+     */
+    private static void addUrlTokens(String key, Set<String> out) {
+        out.add(key);
+        int hostEnd = hostEnd(key);
+        int lastDot = key.lastIndexOf('.', hostEnd - 1);
+        for (int dot = key.indexOf('.'); dot >= 0 && dot < lastDot; dot = key.indexOf('.', dot + 1)) {
+            out.add(key.substring(dot + 1, hostEnd));
+        }
+    }
+
+    private static int hostEnd(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '/' || c == '?') return i;
+        }
+        return key.length();
+    }
+
+    /**
+     * 按非字母数字切词，中文连续的一段算一个词
+     */
+    private static void addWords(String text, Set<String> out) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                out.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+    }
+
+    private static String[] queryTerms(String text) {
+        List<String> terms = new ArrayList<>();
+        for (String part : text.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+            String term = stripUrl(part);
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms.toArray(new String[0]);
+    }
+
+    private static String stripUrl(String s) {
+        int schemeEnd = s.indexOf("://");
+        if (schemeEnd >= 0) {
+            s = s.substring(schemeEnd + 3);
+        }
+        if (s.startsWith("www.")) {
+            s = s.substring(4);
+        }
+        return s;
+    }
+
+    private static boolean containsIgnoreCase(String text, String lowerTerm) {
+        int max = text.length() - lowerTerm.length();
+        for (int i = 0; i <= max; i++) {
+            if (text.regionMatches(true, i, lowerTerm, 0, lowerTerm.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
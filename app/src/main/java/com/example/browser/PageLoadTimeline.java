@@ -0,0 +1,312 @@
+package com.example.browser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 页面加载的时间线：最近 capacity 次导航放在环形缓冲区里，满了覆盖最早的
+ * 按主机和网络类型统计加载耗时的 p50/p95，可以整体导出成JSON
+ */
+class PageLoadTimeline {
+
+    /**
+     * 一次主框架导航，各时间点是相对导航开始的毫秒数，没有发生时为 -1
+     * 事件方法在主线程上调用，提交到时间线之后不再修改
+     */
+    static class PageLoad {
+        final String url;
+        final String host;
+        // 导航开始的墙上时间，用于导出
+        final long startedAt;
+        final long startNanos;
+        // 导航开始时的网络类型，比如 wifi、cellular
+        final String network;
+        // 导航开始时这个源有没有预连接过，见 Preconnector 的 WARM/WARMING/COLD
+        String preconnect;
+
+        long pageStartedMs = -1;
+        long firstProgressMs = -1;
+        long firstPaintMs = -1;
+        long finishedMs = -1;
+        int redirects;
+        // 主框架的网络错误和 HTTP 错误状态码
+        int errorCode;
+        String error;
+        int httpStatus;
+        int subresourceErrors;
+        // 被拦截的子资源请求，省下的字节数是按平均子资源大小估算的
+        int blockedRequests;
+        long blockedBytes;
+        // 被新的导航打断，没有等到 onPageFinished
+        boolean abandoned;
+        long abandonedMs = -1;
+        // 通过 JS 读到的 Navigation Timing，没有时为 null
+        JSONObject navigationTiming;
+
+        PageLoad(String url, long startedAt, long startNanos, String network) {
+            this.url = url;
+            this.host = UrlIndexedList.hostOf(url);
+            this.startedAt = startedAt;
+            this.startNanos = startNanos;
+            this.network = network;
+        }
+
+        void onPageStarted(long nowNanos) {
+            if (pageStartedMs < 0) pageStartedMs = sinceStart(nowNanos);
+        }
+
+        void onProgress(long nowNanos) {
+            if (firstProgressMs < 0) firstProgressMs = sinceStart(nowNanos);
+        }
+
+        void onFirstPaint(long nowNanos) {
+            if (firstPaintMs < 0) firstPaintMs = sinceStart(nowNanos);
+        }
+
+        void onRedirect() {
+            redirects++;
+        }
+
+        void onError(int code, String description) {
+            errorCode = code;
+            error = description;
+        }
+
+        void onHttpError(int status) {
+            httpStatus = status;
+        }
+
+        void onSubresourceError() {
+            subresourceErrors++;
+        }
+
+        void onFinished(long nowNanos) {
+            if (finishedMs < 0) finishedMs = sinceStart(nowNanos);
+        }
+
+        /**
+         * 记下被打断时已经过了多久，看用户等了多久才放弃
+         */
+        void abandon(long nowNanos) {
+            abandoned = true;
+            abandonedMs = sinceStart(nowNanos);
+        }
+
+        boolean failed() {
+            return error != null || httpStatus >= 400;
+        }
+
+        /**
+         * 正常完成的加载才计入耗时统计
+         */
+        boolean completed() {
+            return !abandoned && !failed() && finishedMs >= 0;
+        }
+
+        private long sinceStart(long nowNanos) {
+            return Math.max(0, (nowNanos - startNanos) / 1_000_000);
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("url", url);
+            json.put("host", host);
+            json.put("startedAt", startedAt);
+            json.put("network", network);
+            if (preconnect != null) json.put("preconnect", preconnect);
+            putIfSet(json, "pageStartedMs", pageStartedMs);
+            putIfSet(json, "firstProgressMs", firstProgressMs);
+            putIfSet(json, "firstPaintMs", firstPaintMs);
+            putIfSet(json, "finishedMs", finishedMs);
+            putIfSet(json, "abandonedMs", abandonedMs);
+            json.put("redirects", redirects);
+            if (error != null) {
+                json.put("errorCode", errorCode);
+                json.put("error", error);
+            }
+            if (httpStatus != 0) json.put("httpStatus", httpStatus);
+            if (subresourceErrors > 0) json.put("subresourceErrors", subresourceErrors);
+            if (blockedRequests > 0) {
+                json.put("blockedRequests", blockedRequests);
+                json.put("blockedBytes", blockedBytes);
+            }
+            if (navigationTiming != null) json.put("navigationTiming", navigationTiming);
+            return json;
+        }
+
+        private static void putIfSet(JSONObject json, String name, long value) throws JSONException {
+            if (value >= 0) json.put(name, value);
+        }
+
+        @Override
+        public String toString() {
+            String outcome = abandoned ? "abandoned after " + abandonedMs + "ms"
+                    : error != null ? "error " + errorCode + " " + error
+                    : httpStatus >= 400 ? "http " + httpStatus
+                    : "finished " + finishedMs + "ms";
+            return String.format(Locale.US, "%s [%s] %s, started %dms, progress %dms, paint %dms, %d redirects, %d blocked",
+                    host, network, outcome, pageStartedMs, firstProgressMs, firstPaintMs, redirects, blockedRequests);
+        }
+    }
+
+    /**
+     * 一组加载的统计，耗时只算正常完成的
+     */
+    static class Stats {
+        int count;
+        int failed;
+        int abandoned;
+        long p50FinishedMs = -1;
+        long p95FinishedMs = -1;
+        long p50FirstPaintMs = -1;
+        long p95FirstPaintMs = -1;
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("count", count);
+            json.put("failed", failed);
+            json.put("abandoned", abandoned);
+            json.put("p50FinishedMs", p50FinishedMs);
+            json.put("p95FinishedMs", p95FinishedMs);
+            json.put("p50FirstPaintMs", p50FirstPaintMs);
+            json.put("p95FirstPaintMs", p95FirstPaintMs);
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d loads (%d failed, %d abandoned), finished p50 %dms p95 %dms, paint p50 %dms p95 %dms",
+                    count, failed, abandoned, p50FinishedMs, p95FinishedMs, p50FirstPaintMs, p95FirstPaintMs);
+        }
+    }
+
+    private final PageLoad[] ring;
+    // 下一条写入的位置
+    private int next;
+    private int size;
+    private long dropped;
+
+    PageLoadTimeline(int capacity) {
+        ring = new PageLoad[capacity];
+    }
+
+    synchronized void add(PageLoad load) {
+        if (size == ring.length) {
+            dropped++;
+        } else {
+            size++;
+        }
+        ring[next] = load;
+        next = (next + 1) % ring.length;
+    }
+
+    /**
+     * 从旧到新
+     */
+    synchronized List<PageLoad> loads() {
+        List<PageLoad> loads = new ArrayList<>(size);
+        int start = (next - size + ring.length) % ring.length;
+        for (int i = 0; i < size; i++) {
+            loads.add(ring[(start + i) % ring.length]);
+        }
+        return loads;
+    }
+
+    synchronized long dropped() {
+        return dropped;
+    }
+
+    Map<String, Stats> statsByHost() {
+        return statsBy(load -> load.host);
+    }
+
+    Map<String, Stats> statsByNetwork() {
+        return statsBy(load -> load.network);
+    }
+
+    /**
+     * 按 key 分组统计，按加载次数从多到少排列
+     */
+    Map<String, Stats> statsBy(Function<PageLoad, String> key) {
+        Map<String, List<PageLoad>> groups = new LinkedHashMap<>();
+        for (PageLoad load : loads()) {
+            groups.computeIfAbsent(key.apply(load), k -> new ArrayList<>()).add(load);
+        }
+        List<Map.Entry<String, List<PageLoad>>> entries = new ArrayList<>(groups.entrySet());
+        entries.sort((a, b) -> Integer.compare(b.getValue().size(), a.getValue().size()));
+
+        Map<String, Stats> result = new LinkedHashMap<>();
+        for (Map.Entry<String, List<PageLoad>> entry : entries) {
+            result.put(entry.getKey(), stats(entry.getValue()));
+        }
+        return result;
+    }
+
+    static Stats stats(List<PageLoad> loads) {
+        Stats stats = new Stats();
+        long[] finished = new long[loads.size()];
+        long[] paint = new long[loads.size()];
+        int finishedCount = 0;
+        int paintCount = 0;
+        for (PageLoad load : loads) {
+            stats.count++;
+            if (load.abandoned) {
+                stats.abandoned++;
+            } else if (load.failed()) {
+                stats.failed++;
+            }
+            if (!load.completed()) continue;
+            finished[finishedCount++] = load.finishedMs;
+            if (load.firstPaintMs >= 0) paint[paintCount++] = load.firstPaintMs;
+        }
+        finished = Arrays.copyOf(finished, finishedCount);
+        paint = Arrays.copyOf(paint, paintCount);
+        Arrays.sort(finished);
+        Arrays.sort(paint);
+        stats.p50FinishedMs = percentile(finished, 50);
+        stats.p95FinishedMs = percentile(finished, 95);
+        stats.p50FirstPaintMs = percentile(paint, 50);
+        stats.p95FirstPaintMs = percentile(paint, 95);
+        return stats;
+    }
+
+    /**
+     * 最近秩法：排好序的数组里第 ceil(p/100 * n) 个，空数组返回 -1
+     */
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return -1;
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    JSONObject toJson() throws JSONException {
+        List<PageLoad> loads = loads();
+        JSONObject json = new JSONObject();
+        json.put("capacity", ring.length);
+        json.put("dropped", dropped());
+        JSONObject hosts = new JSONObject();
+        for (Map.Entry<String, Stats> entry : statsByHost().entrySet()) {
+            hosts.put(entry.getKey(), entry.getValue().toJson());
+        }
+        json.put("hosts", hosts);
+        JSONObject networks = new JSONObject();
+        for (Map.Entry<String, Stats> entry : statsByNetwork().entrySet()) {
+            networks.put(entry.getKey(), entry.getValue().toJson());
+        }
+        json.put("networks", networks);
+        JSONArray array = new JSONArray();
+        for (PageLoad load : loads) {
+            array.put(load.toJson());
+        }
+        json.put("loads", array);
+        return json;
+    }
+}
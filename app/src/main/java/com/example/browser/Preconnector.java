@@ -0,0 +1,230 @@
+package com.example.browser;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongSupplier;
+import okhttp3.HttpUrl;
+
+/**
+ * 预连接：在用户真正打开网页之前，先解析域名
+ * 只做 DNS，不向还没确定要打开的网站发请求；WebView 用不上别人建好的连接，能共享的只有系统的 DNS 缓存
+ * 同一个源在有效期内只预热一次，同时进行的预热不超过 budget 个，超出的直接放弃而不排队
+ * 导航开始时检查这个源是否已经预热过，统计预热命中和估算省下的时间
+ */
+class Preconnector {
+
+    /**
+     * 实际的域名解析，在 executor 的线程上调用
+     */
+    interface Resolver {
+        void resolve(String host) throws IOException;
+    }
+
+    /** 导航开始时这个源的状态 */
+    static final String WARM = "warm";
+    static final String WARMING = "warming";
+    static final String COLD = "cold";
+
+    private static final class Entry {
+        final long startNanos;
+        long dnsNanos = -1;
+        boolean finished;
+        boolean used;
+
+        Entry(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+
+    private final Resolver resolver;
+    private final Executor executor;
+    private final int budget;
+    // 预热结果的有效期，超过后 DNS 缓存可能已经过期
+    private final long windowNanos;
+    private final LongSupplier clock;
+
+    // 按开始时间排列，过期的从头部清掉
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private int inFlight;
+
+    private long requested;
+    private long started;
+    private long deduped;
+    private long overBudget;
+    private long failed;
+    private long hits;
+    private long inFlightHits;
+    private long misses;
+    private long wasted;
+    private long savedDnsNanos;
+
+    Preconnector(Resolver resolver, Executor executor, int budget, long windowNanos, LongSupplier clock) {
+        this.resolver = resolver;
+        this.executor = executor;
+        this.budget = budget;
+        this.windowNanos = windowNanos;
+        this.clock = clock;
+    }
+
+    /**
+     * 预热 url 所在的源，返回是否真的开始了一次预热
+     * 不是 http(s) 的地址、有效期内已经预热过的源、超出并发预算时都不做
+     */
+    boolean preconnect(String url) {
+        String origin = originOf(url);
+        if (origin == null) return false;
+        Entry entry;
+        synchronized (this) {
+            requested++;
+            long now = clock.getAsLong();
+            expire(now);
+            if (entries.containsKey(origin)) {
+                deduped++;
+                return false;
+            }
+            if (inFlight >= budget) {
+                overBudget++;
+                return false;
+            }
+            entry = new Entry(now);
+            entries.put(origin, entry);
+            inFlight++;
+            started++;
+        }
+        try {
+            executor.execute(() -> warm(origin, entry));
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                entries.remove(origin);
+                inFlight--;
+                started--;
+                overBudget++;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void warm(String origin, Entry entry) {
+        boolean ok = true;
+        try {
+            HttpUrl url = HttpUrl.get(origin);
+            long start = clock.getAsLong();
+            resolver.resolve(url.host());
+            long resolved = clock.getAsLong();
+            synchronized (this) {
+                entry.dnsNanos = resolved - start;
+            }
+        } catch (IOException | RuntimeException e) {
+            ok = false;
+        }
+        synchronized (this) {
+            entry.finished = true;
+            inFlight--;
+            if (!ok) {
+                failed++;
+                // 失败的预热不占有效期，下次可以重试
+                if (entries.get(origin) == entry) entries.remove(origin);
+            }
+        }
+    }
+
+    /**
+     * 一次导航开始，返回它的源当时的预热状态：WARM、WARMING 或 COLD
+     * 同一次预热只计一次命中
+     */
+    String onNavigation(String url) {
+        String origin = originOf(url);
+        if (origin == null) return COLD;
+        synchronized (this) {
+            expire(clock.getAsLong());
+            Entry entry = entries.get(origin);
+            if (entry == null || entry.used) {
+                misses++;
+                return COLD;
+            }
+            entry.used = true;
+            if (!entry.finished) {
+                inFlightHits++;
+                return WARMING;
+            }
+            hits++;
+            savedDnsNanos += entry.dnsNanos;
+            return WARM;
+        }
+    }
+
+    /**
+     * 去掉有效期已过的预热，没被用上的算浪费；正在进行的不动
+     */
+    private void expire(long now) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (now - entry.startNanos < windowNanos) break;
+            if (!entry.finished) continue;
+            if (!entry.used) wasted++;
+            it.remove();
+        }
+    }
+
+    /**
+     * scheme://host:port，不是 http(s) 时返回 null
+     */
+    static String originOf(String url) {
+        HttpUrl parsed = url != null ? HttpUrl.parse(url) : null;
+        if (parsed == null) return null;
+        return parsed.scheme() + "://" + parsed.host() + ":" + parsed.port();
+    }
+
+    synchronized long started() {
+        return started;
+    }
+
+    synchronized long overBudget() {
+        return overBudget;
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long inFlightHits() {
+        return inFlightHits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized long wasted() {
+        return wasted;
+    }
+
+    synchronized long failed() {
+        return failed;
+    }
+
+    /**
+     * 命中的预热里解析域名花的时间，也就是导航时省下的时间
+     */
+    synchronized long savedMillis() {
+        return savedDnsNanos / 1_000_000;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long navigations = hits + inFlightHits + misses;
+        return String.format(Locale.US,
+                "%d requested, %d started, %d deduped, %d over budget, %d failed, %d wasted; "
+                        + "navigations %d warm, %d warming, %d cold (%.0f%% warm), saved dns %dms",
+                requested, started, deduped, overBudget, failed, wasted, hits, inFlightHits, misses,
+                navigations > 0 ? 100.0 * hits / navigations : 0.0,
+                savedDnsNanos / 1_000_000);
+    }
+}
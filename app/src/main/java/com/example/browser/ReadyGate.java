@@ -0,0 +1,60 @@
+package com.example.browser;
+
+import java.util.ArrayDeque;
+
+/**
+ * 依赖还没准备好时提交的任务先排队，open() 后按提交顺序执行，之后提交的直接执行
+ * 排队中的任务在调用 open() 的线程上执行；执行期间新提交的任务排在队尾，顺序不变
+ */
+class ReadyGate {
+
+    private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+    private boolean open;
+    private boolean opening;
+
+    void run(Runnable task) {
+        synchronized (this) {
+            if (!open) {
+                waiting.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * 执行排队的任务并打开；重复调用或正在打开时直接返回
+     * 任务抛出异常时门保持关闭，剩下的任务留在队列里，下次 open() 继续
+     */
+    void open() {
+        synchronized (this) {
+            if (open || opening) return;
+            opening = true;
+        }
+        try {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = waiting.poll();
+                    if (task == null) {
+                        open = true;
+                        return;
+                    }
+                }
+                task.run();
+            }
+        } finally {
+            synchronized (this) {
+                opening = false;
+            }
+        }
+    }
+
+    synchronized boolean isOpen() {
+        return open;
+    }
+
+    synchronized int waitingCount() {
+        return waiting.size();
+    }
+}
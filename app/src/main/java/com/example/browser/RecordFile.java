@@ -0,0 +1,247 @@
+package com.example.browser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 记录文件：仍然是合法的JSON数组，但每条记录单独占一行
+ * <pre>
+ * [
+ * {...},
+ * {...}
+ * ]
+ * </pre>
+ * 按行布局后可以先从文件尾部读出最新的若干条，再从头分批流式读出其余记录；
+ * 旧版写成一整行的数组文件则退回到逐token流式解析
+ */
+class RecordFile {
+
+    interface Parser<T> {
+        T parse(JSONObject json) throws JSONException;
+    }
+
+    interface Encoder<T> {
+        JSONObject encode(T item) throws JSONException;
+    }
+
+    /**
+     * 加载回调，在调用 load 的线程上执行
+     */
+    interface Listener<T> {
+        // 文件末尾最新的若干条（按文件顺序）
+        void onNewest(List<T> items);
+
+        // 更早的一批记录（按文件顺序），应插入到已发布记录之前
+        void onOlder(List<T> batch);
+    }
+
+    private static final int TAIL_CHUNK = 8192;
+
+    private RecordFile() {
+    }
+
+    /**
+     * 先发布文件尾部 newestCount 条，再按 batchSize 分批发布更早的记录
+     * 返回读取的记录总数
+     */
+    static <T> int load(File file, int newestCount, int batchSize,
+                        Parser<T> parser, Listener<T> listener) throws IOException, JSONException {
+        if (!isLineFormat(file)) {
+            listener.onNewest(Collections.emptyList());
+            return streamLegacy(file, batchSize, parser, listener);
+        }
+
+        List<T> newest = new ArrayList<>(newestCount);
+        long tailStart = readTail(file, newestCount, parser, newest);
+        listener.onNewest(newest);
+
+        int total = newest.size();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new LimitedInputStream(new FileInputStream(file), tailStart), StandardCharsets.UTF_8))) {
+            List<T> batch = new ArrayList<>(batchSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject json = parseLine(line);
+                if (json == null) continue;
+                batch.add(parser.parse(json));
+                if (batch.size() >= batchSize) {
+                    listener.onOlder(batch);
+                    total += batch.size();
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                listener.onOlder(batch);
+                total += batch.size();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 写入临时文件并刷到磁盘后原子替换目标文件，中途崩溃时旧文件保持完整
+     */
+    static <T> void write(File file, List<T> items, Encoder<T> encoder) throws IOException, JSONException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(tmpFile);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+            out.write("[\n");
+            for (int i = 0; i < items.size(); i++) {
+                out.write(encoder.encode(items.get(i)).toString());
+                out.write(i < items.size() - 1 ? ",\n" : "\n");
+            }
+            out.write("]\n");
+            out.flush();
+            stream.getFD().sync();
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    private static boolean isLineFormat(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            int first = in.read();
+            int second = in.read();
+            return first == '[' && (second == '\n' || second == '\r');
+        }
+    }
+
+    /**
+     * 从文件末尾向前读，直到凑够 count 条完整记录；返回这些记录起始的字节偏移
+     */
+    private static <T> long readTail(File file, int count, Parser<T> parser, List<T> out)
+            throws IOException, JSONException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long pos = raf.length();
+            byte[] tail = new byte[0];
+            int newlines = 0;
+            // 多读一行，保证最前面那行是完整的
+            while (pos > 0 && newlines <= count + 1) {
+                int n = (int) Math.min(TAIL_CHUNK, pos);
+                pos -= n;
+                byte[] merged = new byte[n + tail.length];
+                raf.seek(pos);
+                raf.readFully(merged, 0, n);
+                System.arraycopy(tail, 0, merged, n, tail.length);
+                for (int i = 0; i < n; i++) {
+                    if (merged[i] == '\n') newlines++;
+                }
+                tail = merged;
+            }
+
+            List<Long> offsets = new ArrayList<>();
+            List<String> lines = new ArrayList<>();
+            int lineStart = 0;
+            if (pos > 0) {
+                // 第一段可能是半行，跳过
+                while (lineStart < tail.length && tail[lineStart] != '\n') lineStart++;
+                lineStart++;
+            }
+            for (int i = lineStart; i < tail.length; i++) {
+                if (tail[i] == '\n') {
+                    offsets.add(pos + lineStart);
+                    lines.add(new String(tail, lineStart, i - lineStart, StandardCharsets.UTF_8));
+                    lineStart = i + 1;
+                }
+            }
+
+            long tailStart = raf.length();
+            int taken = 0;
+            for (int i = lines.size() - 1; i >= 0 && taken < count; i--) {
+                String line = lines.get(i);
+                if (line.startsWith("{")) {
+                    tailStart = offsets.get(i);
+                    taken++;
+                }
+            }
+            for (int i = 0; i < lines.size(); i++) {
+                if (offsets.get(i) < tailStart) continue;
+                JSONObject json = parseLine(lines.get(i));
+                if (json != null) {
+                    out.add(parser.parse(json));
+                }
+            }
+            return tailStart;
+        }
+    }
+
+    private static JSONObject parseLine(String line) throws JSONException {
+        String trimmed = line.trim();
+        if (!trimmed.startsWith("{")) {
+            return null;
+        }
+        if (trimmed.endsWith(",")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return new JSONObject(trimmed);
+    }
+
+    private static <T> int streamLegacy(File file, int batchSize, Parser<T> parser, Listener<T> listener)
+            throws IOException, JSONException {
+        int total = 0;
+        try (JsonStreamReader reader = new JsonStreamReader(new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8)))) {
+            List<T> batch = new ArrayList<>(batchSize);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                batch.add(parser.parse(reader.nextJsonObject()));
+                if (batch.size() >= batchSize) {
+                    listener.onOlder(batch);
+                    total += batch.size();
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            reader.endArray();
+            if (!batch.isEmpty()) {
+                listener.onOlder(batch);
+                total += batch.size();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 只允许读到指定字节数的输入流
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.browser;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * 同一时间只执行一个任务：
+ * join() 加入正在执行的那次，没有在执行时才启动；
+ * rerun() 要求在调用之后重新执行一次，正在执行时排到它后面，多个这样的请求合并成一次
+ */
+class SingleFlight<T> {
+
+    private final Supplier<CompletableFuture<T>> task;
+
+    private CompletableFuture<T> running;
+    private CompletableFuture<T> trailing;
+
+    SingleFlight(Supplier<CompletableFuture<T>> task) {
+        this.task = task;
+    }
+
+    /**
+     * 在 executor 上执行会阻塞的任务
+     */
+    static <T> SingleFlight<T> onExecutor(Executor executor, Callable<T> task) {
+        return new SingleFlight<>(() -> {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            try {
+                executor.execute(() -> {
+                    try {
+                        future.complete(task.call());
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        });
+    }
+
+    synchronized CompletableFuture<T> join() {
+        if (running != null) {
+            return running;
+        }
+        return start(new CompletableFuture<>());
+    }
+
+    synchronized CompletableFuture<T> rerun() {
+        if (running == null) {
+            return start(new CompletableFuture<>());
+        }
+        if (trailing == null) {
+            trailing = new CompletableFuture<>();
+        }
+        return trailing;
+    }
+
+    synchronized boolean isRunning() {
+        return running != null;
+    }
+
+    private CompletableFuture<T> start(CompletableFuture<T> future) {
+        running = future;
+        CompletableFuture<T> result;
+        try {
+            result = task.get();
+        } catch (Throwable e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((value, error) -> finish(future, value, error));
+        return future;
+    }
+
+    /**
+     * 先切换状态再通知等待者，回调里再调用 join() 不会拿到已经结束的这次
+     */
+    private void finish(CompletableFuture<T> future, T value, Throwable error) {
+        synchronized (this) {
+            running = null;
+            if (trailing != null) {
+                CompletableFuture<T> next = trailing;
+                trailing = null;
+                start(next);
+            }
+        }
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else {
+            future.complete(value);
+        }
+    }
+}
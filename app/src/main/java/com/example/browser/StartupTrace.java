@@ -0,0 +1,135 @@
+package com.example.browser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 启动过程的分阶段计时
+ * 阶段用 begin/end 包起来，可以在不同线程上进行；瞬间事件（首次绘制等）用 mark 记录
+ * 所有时间都是相对 origin 的偏移，冷启动时 origin 取进程启动时间
+ */
+class StartupTrace {
+
+    /**
+     * 一个阶段或事件，事件的 durationNanos 为 0
+     */
+    static class Phase {
+        final String name;
+        final String thread;
+        final long startNanos;
+        long durationNanos = -1;
+        final boolean event;
+
+        Phase(String name, String thread, long startNanos, boolean event) {
+            this.name = name;
+            this.thread = thread;
+            this.startNanos = startNanos;
+            this.event = event;
+            if (event) durationNanos = 0;
+        }
+
+        boolean isFinished() {
+            return durationNanos >= 0;
+        }
+    }
+
+    private final LongSupplier clock;
+    private final long origin;
+    private final String label;
+    // 按开始顺序排列；同名阶段只记第一次
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+    StartupTrace(String label, LongSupplier clock, long origin) {
+        this.label = label;
+        this.clock = clock;
+        this.origin = origin;
+    }
+
+    /**
+     * 开始一个阶段；已经开始过的同名阶段不重新计时
+     */
+    void begin(String name) {
+        long now = clock.getAsLong() - origin;
+        String thread = Thread.currentThread().getName();
+        synchronized (phases) {
+            phases.putIfAbsent(name, new Phase(name, thread, now, false));
+        }
+    }
+
+    /**
+     * 结束阶段；没有开始过或已经结束的阶段忽略
+     */
+    void end(String name) {
+        long now = clock.getAsLong() - origin;
+        synchronized (phases) {
+            Phase phase = phases.get(name);
+            if (phase != null && !phase.isFinished()) {
+                phase.durationNanos = now - phase.startNanos;
+            }
+        }
+    }
+
+    /**
+     * 记录一个瞬间事件，只记第一次
+     */
+    void mark(String name) {
+        long now = clock.getAsLong() - origin;
+        String thread = Thread.currentThread().getName();
+        synchronized (phases) {
+            phases.putIfAbsent(name, new Phase(name, thread, now, true));
+        }
+    }
+
+    boolean has(String name) {
+        synchronized (phases) {
+            return phases.containsKey(name);
+        }
+    }
+
+    /**
+     * 阶段的耗时，事件返回相对 origin 的时间；没有记录或还没结束时返回 -1
+     */
+    long millis(String name) {
+        synchronized (phases) {
+            Phase phase = phases.get(name);
+            if (phase == null || !phase.isFinished()) return -1;
+            return (phase.event ? phase.startNanos : phase.durationNanos) / 1_000_000;
+        }
+    }
+
+    List<Phase> phases() {
+        synchronized (phases) {
+            List<Phase> copy = new ArrayList<>();
+            for (Phase phase : phases.values()) {
+                Phase p = new Phase(phase.name, phase.thread, phase.startNanos, phase.event);
+                p.durationNanos = phase.durationNanos;
+                copy.add(p);
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * 每个阶段一行：开始时间、耗时、线程；还没结束的阶段显示为 running
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(label);
+        for (Phase phase : phases()) {
+            sb.append('\n').append(String.format(Locale.US, "%+9.1fms  %-24s", phase.startNanos / 1e6, phase.name));
+            if (phase.event) {
+                sb.append(String.format(Locale.US, "%10s", "*"));
+            } else if (phase.isFinished()) {
+                sb.append(String.format(Locale.US, "%8.1fms", phase.durationNanos / 1e6));
+            } else {
+                sb.append(String.format(Locale.US, "%10s", "running"));
+            }
+            sb.append("  ").append(phase.thread);
+        }
+        return sb.toString();
+    }
+}
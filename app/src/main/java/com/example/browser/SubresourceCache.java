@@ -0,0 +1,296 @@
+package com.example.browser;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import okhttp3.Cache;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 网页静态子资源（脚本、样式、字体、图片）的磁盘缓存，由 shouldInterceptRequest 调用
+ * 请求走共用的 OkHttp 连接池，响应存进单独的 OkHttp 磁盘缓存：
+ * 按 Cache-Control/Expires 判断是否新鲜，过期后带 ETag/Last-Modified 重新验证，
+ * 超过容量时按最近最少使用淘汰
+ * 返回 null 表示不处理，交回 WebView 自己加载
+ * 站点有 Cookie 的请求、会设置 Cookie 的响应都交回 WebView：SameSite、第三方 Cookie 策略只有它知道，
+ * 拦截下来的响应里的 Set-Cookie 它也不认
+ */
+class SubresourceCache {
+
+    /**
+     * 交给 WebView 的响应；body 读完或关闭时计入字节数
+     */
+    static class Result {
+        final String mimeType;
+        final String encoding;
+        final int status;
+        final String reason;
+        final Map<String, String> headers;
+        final InputStream body;
+        // 来自缓存（新鲜命中或 304 重新验证）
+        final boolean fromCache;
+
+        Result(String mimeType, String encoding, int status, String reason,
+               Map<String, String> headers, InputStream body, boolean fromCache) {
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.status = status;
+            this.reason = reason;
+            this.headers = headers;
+            this.body = body;
+            this.fromCache = fromCache;
+        }
+    }
+
+    private static final String[] STATIC_EXTENSIONS = {
+            ".js", ".mjs", ".css", ".woff", ".woff2", ".ttf", ".otf",
+            ".png", ".jpg", ".jpeg", ".gif", ".webp", ".avif", ".svg", ".ico"
+    };
+
+    // 不转发给服务器的请求头：压缩由 OkHttp 处理并解压，WebView 要的是解压后的内容
+    private static final String[] DROPPED_REQUEST_HEADERS = {"Accept-Encoding", "Range"};
+    // 不交给 WebView 的响应头：内容已经解压，长度和编码都变了
+    private static final String[] DROPPED_RESPONSE_HEADERS = {"Content-Encoding", "Content-Length", "Transfer-Encoding"};
+
+    private final Cache cache;
+    private final OkHttpClient client;
+    // 按URL取这个站点的 Cookie，没有时返回 null；有 Cookie 的请求不处理
+    private final Function<String, String> cookies;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    // 因为 Cookie 或状态码交回 WebView 的
+    private final AtomicLong bypassed = new AtomicLong();
+    private final AtomicLong bytesFromCache = new AtomicLong();
+    private final AtomicLong bytesFromNetwork = new AtomicLong();
+
+    SubresourceCache(OkHttpClient base, File dir, long maxBytes, Function<String, String> cookies) {
+        this.cache = new Cache(dir, maxBytes);
+        this.client = base.newBuilder().cache(cache).build();
+        this.cookies = cookies;
+    }
+
+    /**
+     * 只缓存 GET 的 http(s) 静态资源；带 Range 的请求（视频、断点续传）不处理
+     */
+    static boolean isCacheable(String method, String url, Map<String, String> headers) {
+        if (!"GET".equalsIgnoreCase(method)) return false;
+        HttpUrl parsed = HttpUrl.parse(url);
+        if (parsed == null) return false;
+        if (headers != null) {
+            for (String name : headers.keySet()) {
+                if ("Range".equalsIgnoreCase(name)) return false;
+            }
+        }
+        String path = parsed.encodedPath().toLowerCase(Locale.ROOT);
+        for (String extension : STATIC_EXTENSIONS) {
+            if (path.endsWith(extension)) return true;
+        }
+        String accept = headers != null ? header(headers, "Accept") : null;
+        // 没有扩展名的图片和样式靠 Accept 判断，比如 CDN 上按参数裁剪的图片
+        return accept != null && (accept.startsWith("image/") || accept.startsWith("text/css"));
+    }
+
+    /**
+     * 在调用线程上同步请求（WebView 的网络线程），失败时返回 null 让 WebView 自己重试
+     */
+    Result fetch(String url, Map<String, String> requestHeaders) {
+        requests.incrementAndGet();
+        String cookie = cookies != null ? cookies.apply(url) : null;
+        if (cookie != null && !cookie.isEmpty()) {
+            bypassed.incrementAndGet();
+            return null;
+        }
+        Request.Builder builder = new Request.Builder().url(url);
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                if (!isDropped(header.getKey(), DROPPED_REQUEST_HEADERS)) {
+                    builder.header(header.getKey(), header.getValue());
+                }
+            }
+        }
+
+        Response response = null;
+        try {
+            response = client.newCall(builder.build()).execute();
+            // 网页自己带条件头时会拿到 304；WebResourceResponse 不接受 3xx
+            if (!canHandOver(response.code()) || response.header("Set-Cookie") != null) {
+                bypassed.incrementAndGet();
+                response.close();
+                return null;
+            }
+            ResponseBody body = response.body();
+            boolean fromCache = response.cacheResponse() != null;
+            AtomicLong counter;
+            if (fromCache && response.networkResponse() == null) {
+                hits.incrementAndGet();
+                counter = bytesFromCache;
+            } else if (fromCache) {
+                // 条件请求回了 304，响应体来自缓存
+                revalidated.incrementAndGet();
+                counter = bytesFromCache;
+            } else {
+                misses.incrementAndGet();
+                counter = bytesFromNetwork;
+            }
+
+            MediaType type = body.contentType();
+            String mimeType = type != null ? type.type() + "/" + type.subtype() : "application/octet-stream";
+            String encoding = type != null && type.charset() != null ? type.charset().name() : null;
+            String reason = response.message().isEmpty() ? "OK" : response.message();
+            return new Result(mimeType, encoding, response.code(), reason,
+                    responseHeaders(response.headers()), new CountingStream(body.byteStream(), counter), fromCache);
+        } catch (IOException | RuntimeException e) {
+            errors.incrementAndGet();
+            if (response != null) response.close();
+            return null;
+        }
+    }
+
+    /**
+     * WebResourceResponse 只接受 2xx 和 4xx、5xx 的状态码
+     */
+    static boolean canHandOver(int status) {
+        return (status >= 200 && status <= 299) || (status >= 400 && status <= 599);
+    }
+
+    private static Map<String, String> responseHeaders(Headers headers) {
+        // 服务器返回的头名大小写不一，按不区分大小写的方式存
+        Map<String, String> result = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String name : headers.names()) {
+            if (!isDropped(name, DROPPED_RESPONSE_HEADERS)) {
+                result.put(name, headers.get(name));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isDropped(String name, String[] dropped) {
+        for (String d : dropped) {
+            if (d.equalsIgnoreCase(name)) return true;
+        }
+        return false;
+    }
+
+    private static String header(Map<String, String> headers, String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) return header.getValue();
+        }
+        return null;
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long revalidated() {
+        return revalidated.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    long errors() {
+        return errors.get();
+    }
+
+    long bypassed() {
+        return bypassed.get();
+    }
+
+    /**
+     * 不用从网络下载响应体的比例，304 也算
+     */
+    double hitRatio() {
+        long total = requests.get();
+        return total > 0 ? (double) (hits.get() + revalidated.get()) / total : 0;
+    }
+
+    /**
+     * 从缓存读出的字节数，也就是省下的下载量
+     */
+    long bytesSaved() {
+        return bytesFromCache.get();
+    }
+
+    long bytesFromNetwork() {
+        return bytesFromNetwork.get();
+    }
+
+    /**
+     * 已处理的子资源的平均大小，还没有数据时返回 fallback
+     */
+    long averageBytes(long fallback) {
+        long served = hits.get() + revalidated.get() + misses.get();
+        return served > 0 ? (bytesFromCache.get() + bytesFromNetwork.get()) / served : fallback;
+    }
+
+    long size() throws IOException {
+        return cache.size();
+    }
+
+    long maxSize() {
+        return cache.maxSize();
+    }
+
+    @Override
+    public String toString() {
+        long size;
+        try {
+            size = cache.size();
+        } catch (IOException e) {
+            size = -1;
+        }
+        return String.format(Locale.US,
+                "%d requests, %d hits, %d revalidated, %d misses, %d errors, %d bypassed, hit ratio %.1f%%, saved %d KB, downloaded %d KB, cache %d/%d KB",
+                requests.get(), hits.get(), revalidated.get(), misses.get(), errors.get(), bypassed.get(),
+                hitRatio() * 100,
+                bytesFromCache.get() / 1024, bytesFromNetwork.get() / 1024, size / 1024, cache.maxSize() / 1024);
+    }
+
+    /**
+     * 边读边计数；关闭时连同底层响应一起关闭
+     */
+    private static class CountingStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) counter.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) counter.addAndGet(n);
+            return n;
+        }
+    }
+}
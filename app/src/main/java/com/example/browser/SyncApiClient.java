@@ -0,0 +1,228 @@
+package com.example.browser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * 云书签服务器的网络层，所有接口共用一个配置好的 OkHttpClient：
+ * 和 base 共用连接池、优先 HTTP/2、超时、令牌放在 Authorization 头里、较大的请求体 gzip 压缩
+ * 异步接口返回 CompletableFuture，回调在 OkHttp 的线程上执行，不会占用主线程
+ */
+class SyncApiClient {
+
+    /**
+     * 处理响应，在网络线程上执行
+     */
+    interface ResponseHandler<T> {
+        T handle(Response response) throws IOException, JSONException;
+    }
+
+    /**
+     * 登录结果
+     */
+    static class Login {
+        final String syncToken;
+        final String userId;
+
+        Login(String syncToken, String userId) {
+            this.syncToken = syncToken;
+            this.userId = userId;
+        }
+    }
+
+    /**
+     * 令牌无效或已过期（HTTP 401），重新登录后可以重试
+     */
+    static class UnauthorizedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnauthorizedException(String message) {
+            super(message);
+        }
+    }
+
+    static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+    private static final long READ_TIMEOUT_SECONDS = 30;
+    private static final long WRITE_TIMEOUT_SECONDS = 30;
+    private static final long CALL_TIMEOUT_SECONDS = 120;
+    // 小于这个大小的请求体压缩不划算
+    static final long GZIP_MIN_BYTES = 1024;
+
+    private final OkHttpClient client;
+    private final HttpUrl baseUrl;
+    private final Supplier<String> tokenSupplier;
+
+    /**
+     * base 提供缓存等调用方相关的配置，其余在这里统一设置
+     * 连接池沿用 base 的，和同一个 base 派生的其他客户端共用连接
+     */
+    SyncApiClient(OkHttpClient base, String baseUrl, Supplier<String> tokenSupplier) {
+        this.baseUrl = HttpUrl.get(baseUrl);
+        this.tokenSupplier = tokenSupplier;
+        this.client = base.newBuilder()
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .readTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .writeTimeout(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .callTimeout(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .addInterceptor(this::authorize)
+                .addInterceptor(SyncApiClient::gzipRequest)
+                .build();
+    }
+
+    OkHttpClient client() {
+        return client;
+    }
+
+    /**
+     * 拼接接口地址，path 以 / 开头，例如 "/bookmarks/changes"
+     */
+    HttpUrl.Builder url(String path) {
+        return HttpUrl.get(baseUrl + path).newBuilder();
+    }
+
+    Call newCall(Request request) {
+        return client.newCall(request);
+    }
+
+    static RequestBody jsonBody(JSONObject json) {
+        return RequestBody.create(json.toString(), JSON);
+    }
+
+    /**
+     * 同步执行请求，在调用线程上处理响应
+     */
+    <T> T execute(Request request, ResponseHandler<T> handler) throws IOException, JSONException {
+        try (Response response = client.newCall(request).execute()) {
+            return handler.handle(response);
+        }
+    }
+
+    /**
+     * 异步执行请求；取消返回的 future 会同时取消请求
+     */
+    <T> CompletableFuture<T> enqueue(Request request, ResponseHandler<T> handler) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call call = client.newCall(request);
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) call.cancel();
+        });
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    future.complete(handler.handle(r));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    CompletableFuture<Login> login(String username, String password) {
+        JSONObject body = new JSONObject();
+        try {
+            body.put("username", username);
+            body.put("password", password);
+        } catch (JSONException e) {
+            CompletableFuture<Login> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        Request request = new Request.Builder()
+                .url(url("/auth/login").build())
+                .post(jsonBody(body))
+                .build();
+        return enqueue(request, response -> {
+            JSONObject data = readData(response);
+            return new Login(data.getString("syncToken"), data.getString("userId"));
+        });
+    }
+
+    /**
+     * 检查状态码和 {"code":200} 包装，返回其中的 data 对象（可能为 null）
+     */
+    static JSONObject readData(Response response) throws IOException, JSONException {
+        checkStatus(response);
+        JSONObject json = new JSONObject(response.body().string());
+        if (json.getInt("code") != 200) {
+            throw new IOException("API错误: " + json.optString("message"));
+        }
+        return json.optJSONObject("data");
+    }
+
+    /**
+     * 非 2xx 状态码抛出异常，401 单独区分出来
+     */
+    static void checkStatus(Response response) throws IOException {
+        if (response.code() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+            throw new UnauthorizedException("令牌无效: " + response.code());
+        }
+        if (!response.isSuccessful()) {
+            throw new IOException("服务器错误: " + response.code());
+        }
+    }
+
+    /**
+     * 有令牌时放进 Authorization 头，已经带了的不覆盖
+     */
+    private Response authorize(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        String token = tokenSupplier.get();
+        if (token == null || token.isEmpty() || request.header("Authorization") != null) {
+            return chain.proceed(request);
+        }
+        return chain.proceed(request.newBuilder()
+                .header("Authorization", "Bearer " + token)
+                .build());
+    }
+
+    /**
+     * 长度已知且足够大的请求体压缩后再发送
+     */
+    private static Response gzipRequest(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestBody body = request.body();
+        if (body == null || request.header("Content-Encoding") != null
+                || body.contentLength() < GZIP_MIN_BYTES) {
+            return chain.proceed(request);
+        }
+        Buffer compressed = new Buffer();
+        try (BufferedSink sink = Okio.buffer(new GzipSink(compressed))) {
+            body.writeTo(sink);
+        }
+        RequestBody gzipped = RequestBody.create(compressed.readByteString(), body.contentType());
+        return chain.proceed(request.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(request.method(), gzipped)
+                .build());
+    }
+}
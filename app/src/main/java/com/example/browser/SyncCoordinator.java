@@ -0,0 +1,93 @@
+package com.example.browser;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * 合并并发的登录和同步请求
+ * 同步同一时间只跑一次，并发触发的加入正在跑的那次，需要最新数据的最多再排一次；
+ * 没有令牌时先登录，令牌过期（401）时重新登录一次再重试，同时等待的请求共用这次登录
+ */
+class SyncCoordinator<T> {
+
+    /**
+     * 令牌的读写
+     */
+    interface TokenStore {
+        String get();
+
+        void save(SyncApiClient.Login login);
+    }
+
+    private final TokenStore tokens;
+    private final SingleFlight<SyncApiClient.Login> loginFlight;
+    private final SingleFlight<T> syncFlight;
+
+    SyncCoordinator(Executor executor, Callable<T> sync,
+                    Supplier<CompletableFuture<SyncApiClient.Login>> login, TokenStore tokens) {
+        this.tokens = tokens;
+        this.loginFlight = new SingleFlight<>(() -> login.get().thenApply(result -> {
+            // 先保存再通知等待者，它们重试时就能拿到新令牌
+            tokens.save(result);
+            return result;
+        }));
+        this.syncFlight = SingleFlight.onExecutor(executor, () -> {
+            String token = tokens.get();
+            if (token == null || token.isEmpty()) {
+                awaitLogin(token);
+            }
+            try {
+                return sync.call();
+            } catch (SyncApiClient.UnauthorizedException e) {
+                awaitLogin(token);
+                return sync.call();
+            }
+        });
+    }
+
+    /**
+     * 同步一次；正在同步时加入那一次
+     */
+    CompletableFuture<T> sync() {
+        return syncFlight.join();
+    }
+
+    /**
+     * 本地数据有变化后要求再同步一次；正在同步时排在它之后，多次调用合并成一次
+     */
+    CompletableFuture<T> syncAgain() {
+        return syncFlight.rerun();
+    }
+
+    /**
+     * 登录；正在登录时加入那一次
+     */
+    CompletableFuture<SyncApiClient.Login> login() {
+        return loginFlight.join();
+    }
+
+    /**
+     * 令牌还是被拒绝的那个时才登录，已经被别人换过就直接重试
+     */
+    private void awaitLogin(String rejected) throws IOException {
+        String current = tokens.get();
+        if (current != null && !current.isEmpty() && !current.equals(rejected)) {
+            return;
+        }
+        try {
+            login().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("登录被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("登录失败", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.example.browser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * 标签页：最多同时保留 liveLimit 个活着的视图，其余标签休眠
+ * 休眠时把视图的状态（前进后退记录、滚动位置）存到磁盘后销毁视图，切换回来时新建视图再恢复
+ * 超出上限时休眠最久没用过的后台标签；内存紧张时可以临时调低上限
+ * 只在主线程上访问；V 是视图类型，应用里是 WebView，测试里用普通对象
+ */
+class TabManager<V> {
+
+    /**
+     * 视图的创建、销毁和状态存取
+     */
+    interface Engine<V> {
+        V create();
+
+        void destroy(V view);
+
+        /** 没有可保存的状态时返回 null */
+        byte[] saveState(V view);
+
+        /** 恢复失败时返回 false，由调用方重新加载网址 */
+        boolean restoreState(V view, byte[] state);
+
+        void load(V view, String url);
+    }
+
+    static class Tab<V> {
+        final int id;
+        String url;
+        String title;
+        // 休眠时为 null
+        V view;
+        long lastUsedNanos;
+        // 休眠了几次，切换回来时恢复了几次
+        int hibernations;
+        int restores;
+
+        Tab(int id, String url) {
+            this.id = id;
+            this.url = url;
+        }
+
+        boolean isLive() {
+            return view != null;
+        }
+
+        @Override
+        public String toString() {
+            return (title != null && !title.isEmpty() ? title : url) + (isLive() ? "" : "（休眠）");
+        }
+    }
+
+    // 没有新的内存紧张信号后，临时调低的上限保持多久
+    static final long PRESSURE_HOLD_NANOS = 60_000_000_000L;
+
+    private final Engine<V> engine;
+    private final File stateDir;
+    private final LongSupplier clock;
+    private final int baseLimit;
+    private int pressureLimit;
+    private long pressureUntilNanos;
+
+    // 按打开的顺序排列，标签列表界面也是这个顺序
+    private final List<Tab<V>> tabs = new ArrayList<>();
+    private Tab<V> current;
+    private int nextId = 1;
+
+    // 切换耗时：活着的标签只是换一下视图，休眠的要新建视图并恢复状态
+    private long[] warmSwitchNanos = new long[16];
+    private int warmSwitches;
+    private long[] coldSwitchNanos = new long[16];
+    private int coldSwitches;
+    private int hibernations;
+    private int restoreFailures;
+
+    // 进程内存随活着的标签数变化的最小二乘斜率，作为每个标签的内存估算
+    private int samples;
+    private double sumX;
+    private double sumY;
+    private double sumXY;
+    private double sumXX;
+
+    TabManager(Engine<V> engine, File stateDir, int liveLimit, LongSupplier clock) {
+        this.engine = engine;
+        this.stateDir = stateDir;
+        this.baseLimit = Math.max(1, liveLimit);
+        this.clock = clock;
+        // 上次进程留下的休眠状态对应的标签已经不存在了
+        File[] stale = stateDir.listFiles();
+        if (stale != null) {
+            for (File file : stale) {
+                file.delete();
+            }
+        }
+        stateDir.mkdirs();
+    }
+
+    /**
+     * 按设备的内存等级（ActivityManager.getMemoryClass，单位MB）决定同时活着的标签数
+     */
+    static int liveLimitForMemoryClass(int memoryClassMb, boolean lowRam) {
+        if (lowRam) return 1;
+        return Math.max(2, Math.min(6, memoryClassMb / 64));
+    }
+
+    /**
+     * 新建标签并加载 url；在前台打开时直接切换过去，返回新标签
+     */
+    Tab<V> open(String url, boolean foreground) {
+        Tab<V> tab = new Tab<>(nextId++, url);
+        tabs.add(tab);
+        tab.lastUsedNanos = clock.getAsLong();
+        tab.view = engine.create();
+        engine.load(tab.view, url);
+        if (foreground || current == null) {
+            current = tab;
+        }
+        trimLive();
+        return tab;
+    }
+
+    /**
+     * 切到 id 对应的标签，必要时唤醒它；返回要显示的视图，没有这个标签时返回 null
+     */
+    V switchTo(int id) {
+        Tab<V> tab = find(id);
+        if (tab == null) return null;
+        long start = clock.getAsLong();
+        boolean cold = !tab.isLive();
+        if (cold) {
+            wake(tab);
+        }
+        current = tab;
+        tab.lastUsedNanos = clock.getAsLong();
+        trimLive();
+        long elapsed = clock.getAsLong() - start;
+        if (cold) {
+            coldSwitchNanos = record(coldSwitchNanos, coldSwitches++, elapsed);
+        } else {
+            warmSwitchNanos = record(warmSwitchNanos, warmSwitches++, elapsed);
+        }
+        return tab.view;
+    }
+
+    /**
+     * 关闭标签；关的是当前标签时切到最近用过的另一个，返回新的当前标签，没有标签了返回 null
+     */
+    Tab<V> close(int id) {
+        Tab<V> tab = find(id);
+        if (tab == null) return current;
+        tabs.remove(tab);
+        if (tab.view != null) {
+            engine.destroy(tab.view);
+            tab.view = null;
+        }
+        stateFile(tab).delete();
+        if (tab == current) {
+            current = null;
+            Tab<V> next = mostRecent();
+            if (next != null) switchTo(next.id);
+        }
+        return current;
+    }
+
+    /**
+     * 内存紧张时临时把上限调到 limit，立即休眠多出来的后台标签
+     */
+    void applyMemoryPressure(int limit) {
+        pressureLimit = Math.max(1, limit);
+        pressureUntilNanos = clock.getAsLong() + PRESSURE_HOLD_NANOS;
+        trimLive();
+    }
+
+    int liveLimit() {
+        if (pressureLimit > 0 && clock.getAsLong() < pressureUntilNanos) {
+            return Math.min(baseLimit, pressureLimit);
+        }
+        pressureLimit = 0;
+        return baseLimit;
+    }
+
+    /**
+     * 销毁所有视图、删除休眠状态，界面销毁时调用
+     */
+    void destroyAll() {
+        for (Tab<V> tab : tabs) {
+            if (tab.view != null) {
+                engine.destroy(tab.view);
+                tab.view = null;
+            }
+            stateFile(tab).delete();
+        }
+        tabs.clear();
+        current = null;
+    }
+
+    Tab<V> current() {
+        return current;
+    }
+
+    V currentView() {
+        return current != null ? current.view : null;
+    }
+
+    List<Tab<V>> tabs() {
+        return new ArrayList<>(tabs);
+    }
+
+    Tab<V> findByView(V view) {
+        if (view == null) return null;
+        for (Tab<V> tab : tabs) {
+            if (tab.view == view) return tab;
+        }
+        return null;
+    }
+
+    int size() {
+        return tabs.size();
+    }
+
+    int liveCount() {
+        int live = 0;
+        for (Tab<V> tab : tabs) {
+            if (tab.isLive()) live++;
+        }
+        return live;
+    }
+
+    /**
+     * 记一次内存采样：当时活着的标签数和进程占用（KB），可以在后台线程上调用
+     */
+    synchronized void onMemorySample(int liveTabs, long memoryKb) {
+        samples++;
+        sumX += liveTabs;
+        sumY += memoryKb;
+        sumXY += (double) liveTabs * memoryKb;
+        sumXX += (double) liveTabs * liveTabs;
+    }
+
+    /**
+     * 每多一个活着的标签进程多占的内存（KB），采样不够（活着的标签数没有变化过）时返回 -1
+     */
+    synchronized long memoryPerLiveTabKb() {
+        double denominator = samples * sumXX - sumX * sumX;
+        if (samples < 2 || denominator <= 0) return -1;
+        return Math.round((samples * sumXY - sumX * sumY) / denominator);
+    }
+
+    private Tab<V> find(int id) {
+        for (Tab<V> tab : tabs) {
+            if (tab.id == id) return tab;
+        }
+        return null;
+    }
+
+    private Tab<V> mostRecent() {
+        Tab<V> best = null;
+        for (Tab<V> tab : tabs) {
+            if (best == null || tab.lastUsedNanos > best.lastUsedNanos) best = tab;
+        }
+        return best;
+    }
+
+    /**
+     * 活着的标签超出上限时，从最久没用过的后台标签开始休眠
+     */
+    private void trimLive() {
+        int limit = liveLimit();
+        int live = liveCount();
+        while (live > limit) {
+            Tab<V> oldest = null;
+            for (Tab<V> tab : tabs) {
+                if (tab.isLive() && tab != current
+                        && (oldest == null || tab.lastUsedNanos < oldest.lastUsedNanos)) {
+                    oldest = tab;
+                }
+            }
+            if (oldest == null) return;
+            hibernate(oldest);
+            live--;
+        }
+    }
+
+    private void hibernate(Tab<V> tab) {
+        byte[] state = engine.saveState(tab.view);
+        File file = stateFile(tab);
+        if (state != null) {
+            try {
+                writeState(file, state);
+            } catch (IOException e) {
+                // 存不下来就只能在唤醒时重新加载网址
+                file.delete();
+            }
+        }
+        engine.destroy(tab.view);
+        tab.view = null;
+        tab.hibernations++;
+        hibernations++;
+    }
+
+    private void wake(Tab<V> tab) {
+        tab.view = engine.create();
+        File file = stateFile(tab);
+        boolean restored = false;
+        if (file.exists()) {
+            try {
+                restored = engine.restoreState(tab.view, readState(file));
+            } catch (IOException e) {
+                restored = false;
+            }
+            file.delete();
+        }
+        if (restored) {
+            tab.restores++;
+        } else {
+            restoreFailures++;
+            engine.load(tab.view, tab.url);
+        }
+    }
+
+    private File stateFile(Tab<V> tab) {
+        return new File(stateDir, "tab-" + tab.id + ".state");
+    }
+
+    /**
+     * 状态文件只是缓存，丢了就重新加载网址，不需要 fsync
+     */
+    private static void writeState(File file, byte[] state) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(state);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to rename " + tmp);
+        }
+    }
+
+    private static byte[] readState(File file) throws IOException {
+        byte[] state = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < state.length) {
+                int n = in.read(state, read, state.length - read);
+                if (n < 0) throw new IOException("Truncated " + file);
+                read += n;
+            }
+        }
+        return state;
+    }
+
+    private static long[] record(long[] values, int index, long value) {
+        if (index == values.length) values = Arrays.copyOf(values, values.length * 2);
+        values[index] = value;
+        return values;
+    }
+
+    private static long percentileMicros(long[] values, int count, double p) {
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        long nanos = PageLoadTimeline.percentile(sorted, p);
+        return nanos < 0 ? -1 : nanos / 1000;
+    }
+
+    long warmSwitchP50Micros() {
+        return percentileMicros(warmSwitchNanos, warmSwitches, 50);
+    }
+
+    long coldSwitchP50Micros() {
+        return percentileMicros(coldSwitchNanos, coldSwitches, 50);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%d tabs, %d live (limit %d); %d hibernations, %d restore failures; "
+                        + "warm switch %d p50 %dus p95 %dus, cold switch %d p50 %dus p95 %dus; %dKB per live tab",
+                tabs.size(), liveCount(), liveLimit(), hibernations, restoreFailures,
+                warmSwitches, warmSwitchP50Micros(), percentileMicros(warmSwitchNanos, warmSwitches, 95),
+                coldSwitches, coldSwitchP50Micros(), percentileMicros(coldSwitchNanos, coldSwitches, 95),
+                memoryPerLiveTabKb());
+    }
+}
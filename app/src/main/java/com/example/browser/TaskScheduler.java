@@ -0,0 +1,331 @@
+package com.example.browser;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 按用途分道的后台任务调度：
+ * INTERACTIVE 是界面正在等的读操作，PERSISTENCE 是写文件和数据库，NETWORK 是低优先级的同步
+ * 每条道有自己的线程和有界队列，慢的同步不会占住历史记录加载；队列里按优先级排序，同优先级先进先出
+ * 同一个 key 的写操作串行执行，同一个文件的写入不会同时进行
+ * 任务抛出的异常交给 errorHandler，不会打断线程池的线程，同一个 key 后面的任务照常执行
+ */
+class TaskScheduler {
+
+    enum Lane {
+        INTERACTIVE(2, 64, Thread.NORM_PRIORITY),
+        PERSISTENCE(2, 256, Thread.NORM_PRIORITY),
+        NETWORK(2, 32, Thread.MIN_PRIORITY);
+
+        final int threads;
+        // 排队任务数上限，超出时拒绝
+        final int capacity;
+        final int threadPriority;
+
+        Lane(int threads, int capacity, int threadPriority) {
+            this.threads = threads;
+            this.capacity = capacity;
+            this.threadPriority = threadPriority;
+        }
+    }
+
+    // 数值越小越先执行
+    static final int PRIORITY_HIGH = 0;
+    static final int PRIORITY_NORMAL = 5;
+    static final int PRIORITY_LOW = 10;
+
+    /**
+     * 一条道的计数，snapshot() 时复制一份
+     */
+    static class Stats {
+        long submitted;
+        long started;
+        long completed;
+        long rejected;
+        long cancelled;
+        long failed;
+        int queueDepth;
+        int maxQueueDepth;
+        long totalWaitNanos;
+        long maxWaitNanos;
+
+        long averageWaitMillis() {
+            return started > 0 ? TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / started) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "submitted=%d started=%d completed=%d rejected=%d cancelled=%d failed=%d queue=%d (max %d)"
+                            + " wait avg=%dms max=%dms",
+                    submitted, started, completed, rejected, cancelled, failed, queueDepth, maxQueueDepth,
+                    averageWaitMillis(), TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+        }
+    }
+
+    private final Map<Lane, LaneExecutor> lanes = new EnumMap<>(Lane.class);
+    // 每个 key 正在等待的写操作；key 在表里说明已经有一个在执行或排队
+    private final Map<String, ArrayDeque<Runnable>> serialQueues = new HashMap<>();
+    private final Consumer<RuntimeException> errorHandler;
+
+    TaskScheduler() {
+        this(Throwable::printStackTrace);
+    }
+
+    /**
+     * errorHandler 在执行线程上接收任务抛出的异常，普通任务和串行任务都一样，并计入所在道的 failed
+     */
+    TaskScheduler(Consumer<RuntimeException> errorHandler) {
+        this.errorHandler = errorHandler;
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneExecutor(lane, errorHandler));
+        }
+    }
+
+    void execute(Lane lane, Runnable task) {
+        execute(lane, PRIORITY_NORMAL, task);
+    }
+
+    /**
+     * 队列已满或调度器已关闭时抛出 RejectedExecutionException
+     */
+    void execute(Lane lane, int priority, Runnable task) {
+        lanes.get(lane).submit(priority, task);
+    }
+
+    /**
+     * 固定道和优先级的 Executor，交给只认 Executor 的组件
+     */
+    Executor executor(Lane lane, int priority) {
+        return task -> execute(lane, priority, task);
+    }
+
+    /**
+     * 在 PERSISTENCE 道上执行，同一个 key 的任务按提交顺序一个接一个执行
+     * 排在同一个 key 后面的任务不占道的队列，不会因为队列满被拒绝
+     */
+    void executeSerial(String key, Runnable task) {
+        synchronized (serialQueues) {
+            ArrayDeque<Runnable> queue = serialQueues.get(key);
+            if (queue != null) {
+                queue.add(task);
+                return;
+            }
+            serialQueues.put(key, new ArrayDeque<>());
+        }
+        try {
+            execute(Lane.PERSISTENCE, PRIORITY_NORMAL, () -> runSerial(key, task));
+        } catch (RejectedExecutionException e) {
+            synchronized (serialQueues) {
+                serialQueues.remove(key);
+            }
+            throw e;
+        }
+    }
+
+    private void runSerial(String key, Runnable first) {
+        Runnable task = first;
+        while (task != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // 吞掉异常继续执行同一个 key 后面的任务，否则这个 key 会一直留在表里，之后的任务只排队不执行
+                lanes.get(Lane.PERSISTENCE).onFailure();
+                errorHandler.accept(e);
+            } finally {
+                synchronized (serialQueues) {
+                    ArrayDeque<Runnable> queue = serialQueues.get(key);
+                    task = queue.poll();
+                    if (task == null) {
+                        serialQueues.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    Stats snapshot(Lane lane) {
+        return lanes.get(lane).snapshot();
+    }
+
+    /**
+     * 关闭调度器：界面和网络道里还没开始的任务直接取消，写操作执行完再退出
+     */
+    void shutdown() {
+        lanes.get(Lane.INTERACTIVE).cancelPending();
+        lanes.get(Lane.NETWORK).cancelPending();
+        lanes.get(Lane.PERSISTENCE).shutdown();
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (LaneExecutor lane : lanes.values()) {
+            long remaining = deadline - System.nanoTime();
+            if (!lane.executor.awaitTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Lane lane : Lane.values()) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(lane).append(": ").append(snapshot(lane));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 排队中的任务，按优先级再按提交顺序排列
+     */
+    private static class Task implements Runnable, Comparable<Task> {
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        final int priority;
+        final long sequence = SEQUENCE.getAndIncrement();
+        final long enqueuedAt = System.nanoTime();
+        final Runnable runnable;
+        final LaneExecutor lane;
+
+        Task(int priority, Runnable runnable, LaneExecutor lane) {
+            this.priority = priority;
+            this.runnable = runnable;
+            this.lane = lane;
+        }
+
+        @Override
+        public void run() {
+            lane.onStart(this);
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                // 异常抛出线程池的线程会让 Android 直接结束进程
+                lane.onFailure();
+                lane.errorHandler.accept(e);
+            } finally {
+                lane.onFinish();
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class LaneExecutor {
+        final Lane lane;
+        final ThreadPoolExecutor executor;
+        // 已提交还没开始执行的任务数
+        final AtomicInteger queued = new AtomicInteger();
+        final Consumer<RuntimeException> errorHandler;
+        private final Stats stats = new Stats();
+
+        LaneExecutor(Lane lane, Consumer<RuntimeException> errorHandler) {
+            this.lane = lane;
+            this.errorHandler = errorHandler;
+            AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(lane.threads, lane.threads, 30, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<>(), r -> {
+                        Thread thread = new Thread(r, "Browser-" + lane.name().toLowerCase(Locale.US)
+                                + "-" + count.incrementAndGet());
+                        thread.setPriority(lane.threadPriority);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        void submit(int priority, Runnable runnable) {
+            if (queued.incrementAndGet() > lane.capacity || executor.isShutdown()) {
+                queued.decrementAndGet();
+                synchronized (stats) {
+                    stats.rejected++;
+                }
+                throw new RejectedExecutionException(lane + " lane rejected task");
+            }
+            synchronized (stats) {
+                stats.submitted++;
+                stats.maxQueueDepth = Math.max(stats.maxQueueDepth, queued.get());
+            }
+            try {
+                executor.execute(new Task(priority, runnable, this));
+            } catch (RejectedExecutionException e) {
+                queued.decrementAndGet();
+                synchronized (stats) {
+                    stats.submitted--;
+                    stats.rejected++;
+                }
+                throw e;
+            }
+        }
+
+        void onStart(Task task) {
+            queued.decrementAndGet();
+            long wait = System.nanoTime() - task.enqueuedAt;
+            synchronized (stats) {
+                stats.started++;
+                stats.totalWaitNanos += wait;
+                stats.maxWaitNanos = Math.max(stats.maxWaitNanos, wait);
+            }
+        }
+
+        void onFailure() {
+            synchronized (stats) {
+                stats.failed++;
+            }
+        }
+
+        void onFinish() {
+            synchronized (stats) {
+                stats.completed++;
+            }
+        }
+
+        void cancelPending() {
+            List<Runnable> pending = executor.shutdownNow();
+            queued.addAndGet(-pending.size());
+            synchronized (stats) {
+                stats.cancelled += pending.size();
+            }
+        }
+
+        void shutdown() {
+            executor.shutdown();
+        }
+
+        Stats snapshot() {
+            Stats copy = new Stats();
+            synchronized (stats) {
+                copy.submitted = stats.submitted;
+                copy.started = stats.started;
+                copy.completed = stats.completed;
+                copy.rejected = stats.rejected;
+                copy.cancelled = stats.cancelled;
+                copy.failed = stats.failed;
+                copy.maxQueueDepth = stats.maxQueueDepth;
+                copy.totalWaitNanos = stats.totalWaitNanos;
+                copy.maxWaitNanos = stats.maxWaitNanos;
+            }
+            copy.queueDepth = Math.max(0, queued.get());
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.browser;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Function;
+
+/**
+ * 按规范化URL建立哈希索引的列表
+ * 保持插入顺序，同时支持 O(1) 按URL查找；增删、清空和批量加载时索引同步更新
+ */
+class UrlIndexedList<T> extends AbstractList<T> implements RandomAccess {
+
+    private final List<T> items = new ArrayList<>();
+    private final Map<String, T> index = new HashMap<>();
+    private final Function<T, String> urlOf;
+
+    UrlIndexedList(Function<T, String> urlOf) {
+        this.urlOf = urlOf;
+    }
+
+    UrlIndexedList(Function<T, String> urlOf, Collection<? extends T> initial) {
+        this(urlOf);
+        addAll(initial);
+    }
+
+    /**
+     * 按URL查找，找不到返回 null
+     */
+    T findByUrl(String url) {
+        return index.get(canonicalize(url));
+    }
+
+    boolean containsUrl(String url) {
+        return index.containsKey(canonicalize(url));
+    }
+
+    /**
+     * 在 position 处批量插入列表中尚不存在的URL，返回实际插入的条数
+     * 只移动一次后面的元素，适合分批加载时把旧记录插到前面
+     */
+    int insertMissing(int position, List<T> batch) {
+        List<T> missing = new ArrayList<>(batch.size());
+        for (T item : batch) {
+            String key = canonicalize(urlOf.apply(item));
+            if (!index.containsKey(key)) {
+                index.put(key, item);
+                missing.add(item);
+            }
+        }
+        items.addAll(position, missing);
+        modCount++;
+        return missing.size();
+    }
+
+    @Override
+    public T get(int i) {
+        return items.get(i);
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public void add(int i, T item) {
+        items.add(i, item);
+        index.put(canonicalize(urlOf.apply(item)), item);
+        modCount++;
+    }
+
+    @Override
+    public T set(int i, T item) {
+        T old = items.set(i, item);
+        unindex(old);
+        index.put(canonicalize(urlOf.apply(item)), item);
+        return old;
+    }
+
+    @Override
+    public T remove(int i) {
+        T old = items.remove(i);
+        unindex(old);
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        items.clear();
+        index.clear();
+        modCount++;
+    }
+
+    private void unindex(T item) {
+        String key = canonicalize(urlOf.apply(item));
+        if (index.get(key) == item) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * 取出URL的主机名（小写、不含端口），无法解析时返回空串
+     */
+    static String hostOf(String url) {
+        String s = canonicalize(url);
+        int schemeEnd = s.indexOf("://");
+        if (schemeEnd < 0) return "";
+        int start = schemeEnd + 3;
+        int end = start;
+        while (end < s.length() && s.charAt(end) != '/' && s.charAt(end) != '?') {
+            end++;
+        }
+        String authority = s.substring(start, end);
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) authority = authority.substring(at + 1);
+        int colon = authority.indexOf(':');
+        return colon >= 0 ? authority.substring(0, colon) : authority;
+    }
+
+    /**
+     * URL规范化：协议和主机转小写，去掉默认端口、片段(#)和路径末尾的斜杠
+     */
+    static String canonicalize(String url) {
+        if (url == null) return "";
+        String s = url.trim();
+
+        int hash = s.indexOf('#');
+        if (hash >= 0) {
+            s = s.substring(0, hash);
+        }
+
+        String scheme = "";
+        int schemeEnd = s.indexOf("://");
+        if (schemeEnd > 0) {
+            scheme = s.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+            s = s.substring(schemeEnd + 3);
+        }
+
+        int authorityEnd = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '/' || c == '?') {
+                authorityEnd = i;
+                break;
+            }
+        }
+        String host = s.substring(0, authorityEnd).toLowerCase(Locale.ROOT);
+        String rest = s.substring(authorityEnd);
+
+        if (("http".equals(scheme) && host.endsWith(":80"))
+                || ("https".equals(scheme) && host.endsWith(":443"))) {
+            host = host.substring(0, host.lastIndexOf(':'));
+        }
+
+        String path = rest;
+        String query = "";
+        int q = rest.indexOf('?');
+        if (q >= 0) {
+            path = rest.substring(0, q);
+            query = rest.substring(q);
+        }
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        path = path.substring(0, end);
+
+        StringBuilder sb = new StringBuilder(scheme.length() + host.length() + path.length() + query.length() + 3);
+        if (!scheme.isEmpty()) {
+            sb.append(scheme).append("://");
+        }
+        return sb.append(host).append(path).append(query).toString();
+    }
+}
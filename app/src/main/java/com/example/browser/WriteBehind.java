@@ -0,0 +1,172 @@
+package com.example.browser;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 延迟合并的后台写入
+ * 数据变化时调用 markDirty()，防抖窗口内的多次变化合并成一次写入；
+ * 快照在数据所属的线程（通常是主线程）上取，序列化和写文件在 writer 上执行
+ * flush() 只是把待写的数据立即交给 writer，不等待写完，适合在 onPause 里调用
+ * 写入失败时隔一段时间重新取快照再写（连续失败时间隔加倍），重试前 flush() 会立即重写
+ * 除 writePending 外的方法都要在数据所属的线程上调用
+ */
+class WriteBehind<S> {
+
+    /**
+     * 延迟执行，通常由主线程的 Handler 实现；写入失败时会在 writer 线程上调用 schedule
+     */
+    interface Timer {
+        void schedule(Runnable task, long delayMs);
+
+        void cancel(Runnable task);
+    }
+
+    /**
+     * 复制一份当前数据，之后数据再变化不影响这份快照
+     */
+    interface Snapshotter<S> {
+        S snapshot();
+    }
+
+    /**
+     * 把快照写到存储里，在 writer 线程上执行
+     */
+    interface Persister<S> {
+        void persist(S snapshot) throws Exception;
+    }
+
+    private final Timer timer;
+    private final long debounceMs;
+    private final Snapshotter<S> snapshotter;
+    private final Persister<S> persister;
+    private final Executor writer;
+    private final Runnable debounced = this::submit;
+    private final Runnable retry = this::retryFailed;
+    // 连续失败超过这么多次后重试间隔不再加倍
+    private static final int MAX_BACKOFF_SHIFT = 5;
+
+    private boolean dirty;
+    // 已交给 writer 还没开始写的快照；写之前又来了新快照就直接替换
+    private final AtomicReference<S> pending = new AtomicReference<>();
+    // 上次写入失败，还没重写
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    // close() 之后写入失败不再重试，writer 可能已经关闭
+    private volatile boolean closed;
+
+    private final AtomicLong marks = new AtomicLong();
+    private final AtomicLong submits = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong lastWriteNanos = new AtomicLong();
+    private volatile Exception lastError;
+
+    WriteBehind(Timer timer, long debounceMs, Snapshotter<S> snapshotter,
+                Persister<S> persister, Executor writer) {
+        this.timer = timer;
+        this.debounceMs = debounceMs;
+        this.snapshotter = snapshotter;
+        this.persister = persister;
+        this.writer = writer;
+    }
+
+    /**
+     * 数据有变化，防抖窗口结束后写入；窗口从第一次变化开始计时，持续变化也不会一直推迟
+     */
+    void markDirty() {
+        marks.incrementAndGet();
+        if (dirty) return;
+        dirty = true;
+        timer.schedule(debounced, debounceMs);
+    }
+
+    /**
+     * 有未写的变化时立即交给 writer，不等待写完
+     */
+    void flush() {
+        if (failed.getAndSet(false)) {
+            dirty = true;
+        }
+        if (dirty) {
+            timer.cancel(debounced);
+            submit();
+        }
+    }
+
+    /**
+     * 最后一次 flush，之后不再重试失败的写入，在 writer 关闭之前调用
+     */
+    void close() {
+        flush();
+        closed = true;
+        timer.cancel(retry);
+    }
+
+    boolean isDirty() {
+        return dirty || failed.get();
+    }
+
+    private void submit() {
+        if (!dirty) return;
+        dirty = false;
+        submits.incrementAndGet();
+        if (pending.getAndSet(snapshotter.snapshot()) == null) {
+            writer.execute(this::writePending);
+        }
+    }
+
+    private void writePending() {
+        S snapshot = pending.getAndSet(null);
+        if (snapshot == null) return;
+        long start = System.nanoTime();
+        try {
+            persister.persist(snapshot);
+            writes.incrementAndGet();
+            consecutiveFailures.set(0);
+            lastError = null;
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            lastError = e;
+            // 快照已经丢掉了，之后没有新的变化也要重写一次
+            int shift = Math.min(consecutiveFailures.getAndIncrement(), MAX_BACKOFF_SHIFT);
+            failed.set(true);
+            if (!closed) {
+                timer.schedule(retry, debounceMs << shift);
+            }
+        }
+        lastWriteNanos.set(System.nanoTime() - start);
+    }
+
+    private void retryFailed() {
+        if (!closed && failed.getAndSet(false)) {
+            dirty = true;
+            submit();
+        }
+    }
+
+    long marks() {
+        return marks.get();
+    }
+
+    long writes() {
+        return writes.get();
+    }
+
+    long failures() {
+        return failures.get();
+    }
+
+    Exception lastError() {
+        return lastError;
+    }
+
+    @Override
+    public String toString() {
+        return "marks=" + marks.get() + " submits=" + submits.get() + " writes=" + writes.get()
+                + " failures=" + failures.get() + " lastWrite=" + lastWriteNanos.get() / 1_000_000 + "ms";
+    }
+}
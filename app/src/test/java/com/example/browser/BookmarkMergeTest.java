@@ -0,0 +1,237 @@
+package com.example.browser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 书签差异合并：按 id 匹配、只报告变化的位置、收藏夹和云书签按时间戳后写者胜
+ * 耗时在 :benchmark 的 BookmarkMergeBenchmark 里测，这里只检查 10 万条时的结果
+ */
+public class BookmarkMergeTest {
+
+    private static final int BOOKMARKS = 100_000;
+
+    @Test
+    public void appliesInsertsUpdatesAndDeletes() {
+        List<Bookmark> local = list(bookmark("1", "a"), bookmark("2", "b"), bookmark("3", "c"), bookmark("4", "d"));
+        Bookmark first = local.get(0);
+        List<Bookmark> server = list(bookmark("1", "a"), bookmark("3", "c2"), bookmark("5", "e"), bookmark("4", "d"));
+
+        List<String> ops = new ArrayList<>();
+        BookmarkMerge.Diff diff = BookmarkMerge.apply(local, server, recorder(ops));
+
+        assertEquals("+1 ~1 -1 =2", diff.toString());
+        assertEquals(List.of("removed 1+1", "changed 1+1", "inserted 2+1"), ops);
+        assertSame(first, local.get(0));
+        assertEquals("c2", local.get(1).title);
+        assertEquals(titles(server), titles(local));
+
+        // 再合并一次没有变化
+        ops.clear();
+        assertTrue(BookmarkMerge.apply(local, server, recorder(ops)).isEmpty());
+        assertTrue(ops.isEmpty());
+    }
+
+    @Test
+    public void adjacentOperationsAreBatched() {
+        List<Bookmark> local = new ArrayList<>();
+        for (int i = 0; i < 10; i++) local.add(bookmark(String.valueOf(i), "t" + i));
+        List<Bookmark> server = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            if (i >= 2 && i < 5) continue;
+            server.add(i >= 7 ? bookmark(String.valueOf(i), "new" + i) : bookmark(String.valueOf(i), "t" + i));
+        }
+        for (int i = 10; i < 13; i++) server.add(bookmark(String.valueOf(i), "t" + i));
+
+        List<String> ops = new ArrayList<>();
+        BookmarkMerge.apply(local, server, recorder(ops));
+        assertEquals(List.of("removed 2+3", "changed 4+3", "inserted 7+3"), ops);
+    }
+
+    @Test
+    public void callbacksReproduceTheSnapshot() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            List<Bookmark> local = new ArrayList<>();
+            int size = random.nextInt(30);
+            for (int i = 0; i < size; i++) local.add(bookmark("id" + i, "t" + i));
+            List<Bookmark> server = new ArrayList<>();
+            for (Bookmark bookmark : local) {
+                int action = random.nextInt(10);
+                if (action == 0) continue;
+                server.add(action == 1 ? bookmark(bookmark.id, bookmark.title + "!") : copy(bookmark));
+            }
+            for (int i = random.nextInt(5); i > 0; i--) {
+                server.add(random.nextInt(server.size() + 1), bookmark("new" + round + "-" + i, "n"));
+            }
+            // 打乱一部分顺序
+            if (server.size() > 3 && random.nextBoolean()) {
+                Collections.swap(server, random.nextInt(server.size()), random.nextInt(server.size()));
+            }
+
+            // 按回调依次改一份旧列表，结果应该和快照一样
+            List<Bookmark> replay = new ArrayList<>(local);
+            BookmarkMerge.apply(local, server, new BookmarkMerge.UpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    for (int k = 0; k < count; k++) replay.add(position + k, null);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    for (int k = 0; k < count; k++) replay.remove(position);
+                }
+
+                @Override
+                public void onChanged(int position, int count) {
+                    for (int k = 0; k < count; k++) replay.set(position + k, null);
+                }
+            });
+            assertEquals(titles(server), titles(local));
+            assertEquals(server.size(), replay.size());
+            for (int k = 0; k < replay.size(); k++) {
+                // 没报告过的位置还是原来的对象
+                if (replay.get(k) != null) assertSame(replay.get(k), local.get(k));
+            }
+        }
+    }
+
+    @Test
+    public void movedEntryIsOneRemoveAndOneInsert() {
+        List<Bookmark> local = list(bookmark("a", "A"), bookmark("b", "B"), bookmark("c", "C"), bookmark("d", "D"));
+        List<Bookmark> server = list(copy(local.get(1)), copy(local.get(2)), copy(local.get(3)), copy(local.get(0)));
+        List<String> ops = new ArrayList<>();
+        BookmarkMerge.Diff diff = BookmarkMerge.apply(local, server, recorder(ops));
+        assertEquals(List.of("removed 0+1", "inserted 3+1"), ops);
+        assertEquals(3, diff.unchanged);
+    }
+
+    @Test
+    public void lastWriterWinsBetweenFavoritesAndCloud() {
+        Bookmark oldFavorite = new Bookmark(null, "旧标题", "https://a.example/", 1000);
+        Bookmark newFavorite = new Bookmark(null, "收藏夹改过", "https://b.example/", 3000);
+        Bookmark same = new Bookmark(null, "一样", "https://c.example/", 1000);
+        List<Bookmark> favorites = list(oldFavorite, newFavorite, same);
+        Bookmark newCloud = new Bookmark("1", "云端改过", "https://A.example", 2000);
+        Bookmark oldCloud = new Bookmark("2", "云端旧的", "https://b.example/", 2000);
+        Bookmark sameCloud = new Bookmark("3", "一样", "https://c.example/", 5000);
+        Bookmark cloudOnly = new Bookmark("4", "只在云端", "https://d.example/", 5000);
+
+        List<BookmarkMerge.Conflict> conflicts =
+                BookmarkMerge.resolveConflicts(favorites, list(newCloud, oldCloud, sameCloud, cloudOnly));
+        assertEquals(2, conflicts.size());
+        assertSame(newCloud, conflicts.get(0).winner);
+        assertSame(oldFavorite, conflicts.get(0).loser);
+        assertFalse(conflicts.get(0).favoriteWins);
+        assertSame(newFavorite, conflicts.get(1).winner);
+        assertSame(oldCloud, conflicts.get(1).loser);
+        assertTrue(conflicts.get(1).favoriteWins);
+    }
+
+    @Test
+    public void mergingHundredThousandBookmarksTouchesOnlyChangedRows() {
+        List<Bookmark> base = new ArrayList<>(BOOKMARKS);
+        for (int i = 0; i < BOOKMARKS; i++) {
+            base.add(new Bookmark(String.valueOf(i + 1), "书签 " + i,
+                    "https://example.com/articles/" + i, 1_700_000_000_000L + i));
+        }
+        // 服务器快照：1% 修改、1% 删除、1% 新增，再有 100 条换了位置
+        Random random = new Random(42);
+        List<Bookmark> server = new ArrayList<>(BOOKMARKS + BOOKMARKS / 100);
+        int added = 0;
+        int deleted = 0;
+        for (Bookmark bookmark : base) {
+            int action = random.nextInt(100);
+            if (action == 0) {
+                deleted++;
+                continue;
+            }
+            server.add(action == 1 ? new Bookmark(bookmark.id, bookmark.title + " (改)", bookmark.url,
+                    bookmark.timestamp + 1) : copy(bookmark));
+            if (action == 2) {
+                server.add(new Bookmark("n" + added, "新书签 " + added, "https://example.org/" + added, 1_800_000_000_000L));
+                added++;
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            Collections.swap(server, random.nextInt(server.size()), random.nextInt(server.size()));
+        }
+
+        int[] callbacks = {0};
+        int[] touched = {0};
+        BookmarkMerge.UpdateCallback counter = new BookmarkMerge.UpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                callbacks[0]++;
+                touched[0] += count;
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                callbacks[0]++;
+                touched[0] += count;
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                callbacks[0]++;
+                touched[0] += count;
+            }
+        };
+
+        List<Bookmark> local = new ArrayList<>(base);
+        BookmarkMerge.Diff diff = BookmarkMerge.apply(local, server, counter);
+
+        assertEquals(titles(server), titles(local));
+        // 换了位置的条目各算一次删除和一次插入
+        assertEquals(diff.inserted - added, diff.removed - deleted);
+        assertTrue(diff.inserted - added <= 200);
+        // 整个替换要刷新全部行，合并只刷新变了的几千行
+        assertTrue("touched " + touched[0] + " rows in " + callbacks[0] + " callbacks", touched[0] < BOOKMARKS / 20);
+    }
+
+    private static Bookmark bookmark(String id, String title) {
+        return new Bookmark(id, title, "https://example.com/" + id, 1000);
+    }
+
+    private static Bookmark copy(Bookmark bookmark) {
+        return new Bookmark(bookmark.id, bookmark.title, bookmark.url, bookmark.timestamp);
+    }
+
+    private static List<Bookmark> list(Bookmark... bookmarks) {
+        List<Bookmark> list = new ArrayList<>();
+        Collections.addAll(list, bookmarks);
+        return list;
+    }
+
+    private static List<String> titles(List<Bookmark> bookmarks) {
+        List<String> titles = new ArrayList<>();
+        for (Bookmark bookmark : bookmarks) titles.add(bookmark.id + ":" + bookmark.title);
+        return titles;
+    }
+
+    private static BookmarkMerge.UpdateCallback recorder(List<String> ops) {
+        return new BookmarkMerge.UpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                ops.add("inserted " + position + "+" + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                ops.add("removed " + position + "+" + count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                ops.add("changed " + position + "+" + count);
+            }
+        };
+    }
+}
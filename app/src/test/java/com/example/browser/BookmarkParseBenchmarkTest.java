@@ -0,0 +1,118 @@
+package com.example.browser;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * /bookmarks 响应的两种解析方式对比：整体读成字符串再建JSON树，和边读边解析
+ * 输出分配字节数和耗时，单元测试的堆上限见 app/build.gradle.kts
+ */
+public class BookmarkParseBenchmarkTest {
+
+    private static final int BOOKMARKS = 20_000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void streamingMatchesTreeParse() throws Exception {
+        byte[] body = response(500);
+        List<Bookmark> tree = parseTree(body);
+        List<Bookmark> streamed = new ArrayList<>();
+        long bytes = CloudSync.readBookmarkList(new ByteArrayInputStream(body), streamed::add);
+
+        assertEquals(body.length, bytes);
+        assertEquals(tree.size(), streamed.size());
+        for (int i = 0; i < tree.size(); i++) {
+            assertEquals(tree.get(i).id, streamed.get(i).id);
+            assertEquals(tree.get(i).title, streamed.get(i).title);
+            assertEquals(tree.get(i).url, streamed.get(i).url);
+            assertEquals(tree.get(i).timestamp, streamed.get(i).timestamp);
+        }
+    }
+
+    @Test
+    public void streamingAllocatesLessThanTreeParse() throws Exception {
+        byte[] body = response(BOOKMARKS);
+        int[] count = {0};
+
+        // 预热
+        parseTree(body);
+        CloudSync.readBookmarkList(new ByteArrayInputStream(body), bookmark -> count[0]++);
+
+        long treeBytes = Long.MAX_VALUE;
+        long treeNanos = Long.MAX_VALUE;
+        long streamBytes = Long.MAX_VALUE;
+        long streamNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            assertEquals(BOOKMARKS, parseTree(body).size());
+            treeNanos = Math.min(treeNanos, System.nanoTime() - start);
+            treeBytes = Math.min(treeBytes, allocatedBytes() - allocated);
+
+            count[0] = 0;
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            CloudSync.readBookmarkList(new ByteArrayInputStream(body), bookmark -> count[0]++);
+            streamNanos = Math.min(streamNanos, System.nanoTime() - start);
+            streamBytes = Math.min(streamBytes, allocatedBytes() - allocated);
+            assertEquals(BOOKMARKS, count[0]);
+        }
+
+        System.out.printf("%d bookmarks, %d KB body: tree %d KB %.1f ms, streaming %d KB %.1f ms%n",
+                BOOKMARKS, body.length / 1024,
+                treeBytes / 1024, treeNanos / 1e6,
+                streamBytes / 1024, streamNanos / 1e6);
+        assertTrue("tree " + treeBytes + " vs streaming " + streamBytes, streamBytes * 2 < treeBytes);
+    }
+
+    /**
+     * 原来的做法：整个响应体读成字符串，解析成 JSONObject 后再转换
+     */
+    private static List<Bookmark> parseTree(byte[] body) throws Exception {
+        JSONObject json = new JSONObject(new String(body, StandardCharsets.UTF_8));
+        assertEquals(200, json.getInt("code"));
+        JSONArray data = json.getJSONArray("data");
+        List<Bookmark> bookmarks = new ArrayList<>(data.length());
+        for (int i = 0; i < data.length(); i++) {
+            JSONObject item = data.getJSONObject(i);
+            bookmarks.add(new Bookmark(item.getString("id"), item.getString("title"),
+                    item.getString("url"), item.getLong("createdAt")));
+        }
+        return bookmarks;
+    }
+
+    private static byte[] response(int count) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            writer.write("{\"code\":200,\"message\":\"ok\",\"data\":[");
+            for (int i = 0; i < count; i++) {
+                if (i > 0) writer.write(',');
+                JSONObject item = new JSONObject();
+                item.put("id", String.valueOf(i + 1));
+                item.put("title", "书签 " + i + " - Example page");
+                item.put("url", "https://example.com/articles/" + i + "?ref=bookmark");
+                item.put("createdAt", 1_700_000_000_000L + i);
+                writer.write(item.toString());
+            }
+            writer.write("]}");
+        }
+        return out.toByteArray();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.browser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.*;
+
+/**
+ * 云书签发件箱：分批提交、断线重发和本地叠加显示
+ */
+public class CloudOutboxTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // 关掉 OkHttp 的自动重试，让断开的连接直接表现为失败
+    private final OkHttpClient client = new OkHttpClient.Builder()
+            .retryOnConnectionFailure(false)
+            .build();
+    private FakeBookmarkServer server;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeBookmarkServer();
+        file = new File(tmp.getRoot(), "outbox.json");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void sendsPendingOperationsInBatches() throws Exception {
+        CloudOutbox outbox = new CloudOutbox(api(client), file, 10);
+        for (int i = 0; i < 25; i++) {
+            outbox.enqueueAdd("Page " + i, "https://example.com/" + i);
+        }
+
+        assertEquals(25, outbox.flush());
+        assertEquals(3, server.batchRequests());
+        assertEquals(0, outbox.pendingCount());
+        assertEquals(25, server.size());
+    }
+
+    @Test
+    public void droppedConnectionsKeepOperationsWithoutDuplicates() throws Exception {
+        CloudOutbox outbox = new CloudOutbox(api(client), file, 50);
+        for (int i = 0; i < 5; i++) {
+            outbox.enqueueAdd("Page " + i, "https://example.com/" + i);
+        }
+
+        // 服务器已执行但响应丢失
+        server.dropNextWrites(1, true);
+        try {
+            outbox.flush();
+            fail("expected dropped connection");
+        } catch (IOException expected) {
+        }
+        assertEquals(5, outbox.pendingCount());
+
+        // 请求还没执行就断开
+        server.dropNextWrites(1, false);
+        try {
+            outbox.flush();
+            fail("expected dropped connection");
+        } catch (IOException expected) {
+        }
+
+        // 重启后从文件恢复队列再提交，按 opId 去重，不会重复新增
+        CloudOutbox restarted = new CloudOutbox(api(client), file, 50);
+        assertEquals(5, restarted.pendingCount());
+        assertEquals(5, restarted.flush());
+        assertEquals(0, restarted.pendingCount());
+        assertEquals(5, server.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(1, server.countUrl("https://example.com/" + i));
+        }
+    }
+
+    @Test
+    public void overlayShowsPendingChangesAndCoalesces() throws Exception {
+        String existingId = server.add("Existing", "https://example.com/existing");
+        List<Bookmark> serverList = Collections.singletonList(
+                new Bookmark(existingId, "Existing", "https://example.com/existing", 1L));
+
+        CloudOutbox outbox = new CloudOutbox(api(client), file, 50);
+        Bookmark added = outbox.enqueueAdd("Added", "https://example.com/added");
+        assertTrue(added.id.startsWith(CloudOutbox.LOCAL_ID_PREFIX));
+        outbox.enqueueUpdate(existingId, "Renamed", "https://example.com/existing");
+
+        List<Bookmark> shown = outbox.overlay(serverList);
+        assertEquals(2, shown.size());
+        assertEquals("Renamed", shown.get(0).title);
+        assertEquals(added.id, shown.get(1).id);
+
+        // 还没提交的新增被删除，两个操作一起抵消
+        outbox.enqueueDelete(added.id);
+        assertEquals(1, outbox.pendingCount());
+        assertEquals(1, outbox.overlay(serverList).size());
+
+        assertEquals(1, outbox.flush());
+        assertEquals("Renamed", server.titleOf(existingId));
+        assertFalse(server.containsUrl("https://example.com/added"));
+    }
+
+    @Test
+    public void legacyServerReceivesAddsOneByOne() throws Exception {
+        String existingId = server.add("Existing", "https://example.com/existing");
+        server.setBatchEnabled(false);
+
+        CloudOutbox outbox = new CloudOutbox(api(client), file, 50);
+        for (int i = 0; i < 3; i++) {
+            outbox.enqueueAdd("Page " + i, "https://example.com/" + i);
+        }
+        outbox.enqueueDelete(existingId);
+
+        assertEquals(3, outbox.flush());
+        assertEquals(4, server.size());
+        // 旧接口不支持删除，撤销后告诉调用方，不再留在队列里反复重试
+        assertEquals(0, outbox.pendingCount());
+        assertEquals(1, outbox.takeRejected());
+        assertEquals(0, outbox.takeRejected());
+        assertTrue(server.containsUrl("https://example.com/existing"));
+    }
+
+    @Test
+    public void editsAreRefusedUntilBatchSupportIsRechecked() throws Exception {
+        String existingId = server.add("Existing", "https://example.com/existing");
+        server.setBatchEnabled(false);
+        long[] now = {1000};
+        CloudOutbox outbox = new CloudOutbox(api(client), file, 50, () -> now[0]);
+        Bookmark added = outbox.enqueueAdd("Page", "https://example.com/page");
+        outbox.flush();
+        assertFalse(outbox.supportsEdits());
+
+        try {
+            outbox.enqueueUpdate(existingId, "Renamed", "https://example.com/existing");
+            fail("edit accepted without a batch endpoint");
+        } catch (CloudOutbox.EditsUnsupportedException expected) {
+            // 界面提示用户
+        }
+        // 还没提交的新增可以改，不需要服务器支持修改
+        Bookmark pending = outbox.enqueueAdd("Draft", "https://example.com/draft");
+        outbox.enqueueUpdate(pending.id, "Draft 2", pending.url);
+        outbox.enqueueDelete(pending.id);
+        assertEquals(0, outbox.pendingCount());
+
+        // 过了重试间隔再试 batch，服务器已经升级
+        server.setBatchEnabled(true);
+        now[0] += CloudOutbox.BATCH_RECHECK_MS;
+        assertTrue(outbox.supportsEdits());
+        outbox.enqueueDelete(existingId);
+        assertEquals(1, outbox.flush());
+        assertEquals(1, server.batchRequests());
+        assertFalse(server.containsUrl("https://example.com/existing"));
+        assertTrue(server.containsUrl(added.url));
+    }
+
+    @Test
+    public void concurrentEnqueuesLeaveTheNewestQueueOnDisk() throws Exception {
+        CloudOutbox outbox = new CloudOutbox(api(client), file, 50);
+        Thread[] writers = new Thread[4];
+        Exception[] errors = new Exception[writers.length];
+        for (int t = 0; t < writers.length; t++) {
+            int id = t;
+            writers[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 25; i++) {
+                        outbox.enqueueAdd("Page " + id + "-" + i, "https://example.com/" + id + "/" + i);
+                    }
+                } catch (Exception e) {
+                    errors[id] = e;
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        for (Exception error : errors) {
+            assertNull(error);
+        }
+
+        // 文件在锁外写，旧版本不会覆盖新版本
+        CloudOutbox reloaded = new CloudOutbox(api(client), file, 50);
+        assertEquals(100, reloaded.pendingCount());
+        assertNull(reloaded.takeLoadError());
+    }
+
+    @Test
+    public void unreadableFileIsReportedAndStartsEmpty() throws Exception {
+        try (Writer out = new FileWriter(file)) {
+            out.write("[\n{\"opId\":");
+        }
+        CloudOutbox outbox = new CloudOutbox(api(client), file, 50);
+        assertEquals(0, outbox.pendingCount());
+        assertNotNull(outbox.takeLoadError());
+        // 只报告一次
+        assertNull(outbox.takeLoadError());
+    }
+
+    private SyncApiClient api(OkHttpClient base) {
+        return new SyncApiClient(base, server.baseUrl(), () -> FakeBookmarkServer.TOKEN);
+    }
+}
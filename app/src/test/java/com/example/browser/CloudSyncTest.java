@@ -0,0 +1,231 @@
+package com.example.browser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.*;
+
+/**
+ * 云书签增量同步，对接本地的 FakeBookmarkServer
+ */
+public class CloudSyncTest {
+
+    private static final int LIBRARY = 20_000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final OkHttpClient client = new OkHttpClient();
+    private FakeBookmarkServer server;
+    private final List<String> ids = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeBookmarkServer();
+        for (int i = 0; i < LIBRARY; i++) {
+            ids.add(server.add("Bookmark " + i, "https://example.com/bookmark/" + i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void steadyStateBytesScaleWithChangesNotLibrarySize() throws Exception {
+        CloudSync sync = new CloudSync(api(client), new File(tmp.getRoot(), "cloud.json"), null);
+
+        CloudSync.Result first = sync.sync();
+        assertTrue(first.reset);
+        assertEquals(LIBRARY, first.bookmarks.size());
+
+        CloudSync.Result idle = sync.sync();
+        assertFalse(idle.reset);
+        assertEquals(0, idle.changes());
+        assertTrue("idle sync " + idle.bytes + " bytes", idle.bytes < 200);
+
+        long small = syncAfterChanges(sync, 20, 0);
+        long large = syncAfterChanges(sync, 200, 20);
+        assertTrue("20 changes " + small + " bytes vs full " + first.bytes, small * 100 < first.bytes);
+        double ratio = (double) large / small;
+        assertTrue("200 vs 20 changes ratio " + ratio, ratio > 5 && ratio < 15);
+    }
+
+    @Test
+    public void appliesUpsertsAndTombstonesAcrossRestarts() throws Exception {
+        File file = new File(tmp.getRoot(), "cloud.json");
+        CloudSync sync = new CloudSync(api(client), file, null);
+        sync.sync();
+
+        server.rename(ids.get(0), "Renamed");
+        server.delete(ids.get(1));
+        String added = server.add("Added", "https://example.com/added");
+
+        // 重启后从文件恢复本地副本，只拉取三条变更
+        CloudSync restarted = new CloudSync(api(client), file, sync.cursor());
+        CloudSync.Result result = restarted.sync();
+        assertFalse(result.reset);
+        assertEquals(3, result.changes());
+        assertEquals(LIBRARY, result.bookmarks.size());
+
+        boolean renamed = false;
+        boolean hasDeleted = false;
+        boolean hasAdded = false;
+        for (Bookmark bookmark : result.bookmarks) {
+            if (bookmark.id.equals(ids.get(0))) renamed = "Renamed".equals(bookmark.title);
+            if (bookmark.id.equals(ids.get(1))) hasDeleted = true;
+            if (bookmark.id.equals(added)) hasAdded = true;
+        }
+        assertTrue(renamed);
+        assertFalse(hasDeleted);
+        assertTrue(hasAdded);
+    }
+
+    @Test
+    public void missingLocalCopyForcesFullSync() throws Exception {
+        File file = new File(tmp.getRoot(), "missing.json");
+        CloudSync sync = new CloudSync(api(client), file, "12345");
+        CloudSync.Result result = sync.sync();
+        assertTrue(result.reset);
+        assertEquals(LIBRARY, result.bookmarks.size());
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void corruptLocalCopyIsReportedAndResynced() throws Exception {
+        File file = new File(tmp.getRoot(), "corrupt.json");
+        java.nio.file.Files.write(file.toPath(), "[\n{\"id\":\"1\",\"title\":\n]\n".getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        CloudSync sync = new CloudSync(api(client), file, "12345");
+
+        CloudSync.Result result = sync.sync();
+        assertNotNull(result.localCopyError);
+        assertTrue(result.reset);
+        assertEquals(LIBRARY, result.bookmarks.size());
+        // 只报告一次
+        assertNull(sync.sync().localCopyError);
+    }
+
+    @Test
+    public void fallsBackToFullListWithoutChangesEndpoint() throws Exception {
+        server.setChangesEnabled(false);
+        CloudSync sync = new CloudSync(api(client), new File(tmp.getRoot(), "cloud.json"), null);
+        CloudSync.Result result = sync.sync();
+        assertTrue(result.reset);
+        assertNull(result.cursor);
+        assertEquals(LIBRARY, result.bookmarks.size());
+    }
+
+    @Test
+    public void missingChangesEndpointIsRememberedUntilRecheck() throws Exception {
+        server.setChangesEnabled(false);
+        long[] now = {1000};
+        CloudSync sync = new CloudSync(api(client), new File(tmp.getRoot(), "cloud.json"), null, () -> now[0]);
+        sync.sync();
+        sync.sync();
+        sync.sync();
+        assertEquals(1, server.changesRequests());
+
+        // 过了重试间隔再请求一次，服务器已经支持时回到增量同步
+        server.setChangesEnabled(true);
+        now[0] += CloudSync.CHANGES_RECHECK_MS;
+        CloudSync.Result result = sync.sync();
+        assertEquals(2, server.changesRequests());
+        assertNotNull(result.cursor);
+        assertEquals(LIBRARY, result.bookmarks.size());
+    }
+
+    @Test
+    public void unchangedListIsRevalidatedWithETag() throws Exception {
+        server.setChangesEnabled(false);
+        Cache cache = new Cache(tmp.newFolder("http"), 10L * 1024 * 1024);
+        OkHttpClient cachingClient = new OkHttpClient.Builder().cache(cache).build();
+        CloudSync sync = new CloudSync(api(cachingClient), new File(tmp.getRoot(), "cloud.json"), null);
+
+        CloudSync.Result first = sync.sync();
+        assertFalse(first.notModified);
+        assertEquals(0, cache.hitCount());
+
+        // 没有变化：带 If-None-Match 请求，304 没有响应体
+        CloudSync.Result unchanged = sync.sync();
+        assertTrue(unchanged.notModified);
+        assertEquals(0, unchanged.bytes);
+        assertEquals(0, unchanged.changes());
+        assertEquals(LIBRARY, unchanged.bookmarks.size());
+        assertEquals(1, server.notModifiedResponses());
+        assertEquals(1, cache.hitCount());
+
+        // 有变化时 ETag 不再匹配，重新下载
+        server.add("Added", "https://example.com/added");
+        CloudSync.Result changed = sync.sync();
+        assertFalse(changed.notModified);
+        assertEquals(LIBRARY + 1, changed.bookmarks.size());
+        assertEquals(1, server.notModifiedResponses());
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    public void idleDeltaSyncIsNotModified() throws Exception {
+        Cache cache = new Cache(tmp.newFolder("http"), 10L * 1024 * 1024);
+        OkHttpClient cachingClient = new OkHttpClient.Builder().cache(cache).build();
+        CloudSync sync = new CloudSync(api(cachingClient), new File(tmp.getRoot(), "cloud.json"), null);
+        sync.sync();
+        String cursor = sync.cursor();
+
+        assertFalse(sync.sync().notModified);
+        CloudSync.Result idle = sync.sync();
+        assertTrue(idle.notModified);
+        assertEquals(cursor, idle.cursor);
+        assertEquals(LIBRARY, idle.bookmarks.size());
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    public void oversizedResponsesAreEvictedFromCache() throws Exception {
+        server.setChangesEnabled(false);
+        long maxSize = 64 * 1024;
+        Cache cache = new Cache(tmp.newFolder("http"), maxSize);
+        OkHttpClient cachingClient = new OkHttpClient.Builder().cache(cache).build();
+        CloudSync sync = new CloudSync(api(cachingClient), new File(tmp.getRoot(), "cloud.json"), null);
+
+        sync.sync();
+        CloudSync.Result second = sync.sync();
+        // 完整列表超过缓存上限被淘汰，只能重新下载
+        assertFalse(second.notModified);
+        assertEquals(LIBRARY, second.bookmarks.size());
+        assertEquals(0, server.notModifiedResponses());
+        assertEquals(0, cache.hitCount());
+        assertTrue("cache size " + cache.size(), cache.size() <= maxSize);
+    }
+
+    /**
+     * 服务器上做 count 次修改（一半新增，各四分之一改名和删除）后同步，返回响应字节数
+     */
+    private long syncAfterChanges(CloudSync sync, int count, int offset) throws Exception {
+        for (int i = 0; i < count / 2; i++) {
+            server.add("New " + offset + "-" + i, "https://example.com/new/" + offset + "/" + i);
+        }
+        for (int i = 0; i < count / 4; i++) {
+            server.rename(ids.get(1000 + offset + i), "Renamed " + i);
+            server.delete(ids.get(5000 + offset + i));
+        }
+        CloudSync.Result result = sync.sync();
+        assertFalse(result.reset);
+        assertEquals(count, result.changes());
+        return result.bytes;
+    }
+
+    private SyncApiClient api(OkHttpClient base) {
+        return new SyncApiClient(base, server.baseUrl(), () -> FakeBookmarkServer.TOKEN);
+    }
+}
@@ -0,0 +1,511 @@
+package com.example.browser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 云书签服务器的本地替身，接口与线上一致：
+ * POST /api/auth/login、GET/POST /api/bookmarks，增量同步用的 GET /api/bookmarks/changes，
+ * 以及批量写入的 POST /api/bookmarks/batch
+ * 每次修改分配递增的序号，changes 只返回序号大于 since 的书签和删除记录；
+ * batch 按 opId 去重，重发已执行过的操作直接返回上次的结果
+ * GET 响应带以当前序号为值的 ETag，If-None-Match 相同时回 304 不带响应体
+ * 令牌可以放在 Authorization: Bearer 头里，也可以放在旧的 token 查询参数里；请求体可以 gzip 压缩
+ * 每个请求在线程池上处理，holdChanges() 可以让 changes 请求停在服务器上，模拟慢网络
+ */
+class FakeBookmarkServer implements Closeable {
+
+    static final String TOKEN = "test-token";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final Map<String, JSONObject> bookmarks = new LinkedHashMap<>();
+    // 变更日志：序号 -> 书签id，每个id只保留最近一次的序号
+    private final TreeMap<Long, String> changeLog = new TreeMap<>();
+    private final Map<String, Long> lastChange = new HashMap<>();
+    private long seq = 0;
+    private long nextId = 1;
+    private boolean changesEnabled = true;
+    private boolean batchEnabled = true;
+
+    // 已执行的批量操作：opId -> 结果
+    private final Map<String, JSONObject> appliedOps = new HashMap<>();
+    private int batchRequests = 0;
+    private int notModified = 0;
+    private int gzipRequests = 0;
+    private int headerAuthRequests = 0;
+    private int queryAuthRequests = 0;
+    private int loginRequests = 0;
+    private int changesRequests = 0;
+    // 当前有效的令牌，expireToken() 之后旧令牌返回 401
+    private String token = TOKEN;
+    private int tokenGeneration = 0;
+    private CountDownLatch changesGate;
+    // 接下来要断开的写请求数，以及断开发生在执行之前还是之后
+    private int dropWrites = 0;
+    private boolean dropAfterApply = false;
+
+    FakeBookmarkServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/auth/login", this::handleLogin);
+        server.createContext("/api/bookmarks/changes", this::handleChanges);
+        server.createContext("/api/bookmarks/batch", this::handleBatch);
+        server.createContext("/api/bookmarks", this::handleBookmarks);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api";
+    }
+
+    synchronized String add(String title, String url) {
+        String id = String.valueOf(nextId++);
+        JSONObject json = new JSONObject();
+        try {
+            json.put("id", id);
+            json.put("title", title);
+            json.put("url", url);
+            json.put("createdAt", System.currentTimeMillis());
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        bookmarks.put(id, json);
+        recordChange(id);
+        return id;
+    }
+
+    synchronized void rename(String id, String title) {
+        try {
+            bookmarks.get(id).put("title", title);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        recordChange(id);
+    }
+
+    synchronized void delete(String id) {
+        bookmarks.remove(id);
+        recordChange(id);
+    }
+
+    synchronized int size() {
+        return bookmarks.size();
+    }
+
+    /**
+     * 模拟还没有增量接口的旧服务器
+     */
+    synchronized void setChangesEnabled(boolean enabled) {
+        changesEnabled = enabled;
+    }
+
+    synchronized void setBatchEnabled(boolean enabled) {
+        batchEnabled = enabled;
+    }
+
+    /**
+     * 接下来 count 个写请求不返回响应直接断开；afterApply 为 true 时先执行再断开，模拟响应在路上丢失
+     */
+    synchronized void dropNextWrites(int count, boolean afterApply) {
+        dropWrites = count;
+        dropAfterApply = afterApply;
+    }
+
+    synchronized int batchRequests() {
+        return batchRequests;
+    }
+
+    /**
+     * 回过多少次 304
+     */
+    synchronized int notModifiedResponses() {
+        return notModified;
+    }
+
+    /**
+     * 收到过多少个 gzip 压缩的请求体
+     */
+    synchronized int gzipRequests() {
+        return gzipRequests;
+    }
+
+    /**
+     * 有多少请求的令牌放在 Authorization 头里
+     */
+    synchronized int headerAuthRequests() {
+        return headerAuthRequests;
+    }
+
+    /**
+     * 有多少请求用旧的 token 查询参数认证，客户端改用 Authorization 头之后应该一直是 0
+     */
+    synchronized int queryAuthRequests() {
+        return queryAuthRequests;
+    }
+
+    synchronized int loginRequests() {
+        return loginRequests;
+    }
+
+    synchronized int changesRequests() {
+        return changesRequests;
+    }
+
+    /**
+     * 让当前令牌过期，之后登录拿到的是新令牌
+     */
+    synchronized void expireToken() {
+        tokenGeneration++;
+        token = TOKEN + "-" + tokenGeneration;
+    }
+
+    /**
+     * 之后的 changes 请求停在服务器上，直到 releaseChanges()
+     */
+    synchronized void holdChanges() {
+        changesGate = new CountDownLatch(1);
+    }
+
+    synchronized void releaseChanges() {
+        if (changesGate != null) {
+            changesGate.countDown();
+            changesGate = null;
+        }
+    }
+
+    synchronized boolean containsUrl(String url) {
+        return countUrl(url) > 0;
+    }
+
+    synchronized int countUrl(String url) {
+        int count = 0;
+        for (JSONObject bookmark : bookmarks.values()) {
+            if (url.equals(bookmark.optString("url"))) count++;
+        }
+        return count;
+    }
+
+    synchronized String titleOf(String id) {
+        JSONObject bookmark = bookmarks.get(id);
+        return bookmark != null ? bookmark.optString("title") : null;
+    }
+
+    @Override
+    public void close() {
+        releaseChanges();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void recordChange(String id) {
+        Long previous = lastChange.get(id);
+        if (previous != null) {
+            changeLog.remove(previous);
+        }
+        seq++;
+        changeLog.put(seq, id);
+        lastChange.put(id, seq);
+    }
+
+    private void handleLogin(HttpExchange exchange) throws IOException {
+        readBody(exchange);
+        try {
+            JSONObject data = new JSONObject();
+            synchronized (this) {
+                loginRequests++;
+                data.put("syncToken", token);
+            }
+            data.put("userId", "1");
+            send(exchange, 200, ok(data));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void handleBookmarks(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange);
+        if (!authorized(exchange, query)) {
+            send(exchange, 401, error(401, "invalid token"));
+            return;
+        }
+        try {
+            if ("POST".equals(exchange.getRequestMethod())) {
+                JSONObject body = new JSONObject(readBody(exchange));
+                if (shouldDrop(exchange, false)) return;
+                String id = add(body.getString("title"), body.getString("url"));
+                if (shouldDrop(exchange, true)) return;
+                synchronized (this) {
+                    send(exchange, 200, ok(bookmarks.get(id)));
+                }
+                return;
+            }
+            JSONArray list = new JSONArray();
+            synchronized (this) {
+                if (notModified(exchange)) return;
+                for (JSONObject bookmark : bookmarks.values()) {
+                    list.put(bookmark);
+                }
+            }
+            send(exchange, 200, ok(list));
+        } catch (JSONException e) {
+            send(exchange, 400, error(400, e.getMessage()));
+        }
+    }
+
+    private void handleChanges(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange);
+        CountDownLatch gate;
+        synchronized (this) {
+            changesRequests++;
+            gate = changesGate;
+        }
+        if (gate != null) {
+            try {
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!authorized(exchange, query)) {
+            send(exchange, 401, error(401, "invalid token"));
+            return;
+        }
+        try {
+            JSONObject data = new JSONObject();
+            JSONArray upserts = new JSONArray();
+            JSONArray deleted = new JSONArray();
+            synchronized (this) {
+                if (!changesEnabled) {
+                    send(exchange, 404, error(404, "not found"));
+                    return;
+                }
+                if (notModified(exchange)) return;
+                long since = parseCursor(query.get("since"));
+                boolean reset = since < 0 || since > seq;
+                if (reset) {
+                    for (JSONObject bookmark : bookmarks.values()) {
+                        upserts.put(bookmark);
+                    }
+                } else {
+                    for (String id : changeLog.tailMap(since, false).values()) {
+                        JSONObject bookmark = bookmarks.get(id);
+                        if (bookmark != null) {
+                            upserts.put(bookmark);
+                        } else {
+                            deleted.put(id);
+                        }
+                    }
+                }
+                data.put("cursor", String.valueOf(seq));
+                data.put("reset", reset);
+            }
+            data.put("upserts", upserts);
+            data.put("deleted", deleted);
+            send(exchange, 200, ok(data));
+        } catch (JSONException e) {
+            send(exchange, 400, error(400, e.getMessage()));
+        }
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange);
+        if (!authorized(exchange, query)) {
+            send(exchange, 401, error(401, "invalid token"));
+            return;
+        }
+        try {
+            JSONObject body = new JSONObject(readBody(exchange));
+            synchronized (this) {
+                if (!batchEnabled) {
+                    send(exchange, 404, error(404, "not found"));
+                    return;
+                }
+                batchRequests++;
+            }
+            if (shouldDrop(exchange, false)) return;
+
+            JSONArray ops = body.getJSONArray("ops");
+            JSONArray results = new JSONArray();
+            synchronized (this) {
+                for (int i = 0; i < ops.length(); i++) {
+                    results.put(applyOp(ops.getJSONObject(i)));
+                }
+            }
+            if (shouldDrop(exchange, true)) return;
+
+            JSONObject data = new JSONObject();
+            data.put("results", results);
+            send(exchange, 200, ok(data));
+        } catch (JSONException e) {
+            send(exchange, 400, error(400, e.getMessage()));
+        }
+    }
+
+    private JSONObject applyOp(JSONObject op) throws JSONException {
+        String opId = op.getString("opId");
+        JSONObject result = appliedOps.get(opId);
+        if (result != null) {
+            return result;
+        }
+        result = new JSONObject();
+        result.put("opId", opId);
+        String id = op.optString("id", null);
+        switch (op.getString("op")) {
+            case "add":
+                id = add(op.getString("title"), op.getString("url"));
+                break;
+            case "update":
+                if (bookmarks.containsKey(id)) {
+                    bookmarks.get(id).put("title", op.getString("title"));
+                    bookmarks.get(id).put("url", op.getString("url"));
+                    recordChange(id);
+                } else {
+                    result.put("status", "not_found");
+                }
+                break;
+            case "delete":
+                if (bookmarks.containsKey(id)) {
+                    delete(id);
+                } else {
+                    result.put("status", "not_found");
+                }
+                break;
+            default:
+                throw new JSONException("unknown op " + op.getString("op"));
+        }
+        result.put("id", id);
+        appliedOps.put(opId, result);
+        return result;
+    }
+
+    /**
+     * 给 GET 响应加上 ETag；客户端带来的 If-None-Match 和当前序号一致时直接回 304
+     */
+    private boolean notModified(HttpExchange exchange) throws IOException {
+        String etag = "\"" + seq + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", "private, no-cache");
+        exchange.getResponseHeaders().set("Vary", "Authorization");
+        if (!etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            return false;
+        }
+        notModified++;
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return true;
+    }
+
+    /**
+     * 按 dropNextWrites 的设置断开连接，不返回任何响应
+     */
+    private boolean shouldDrop(HttpExchange exchange, boolean applied) {
+        synchronized (this) {
+            if (dropWrites == 0 || dropAfterApply != applied) return false;
+            dropWrites--;
+        }
+        exchange.close();
+        return true;
+    }
+
+    private synchronized boolean authorized(HttpExchange exchange, Map<String, String> query) {
+        if (("Bearer " + token).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            headerAuthRequests++;
+            return true;
+        }
+        if (!token.equals(query.get("token"))) return false;
+        queryAuthRequests++;
+        return true;
+    }
+
+    private static long parseCursor(String cursor) {
+        if (cursor == null) return -1;
+        try {
+            return Long.parseLong(cursor);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static JSONObject ok(Object data) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("code", 200);
+        json.put("message", "ok");
+        json.put("data", data);
+        return json;
+    }
+
+    private static JSONObject error(int code, String message) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("code", code);
+            json.put("message", message);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return json;
+    }
+
+    private static void send(HttpExchange exchange, int status, JSONObject json) throws IOException {
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream body = exchange.getRequestBody();
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            synchronized (this) {
+                gzipRequests++;
+            }
+            body = new GZIPInputStream(body);
+        }
+        try (InputStream in = body) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> parseQuery(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                    URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+        return params;
+    }
+}
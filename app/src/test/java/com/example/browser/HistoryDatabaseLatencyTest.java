@@ -0,0 +1,133 @@
+package com.example.browser;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 10 万条历史记录下的分页、搜索和删除，在 JVM 上用 Robolectric 自带的 SQLite 跑
+ * 查询计划确认走索引；耗时只做宽松的上限检查并打印出来，真机上的数字看 androidTest 里的 HistoryDatabaseTest
+ * 由 :app:historyDatabaseTest 任务运行，默认的单元测试任务堆太小
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 35)
+public class HistoryDatabaseLatencyTest {
+
+    private static final String DB_NAME = "history_latency_test.db";
+    private static final int ROWS = 100_000;
+    private static final long BASE_TIME = 1_700_000_000_000L;
+
+    private Context context;
+    private HistoryDatabase db;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        context.deleteDatabase(DB_NAME);
+        db = new HistoryDatabase(context, DB_NAME);
+
+        List<HistoryItem> batch = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            batch.add(new HistoryItem("https://site" + (i % 500) + ".example.com/page/" + i,
+                    "Article " + i + " 新闻", BASE_TIME + i * 1000L));
+            if (batch.size() == 5000) {
+                db.recordVisits(batch);
+                batch.clear();
+            }
+        }
+        db.recordVisits(batch);
+        assertEquals(ROWS, db.count());
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void pagesByTimeThroughTheTimestampIndex() {
+        // 和 queryBefore 同样的条件，按索引倒序读，不扫全表也不另外排序
+        String plan = queryPlan("SELECT _id FROM history WHERE timestamp <= ? AND (timestamp < ? OR _id < ?)"
+                + " ORDER BY timestamp DESC, _id DESC LIMIT 100");
+        assertTrue(plan, plan.contains("idx_history_timestamp"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+
+        db.queryBefore(Long.MAX_VALUE, Long.MAX_VALUE, 1);
+        long beforeTimestamp = Long.MAX_VALUE;
+        long beforeId = Long.MAX_VALUE;
+        long expected = BASE_TIME + (ROWS - 1) * 1000L;
+        long slowest = 0;
+        for (int page = 0; page < 20; page++) {
+            long start = System.nanoTime();
+            List<HistoryItem> items = db.queryBefore(beforeTimestamp, beforeId, 100);
+            slowest = Math.max(slowest, System.nanoTime() - start);
+
+            assertEquals(100, items.size());
+            for (HistoryItem item : items) {
+                assertEquals(expected, item.timestamp);
+                expected -= 1000L;
+            }
+            HistoryItem last = items.get(items.size() - 1);
+            beforeTimestamp = last.timestamp;
+            beforeId = last.id;
+        }
+        System.out.printf("%d rows: slowest page of 100 in %.2f ms%n", ROWS, slowest / 1e6);
+        assertTrue("page took " + slowest / 1_000_000 + "ms", slowest < 200_000_000L);
+    }
+
+    @Test
+    public void searchUsesFullTextIndex() {
+        db.search("warmup", 1);
+
+        long start = System.nanoTime();
+        List<HistoryItem> results = db.search("site42 page", 50);
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(50, results.size());
+        for (HistoryItem item : results) {
+            assertTrue(item.url.contains("site42"));
+        }
+        for (int i = 1; i < results.size(); i++) {
+            assertTrue(results.get(i - 1).timestamp >= results.get(i).timestamp);
+        }
+        System.out.printf("%d rows: full-text search in %.2f ms%n", ROWS, elapsed / 1e6);
+        assertTrue("search took " + elapsed / 1_000_000 + "ms", elapsed < 1_000_000_000L);
+    }
+
+    @Test
+    public void deletesByRange() {
+        long start = System.nanoTime();
+        int deleted = db.deleteRange(BASE_TIME, BASE_TIME + 1000 * 1000L);
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(1000, deleted);
+        assertEquals(ROWS - 1000, db.count());
+        System.out.printf("%d rows: deleted 1000 by range in %.2f ms%n", ROWS, elapsed / 1e6);
+        assertTrue("delete took " + elapsed / 1_000_000 + "ms", elapsed < 2_000_000_000L);
+    }
+
+    private String queryPlan(String sql) {
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql,
+                new String[]{"1", "1", "1"})) {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+}
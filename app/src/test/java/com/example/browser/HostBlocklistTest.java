@@ -0,0 +1,187 @@
+package com.example.browser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按主机名拦截：后缀匹配、规则格式、从文件增量更新
+ */
+public class HostBlocklistTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void blocksDomainAndSubdomainsOnly() {
+        HostBlocklist blocklist = new HostBlocklist();
+        assertTrue(blocklist.add("doubleclick.net"));
+        assertTrue(blocklist.add("hm.baidu.com"));
+        assertFalse(blocklist.add("DoubleClick.net."));
+
+        assertTrue(blocklist.isBlocked("doubleclick.net"));
+        assertTrue(blocklist.isBlocked("ad.g.doubleclick.net"));
+        assertTrue(blocklist.isBlocked("hm.baidu.com."));
+        assertTrue(blocklist.isBlocked("x.hm.baidu.com"));
+
+        // 只按完整的段匹配
+        assertFalse(blocklist.isBlocked("notdoubleclick.net"));
+        assertFalse(blocklist.isBlocked("baidu.com"));
+        assertFalse(blocklist.isBlocked("www.baidu.com"));
+        assertFalse(blocklist.isBlocked("net"));
+        assertFalse(blocklist.isBlocked(""));
+
+        assertTrue(blocklist.isBlockedUrl("https://ad.doubleclick.net:443/pixel?x=1"));
+        assertFalse(blocklist.isBlockedUrl("https://www.baidu.com/s?wd=hm.baidu.com"));
+        assertFalse(blocklist.isBlockedUrl("data:image/png;base64,AAAA"));
+    }
+
+    @Test
+    public void removePrunesUnusedNodes() {
+        HostBlocklist blocklist = new HostBlocklist();
+        int empty = blocklist.nodeCount();
+        blocklist.add("a.tracker.example");
+        blocklist.add("b.tracker.example");
+        blocklist.add("tracker.example");
+        assertEquals(3, blocklist.size());
+
+        assertTrue(blocklist.remove("tracker.example"));
+        assertFalse(blocklist.remove("tracker.example"));
+        assertFalse(blocklist.isBlocked("c.tracker.example"));
+        assertTrue(blocklist.isBlocked("x.a.tracker.example"));
+
+        assertTrue(blocklist.remove("a.tracker.example"));
+        assertTrue(blocklist.remove("b.tracker.example"));
+        assertEquals(0, blocklist.size());
+        assertEquals(empty, blocklist.nodeCount());
+    }
+
+    @Test
+    public void parsesHostsDomainAndAdblockLines() throws Exception {
+        String list = "# comment\n"
+                + "! adblock comment\n"
+                + "0.0.0.0 ads.example.com\n"
+                + "127.0.0.1\ttrack.example.com  # trailing comment\n"
+                + "127.0.0.1 localhost\n"
+                + "::1 ip6-localhost\n"
+                + "Metrics.Example.ORG\n"
+                + "||pixel.example.net^\n"
+                + "||cdn.example.net/ads/*\n"
+                + "||opts.example.net^$third-party\n"
+                + "example.com##.banner\n"
+                + "@@||allowed.example.com^\n"
+                + "not a domain\n"
+                + "1.2.3.4\n";
+        Set<String> domains = new HashSet<>();
+        HostBlocklist.parse(new StringReader(list), domains);
+
+        Set<String> expected = new HashSet<>();
+        expected.add("ads.example.com");
+        expected.add("track.example.com");
+        expected.add("metrics.example.org");
+        expected.add("pixel.example.net");
+        assertEquals(expected, domains);
+    }
+
+    @Test
+    public void fileUpdatesApplyOnlyTheDifference() throws Exception {
+        File file = tmp.newFile("blocklist.txt");
+        write(file, "a.example\nb.example\nc.example\n");
+        HostBlocklist blocklist = new HostBlocklist();
+
+        HostBlocklist.Update first = blocklist.updateFrom(file);
+        assertEquals(3, first.added);
+        assertEquals(0, first.removed);
+
+        // 文件没变时不重新读
+        assertTrue(blocklist.updateFrom(file).unchanged);
+
+        write(file, "a.example\nc.example\nd.example\ne.example\n");
+        file.setLastModified(file.lastModified() + 2000);
+        HostBlocklist.Update second = blocklist.updateFrom(file);
+        assertFalse(second.unchanged);
+        assertEquals(2, second.added);
+        assertEquals(1, second.removed);
+        assertEquals(4, second.rules);
+        assertFalse(blocklist.isBlocked("b.example"));
+        assertTrue(blocklist.isBlocked("www.e.example"));
+
+        assertTrue(file.delete());
+        HostBlocklist.Update cleared = blocklist.updateFrom(file);
+        assertEquals(4, cleared.removed);
+        assertEquals(0, blocklist.size());
+    }
+
+    @Test
+    public void lookupsStayConsistentWhileRulesChange() throws Exception {
+        HostBlocklist blocklist = new HostBlocklist();
+        blocklist.add("always.example");
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                if (!blocklist.isBlocked("x.always.example")) failure.set("lost always.example");
+                if (blocklist.isBlocked("never.example")) failure.set("blocked never.example");
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 20_000; i++) {
+            blocklist.add("host" + i + ".example");
+            if (i % 2 == 0) blocklist.remove("host" + (i / 2) + ".example");
+        }
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void largeListIsCompactAndFast() {
+        HostBlocklist blocklist = new HostBlocklist();
+        for (int i = 0; i < 100_000; i++) {
+            blocklist.add("ads" + i + ".tracker" + (i % 500) + ".com");
+        }
+        assertEquals(100_000, blocklist.size());
+        // 共享的 com 和 trackerN 节点只存一份
+        assertEquals(1 + 1 + 500 + 100_000, blocklist.nodeCount());
+
+        String[] hosts = new String[1024];
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = i % 2 == 0 ? "img.ads" + (i * 97) + ".tracker" + (i * 97 % 500) + ".com"
+                    : "www.site" + i + ".com";
+        }
+        int blocked = 0;
+        for (int round = 0; round < 200; round++) {
+            for (String host : hosts) {
+                if (blocklist.isBlocked(host)) blocked++;
+            }
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < 200; round++) {
+            for (String host : hosts) {
+                if (blocklist.isBlocked(host)) blocked++;
+            }
+        }
+        long perLookup = (System.nanoTime() - start) / (200L * hosts.length);
+        assertEquals(2 * 200 * 512, blocked);
+        assertTrue("lookup " + perLookup + "ns", perLookup < 20_000);
+    }
+
+    private static void write(File file, String text) throws Exception {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(text);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.browser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+/**
+ * 图标缓存：存入时缩小、内存按字节淘汰后从磁盘读回、按主机共用、取消和合并读取
+ */
+public class IconCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // 手动执行的 io 和主线程任务
+    private final Queue<Runnable> io = new ArrayDeque<>();
+    private final Queue<Runnable> main = new ArrayDeque<>();
+    private final FakeCodec codec = new FakeCodec();
+
+    @Test
+    public void storesDownsampledImagesPerHost() {
+        IconCache<FakeImage> cache = newCache(100_000, 100_000);
+        cache.put(IconCache.ICON, "https://www.example.com/a", new FakeImage(128));
+        cache.put(IconCache.THUMBNAIL, "https://www.example.com/a", new FakeImage(1080));
+        runAll();
+
+        // 同一主机的其他网页也用这个图，内存命中时直接回调
+        List<FakeImage> loaded = new ArrayList<>();
+        cache.load(IconCache.ICON, "https://WWW.example.com/other?q=1", loaded::add);
+        cache.load(IconCache.THUMBNAIL, "http://www.example.com/", loaded::add);
+        assertEquals(2, loaded.size());
+        assertEquals(24, loaded.get(0).px);
+        assertEquals(64, loaded.get(1).px);
+        assertEquals(2, cache.memoryHits());
+        assertTrue(io.isEmpty());
+
+        // 没有主机的网址没有图
+        cache.load(IconCache.ICON, "about:blank", loaded::add);
+        assertNull(loaded.get(2));
+    }
+
+    @Test
+    public void memoryEvictsByBytesAndFallsBackToDisk() {
+        // 内存里只放得下两个 24px 的图标
+        IconCache<FakeImage> cache = newCache(2 * 24 * 24 * 4, 100_000);
+        cache.put(IconCache.ICON, "https://a.example/", new FakeImage(48));
+        cache.put(IconCache.ICON, "https://b.example/", new FakeImage(48));
+        cache.put(IconCache.ICON, "https://c.example/", new FakeImage(48));
+        runAll();
+        assertEquals(2 * 24 * 24 * 4, cache.memoryBytes());
+
+        List<FakeImage> loaded = new ArrayList<>();
+        cache.load(IconCache.ICON, "https://a.example/", loaded::add);
+        assertTrue(loaded.isEmpty());
+        runAll();
+        assertEquals(1, loaded.size());
+        assertEquals(24, loaded.get(0).px);
+        assertEquals(1, cache.diskHits());
+        assertEquals(1, cache.decodes());
+
+        // 读回来后又在内存里了
+        cache.load(IconCache.ICON, "https://a.example/", loaded::add);
+        assertEquals(2, loaded.size());
+        assertTrue(io.isEmpty());
+    }
+
+    @Test
+    public void concurrentLoadsShareOneDecodeAndCancelledRowsAreSkipped() {
+        IconCache<FakeImage> cache = newCache(0, 100_000);
+        cache.put(IconCache.ICON, "https://a.example/", new FakeImage(24));
+        cache.put(IconCache.ICON, "https://b.example/", new FakeImage(24));
+        runAll();
+
+        List<String> delivered = new ArrayList<>();
+        IconCache.Request first = cache.load(IconCache.ICON, "https://a.example/1", image -> delivered.add("a1"));
+        cache.load(IconCache.ICON, "https://a.example/2", image -> delivered.add("a2"));
+        assertEquals(1, io.size());
+        first.cancel();
+
+        // 行在解码前被复用，整个读取都不做
+        IconCache.Request recycled = cache.load(IconCache.ICON, "https://b.example/", image -> delivered.add("b"));
+        recycled.cancel();
+        runAll();
+
+        assertEquals(1, codec.decodes);
+        assertEquals(1, delivered.size());
+        assertEquals("a2", delivered.get(0));
+        assertEquals(2, cache.cancelled());
+    }
+
+    @Test
+    public void missingImagesAreRememberedUntilStored() {
+        IconCache<FakeImage> cache = newCache(10_000, 100_000);
+        List<FakeImage> loaded = new ArrayList<>();
+        cache.load(IconCache.ICON, "https://a.example/", loaded::add);
+        runAll();
+        assertNull(loaded.get(0));
+
+        // 再读不排队读盘
+        cache.load(IconCache.ICON, "https://a.example/", loaded::add);
+        assertTrue(io.isEmpty());
+        assertNull(loaded.get(1));
+        assertEquals(2, cache.misses());
+
+        cache.put(IconCache.ICON, "https://a.example/", new FakeImage(16));
+        runAll();
+        cache.load(IconCache.ICON, "https://a.example/", loaded::add);
+        assertEquals(16, loaded.get(2).px);
+    }
+
+    @Test
+    public void diskEvictsLeastRecentlyUsed() throws Exception {
+        File dir = new File(tmp.getRoot(), "icons");
+        // 每个编码后的图标 4 字节（"24px"），磁盘上放得下两个
+        IconCache<FakeImage> cache = new IconCache<>(codec, dir, 24, 64, 0, 8, io::add, main::add);
+        cache.put(IconCache.ICON, "https://a.example/", new FakeImage(24));
+        cache.put(IconCache.ICON, "https://b.example/", new FakeImage(24));
+        runAll();
+        List<FakeImage> loaded = new ArrayList<>();
+        cache.load(IconCache.ICON, "https://a.example/", loaded::add);
+        runAll();
+        cache.put(IconCache.ICON, "https://c.example/", new FakeImage(24));
+        runAll();
+
+        assertEquals(8, cache.diskBytes());
+        assertTrue(new File(dir, "icon-a.example").exists());
+        assertFalse(new File(dir, "icon-b.example").exists());
+        assertTrue(new File(dir, "icon-c.example").exists());
+
+        // 重新建立时从目录读回磁盘索引，清掉没写完的临时文件
+        assertTrue(new File(dir, "icon-d.example.tmp").createNewFile());
+        IconCache<FakeImage> reopened = new IconCache<>(codec, dir, 24, 64, 0, 8, io::add, main::add);
+        reopened.load(IconCache.ICON, "https://c.example/", loaded::add);
+        runAll();
+        assertEquals(24, loaded.get(1).px);
+        assertEquals(8, reopened.diskBytes());
+        assertFalse(new File(dir, "icon-d.example.tmp").exists());
+    }
+
+    @Test
+    public void keysAreSafeFileNames() {
+        assertEquals("icon-www.example.com", IconCache.keyOf(IconCache.ICON, "https://user@www.Example.com:8080/x"));
+        assertEquals("thumb-xn--fiqs8s.example", IconCache.keyOf(IconCache.THUMBNAIL, "http://xn--fiqs8s.example/"));
+        assertNull(IconCache.keyOf(IconCache.ICON, "data:image/png;base64,AAAA"));
+    }
+
+    private IconCache<FakeImage> newCache(long memoryBytes, long diskBytes) {
+        return new IconCache<>(codec, new File(tmp.getRoot(), "icons"), 24, 64, memoryBytes, diskBytes,
+                io::add, main::add);
+    }
+
+    private void runAll() {
+        while (!io.isEmpty() || !main.isEmpty()) {
+            Runnable task = io.isEmpty() ? main.poll() : io.poll();
+            task.run();
+        }
+    }
+
+    private static class FakeImage {
+        final int px;
+
+        FakeImage(int px) {
+            this.px = px;
+        }
+    }
+
+    /** 编码后就是 "<尺寸>px" */
+    private static class FakeCodec implements IconCache.Codec<FakeImage> {
+        int decodes;
+
+        @Override
+        public FakeImage decode(byte[] data, int maxPx) {
+            decodes++;
+            String text = new String(data, StandardCharsets.US_ASCII);
+            if (!text.endsWith("px")) return null;
+            return scale(new FakeImage(Integer.parseInt(text.substring(0, text.length() - 2))), maxPx);
+        }
+
+        @Override
+        public FakeImage scale(FakeImage image, int maxPx) {
+            return image.px <= maxPx ? image : new FakeImage(maxPx);
+        }
+
+        @Override
+        public byte[] encode(FakeImage image) {
+            return (image.px + "px").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public int byteCount(FakeImage image) {
+            return image.px * image.px * 4;
+        }
+    }
+}
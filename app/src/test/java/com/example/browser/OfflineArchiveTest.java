@@ -0,0 +1,215 @@
+package com.example.browser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * 离线网页：按内容去重、原样还原归档、超出配额时按最近打开删除
+ */
+public class OfflineArchiveTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final AtomicLong clock = new AtomicLong(1_700_000_000_000L);
+
+    private static final String SHARED_CSS = "body { margin: 0; font-family: sans-serif; }";
+
+    @Test
+    public void sharedPartsAreStoredOnce() throws Exception {
+        OfflineArchive archive = newArchive(1 << 20);
+        String logo = base64(4000, 1);
+
+        OfflineArchive.SaveResult first = save(archive, "https://a.example/", page("https://a.example/", "<p>A</p>", logo));
+        assertEquals(3, first.newObjects);
+        OfflineArchive.SaveResult second = save(archive, "https://a.example/b", page("https://a.example/b", "<p>B</p>", logo));
+        // 只有正文是新的，样式和图片已经存过
+        assertEquals(1, second.newObjects);
+        assertEquals("<p>B</p>".length(), second.newBytes);
+
+        assertEquals(4, archive.objectCount());
+        long shared = SHARED_CSS.length() + logo.length();
+        assertEquals(shared + 16, archive.storedBytes());
+        assertEquals(2 * shared + 16, archive.logicalBytes());
+        assertTrue(archive.dedupRatio() > 1.9);
+    }
+
+    @Test
+    public void reopenedArchiveMatchesTheSavedBytes() throws Exception {
+        OfflineArchive archive = newArchive(1 << 20);
+        String mhtml = page("https://a.example/", "<p>A</p>\r\n<p>second line</p>", base64(3000, 2));
+        save(archive, "https://a.example/", mhtml);
+
+        File opened = archive.open("https://a.example/");
+        assertEquals(mhtml, read(opened));
+        // 再打开直接用拼好的文件
+        assertEquals(opened, archive.open("https://a.example/"));
+        assertNull(archive.open("https://missing.example/"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyOpenedPages() throws Exception {
+        // 每页 6000 多字节不共享的图片，配额放得下两页
+        OfflineArchive archive = newArchive(14_000);
+        save(archive, "https://a.example/", page("https://a.example/", "A", base64(6000, 10)));
+        save(archive, "https://b.example/", page("https://b.example/", "B", base64(6000, 11)));
+        clock.addAndGet(1000);
+        archive.open("https://a.example/");
+
+        OfflineArchive.SaveResult result = save(archive, "https://c.example/", page("https://c.example/", "C", base64(6000, 12)));
+        assertEquals(1, result.evicted);
+        assertTrue(archive.contains("https://a.example/"));
+        assertFalse(archive.contains("https://b.example/"));
+        assertTrue(archive.contains("https://c.example/"));
+        assertTrue(archive.storedBytes() <= 14_000);
+
+        // 单独一页就超出配额时不保存
+        try {
+            save(archive, "https://huge.example/", page("https://huge.example/", "H", base64(20_000, 13)));
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(archive.contains("https://huge.example/"));
+        assertEquals(2, archive.pages().size());
+    }
+
+    @Test
+    public void resavingReplacesThePage() throws Exception {
+        OfflineArchive archive = newArchive(1 << 20);
+        save(archive, "https://a.example/", page("https://a.example/", "<p>old</p>", base64(1000, 3)));
+        save(archive, "https://a.example/", page("https://a.example/", "<p>new</p>", base64(1000, 3)));
+        assertEquals(1, archive.pages().size());
+        assertEquals(3, archive.objectCount());
+        assertEquals(archive.storedBytes(), archive.logicalBytes());
+        assertTrue(read(archive.open("https://a.example/")).contains("<p>new</p>"));
+
+        assertTrue(archive.remove("https://a.example/"));
+        assertEquals(0, archive.objectCount());
+        assertEquals(0, archive.storedBytes());
+        assertEquals(0, countFiles(new File(tmp.getRoot(), "offline/objects")));
+    }
+
+    @Test
+    public void reloadsFromDiskAndDropsOrphans() throws Exception {
+        File dir = new File(tmp.getRoot(), "offline");
+        OfflineArchive archive = new OfflineArchive(dir, 1 << 20, clock::get);
+        String mhtml = page("https://a.example/", "<p>A</p>", base64(2000, 4));
+        save(archive, "https://a.example/", mhtml);
+        save(archive, "https://b.example/", page("https://b.example/", "<p>B</p>", base64(2000, 5)));
+        // b 的内容丢了一部分，a 的清单之外多了一个没人引用的内容
+        OfflineArchive.Page b = archive.pages().get(0);
+        assertEquals("https://b.example/", b.url);
+        File lost = new File(new File(dir, "objects/" + b.parts.get(2).hash.substring(0, 2)), b.parts.get(2).hash);
+        assertTrue(lost.delete());
+        File orphan = new File(dir, "objects/00/00orphan");
+        assertTrue(orphan.getParentFile().mkdirs());
+        assertTrue(orphan.createNewFile());
+
+        OfflineArchive reloaded = new OfflineArchive(dir, 1 << 20, clock::get);
+        assertTrue(reloaded.contains("https://a.example/"));
+        assertFalse(reloaded.contains("https://b.example/"));
+        assertFalse(orphan.exists());
+        assertEquals(3, reloaded.objectCount());
+        assertEquals(mhtml, read(reloaded.open("https://a.example/")));
+    }
+
+    @Test
+    public void rejectsArchivesWithoutParts() throws Exception {
+        OfflineArchive archive = newArchive(1 << 20);
+        try {
+            save(archive, "https://a.example/", "<html>not an archive</html>");
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(0, archive.pages().size());
+        assertEquals(0, countFiles(new File(tmp.getRoot(), "offline/objects")));
+    }
+
+    private OfflineArchive newArchive(long maxBytes) {
+        return new OfflineArchive(new File(tmp.getRoot(), "offline"), maxBytes, clock::get);
+    }
+
+    private OfflineArchive.SaveResult save(OfflineArchive archive, String url, String mhtml) throws IOException {
+        clock.addAndGet(1000);
+        File file = tmp.newFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(mhtml.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return archive.save(url, url, file);
+    }
+
+    /**
+     * 和 Chrome 保存的格式一样：正文、共用的样式、一张 base64 的图片
+     */
+    private static String page(String url, String html, String imageBase64) {
+        String boundary = "----MultipartBoundary--abc123----";
+        return "From: <Saved by Blink>\r\n"
+                + "Snapshot-Content-Location: " + url + "\r\n"
+                + "Subject: test\r\n"
+                + "MIME-Version: 1.0\r\n"
+                + "Content-Type: multipart/related;\r\n"
+                + "\ttype=\"text/html\";\r\n"
+                + "\tboundary=\"" + boundary + "\"\r\n"
+                + "\r\n\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Type: text/html\r\n"
+                + "Content-Location: " + url + "\r\n"
+                + "\r\n"
+                + html + "\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Type: text/css\r\n"
+                + "Content-Location: " + url + "style.css\r\n"
+                + "\r\n"
+                + SHARED_CSS + "\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Type: image/png\r\n"
+                + "Content-Transfer-Encoding: base64\r\n"
+                + "Content-Location: " + url + "logo.png\r\n"
+                + "\r\n"
+                + imageBase64 + "\r\n"
+                + "--" + boundary + "--\r\n";
+    }
+
+    private static String base64(int lineChars, long seed) {
+        Random random = new Random(seed);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lineChars; i++) {
+            if (i > 0 && i % 76 == 0) sb.append("\r\n");
+            sb.append(alphabet.charAt(random.nextInt(64)));
+        }
+        return sb.toString();
+    }
+
+    private static String read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < bytes.length) read += in.read(bytes, read, bytes.length - read);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int countFiles(File dir) {
+        int count = 0;
+        File[] children = dir.listFiles();
+        if (children == null) return 0;
+        for (File child : children) {
+            count += child.isDirectory() ? countFiles(child) : 1;
+        }
+        return count;
+    }
+}
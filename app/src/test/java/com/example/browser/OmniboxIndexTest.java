@@ -0,0 +1,103 @@
+package com.example.browser;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 地址栏联想的匹配、排序和增量更新
+ */
+public class OmniboxIndexTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    public void ranksByVisitsAndRecency() {
+        OmniboxIndex index = new OmniboxIndex();
+        index.add("https://example.com/recent", "Recent", NOW, 10, false);
+        index.add("https://example.com/stale", "Stale", NOW - 30 * DAY, 10, false);
+        index.add("https://example.com/once", "Once", NOW, 1, false);
+
+        List<OmniboxIndex.Suggestion> result = index.query("exa", 10, () -> false);
+        assertEquals(3, result.size());
+        assertEquals("https://example.com/recent", result.get(0).url);
+        assertEquals("https://example.com/once", result.get(1).url);
+        assertEquals("https://example.com/stale", result.get(2).url);
+    }
+
+    @Test
+    public void matchesHostSuffixesTitleWordsAndAllTerms() {
+        OmniboxIndex index = new OmniboxIndex();
+        index.recordVisit("https://mail.google.com/inbox", "Inbox - Gmail", NOW);
+        index.recordVisit("https://www.github.com/ZXCLI", "ZXCLI on GitHub", NOW);
+        index.addBookmark("https://cn.bing.com", "必应", NOW);
+
+        assertEquals("https://mail.google.com/inbox", index.query("goo", 5, () -> false).get(0).url);
+        assertEquals("https://mail.google.com/inbox", index.query("gmail", 5, () -> false).get(0).url);
+        assertEquals("https://www.github.com/ZXCLI", index.query("www.git", 5, () -> false).get(0).url);
+        assertEquals("https://www.github.com/ZXCLI", index.query("github.com/zx", 5, () -> false).get(0).url);
+        assertEquals("https://cn.bing.com", index.query("必", 5, () -> false).get(0).url);
+        assertEquals(1, index.query("git zxcli", 5, () -> false).size());
+        assertTrue(index.query("git inbox", 5, () -> false).isEmpty());
+    }
+
+    @Test
+    public void visitsUpdateIndexIncrementally() {
+        OmniboxIndex index = new OmniboxIndex();
+        for (int i = 0; i < 5000; i++) {
+            index.recordVisit("https://site" + i + ".test/", "Site " + i, NOW - DAY);
+        }
+        assertTrue(index.query("newsite", 5, () -> false).isEmpty());
+
+        index.recordVisit("https://newsite.test/", "New", NOW);
+        assertEquals("https://newsite.test/", index.query("newsite", 5, () -> false).get(0).url);
+
+        // 同一网址再次访问只累加次数，排名随之上升
+        index.recordVisit("https://site42.test", "Site 42", NOW);
+        index.recordVisit("https://site42.test/", "Site 42", NOW);
+        assertEquals(5001, index.size());
+        assertEquals("https://site42.test/", index.query("site", 1, () -> false).get(0).url);
+    }
+
+    @Test
+    public void cancelledQueryReturnsNull() {
+        OmniboxIndex index = buildLargeIndex(20_000);
+        assertNull(index.query("s", 10, () -> true));
+    }
+
+    @Test
+    public void topTenQueriesAt100k() {
+        OmniboxIndex index = buildLargeIndex(100_000);
+        String[] typed = {"s", "si", "sit", "site", "site1", "site12", "p", "pa", "pag", "page 7", "e", "ex"};
+
+        for (int i = 0; i < 200; i++) {
+            for (String text : typed) {
+                index.query(text, 10, () -> false);
+            }
+        }
+
+        int rounds = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String text : typed) {
+                assertFalse(index.query(text, 10, () -> false).isEmpty());
+            }
+        }
+        double perQueryMs = (System.nanoTime() - start) / 1e6 / (rounds * typed.length);
+        System.out.printf("100000 entries: %.3f ms per query%n", perQueryMs);
+        // 只防止退化成每次全量扫描，精确的数字看 :benchmark 里的 OmniboxQueryBenchmark
+        assertTrue("query took " + perQueryMs + "ms", perQueryMs < 20.0);
+    }
+
+    private static OmniboxIndex buildLargeIndex(int count) {
+        OmniboxIndex index = new OmniboxIndex();
+        for (int i = 0; i < count; i++) {
+            index.add("https://site" + (i % 5000) + ".example.com/page/" + i,
+                    "Page " + i + " of site " + (i % 5000), NOW - (i % 365) * DAY, 1 + i % 7, false);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.browser;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 页面加载时间线：环形缓冲区、按主机的分位数和JSON导出
+ */
+public class PageLoadTimelineTest {
+
+    private static final long START = TimeUnit.SECONDS.toNanos(100);
+
+    @Test
+    public void recordsOffsetsFromNavigationStart() throws Exception {
+        PageLoadTimeline.PageLoad load = load("https://Example.com/a", "wifi");
+        load.onRedirect();
+        load.onPageStarted(at(40));
+        load.onPageStarted(at(90));
+        load.onProgress(at(55));
+        load.onFirstPaint(at(300));
+        load.onFinished(at(820));
+        load.navigationTiming = new JSONObject().put("ttfb", 120.5);
+
+        assertEquals("example.com", load.host);
+        assertEquals(40, load.pageStartedMs);
+        assertEquals(55, load.firstProgressMs);
+        assertEquals(300, load.firstPaintMs);
+        assertEquals(820, load.finishedMs);
+        assertTrue(load.completed());
+
+        JSONObject json = load.toJson();
+        assertEquals(1, json.getInt("redirects"));
+        assertEquals(820, json.getLong("finishedMs"));
+        assertEquals(120.5, json.getJSONObject("navigationTiming").getDouble("ttfb"), 0);
+        assertFalse(json.has("error"));
+        assertFalse(json.has("abandonedMs"));
+    }
+
+    @Test
+    public void ringBufferKeepsNewestInOrder() {
+        PageLoadTimeline timeline = new PageLoadTimeline(3);
+        for (int i = 0; i < 5; i++) {
+            timeline.add(finished("https://example.com/" + i, "wifi", 100));
+        }
+
+        List<PageLoadTimeline.PageLoad> loads = timeline.loads();
+        assertEquals(3, loads.size());
+        assertEquals("https://example.com/2", loads.get(0).url);
+        assertEquals("https://example.com/4", loads.get(2).url);
+        assertEquals(2, timeline.dropped());
+    }
+
+    @Test
+    public void percentilesPerHostIgnoreFailedAndAbandonedLoads() {
+        PageLoadTimeline timeline = new PageLoadTimeline(500);
+        for (int i = 1; i <= 100; i++) {
+            timeline.add(finished("https://slow.example/" + i, i % 2 == 0 ? "wifi" : "cellular", i * 10));
+        }
+        for (int i = 0; i < 10; i++) {
+            timeline.add(finished("https://fast.example/" + i, "wifi", 50));
+        }
+        PageLoadTimeline.PageLoad failed = load("https://fast.example/broken", "wifi");
+        failed.onError(-2, "net::ERR_NAME_NOT_RESOLVED");
+        failed.onFinished(at(5));
+        timeline.add(failed);
+        PageLoadTimeline.PageLoad notFound = load("https://fast.example/missing", "wifi");
+        notFound.onHttpError(404);
+        notFound.onFinished(at(30));
+        timeline.add(notFound);
+        PageLoadTimeline.PageLoad abandoned = load("https://fast.example/slow", "wifi");
+        abandoned.abandon(at(9000));
+        timeline.add(abandoned);
+
+        Map<String, PageLoadTimeline.Stats> hosts = timeline.statsByHost();
+        // 按次数排列
+        assertEquals("slow.example", hosts.keySet().iterator().next());
+
+        PageLoadTimeline.Stats slow = hosts.get("slow.example");
+        assertEquals(100, slow.count);
+        assertEquals(500, slow.p50FinishedMs);
+        assertEquals(950, slow.p95FinishedMs);
+        assertEquals(250, slow.p50FirstPaintMs);
+
+        PageLoadTimeline.Stats fast = hosts.get("fast.example");
+        assertEquals(13, fast.count);
+        assertEquals(2, fast.failed);
+        assertEquals(1, fast.abandoned);
+        assertEquals(50, fast.p50FinishedMs);
+        assertEquals(50, fast.p95FinishedMs);
+
+        Map<String, PageLoadTimeline.Stats> networks = timeline.statsByNetwork();
+        assertEquals(63, networks.get("wifi").count);
+        assertEquals(50, networks.get("cellular").count);
+        assertEquals(950, networks.get("cellular").p95FinishedMs);
+    }
+
+    @Test
+    public void percentileUsesNearestRank() {
+        assertEquals(-1, PageLoadTimeline.percentile(new long[0], 50));
+        assertEquals(7, PageLoadTimeline.percentile(new long[]{7}, 95));
+        long[] sorted = {10, 20, 30, 40};
+        assertEquals(20, PageLoadTimeline.percentile(sorted, 50));
+        assertEquals(40, PageLoadTimeline.percentile(sorted, 95));
+        assertEquals(10, PageLoadTimeline.percentile(sorted, 0));
+    }
+
+    @Test
+    public void exportsSummaryAndLoads() throws Exception {
+        PageLoadTimeline timeline = new PageLoadTimeline(2);
+        timeline.add(finished("https://a.example/", "wifi", 100));
+        timeline.add(finished("https://b.example/", "wifi", 200));
+        PageLoadTimeline.PageLoad failed = load("https://b.example/x", "offline");
+        failed.onError(-6, "net::ERR_CONNECTION_REFUSED");
+        timeline.add(failed);
+
+        JSONObject json = new JSONObject(timeline.toJson().toString());
+        assertEquals(2, json.getInt("capacity"));
+        assertEquals(1, json.getLong("dropped"));
+        assertEquals(2, json.getJSONArray("loads").length());
+        assertEquals(2, json.getJSONObject("hosts").getJSONObject("b.example").getInt("count"));
+        assertEquals(-6, json.getJSONArray("loads").getJSONObject(1).getInt("errorCode"));
+        assertTrue(json.getJSONObject("networks").has("offline"));
+    }
+
+    private static PageLoadTimeline.PageLoad load(String url, String network) {
+        return new PageLoadTimeline.PageLoad(url, 1_700_000_000_000L, START, network);
+    }
+
+    private static PageLoadTimeline.PageLoad finished(String url, String network, long millis) {
+        PageLoadTimeline.PageLoad load = load(url, network);
+        load.onPageStarted(at(millis / 10));
+        load.onFirstPaint(at(millis / 2));
+        load.onFinished(at(millis));
+        return load;
+    }
+
+    private static long at(long millis) {
+        return START + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
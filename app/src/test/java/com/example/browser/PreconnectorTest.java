@@ -0,0 +1,116 @@
+package com.example.browser;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * 预连接：按源去重、并发预算、有效期，以及导航时的命中统计
+ */
+public class PreconnectorTest {
+
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(60);
+
+    private final AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(1000));
+    // 每次解析耗时 20ms
+    private final FakeResolver resolver = new FakeResolver();
+    // 手动执行的任务，模拟还在进行中的预热
+    private final List<Runnable> queued = new ArrayList<>();
+
+    @Test
+    public void warmedOriginIsCountedOnceAsHit() {
+        Preconnector preconnector = new Preconnector(resolver, Runnable::run, 2, WINDOW, clock::get);
+
+        assertTrue(preconnector.preconnect("https://www.example.com/search?q=1"));
+        // 同一个源不重复预热
+        assertFalse(preconnector.preconnect("https://WWW.example.com/other"));
+        assertEquals(1, resolver.resolved.size());
+        assertEquals("www.example.com", resolver.resolved.get(0));
+
+        assertEquals(Preconnector.WARM, preconnector.onNavigation("https://www.example.com/page"));
+        // 同一次预热只算一次
+        assertEquals(Preconnector.COLD, preconnector.onNavigation("https://www.example.com/again"));
+        assertEquals(Preconnector.COLD, preconnector.onNavigation("http://www.example.com/"));
+        assertEquals(1, preconnector.hits());
+        assertEquals(2, preconnector.misses());
+        assertEquals(20, preconnector.savedMillis());
+    }
+
+    @Test
+    public void budgetLimitsConcurrentWarmups() {
+        Preconnector preconnector = new Preconnector(resolver, queued::add, 2, WINDOW, clock::get);
+
+        assertTrue(preconnector.preconnect("https://a.example/"));
+        assertTrue(preconnector.preconnect("https://b.example/"));
+        assertFalse(preconnector.preconnect("https://c.example/"));
+        assertEquals(1, preconnector.overBudget());
+
+        // 还在进行中的预热也算命中，但不计省下的时间
+        assertEquals(Preconnector.WARMING, preconnector.onNavigation("https://a.example/x"));
+        queued.remove(0).run();
+        assertTrue(preconnector.preconnect("https://c.example/"));
+        assertEquals(3, preconnector.started());
+        assertEquals(1, preconnector.inFlightHits());
+        assertEquals(0, preconnector.savedMillis());
+    }
+
+    @Test
+    public void unusedWarmupsExpireAsWasted() {
+        Preconnector preconnector = new Preconnector(resolver, Runnable::run, 2, WINDOW, clock::get);
+        preconnector.preconnect("https://a.example/");
+        preconnector.preconnect("https://b.example/");
+        preconnector.onNavigation("https://b.example/");
+
+        clock.addAndGet(WINDOW);
+        // 过期后重新预热，a 没被用上算浪费
+        assertEquals(Preconnector.COLD, preconnector.onNavigation("https://a.example/"));
+        assertEquals(1, preconnector.wasted());
+        assertTrue(preconnector.preconnect("https://a.example/"));
+        assertEquals(3, resolver.resolved.size());
+    }
+
+    @Test
+    public void failedWarmupCanBeRetried() {
+        Preconnector preconnector = new Preconnector(resolver, Runnable::run, 2, WINDOW, clock::get);
+        resolver.unknownHost = "typo.example";
+
+        assertTrue(preconnector.preconnect("https://typo.example/"));
+        assertEquals(1, preconnector.failed());
+        assertEquals(Preconnector.COLD, preconnector.onNavigation("https://typo.example/"));
+
+        resolver.unknownHost = null;
+        assertTrue(preconnector.preconnect("https://typo.example/"));
+        assertEquals(Preconnector.WARM, preconnector.onNavigation("https://typo.example/"));
+        assertEquals(20, preconnector.savedMillis());
+    }
+
+    @Test
+    public void ignoresNonHttpUrls() {
+        Preconnector preconnector = new Preconnector(resolver, Runnable::run, 2, WINDOW, clock::get);
+        assertFalse(preconnector.preconnect("about:blank"));
+        assertFalse(preconnector.preconnect("javascript:void(0)"));
+        assertFalse(preconnector.preconnect(null));
+        assertEquals(Preconnector.COLD, preconnector.onNavigation("file:///sdcard/a.html"));
+        assertEquals(0, preconnector.started());
+        assertEquals("http://example.com:8080", Preconnector.originOf("http://Example.com:8080/a?b"));
+    }
+
+    private class FakeResolver implements Preconnector.Resolver {
+        final List<String> resolved = new ArrayList<>();
+        String unknownHost;
+
+        @Override
+        public void resolve(String host) throws IOException {
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(20));
+            if (host.equals(unknownHost)) throw new UnknownHostException(host);
+            resolved.add(host);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.browser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 记录文件的分批加载，单元测试的堆上限见 app/build.gradle.kts
+ */
+public class RecordFileTest {
+
+    private static final int ENTRIES = 200_000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void loadsNewestFirstThenOlderBatches() throws Exception {
+        File file = tmp.newFile("history.json");
+        writeHistory(file, ENTRIES, true);
+
+        UrlIndexedList<HistoryItem> list = HistoryItem.newIndexedList();
+        int[] insertPos = {0};
+        int[] firstPublished = {-1};
+        int total = RecordFile.load(file, 200, 2000, HistoryItem::fromJson, new RecordFile.Listener<HistoryItem>() {
+            @Override
+            public void onNewest(List<HistoryItem> items) {
+                firstPublished[0] = items.size();
+                assertEquals(url(ENTRIES - 1), items.get(items.size() - 1).url);
+                list.insertMissing(insertPos[0], items);
+            }
+
+            @Override
+            public void onOlder(List<HistoryItem> batch) {
+                assertTrue(batch.size() <= 2000);
+                insertPos[0] += list.insertMissing(insertPos[0], batch);
+            }
+        });
+
+        assertEquals(200, firstPublished[0]);
+        assertEquals(ENTRIES, total);
+        assertEquals(ENTRIES, list.size());
+        for (int i = 0; i < ENTRIES; i += 997) {
+            assertEquals(url(i), list.get(i).url);
+        }
+        assertNotNull(list.findByUrl(url(ENTRIES / 2)));
+    }
+
+    @Test
+    public void streamsLegacySingleLineArray() throws Exception {
+        File file = tmp.newFile("legacy.json");
+        writeHistory(file, ENTRIES, false);
+
+        UrlIndexedList<HistoryItem> list = HistoryItem.newIndexedList();
+        int[] insertPos = {0};
+        int total = RecordFile.load(file, 200, 2000, HistoryItem::fromJson, new RecordFile.Listener<HistoryItem>() {
+            @Override
+            public void onNewest(List<HistoryItem> items) {
+                assertTrue(items.isEmpty());
+            }
+
+            @Override
+            public void onOlder(List<HistoryItem> batch) {
+                insertPos[0] += list.insertMissing(insertPos[0], batch);
+            }
+        });
+
+        assertEquals(ENTRIES, total);
+        assertEquals(url(0), list.get(0).url);
+        assertEquals(url(ENTRIES - 1), list.get(ENTRIES - 1).url);
+    }
+
+    @Test
+    public void writeThenLoadRoundTrips() throws Exception {
+        File file = new File(tmp.getRoot(), "favorites.json");
+        UrlIndexedList<Bookmark> favorites = Bookmark.newIndexedList();
+        favorites.add(new Bookmark("1", "带\"引号\"的标题", "https://a.example/", 1L));
+        favorites.add(new Bookmark(null, "第二个", "https://b.example/x", 2L));
+        RecordFile.write(file, favorites, Bookmark::toJson);
+
+        UrlIndexedList<Bookmark> loaded = Bookmark.newIndexedList();
+        RecordFile.load(file, 1, 10, Bookmark::fromJson, new RecordFile.Listener<Bookmark>() {
+            @Override
+            public void onNewest(List<Bookmark> items) {
+                assertEquals(1, items.size());
+                loaded.insertMissing(0, items);
+            }
+
+            @Override
+            public void onOlder(List<Bookmark> batch) {
+                loaded.insertMissing(0, batch);
+            }
+        });
+
+        assertEquals(2, loaded.size());
+        assertEquals("带\"引号\"的标题", loaded.get(0).title);
+        assertEquals("https://b.example/x", loaded.get(1).url);
+    }
+
+    private static String url(int i) {
+        return "https://example.com/page/" + i;
+    }
+
+    private static void writeHistory(File file, int count, boolean lineFormat) throws Exception {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            out.write(lineFormat ? "[\n" : "[");
+            for (int i = 0; i < count; i++) {
+                out.write("{\"url\":\"" + url(i) + "\",\"title\":\"Page " + i + "\",\"timestamp\":" + (1_600_000_000_000L + i) + "}");
+                if (i < count - 1) out.write(lineFormat ? ",\n" : ",");
+            }
+            out.write(lineFormat ? "\n]\n" : "]");
+        }
+    }
+}
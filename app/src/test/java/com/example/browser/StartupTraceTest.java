@@ -0,0 +1,145 @@
+package com.example.browser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * 启动阶段计时和启动时的排队门
+ */
+public class StartupTraceTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+
+    @Test
+    public void phasesAreRelativeToOrigin() {
+        // 进程在 onCreate 之前 120ms 启动
+        StartupTrace trace = new StartupTrace("Cold start", clock::get, clock.get() - ms(120));
+        trace.begin("onCreate");
+        advance(5);
+        trace.begin("views");
+        advance(30);
+        trace.end("views");
+        advance(10);
+        trace.end("onCreate");
+        advance(200);
+        trace.mark("firstPaint");
+
+        assertEquals(45, trace.millis("onCreate"));
+        assertEquals(30, trace.millis("views"));
+        assertEquals(365, trace.millis("firstPaint"));
+
+        List<StartupTrace.Phase> phases = trace.phases();
+        assertEquals("onCreate", phases.get(0).name);
+        assertEquals(ms(125), phases.get(1).startNanos);
+        assertTrue(phases.get(2).event);
+    }
+
+    @Test
+    public void repeatedAndUnmatchedCallsAreIgnored() {
+        StartupTrace trace = new StartupTrace("Warm start", clock::get, clock.get());
+        trace.end("never-started");
+        trace.begin("favoritesLoad");
+        advance(10);
+        // 第二次 begin 不重新计时
+        trace.begin("favoritesLoad");
+        advance(10);
+        trace.end("favoritesLoad");
+        advance(10);
+        trace.end("favoritesLoad");
+        trace.mark("firstPaint");
+        advance(10);
+        trace.mark("firstPaint");
+        trace.begin("cloudSync");
+
+        assertFalse(trace.has("never-started"));
+        assertEquals(20, trace.millis("favoritesLoad"));
+        assertEquals(30, trace.millis("firstPaint"));
+        assertEquals(-1, trace.millis("cloudSync"));
+        assertEquals(3, trace.phases().size());
+        assertTrue(trace.toString().contains("running"));
+    }
+
+    @Test
+    public void phasesFromManyThreadsAreAllRecorded() throws Exception {
+        StartupTrace trace = new StartupTrace("Cold start", System::nanoTime, System.nanoTime());
+        int threads = 8;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            String name = "worker-" + t;
+            new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    trace.begin(name + "/" + i);
+                    trace.end(name + "/" + i);
+                }
+                done.countDown();
+            }, name).start();
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        List<StartupTrace.Phase> phases = trace.phases();
+        assertEquals(threads * 100, phases.size());
+        for (StartupTrace.Phase phase : phases) {
+            assertTrue(phase.isFinished());
+            assertTrue(phase.name.startsWith(phase.thread));
+        }
+    }
+
+    @Test
+    public void gateQueuesUntilOpenThenRunsInOrder() {
+        ReadyGate gate = new ReadyGate();
+        List<String> order = new ArrayList<>();
+        gate.run(() -> order.add("a"));
+        gate.run(() -> {
+            order.add("b");
+            // 打开过程中提交的任务排在还没执行的任务后面
+            gate.run(() -> order.add("d"));
+        });
+        gate.run(() -> order.add("c"));
+        assertTrue(order.isEmpty());
+        assertEquals(3, gate.waitingCount());
+
+        gate.open();
+        gate.run(() -> order.add("e"));
+        gate.open();
+
+        assertTrue(gate.isOpen());
+        assertEquals(List.of("a", "b", "c", "d", "e"), order);
+    }
+
+    @Test
+    public void gateStaysClosedWhenTaskFails() {
+        ReadyGate gate = new ReadyGate();
+        List<String> order = new ArrayList<>();
+        gate.run(() -> {
+            throw new IllegalStateException("boom");
+        });
+        gate.run(() -> order.add("after"));
+
+        try {
+            gate.open();
+            fail("expected exception");
+        } catch (IllegalStateException expected) {
+        }
+        assertFalse(gate.isOpen());
+        assertEquals(1, gate.waitingCount());
+
+        gate.open();
+        assertTrue(gate.isOpen());
+        assertEquals(List.of("after"), order);
+    }
+
+    private void advance(long millis) {
+        clock.addAndGet(ms(millis));
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
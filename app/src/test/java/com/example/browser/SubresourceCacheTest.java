@@ -0,0 +1,253 @@
+package com.example.browser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.*;
+
+/**
+ * 子资源缓存：新鲜命中不走网络，过期后用 ETag 重新验证，超过容量时淘汰
+ */
+public class SubresourceCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile String lastCookie;
+    // 这个站点在 WebView 里的 Cookie
+    private volatile String siteCookie;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        // 一年有效期的脚本
+        server.createContext("/static/app.js", exchange -> {
+            requests.incrementAndGet();
+            lastCookie = exchange.getRequestHeaders().getFirst("Cookie");
+            exchange.getResponseHeaders().set("Content-Type", "application/javascript; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "public, max-age=31536000");
+            send(exchange, 200, "console.log('app');".getBytes(StandardCharsets.UTF_8), false);
+        });
+        // 每次都要重新验证的样式
+        server.createContext("/static/site.css", exchange -> {
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Type", "text/css");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            send(exchange, 200, "body { color: red; }".getBytes(StandardCharsets.UTF_8), false);
+        });
+        // 压缩传输的大图片，用来填满缓存
+        server.createContext("/img/", exchange -> {
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=3600");
+            // 随机内容压缩不了，每张都占满 32KB
+            byte[] body = new byte[32 * 1024];
+            new Random(exchange.getRequestURI().getPath().hashCode()).nextBytes(body);
+            send(exchange, 200, body, "gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding")));
+        });
+        // 设置 Cookie 的统计脚本
+        server.createContext("/static/track.js", exchange -> {
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Type", "application/javascript");
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=3600");
+            exchange.getResponseHeaders().set("Set-Cookie", "uid=1; SameSite=Lax");
+            send(exchange, 200, "track();".getBytes(StandardCharsets.UTF_8), false);
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void freshResponseIsServedWithoutNetwork() throws Exception {
+        SubresourceCache cache = cache(1024 * 1024);
+        String url = baseUrl + "/static/app.js";
+
+        SubresourceCache.Result first = cache.fetch(url, Map.of("Accept", "*/*"));
+        assertFalse(first.fromCache);
+        assertEquals("application/javascript", first.mimeType);
+        assertEquals("UTF-8", first.encoding);
+        assertEquals("console.log('app');", read(first));
+        assertNull(lastCookie);
+
+        SubresourceCache.Result second = cache.fetch(url, Map.of("Accept", "*/*"));
+        assertTrue(second.fromCache);
+        assertEquals(200, second.status);
+        assertEquals("console.log('app');", read(second));
+
+        assertEquals(1, requests.get());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(0.5, cache.hitRatio(), 0);
+        assertEquals(19, cache.bytesSaved());
+        assertEquals(19, cache.bytesFromNetwork());
+    }
+
+    @Test
+    public void staleResponseIsRevalidatedWithETag() throws Exception {
+        SubresourceCache cache = cache(1024 * 1024);
+        String url = baseUrl + "/static/site.css";
+
+        assertEquals("body { color: red; }", read(cache.fetch(url, null)));
+        SubresourceCache.Result revalidated = cache.fetch(url, null);
+        // 304 合并成带缓存内容的 200 交给 WebView
+        assertEquals(200, revalidated.status);
+        assertTrue(revalidated.fromCache);
+        assertEquals("body { color: red; }", read(revalidated));
+
+        assertEquals(2, requests.get());
+        assertEquals(1, notModified.get());
+        assertEquals(1, cache.revalidated());
+        assertEquals(0, cache.hits());
+        assertEquals(20, cache.bytesSaved());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedToStayWithinQuota() throws Exception {
+        long quota = 128 * 1024;
+        SubresourceCache cache = cache(quota);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(32 * 1024, read(cache.fetch(baseUrl + "/img/" + i + ".png", null)).length());
+        }
+        // OkHttp 在后台线程上按容量淘汰，等它做完
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.size() > quota && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("cache size " + cache.size(), cache.size() <= quota);
+
+        // 最早的已被淘汰，最近的还在
+        assertFalse(cache.fetch(baseUrl + "/img/0.png", null).fromCache);
+        assertTrue(cache.fetch(baseUrl + "/img/9.png", null).fromCache);
+    }
+
+    @Test
+    public void compressedResponseIsHandedOverDecoded() throws Exception {
+        SubresourceCache cache = cache(1024 * 1024);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept-Encoding", "gzip, deflate, br");
+        headers.put("User-Agent", "Test");
+
+        SubresourceCache.Result result = cache.fetch(baseUrl + "/img/a.png", headers);
+        assertEquals(32 * 1024, read(result).length());
+        assertFalse(result.headers.containsKey("Content-Encoding"));
+        assertFalse(result.headers.containsKey("Content-Length"));
+        assertEquals("max-age=3600", result.headers.get("Cache-Control"));
+    }
+
+    @Test
+    public void failedRequestFallsBackToWebView() throws Exception {
+        SubresourceCache cache = cache(1024 * 1024);
+        server.stop(0);
+        assertNull(cache.fetch(baseUrl + "/static/app.js", null));
+        assertEquals(1, cache.errors());
+        assertEquals(0, cache.hitRatio(), 0);
+    }
+
+    @Test
+    public void cookiesAndUnusableStatusesAreLeftToWebView() throws Exception {
+        SubresourceCache cache = cache(1024 * 1024);
+
+        // 站点有 Cookie：要不要带、带哪些由 WebView 按 SameSite 决定
+        siteCookie = "session=abc";
+        assertNull(cache.fetch(baseUrl + "/static/app.js", null));
+        assertEquals(0, requests.get());
+        siteCookie = null;
+
+        // 拦截的响应里的 Set-Cookie WebView 不认
+        assertNull(cache.fetch(baseUrl + "/static/track.js", null));
+
+        // 网页自己带了条件头，服务器回 304，WebResourceResponse 不接受
+        assertNull(cache.fetch(baseUrl + "/static/site.css", Map.of("If-None-Match", "\"v1\"")));
+        assertEquals(1, notModified.get());
+
+        assertEquals(3, cache.bypassed());
+        assertEquals(0, cache.errors());
+        assertTrue(SubresourceCache.canHandOver(200));
+        assertTrue(SubresourceCache.canHandOver(404));
+        assertFalse(SubresourceCache.canHandOver(302));
+        assertFalse(SubresourceCache.canHandOver(304));
+    }
+
+    @Test
+    public void onlyStaticGetRequestsAreCacheable() {
+        assertTrue(SubresourceCache.isCacheable("GET", "https://cdn.example/app.min.JS?v=3", null));
+        assertTrue(SubresourceCache.isCacheable("GET", "https://cdn.example/fonts/a.woff2", Map.of()));
+        assertTrue(SubresourceCache.isCacheable("GET", "https://cdn.example/resize?w=200",
+                Map.of("Accept", "image/avif,image/webp,*/*")));
+
+        assertFalse(SubresourceCache.isCacheable("POST", "https://cdn.example/app.js", null));
+        assertFalse(SubresourceCache.isCacheable("GET", "https://example.com/api/feed", Map.of("Accept", "*/*")));
+        assertFalse(SubresourceCache.isCacheable("GET", "data:image/png;base64,AAAA", null));
+        assertFalse(SubresourceCache.isCacheable("GET", "file:///android_asset/app.js", null));
+        assertFalse(SubresourceCache.isCacheable("GET", "https://cdn.example/a.png", Map.of("range", "bytes=0-")));
+    }
+
+    private SubresourceCache cache(long maxBytes) throws Exception {
+        return new SubresourceCache(new OkHttpClient(), tmp.newFolder(), maxBytes, url -> siteCookie);
+    }
+
+    private static String read(SubresourceCache.Result result) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = result.body) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toString(StandardCharsets.ISO_8859_1.name());
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body, boolean gzip)
+            throws IOException {
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(body);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
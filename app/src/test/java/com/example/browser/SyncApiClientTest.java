@@ -0,0 +1,94 @@
+package com.example.browser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+import static org.junit.Assert.*;
+
+/**
+ * 同步接口的网络层：异步登录、令牌放在请求头、请求体压缩和连接复用
+ */
+public class SyncApiClientTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FakeBookmarkServer server;
+    private String token = "";
+    private SyncApiClient api;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeBookmarkServer();
+        api = new SyncApiClient(new OkHttpClient(), server.baseUrl(), () -> token);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void loginCompletesAsynchronously() throws Exception {
+        SyncApiClient.Login login = api.login("user", "pass").get(10, TimeUnit.SECONDS);
+        assertEquals(FakeBookmarkServer.TOKEN, login.syncToken);
+        assertEquals("1", login.userId);
+    }
+
+    @Test
+    public void handlesResponsesOffCallerThread() throws Exception {
+        token = FakeBookmarkServer.TOKEN;
+        Thread caller = Thread.currentThread();
+        Request request = new Request.Builder().url(api.url("/bookmarks").build()).build();
+        Thread handler = api.enqueue(request, response -> {
+            SyncApiClient.readData(response);
+            return Thread.currentThread();
+        }).get(10, TimeUnit.SECONDS);
+        assertNotSame(caller, handler);
+    }
+
+    @Test
+    public void sendsTokenInHeaderAndCompressesLargeBodies() throws Exception {
+        token = FakeBookmarkServer.TOKEN;
+        CloudOutbox outbox = new CloudOutbox(api, new File(tmp.getRoot(), "outbox.json"), 50);
+        for (int i = 0; i < 40; i++) {
+            outbox.enqueueAdd("Page " + i, "https://example.com/" + i);
+        }
+
+        assertEquals(40, outbox.flush());
+        assertEquals(40, server.size());
+        assertEquals(1, server.headerAuthRequests());
+        assertEquals(0, server.queryAuthRequests());
+        assertEquals(1, server.gzipRequests());
+    }
+
+    @Test
+    public void reusesOneConnectionAcrossRequests() throws Exception {
+        token = FakeBookmarkServer.TOKEN;
+        server.add("Existing", "https://example.com/existing");
+        CloudSync sync = new CloudSync(api, new File(tmp.getRoot(), "cloud.json"), null);
+        for (int i = 0; i < 5; i++) {
+            sync.sync();
+        }
+
+        assertEquals(5, server.headerAuthRequests());
+        assertEquals(0, server.queryAuthRequests());
+        assertEquals(1, api.client().connectionPool().connectionCount());
+    }
+
+    @Test
+    public void sharesTheBaseClientConnectionPool() {
+        OkHttpClient base = new OkHttpClient();
+        SyncApiClient shared = new SyncApiClient(base, server.baseUrl(), () -> token);
+        assertSame(base.connectionPool(), shared.client().connectionPool());
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.browser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.*;
+
+/**
+ * 并发触发的同步和重新登录的合并，对接本地的 FakeBookmarkServer
+ */
+public class SyncCoordinatorTest {
+
+    private static final int TRIGGERS = 100;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+    private final AtomicReference<String> token = new AtomicReference<>(FakeBookmarkServer.TOKEN);
+    private FakeBookmarkServer server;
+    private SyncCoordinator<CloudSync.Result> coordinator;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeBookmarkServer();
+        for (int i = 0; i < 10; i++) {
+            server.add("Bookmark " + i, "https://example.com/" + i);
+        }
+        SyncApiClient api = new SyncApiClient(new OkHttpClient(), server.baseUrl(), token::get);
+        CloudSync sync = new CloudSync(api, new File(tmp.getRoot(), "cloud.json"), null);
+        coordinator = new SyncCoordinator<>(executor, sync::sync,
+                () -> api.login("user", "pass"),
+                new SyncCoordinator.TokenStore() {
+                    @Override
+                    public String get() {
+                        return token.get();
+                    }
+
+                    @Override
+                    public void save(SyncApiClient.Login login) {
+                        token.set(login.syncToken);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentTriggersShareOneRoundTrip() throws Exception {
+        server.holdChanges();
+        List<CompletableFuture<CloudSync.Result>> futures = fire(coordinator::sync);
+        server.releaseChanges();
+
+        CloudSync.Result first = futures.get(0).get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<CloudSync.Result> future : futures) {
+            assertSame(first, future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(10, first.bookmarks.size());
+        assertEquals(1, server.changesRequests());
+        assertEquals(0, server.loginRequests());
+    }
+
+    @Test
+    public void changesDuringSyncQueueOneTrailingRun() throws Exception {
+        server.holdChanges();
+        CompletableFuture<CloudSync.Result> running = coordinator.sync();
+        // 同步进行中本地有新的写操作，要求之后再同步一次
+        List<CompletableFuture<CloudSync.Result>> trailing = fire(coordinator::syncAgain);
+        server.releaseChanges();
+
+        CloudSync.Result first = running.get(10, TimeUnit.SECONDS);
+        CloudSync.Result second = trailing.get(0).get(10, TimeUnit.SECONDS);
+        assertNotSame(first, second);
+        for (CompletableFuture<CloudSync.Result> future : trailing) {
+            assertSame(second, future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(2, server.changesRequests());
+    }
+
+    @Test
+    public void expiredTokenIsRefreshedOnceForAllWaiters() throws Exception {
+        coordinator.sync().get(10, TimeUnit.SECONDS);
+        server.expireToken();
+
+        server.holdChanges();
+        List<CompletableFuture<CloudSync.Result>> futures = fire(coordinator::sync);
+        server.releaseChanges();
+
+        for (CompletableFuture<CloudSync.Result> future : futures) {
+            assertEquals(10, future.get(10, TimeUnit.SECONDS).bookmarks.size());
+        }
+        assertEquals(1, server.loginRequests());
+        // 第一次同步一次，过期后被拒绝一次，重新登录后重试一次
+        assertEquals(3, server.changesRequests());
+        assertNotEquals(FakeBookmarkServer.TOKEN, token.get());
+    }
+
+    @Test
+    public void missingTokenLogsInBeforeSyncing() throws Exception {
+        token.set("");
+        server.holdChanges();
+        List<CompletableFuture<CloudSync.Result>> futures = fire(coordinator::sync);
+        server.releaseChanges();
+
+        for (CompletableFuture<CloudSync.Result> future : futures) {
+            assertEquals(10, future.get(10, TimeUnit.SECONDS).bookmarks.size());
+        }
+        assertEquals(FakeBookmarkServer.TOKEN, token.get());
+        assertEquals(1, server.loginRequests());
+        assertEquals(1, server.changesRequests());
+    }
+
+    /**
+     * 从 TRIGGERS 个线程同时触发，等全部触发完再返回
+     */
+    private <T> List<CompletableFuture<T>> fire(Supplier<CompletableFuture<T>> trigger) throws Exception {
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(TRIGGERS);
+        for (int i = 0; i < TRIGGERS; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    CompletableFuture<T> future = trigger.get();
+                    synchronized (futures) {
+                        futures.add(future);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        start.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(TRIGGERS, futures.size());
+        return futures;
+    }
+}
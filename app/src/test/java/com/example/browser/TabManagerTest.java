@@ -0,0 +1,229 @@
+package com.example.browser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * 标签页：按最近使用休眠多余的标签、唤醒时恢复状态、内存紧张时调低上限
+ */
+public class TabManagerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(1000));
+    private final FakeEngine engine = new FakeEngine();
+
+    @Test
+    public void leastRecentlyUsedTabsHibernateAndRestore() throws Exception {
+        TabManager<FakeView> tabs = newManager(2);
+        TabManager.Tab<FakeView> a = open(tabs, "https://a.example/");
+        TabManager.Tab<FakeView> b = open(tabs, "https://b.example/");
+        engine.navigate(a.view, "https://a.example/next");
+        tick();
+        tabs.switchTo(a.id);
+        TabManager.Tab<FakeView> c = open(tabs, "https://c.example/");
+
+        // b 最久没用过，先休眠
+        assertFalse(b.isLive());
+        assertTrue(a.isLive());
+        assertTrue(c.isLive());
+        assertEquals(2, tabs.liveCount());
+        assertEquals(1, engine.destroyed.size());
+
+        tick();
+        FakeView view = tabs.switchTo(b.id);
+        assertSame(view, b.view);
+        assertEquals("https://b.example/", view.url);
+        assertEquals(1, b.restores);
+        // 恢复状态，不重新加载
+        assertEquals(3, engine.loads);
+        // 切到 b 后 a 成了最久没用过的
+        assertFalse(a.isLive());
+        assertTrue(c.isLive());
+
+        tabs.switchTo(a.id);
+        assertEquals("https://a.example/next", a.view.url);
+        // 冷切换的耗时是恢复状态的 5ms，热切换只是换一下当前标签
+        assertEquals(5000, tabs.coldSwitchP50Micros());
+        assertEquals(0, tabs.warmSwitchP50Micros());
+    }
+
+    @Test
+    public void failedRestoreFallsBackToUrl() throws Exception {
+        TabManager<FakeView> tabs = newManager(1);
+        TabManager.Tab<FakeView> a = open(tabs, "https://a.example/");
+        a.url = "https://a.example/latest";
+        open(tabs, "https://b.example/");
+        assertFalse(a.isLive());
+
+        engine.failRestore = true;
+        tabs.switchTo(a.id);
+        assertEquals("https://a.example/latest", a.view.url);
+        assertEquals(0, a.restores);
+        // a 的状态文件用完就删，剩下的是刚休眠的 b
+        assertEquals(1, stateFiles());
+    }
+
+    @Test
+    public void memoryPressureLowersLimitTemporarily() throws Exception {
+        TabManager<FakeView> tabs = newManager(4);
+        TabManager.Tab<FakeView> a = open(tabs, "https://a.example/");
+        TabManager.Tab<FakeView> b = open(tabs, "https://b.example/");
+        TabManager.Tab<FakeView> c = open(tabs, "https://c.example/");
+        assertEquals(3, tabs.liveCount());
+
+        tabs.applyMemoryPressure(1);
+        assertEquals(1, tabs.liveLimit());
+        assertEquals(1, tabs.liveCount());
+        assertTrue(c.isLive());
+        assertEquals(2, stateFiles());
+
+        // 压力期间切换也只保留一个
+        tabs.switchTo(a.id);
+        assertFalse(c.isLive());
+        assertEquals(1, tabs.liveCount());
+
+        clock.addAndGet(TabManager.PRESSURE_HOLD_NANOS);
+        assertEquals(4, tabs.liveLimit());
+        tabs.switchTo(b.id);
+        assertTrue(a.isLive());
+        assertTrue(b.isLive());
+    }
+
+    @Test
+    public void closingCurrentSwitchesToMostRecent() throws Exception {
+        TabManager<FakeView> tabs = newManager(1);
+        TabManager.Tab<FakeView> a = open(tabs, "https://a.example/");
+        TabManager.Tab<FakeView> b = open(tabs, "https://b.example/");
+        TabManager.Tab<FakeView> c = open(tabs, "https://c.example/");
+        tabs.switchTo(a.id);
+        tick();
+        tabs.switchTo(c.id);
+
+        TabManager.Tab<FakeView> next = tabs.close(c.id);
+        assertSame(a, next);
+        assertTrue(a.isLive());
+        assertEquals(2, tabs.size());
+        assertNull(tabs.findByView(c.view));
+
+        tabs.close(a.id);
+        assertSame(b, tabs.current());
+        assertNull(tabs.close(b.id));
+        assertEquals(0, tabs.size());
+        assertEquals(0, stateFiles());
+        assertEquals(engine.created, engine.destroyed.size());
+    }
+
+    @Test
+    public void staleStateIsDeletedAndDestroyAllCleansUp() throws Exception {
+        File dir = new File(tmp.getRoot(), "tabs");
+        assertTrue(dir.mkdirs());
+        assertTrue(new File(dir, "tab-7.state").createNewFile());
+        TabManager<FakeView> tabs = new TabManager<>(engine, dir, 1, clock::get);
+        assertEquals(0, stateFiles());
+
+        open(tabs, "https://a.example/");
+        open(tabs, "https://b.example/");
+        assertEquals(1, stateFiles());
+        tabs.destroyAll();
+        assertEquals(0, stateFiles());
+        assertEquals(0, tabs.liveCount());
+        assertNull(tabs.currentView());
+    }
+
+    @Test
+    public void estimatesMemoryPerLiveTab() {
+        TabManager<FakeView> tabs = newManager(3);
+        tabs.onMemorySample(1, 100_000);
+        assertEquals(-1, tabs.memoryPerLiveTabKb());
+        tabs.onMemorySample(1, 100_000);
+        assertEquals(-1, tabs.memoryPerLiveTabKb());
+        tabs.onMemorySample(2, 139_000);
+        tabs.onMemorySample(3, 181_000);
+        tabs.onMemorySample(2, 141_000);
+        assertEquals(40_429, tabs.memoryPerLiveTabKb());
+    }
+
+    @Test
+    public void liveLimitFollowsMemoryClass() {
+        assertEquals(1, TabManager.liveLimitForMemoryClass(512, true));
+        assertEquals(2, TabManager.liveLimitForMemoryClass(96, false));
+        assertEquals(4, TabManager.liveLimitForMemoryClass(256, false));
+        assertEquals(6, TabManager.liveLimitForMemoryClass(1024, false));
+    }
+
+    private TabManager<FakeView> newManager(int liveLimit) {
+        return new TabManager<>(engine, new File(tmp.getRoot(), "tabs"), liveLimit, clock::get);
+    }
+
+    private TabManager.Tab<FakeView> open(TabManager<FakeView> tabs, String url) {
+        tick();
+        return tabs.open(url, true);
+    }
+
+    private void tick() {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    private int stateFiles() {
+        String[] names = new File(tmp.getRoot(), "tabs").list();
+        return names == null ? 0 : names.length;
+    }
+
+    private static class FakeView {
+        String url;
+    }
+
+    private class FakeEngine implements TabManager.Engine<FakeView> {
+        final List<FakeView> destroyed = new ArrayList<>();
+        int created;
+        int loads;
+        boolean failRestore;
+
+        void navigate(FakeView view, String url) {
+            view.url = url;
+        }
+
+        @Override
+        public FakeView create() {
+            created++;
+            return new FakeView();
+        }
+
+        @Override
+        public void destroy(FakeView view) {
+            destroyed.add(view);
+        }
+
+        @Override
+        public byte[] saveState(FakeView view) {
+            return view.url.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public boolean restoreState(FakeView view, byte[] state) {
+            // 恢复本身要花时间，切换耗时算冷切换
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(5));
+            if (failRestore) return false;
+            view.url = new String(state, StandardCharsets.UTF_8);
+            return true;
+        }
+
+        @Override
+        public void load(FakeView view, String url) {
+            loads++;
+            view.url = url;
+        }
+    }
+}
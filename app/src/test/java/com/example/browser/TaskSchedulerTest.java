@@ -0,0 +1,258 @@
+package com.example.browser;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分道调度：道之间互不阻塞、道内按优先级、同 key 串行、有界队列和关闭时的取消
+ */
+public class TaskSchedulerTest {
+
+    private final TaskScheduler scheduler = new TaskScheduler();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        scheduler.shutdown();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void slowNetworkDoesNotDelayInteractiveWork() throws Exception {
+        for (int i = 0; i < TaskScheduler.Lane.NETWORK.threads + 5; i++) {
+            scheduler.execute(TaskScheduler.Lane.NETWORK, this::block);
+        }
+
+        CountDownLatch loaded = new CountDownLatch(1);
+        scheduler.execute(TaskScheduler.Lane.INTERACTIVE, loaded::countDown);
+        assertTrue(loaded.await(2, TimeUnit.SECONDS));
+
+        TaskScheduler.Stats network = scheduler.snapshot(TaskScheduler.Lane.NETWORK);
+        assertTrue(network.queueDepth >= 5);
+        assertEquals(0, network.completed);
+    }
+
+    @Test
+    public void higherPriorityRunsFirstWithinLane() throws Exception {
+        // 占住所有线程，只放开一个，让它按队列顺序逐个执行
+        int threads = TaskScheduler.Lane.INTERACTIVE.threads;
+        CountDownLatch busy = new CountDownLatch(threads);
+        CountDownLatch firstWorker = new CountDownLatch(1);
+        scheduler.execute(TaskScheduler.Lane.INTERACTIVE, () -> {
+            busy.countDown();
+            await(firstWorker);
+        });
+        for (int i = 1; i < threads; i++) {
+            scheduler.execute(TaskScheduler.Lane.INTERACTIVE, () -> {
+                busy.countDown();
+                block();
+            });
+        }
+        assertTrue(busy.await(2, TimeUnit.SECONDS));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(4);
+        submit(TaskScheduler.PRIORITY_LOW, "low", order, done);
+        submit(TaskScheduler.PRIORITY_NORMAL, "normal-1", order, done);
+        submit(TaskScheduler.PRIORITY_HIGH, "high", order, done);
+        submit(TaskScheduler.PRIORITY_NORMAL, "normal-2", order, done);
+        firstWorker.countDown();
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("high", "normal-1", "normal-2", "low"), order);
+    }
+
+    @Test
+    public void tasksWithSameKeyNeverOverlap() throws Exception {
+        int tasks = 500;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(tasks * 2);
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            scheduler.executeSerial("history.db", () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                order.add(index);
+                running.decrementAndGet();
+                done.countDown();
+            });
+            // 其他 key 的写操作可以并行，不受影响
+            scheduler.executeSerial("favorites.json", done::countDown);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        for (int i = 0; i < tasks; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+    }
+
+    @Test
+    public void failingTaskDoesNotBlockItsKey() throws Exception {
+        List<RuntimeException> errors = Collections.synchronizedList(new ArrayList<>());
+        TaskScheduler failing = new TaskScheduler(errors::add);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch queued = new CountDownLatch(2);
+        CountDownLatch later = new CountDownLatch(1);
+        try {
+            // 后面的任务排在同一个 key 上，等第一个失败后接着执行
+            failing.executeSerial("history.db", () -> {
+                await(blocked);
+                throw new IllegalStateException("disk full");
+            });
+            failing.executeSerial("history.db", queued::countDown);
+            failing.executeSerial("history.db", queued::countDown);
+            blocked.countDown();
+            assertTrue(queued.await(5, TimeUnit.SECONDS));
+
+            // 失败之后新提交的任务也能执行
+            failing.executeSerial("history.db", later::countDown);
+            assertTrue(later.await(5, TimeUnit.SECONDS));
+            assertEquals(1, errors.size());
+            assertEquals("disk full", errors.get(0).getMessage());
+            assertEquals(1, failing.snapshot(TaskScheduler.Lane.PERSISTENCE).failed);
+        } finally {
+            failing.shutdown();
+            failing.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void failingPlainTaskKeepsItsLaneWorking() throws Exception {
+        List<RuntimeException> errors = Collections.synchronizedList(new ArrayList<>());
+        TaskScheduler failing = new TaskScheduler(errors::add);
+        TaskScheduler.Lane lane = TaskScheduler.Lane.INTERACTIVE;
+        try {
+            // 比线程数多的失败任务，线程没被异常带走的话后面的任务还能执行
+            for (int i = 0; i < lane.threads * 2; i++) {
+                failing.execute(lane, () -> {
+                    throw new IllegalStateException("database closed");
+                });
+            }
+            CountDownLatch later = new CountDownLatch(1);
+            failing.execute(lane, TaskScheduler.PRIORITY_LOW, later::countDown);
+            assertTrue(later.await(5, TimeUnit.SECONDS));
+            // 另一个线程上的失败任务可能还没结束，等全部执行完再看计数
+            failing.shutdown();
+            assertTrue(failing.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(lane.threads * 2, errors.size());
+            assertEquals("database closed", errors.get(0).getMessage());
+            TaskScheduler.Stats stats = failing.snapshot(lane);
+            assertEquals(lane.threads * 2, stats.failed);
+            assertEquals(0, failing.snapshot(TaskScheduler.Lane.PERSISTENCE).failed);
+        } finally {
+            failing.shutdown();
+            failing.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void fullLaneRejectsAndCountsIt() {
+        TaskScheduler.Lane lane = TaskScheduler.Lane.NETWORK;
+        int accepted = 0;
+        try {
+            for (int i = 0; i < lane.threads + lane.capacity + 10; i++) {
+                scheduler.execute(lane, this::block);
+                accepted++;
+            }
+            fail("expected rejection");
+        } catch (RejectedExecutionException expected) {
+        }
+
+        assertTrue(accepted >= lane.capacity);
+        TaskScheduler.Stats stats = scheduler.snapshot(lane);
+        assertEquals(1, stats.rejected);
+        assertEquals(accepted, stats.submitted);
+        assertTrue(stats.maxQueueDepth <= lane.capacity);
+    }
+
+    @Test
+    public void shutdownCancelsPendingReadsButFinishesWrites() throws Exception {
+        for (int i = 0; i < TaskScheduler.Lane.INTERACTIVE.threads; i++) {
+            scheduler.execute(TaskScheduler.Lane.INTERACTIVE, this::block);
+        }
+        AtomicInteger reads = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            scheduler.execute(TaskScheduler.Lane.INTERACTIVE, reads::incrementAndGet);
+        }
+        AtomicInteger writes = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            scheduler.executeSerial("history.db", () -> {
+                block();
+                writes.incrementAndGet();
+            });
+        }
+
+        scheduler.shutdown();
+        release.countDown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(0, reads.get());
+        assertEquals(10, writes.get());
+        assertEquals(10, scheduler.snapshot(TaskScheduler.Lane.INTERACTIVE).cancelled);
+        try {
+            scheduler.execute(TaskScheduler.Lane.INTERACTIVE, reads::incrementAndGet);
+            fail("expected rejection after shutdown");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void recordsWaitTime() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.execute(TaskScheduler.Lane.PERSISTENCE, () -> {
+            started.countDown();
+            sleep(50);
+        });
+        scheduler.execute(TaskScheduler.Lane.PERSISTENCE, () -> sleep(50));
+        CountDownLatch done = new CountDownLatch(1);
+        // 两个线程都被占住，第三个至少要等一个结束
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        scheduler.execute(TaskScheduler.Lane.PERSISTENCE, done::countDown);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+
+        TaskScheduler.Stats stats = scheduler.snapshot(TaskScheduler.Lane.PERSISTENCE);
+        assertEquals(3, stats.started);
+        assertTrue("max wait " + stats, stats.maxWaitNanos >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    private void submit(int priority, String name, List<String> order, CountDownLatch done) {
+        scheduler.execute(TaskScheduler.Lane.INTERACTIVE, priority, () -> {
+            order.add(name);
+            done.countDown();
+        });
+    }
+
+    private void block() {
+        await(release);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.browser;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * URL规范化和主机名提取：收藏夹查找、合并的 key 和冲突比较都依赖它，写法不同的同一个网址必须得到同一个结果
+ */
+public class UrlIndexedListTest {
+
+    @Test
+    public void lowercasesSchemeAndHostButNotPathOrQuery() {
+        assertEquals("https://example.com/Path/To?Q=Value",
+                UrlIndexedList.canonicalize("HTTPS://Example.COM/Path/To?Q=Value"));
+        assertEquals("https://user@example.com/a", UrlIndexedList.canonicalize("https://User@EXAMPLE.com/a"));
+    }
+
+    @Test
+    public void dropsTrailingSlashesBeforeTheQuery() {
+        assertEquals("https://example.com", UrlIndexedList.canonicalize("https://example.com/"));
+        assertEquals("https://example.com/a", UrlIndexedList.canonicalize("https://example.com/a/"));
+        assertEquals("https://example.com/a", UrlIndexedList.canonicalize("https://example.com/a//"));
+        assertEquals("https://example.com/a?q=1", UrlIndexedList.canonicalize("https://example.com/a/?q=1"));
+        // 查询参数里的斜杠不动
+        assertEquals("https://example.com?next=/b/", UrlIndexedList.canonicalize("https://example.com/?next=/b/"));
+    }
+
+    @Test
+    public void dropsTheFragment() {
+        assertEquals("https://example.com/a", UrlIndexedList.canonicalize("https://example.com/a#top"));
+        assertEquals("https://example.com", UrlIndexedList.canonicalize("https://example.com/#/route"));
+        assertEquals("https://example.com/a?q=1", UrlIndexedList.canonicalize("https://example.com/a?q=1#x"));
+    }
+
+    @Test
+    public void dropsOnlyTheSchemesDefaultPort() {
+        assertEquals("http://example.com/a", UrlIndexedList.canonicalize("http://example.com:80/a"));
+        assertEquals("https://example.com", UrlIndexedList.canonicalize("https://example.com:443/"));
+        assertEquals("https://example.com:80/a", UrlIndexedList.canonicalize("https://example.com:80/a"));
+        assertEquals("http://example.com:8080", UrlIndexedList.canonicalize("http://example.com:8080/"));
+    }
+
+    @Test
+    public void urlsWithoutSchemeKeepNoScheme() {
+        assertEquals("example.com/path", UrlIndexedList.canonicalize("  Example.com/path/#top "));
+        // 不知道协议，默认端口也无从判断
+        assertEquals("example.com:443", UrlIndexedList.canonicalize("example.com:443/"));
+        // 加不加协议是两个不同的 key
+        assertNotEquals(UrlIndexedList.canonicalize("https://example.com"),
+                UrlIndexedList.canonicalize("example.com"));
+        assertEquals("", UrlIndexedList.canonicalize(null));
+        assertEquals("", UrlIndexedList.canonicalize("   "));
+    }
+
+    @Test
+    public void hostOfStripsCredentialsPortAndPath() {
+        assertEquals("sub.example.com", UrlIndexedList.hostOf("HTTPS://user:pw@Sub.Example.com:8443/x/"));
+        assertEquals("example.com", UrlIndexedList.hostOf("https://example.com?x=1"));
+        assertEquals("example.com", UrlIndexedList.hostOf("http://example.com:80#top"));
+        // 没有协议时不当作网址
+        assertEquals("", UrlIndexedList.hostOf("example.com/a"));
+        assertEquals("", UrlIndexedList.hostOf(null));
+    }
+
+    @Test
+    public void equivalentSpellingsFindTheSameEntry() {
+        UrlIndexedList<Bookmark> favorites = Bookmark.newIndexedList();
+        Bookmark saved = new Bookmark(null, "A", "https://example.com/a/", 1000);
+        favorites.add(saved);
+
+        for (String url : List.of("HTTPS://EXAMPLE.com/a", "https://example.com:443/a#top", "https://example.com/a//")) {
+            assertSame(url, saved, favorites.findByUrl(url));
+        }
+        assertNull(favorites.findByUrl("https://example.com/A"));
+        assertNull(favorites.findByUrl("http://example.com/a"));
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.browser;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 延迟合并的后台写入；owner 线程扮演主线程，数据只在它上面修改和取快照
+ */
+public class WriteBehindTest {
+
+    private static final long DEBOUNCE_MS = 100;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final ScheduledExecutorService owner = Executors.newSingleThreadScheduledExecutor();
+    private final TaskScheduler scheduler = new TaskScheduler();
+    private final List<Bookmark> favorites = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        owner.shutdownNow();
+        scheduler.shutdown();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void coalescesChangesWithinDebounceWindow() throws Exception {
+        File file = new File(tmp.getRoot(), "favorites.json");
+        WriteBehind<List<Bookmark>> writer = newWriter(snapshot ->
+                RecordFile.write(file, snapshot, Bookmark::toJson));
+
+        for (int i = 0; i < 100; i++) {
+            int index = i;
+            onOwner(() -> {
+                favorites.add(new Bookmark("Page " + index, "https://example.com/" + index));
+                writer.markDirty();
+                return null;
+            });
+        }
+        waitForWrites(writer, 1);
+        Thread.sleep(DEBOUNCE_MS * 2);
+
+        assertEquals(100, writer.marks());
+        assertEquals(1, writer.writes());
+        assertEquals(100, RecordFile.load(file, 0, 1000, Bookmark::fromJson, new CountingListener()));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void flushHandsOffWithoutWaitingForTheWrite() throws Exception {
+        File file = new File(tmp.getRoot(), "favorites.json");
+        WriteBehind<List<Bookmark>> writer = newWriter(snapshot ->
+                RecordFile.write(file, snapshot, Bookmark::toJson));
+        int entries = 100_000;
+        onOwner(() -> {
+            for (int i = 0; i < entries; i++) {
+                favorites.add(new Bookmark("Page " + i, "https://example.com/" + i));
+            }
+            writer.markDirty();
+            return null;
+        });
+
+        long flushNanos = onOwner(() -> {
+            long start = System.nanoTime();
+            writer.flush();
+            return System.nanoTime() - start;
+        });
+        long writeStart = System.nanoTime();
+        waitForWrites(writer, 1);
+        long writeNanos = System.nanoTime() - writeStart + flushNanos;
+
+        System.out.printf("%d favorites: flush on owner thread %.2f ms, background write %.1f ms%n",
+                entries, flushNanos / 1e6, writeNanos / 1e6);
+        assertFalse(writer.isDirty());
+        // 主线程上只复制列表引用，序列化和写盘都在后台
+        assertTrue("flush " + flushNanos / 1000 + "us, write " + writeNanos / 1000 + "us",
+                flushNanos * 10 < writeNanos);
+        assertEquals(entries, RecordFile.load(file, 0, 2000, Bookmark::fromJson, new CountingListener()));
+    }
+
+    @Test
+    public void changesDuringSlowWriteCollapseIntoOneMoreWrite() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<List<Bookmark>> written = new AtomicReference<>();
+        WriteBehind<List<Bookmark>> writer = newWriter(snapshot -> {
+            release.await(5, TimeUnit.SECONDS);
+            written.set(snapshot);
+        });
+
+        for (int i = 0; i < 10; i++) {
+            int index = i;
+            onOwner(() -> {
+                favorites.add(new Bookmark("Page " + index, "https://example.com/" + index));
+                writer.markDirty();
+                writer.flush();
+                return null;
+            });
+            // 让第一次写入先开始并卡住
+            if (i == 0) Thread.sleep(50);
+        }
+        release.countDown();
+
+        waitForWrites(writer, 2);
+        Thread.sleep(DEBOUNCE_MS * 2);
+        assertEquals(2, writer.writes());
+        assertEquals(10, written.get().size());
+    }
+
+    @Test
+    public void failedWriteIsCountedAndRetriedOnNextChange() throws Exception {
+        File dir = tmp.newFolder("missing");
+        File file = new File(dir, "favorites.json");
+        WriteBehind<List<Bookmark>> writer = newWriter(snapshot ->
+                RecordFile.write(file, snapshot, Bookmark::toJson));
+        assertTrue(dir.delete());
+
+        onOwner(() -> {
+            favorites.add(new Bookmark("Page", "https://example.com/"));
+            writer.markDirty();
+            writer.flush();
+            return null;
+        });
+        waitFor(() -> writer.failures() == 1);
+        assertNotNull(writer.lastError());
+
+        assertTrue(dir.mkdir());
+        onOwner(() -> {
+            writer.markDirty();
+            writer.flush();
+            return null;
+        });
+        waitForWrites(writer, 1);
+        assertNull(writer.lastError());
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void failedWriteIsRetriedWithoutFurtherChanges() throws Exception {
+        File dir = tmp.newFolder("missing");
+        File file = new File(dir, "favorites.json");
+        WriteBehind<List<Bookmark>> writer = newWriter(snapshot ->
+                RecordFile.write(file, snapshot, Bookmark::toJson));
+        assertTrue(dir.delete());
+
+        onOwner(() -> {
+            favorites.add(new Bookmark("Page", "https://example.com/"));
+            writer.markDirty();
+            writer.flush();
+            return null;
+        });
+        waitFor(() -> writer.failures() >= 1);
+        // 失败后仍然算有未写的变化，flush 会重写
+        assertTrue(onOwner(writer::isDirty));
+
+        // 没有新的变化，重试时写成功
+        assertTrue(dir.mkdir());
+        waitForWrites(writer, 1);
+        assertEquals(1, RecordFile.load(file, 0, 10, Bookmark::fromJson, new CountingListener()));
+        assertFalse(onOwner(writer::isDirty));
+    }
+
+    @Test
+    public void closeWritesOnceWithoutRetrying() throws Exception {
+        WriteBehind<List<Bookmark>> writer = newWriter(snapshot -> {
+            throw new IOException("disk full");
+        });
+        onOwner(() -> {
+            favorites.add(new Bookmark("Page", "https://example.com/"));
+            writer.markDirty();
+            writer.close();
+            return null;
+        });
+        waitFor(() -> writer.failures() == 1);
+        Thread.sleep(DEBOUNCE_MS * 3);
+        assertEquals(1, writer.failures());
+    }
+
+    private WriteBehind<List<Bookmark>> newWriter(WriteBehind.Persister<List<Bookmark>> persister) {
+        WriteBehind.Timer timer = new WriteBehind.Timer() {
+            // 写入失败时会在 writer 线程上 schedule
+            private final Map<Runnable, ScheduledFuture<?>> scheduled = new ConcurrentHashMap<>();
+
+            @Override
+            public void schedule(Runnable task, long delayMs) {
+                scheduled.put(task, owner.schedule(task, delayMs, TimeUnit.MILLISECONDS));
+            }
+
+            @Override
+            public void cancel(Runnable task) {
+                ScheduledFuture<?> future = scheduled.remove(task);
+                if (future != null) future.cancel(false);
+            }
+        };
+        return new WriteBehind<>(timer, DEBOUNCE_MS, () -> new ArrayList<>(favorites), persister,
+                task -> scheduler.executeSerial("favorites.json", task));
+    }
+
+    private <T> T onOwner(Callable<T> task) throws Exception {
+        return owner.submit(task).get(10, TimeUnit.SECONDS);
+    }
+
+    private static void waitForWrites(WriteBehind<?> writer, long count) throws InterruptedException {
+        waitFor(() -> writer.writes() >= count);
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static class CountingListener implements RecordFile.Listener<Bookmark> {
+        @Override
+        public void onNewest(List<Bookmark> items) {
+        }
+
+        @Override
+        public void onOlder(List<Bookmark> batch) {
+        }
+    }
+}
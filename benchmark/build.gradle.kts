@@ -0,0 +1,51 @@
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+// 不依赖 Android 的存储和同步代码直接从 app 编译，在普通 JVM 上跑基准
+// 运行：./gradlew :benchmark:jmh
+// 只跑部分基准：./gradlew :benchmark:jmh -PjmhIncludes=BookmarkResponse
+sourceSets {
+    main {
+        java {
+            setSrcDirs(listOf("../app/src/main/java"))
+            include(
+                "com/example/browser/Bookmark.java",
+                "com/example/browser/BookmarkMerge.java",
+                "com/example/browser/CloudSync.java",
+                "com/example/browser/HistoryItem.java",
+                "com/example/browser/JsonStreamReader.java",
+                "com/example/browser/OmniboxIndex.java",
+                "com/example/browser/RecordFile.java",
+                "com/example/browser/SyncApiClient.java",
+                "com/example/browser/UrlIndexedList.java"
+            )
+        }
+    }
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    // Android 自带 org.json，JVM 上要单独引入
+    implementation(libs.json)
+    implementation(libs.okhttp)
+}
+
+jmh {
+    jmhVersion = libs.versions.jmh.get()
+    findProperty("jmhIncludes")?.let { includes = listOf(it.toString()) }
+    // 每次操作的分配字节数和分配速率
+    profilers = listOf("gc")
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    // 最大的参数是 100 万条，堆固定下来，结果在不同机器上可比
+    jvmArgs = listOf("-Xms2g", "-Xmx2g")
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("reports/jmh/results.json")
+}
@@ -0,0 +1,83 @@
+package com.example.browser;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准用的固定数据，同样的 size 每次生成的内容相同
+ */
+final class BenchmarkData {
+
+    private static final String[] HOSTS = {
+            "example.com", "news.example.org", "docs.example.net", "shop.example.cn", "m.example.io"
+    };
+    private static final long BASE_TIME = 1_700_000_000_000L;
+
+    private BenchmarkData() {
+    }
+
+    static String url(int i) {
+        return "https://" + HOSTS[i % HOSTS.length] + "/articles/" + i + "?ref=bookmark";
+    }
+
+    static String title(int i) {
+        return "书签 " + i + " - Example page";
+    }
+
+    static List<HistoryItem> history(int size) {
+        List<HistoryItem> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(new HistoryItem(url(i), title(i), BASE_TIME + i));
+        }
+        return items;
+    }
+
+    static List<Bookmark> bookmarks(int size) {
+        List<Bookmark> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(new Bookmark(String.valueOf(i + 1), title(i), url(i), BASE_TIME + i));
+        }
+        return items;
+    }
+
+    /**
+     * GET /bookmarks 的响应体
+     */
+    static byte[] bookmarkListResponse(int size) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            writer.write("{\"code\":200,\"message\":\"ok\",\"data\":[");
+            writeBookmarks(writer, size);
+            writer.write("]}");
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * GET /bookmarks/changes 的全量响应体
+     */
+    static byte[] changesResponse(int size) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            writer.write("{\"code\":200,\"data\":{\"cursor\":\"" + size + "\",\"reset\":true,\"upserts\":[");
+            writeBookmarks(writer, size);
+            writer.write("],\"deleted\":[]}}");
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeBookmarks(Writer writer, int size) throws IOException {
+        for (int i = 0; i < size; i++) {
+            if (i > 0) writer.write(',');
+            writer.write("{\"id\":\"" + (i + 1) + "\",\"title\":" + JSONObject.quote(title(i))
+                    + ",\"url\":" + JSONObject.quote(url(i)) + ",\"createdAt\":" + (BASE_TIME + i) + "}");
+        }
+    }
+}
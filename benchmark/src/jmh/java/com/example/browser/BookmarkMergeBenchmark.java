@@ -0,0 +1,82 @@
+package com.example.browser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同步后把服务器快照合并进界面上的云书签列表，以及和收藏夹比较标题冲突
+ * 快照相对本地有 1% 修改、1% 删除、1% 新增，另有 100 条换了位置
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BookmarkMergeBenchmark {
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    private List<Bookmark> base;
+    private List<Bookmark> server;
+    private List<Bookmark> favorites;
+    private List<Bookmark> local;
+
+    @Setup(Level.Trial)
+    public void setUpSnapshots() {
+        base = BenchmarkData.bookmarks(size);
+        Random random = new Random(42);
+        server = new ArrayList<>(size + size / 100);
+        int added = 0;
+        for (Bookmark bookmark : base) {
+            int action = random.nextInt(100);
+            if (action == 0) continue;
+            server.add(action == 1 ? new Bookmark(bookmark.id, bookmark.title + " (改)", bookmark.url,
+                    bookmark.timestamp + 1) : new Bookmark(bookmark.id, bookmark.title, bookmark.url, bookmark.timestamp));
+            if (action == 2) {
+                server.add(new Bookmark("n" + added, "新书签 " + added, BenchmarkData.url(size + added),
+                        1_800_000_000_000L));
+                added++;
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            Collections.swap(server, random.nextInt(server.size()), random.nextInt(server.size()));
+        }
+
+        // 每 10 条收藏里有一条和云书签同网址，其中一半标题不同
+        favorites = new ArrayList<>(size / 10);
+        for (int i = 0; i < size; i += 10) {
+            favorites.add(new Bookmark(null, i % 20 == 0 ? BenchmarkData.title(i) + "!" : BenchmarkData.title(i),
+                    BenchmarkData.url(i), 1_750_000_000_000L));
+        }
+    }
+
+    /**
+     * 合并会改动列表，每次调用前重新复制一份；和合并本身相比复制很快
+     */
+    @Setup(Level.Invocation)
+    public void copyLocal() {
+        local = new ArrayList<>(base);
+    }
+
+    @Benchmark
+    public BookmarkMerge.Diff applySnapshot() {
+        return BookmarkMerge.apply(local, server, null);
+    }
+
+    @Benchmark
+    public List<BookmarkMerge.Conflict> resolveConflicts() {
+        return BookmarkMerge.resolveConflicts(favorites, base);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.browser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 云书签响应的流式解析：旧接口的完整列表和 changes 接口的全量响应
+ * 响应体提前生成在内存里，测的只是解析，不含网络
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BookmarkResponseBenchmark {
+
+    @Param({"100", "10000", "100000", "1000000"})
+    int size;
+
+    private byte[] listBody;
+    private byte[] changesBody;
+
+    @Setup
+    public void setUp() throws Exception {
+        listBody = BenchmarkData.bookmarkListResponse(size);
+        changesBody = BenchmarkData.changesResponse(size);
+    }
+
+    /**
+     * 每解码一条就交出去，不保留列表
+     */
+    @Benchmark
+    public long readBookmarkList(Blackhole bh) throws Exception {
+        return CloudSync.readBookmarkList(new ByteArrayInputStream(listBody), bh::consume);
+    }
+
+    /**
+     * changes 接口把 upserts 收集成列表返回
+     */
+    @Benchmark
+    public CloudSync.Result readChanges() throws Exception {
+        return CloudSync.readChanges(new ByteArrayInputStream(changesBody), true);
+    }
+}
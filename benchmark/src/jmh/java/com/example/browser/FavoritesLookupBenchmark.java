@@ -0,0 +1,84 @@
+package com.example.browser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 收藏夹按URL查找：添加收藏前判断是否已存在、分批加载时跳过重复项
+ * 查询的URL写法和保存时不同（大写主机名、末尾斜杠、片段），要先规范化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FavoritesLookupBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"100", "10000", "100000", "1000000"})
+    int size;
+
+    private UrlIndexedList<Bookmark> favorites;
+    private String[] hits;
+    private String[] misses;
+    private List<Bookmark> batch;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        favorites = Bookmark.newIndexedList();
+        favorites.addAll(BenchmarkData.bookmarks(size));
+
+        hits = new String[QUERIES];
+        misses = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            int n = (int) ((long) i * 7919 % size);
+            String url = BenchmarkData.url(n);
+            // 换一种等价写法，命中要靠规范化
+            int hostEnd = url.indexOf('/', "https://".length());
+            hits[i] = url.substring(0, hostEnd).toUpperCase(Locale.ROOT) + url.substring(hostEnd) + "#top";
+            misses[i] = BenchmarkData.url(size + i);
+        }
+
+        // 半数已存在的一批，和分批加载时新旧记录交错的情况相同
+        batch = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int n = i % 2 == 0 ? i % size : size + i;
+            batch.add(new Bookmark(String.valueOf(n), BenchmarkData.title(n), BenchmarkData.url(n), n));
+        }
+    }
+
+    @Benchmark
+    public Bookmark findHit() {
+        return favorites.findByUrl(hits[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public boolean containsMiss() {
+        return favorites.containsUrl(misses[next++ & (QUERIES - 1)]);
+    }
+
+    /**
+     * 只统计 2000 条里有多少条需要插入，不修改列表
+     */
+    @Benchmark
+    public int countMissingInBatch() {
+        int missing = 0;
+        for (Bookmark bookmark : batch) {
+            if (!favorites.containsUrl(bookmark.url)) {
+                missing++;
+            }
+        }
+        return missing;
+    }
+}
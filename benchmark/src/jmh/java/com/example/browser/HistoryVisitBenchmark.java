@@ -0,0 +1,82 @@
+package com.example.browser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * onPageFinished 里记录一次访问时的去重：按规范化URL合并到已有条目或新建条目
+ * 数据库那一侧是 SQLite，不在 JVM 上测；这里测的是同一次访问写入联想索引的开销
+ * 每次迭代重新建索引，新URL的测试不会让索引越测越大
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistoryVisitBenchmark {
+
+    @Param({"100", "10000", "100000", "1000000"})
+    int size;
+
+    private OmniboxIndex index;
+    private String[] known;
+    private int next;
+    private int fresh;
+
+    @Setup(Level.Trial)
+    public void setUpUrls() {
+        known = new String[size];
+        for (int i = 0; i < size; i++) {
+            known[i] = BenchmarkData.url(i);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIndex() {
+        index = new OmniboxIndex();
+        for (int i = 0; i < size; i++) {
+            index.add(known[i], BenchmarkData.title(i), 1_700_000_000_000L + i, 1 + i % 7, false);
+        }
+        next = 0;
+        fresh = size;
+    }
+
+    /**
+     * 重复访问已有的网页，只累加次数和更新时间
+     */
+    @Benchmark
+    public int revisitKnownUrl() {
+        String url = known[next];
+        next = (next + 7919) % size;
+        index.recordVisit(url, null, System.currentTimeMillis());
+        return index.size();
+    }
+
+    /**
+     * 访问新网页，新建条目并把URL和标题里的词加入倒排索引
+     */
+    @Benchmark
+    public int visitNewUrl() {
+        int i = fresh++;
+        index.recordVisit(BenchmarkData.url(i), BenchmarkData.title(i), System.currentTimeMillis());
+        return index.size();
+    }
+
+    /**
+     * 访问之后立刻在地址栏里输入，联想查询要合并还没并入的新词
+     */
+    @Benchmark
+    public void visitThenQuery(Blackhole bh) {
+        int i = fresh++;
+        index.recordVisit(BenchmarkData.url(i), BenchmarkData.title(i), System.currentTimeMillis());
+        bh.consume(index.query("articles " + (i % 100), 8, () -> false));
+    }
+}
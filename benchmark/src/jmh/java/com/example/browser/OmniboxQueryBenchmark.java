@@ -0,0 +1,66 @@
+package com.example.browser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 地址栏逐字输入时的联想查询，取前 10 条
+ * 短前缀命中大部分条目，走按 rank 扫描的路径；访问过一批网页之后第一次查询要重新排 rank
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OmniboxQueryBenchmark {
+
+    private static final String[] TYPED = {"e", "ex", "exa", "example", "n", "ne", "news", "a", "ar", "articles 7"};
+    // 比索引里触发重新排序的条数多一点
+    private static final int REVISITS = 1100;
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    private OmniboxIndex index;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        index = new OmniboxIndex();
+        for (int i = 0; i < size; i++) {
+            index.add(BenchmarkData.url(i), BenchmarkData.title(i), 1_700_000_000_000L + i, 1 + i % 7, false);
+        }
+        // 先查一次，把新词并入有序数组、把 rank 排好
+        index.query("e", 10, () -> false);
+        next = 0;
+    }
+
+    /**
+     * 依次输入不同长度的前缀
+     */
+    @Benchmark
+    public void typePrefix(Blackhole bh) {
+        bh.consume(index.query(TYPED[next++ % TYPED.length], 10, () -> false));
+    }
+
+    /**
+     * 重新访问一批已有网页后输入，查询里要把 rank 变过的条目归并回去
+     */
+    @Benchmark
+    public void queryAfterVisits(Blackhole bh) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < REVISITS; i++) {
+            index.recordVisit(BenchmarkData.url(next), null, now);
+            next = (next + 7919) % size;
+        }
+        bh.consume(index.query("e", 10, () -> false));
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.browser;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HistoryItem 和 Bookmark 的JSON编解码，以及收藏夹文件的整体写入和分批加载
+ * 每次操作处理 size 条记录
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecordCodecBenchmark {
+
+    @Param({"100", "10000", "100000", "1000000"})
+    int size;
+
+    private List<HistoryItem> history;
+    private List<Bookmark> bookmarks;
+    private String[] historyLines;
+    private String[] bookmarkLines;
+    private File dir;
+    private File favoritesFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        history = BenchmarkData.history(size);
+        bookmarks = BenchmarkData.bookmarks(size);
+        historyLines = new String[size];
+        bookmarkLines = new String[size];
+        for (int i = 0; i < size; i++) {
+            historyLines[i] = history.get(i).toJson().toString();
+            bookmarkLines[i] = bookmarks.get(i).toJson().toString();
+        }
+        dir = Files.createTempDirectory("record-codec").toFile();
+        favoritesFile = new File(dir, "browser_favorites.json");
+        RecordFile.write(favoritesFile, bookmarks, Bookmark::toJson);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void encodeHistory(Blackhole bh) throws Exception {
+        for (HistoryItem item : history) {
+            bh.consume(item.toJson().toString());
+        }
+    }
+
+    @Benchmark
+    public void decodeHistory(Blackhole bh) throws Exception {
+        for (String line : historyLines) {
+            bh.consume(HistoryItem.fromJson(new JSONObject(line)));
+        }
+    }
+
+    @Benchmark
+    public void encodeBookmarks(Blackhole bh) throws Exception {
+        for (Bookmark bookmark : bookmarks) {
+            bh.consume(bookmark.toJson().toString());
+        }
+    }
+
+    @Benchmark
+    public void decodeBookmarks(Blackhole bh) throws Exception {
+        for (String line : bookmarkLines) {
+            bh.consume(Bookmark.fromJson(new JSONObject(line)));
+        }
+    }
+
+    /**
+     * 写临时文件、fsync、原子替换，和保存收藏夹走同一条路径
+     */
+    @Benchmark
+    public void writeFavoritesFile() throws Exception {
+        RecordFile.write(new File(dir, "write.json"), bookmarks, Bookmark::toJson);
+    }
+
+    /**
+     * 先读尾部最新的 200 条，再按 2000 条一批读出其余记录，和启动时加载收藏夹相同
+     */
+    @Benchmark
+    public int loadFavoritesFile(Blackhole bh) throws Exception {
+        return RecordFile.load(favoritesFile, 200, 2000, Bookmark::fromJson,
+                new RecordFile.Listener<Bookmark>() {
+                    @Override
+                    public void onNewest(List<Bookmark> items) {
+                        bh.consume(items);
+                    }
+
+                    @Override
+                    public void onOlder(List<Bookmark> batch) {
+                        bh.consume(batch);
+                    }
+                });
+    }
+}
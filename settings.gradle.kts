@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "browser"
 include(":app")
+include(":benchmark")